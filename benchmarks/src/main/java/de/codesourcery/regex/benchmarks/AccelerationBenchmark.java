@@ -0,0 +1,87 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex.benchmarks;
+
+import de.codesourcery.regex.LexerBuilder;
+import de.codesourcery.regex.LexerTables;
+import de.codesourcery.regex.Scanner;
+import de.codesourcery.regex.TableDrivenLexer;
+import de.codesourcery.regex.Token;
+import de.codesourcery.regex.TokenType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lexes 1 MB of input with and without accelerating states that loop on a few intervals of characters
+ * ({@link LexerBuilder.Configuration#accelerateLoops}).
+ *
+ * <code>LITERALS</code> consists of long string literals and comments, <code>SOURCE</code> of short tokens.
+ * Run with <code>-jvmArgs --add-modules=jdk.incubator.vector</code> to skip runs using the vector API.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AccelerationBenchmark
+{
+    @Param({"LITERALS", "SOURCE"})
+    public Grammars.Kind corpus;
+
+    @Param({"false", "true"})
+    public boolean accelerateLoops;
+
+    private String input;
+    private LexerTables tables;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException
+    {
+        input = Corpora.generate( corpus, 1_000_000 );
+        final LexerBuilder.Configuration config = Grammars.get( corpus );
+        config.accelerateLoops = accelerateLoops;
+        tables = new LexerBuilder().buildTables( config );
+    }
+
+    @Benchmark
+    public int tableDrivenLexer()
+    {
+        final TableDrivenLexer lexer = new TableDrivenLexer( tables, new Scanner( input ) );
+        int count = 0;
+        for ( Token token = lexer.next() ; ! token.hasType( TokenType.EOF ) ; token = lexer.next() )
+        {
+            if ( token.hasType( TokenType.TEXT ) ) {
+                throw new IllegalStateException( "Unmatched input at offset "+token.offset );
+            }
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex.benchmarks;
+
+import de.codesourcery.regex.CharSearch;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link CharSearch#indexOfNone(char[], int, int, char[])} with and without the
+ * <code>jdk.incubator.vector</code> module, skipping a run of blanks of varying length.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Thread)
+public class CharSearchBenchmark
+{
+    private static final char[] BLANKS = { ' ', '\t' };
+
+    @Param({"4", "64", "4096"})
+    public int runLength;
+
+    private char[] text;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        text = new char[ runLength + 1 ];
+        Arrays.fill( text, ' ' );
+        text[ runLength ] = 'x';
+    }
+
+    @Benchmark
+    @Fork(1)
+    public int scalar()
+    {
+        return CharSearch.indexOfNone( text, 0, text.length, BLANKS );
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+    public int vector()
+    {
+        return CharSearch.indexOfNone( text, 0, text.length, BLANKS );
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex.benchmarks;
+
+import de.codesourcery.regex.LexerBuilder;
+import de.codesourcery.regex.LexerTables;
+import de.codesourcery.regex.NFAConstruction;
+import de.codesourcery.regex.StateMachine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Measures the individual compilation phases for grammars of increasing size,
+ * building the NFA with either of the {@link NFAConstruction}s.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CompileBenchmark
+{
+    @Param({"4", "16", "64"})
+    public int grammarSize;
+
+    @Param({"THOMPSON", "GLUSHKOV"})
+    public NFAConstruction construction;
+
+    private LexerBuilder.Configuration config;
+    private String configText;
+
+    // fresh machines for benchmarks that modify them
+    private StateMachine nfa;
+    private StateMachine simplifiedNfa;
+
+    @Setup(Level.Trial)
+    public void setupTrial()
+    {
+        config = Grammars.synthetic( grammarSize );
+        config.nfaConstruction = construction;
+        configText = config.rules.stream().map( r -> r.ruleName+"="+r.regex ).collect( Collectors.joining( "\n" ) );
+    }
+
+    @Setup(Level.Invocation)
+    public void setupInvocation() throws IOException
+    {
+        nfa = new LexerBuilder().buildStateMachine( config );
+        simplifiedNfa = new LexerBuilder().buildStateMachine( config );
+        simplifiedNfa.simplify();
+    }
+
+    @Benchmark
+    public StateMachine parse() throws IOException
+    {
+        return new LexerBuilder().buildStateMachine( config );
+    }
+
+    @Benchmark
+    public StateMachine simplify()
+    {
+        nfa.simplify();
+        return nfa;
+    }
+
+    @Benchmark
+    public StateMachine toDFA()
+    {
+        simplifiedNfa.toDFA( state -> {}, LexerBuilder.getAmbiguousRulesResolver( config ) );
+        return simplifiedNfa;
+    }
+
+    @Benchmark
+    public LexerTables buildTables() throws IOException
+    {
+        return new LexerBuilder().buildTables( config );
+    }
+
+    @Benchmark
+    public String generateSource() throws IOException
+    {
+        return new LexerBuilder().build( new ByteArrayInputStream( configText.getBytes( StandardCharsets.UTF_8 ) ) );
+    }
+
+    @Benchmark
+    public Pattern javaRegexCompile()
+    {
+        return Grammars.toJavaPattern( config );
+    }
+}
@@ -0,0 +1,271 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex.benchmarks;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.IntFunction;
+
+/**
+ * Generates deterministic input texts for the benchmarks.
+ *
+ * All generators use a fixed seed so that every run (and every JMH fork) lexes exactly the same input.
+ */
+public final class Corpora
+{
+    private static final long SEED = 0xdeadbeefL;
+
+    private static final String[] IDENTIFIERS = { "count", "total", "values", "index", "buffer", "result", "node", "i", "j", "size", "offset", "value" };
+    private static final String[] LOGGERS = { "de.codesourcery.regex.Lexer", "org.example.Server", "org.example.db.ConnectionPool", "main" };
+    private static final String[] WORDS = { "request", "completed", "in", "user", "connected", "from", "cache", "miss", "for", "key", "retrying", "timeout" };
+
+    private Corpora() {
+    }
+
+    /**
+     * Generates input matching a {@link Grammars grammar}.
+     *
+     * @param kind
+     * @param length minimum length of the generated text
+     * @return
+     */
+    public static String generate(Grammars.Kind kind, int length)
+    {
+        switch( kind ) {
+            case SOURCE:    return sourceCode( length );
+            case LOG:       return logFile( length );
+            case CSV:       return csv( length );
+            case SYNTHETIC: return synthetic( 16, length );
+            case LITERALS:  return literals( length );
+            default:
+                throw new IllegalArgumentException( "Unhandled kind: "+kind );
+        }
+    }
+
+    public static String sourceCode(int length)
+    {
+        final Random rnd = new Random( SEED );
+        final StringBuilder result = new StringBuilder( length + 100 );
+        int indent = 0;
+        while ( result.length() < length )
+        {
+            result.append( "    ".repeat( indent ) );
+            final String a = pick( rnd, IDENTIFIERS );
+            final String b = pick( rnd, IDENTIFIERS );
+            switch( rnd.nextInt( 8 ) )
+            {
+                case 0:
+                    result.append( "for ( int " ).append( a ).append( " = 0 ; " ).append( a ).append( " < " ).append( b ).append( ".size() ; " )
+                        .append( a ).append( " = " ).append( a ).append( " + 1 ) {" );
+                    indent++;
+                    break;
+                case 1:
+                    result.append( "if ( " ).append( a ).append( " >= " ).append( rnd.nextInt( 1000 ) ).append( " ) {" );
+                    indent++;
+                    break;
+                case 2:
+                    if ( indent > 0 ) {
+                        indent--;
+                        result.setLength( result.length() - 4 );
+                    }
+                    result.append( "}" );
+                    break;
+                case 3:
+                    result.append( "return " ).append( a ).append( " * " ).append( rnd.nextInt( 100 ) ).append( "." ).append( rnd.nextInt( 100 ) ).append( ";" );
+                    break;
+                case 4:
+                    result.append( "System.out.println( \"" ).append( a ).append( "=\" + " ).append( a ).append( " );" );
+                    break;
+                default:
+                    result.append( a ).append( " = " ).append( b ).append( ".get( " ).append( a ).append( ", " ).append( rnd.nextInt( 64 ) ).append( " ) - 1;" );
+            }
+            result.append( '\n' );
+        }
+        return result.toString();
+    }
+
+    public static String logFile(int length)
+    {
+        final Random rnd = new Random( SEED );
+        final StringBuilder result = new StringBuilder( length + 200 );
+        while ( result.length() < length )
+        {
+            result.append( "2024-" ).append( twoDigits( 1 + rnd.nextInt( 12 ) ) ).append( '-' ).append( twoDigits( 1 + rnd.nextInt( 28 ) ) ).append( ' ' )
+                .append( twoDigits( rnd.nextInt( 24 ) ) ).append( ':' ).append( twoDigits( rnd.nextInt( 60 ) ) ).append( ':' ).append( twoDigits( rnd.nextInt( 60 ) ) )
+                .append( '.' ).append( rnd.nextInt( 10 ) ).append( twoDigits( rnd.nextInt( 100 ) ) )
+                .append( " [" ).append( "thread-" ).append( rnd.nextInt( 16 ) ).append( "] " )
+                .append( pick( rnd, Grammars.LOG_LEVELS.toArray( new String[0] ) ) ).append( ' ' )
+                .append( pick( rnd, LOGGERS ) ).append( " - " );
+            final int words = 3 + rnd.nextInt( 8 );
+            for ( int i = 0 ; i < words ; i++ ) {
+                result.append( pick( rnd, WORDS ) ).append( ' ' );
+            }
+            result.append( "duration=" ).append( rnd.nextInt( 5000 ) ).append( '\n' );
+        }
+        return result.toString();
+    }
+
+    public static String csv(int length)
+    {
+        final Random rnd = new Random( SEED );
+        final StringBuilder result = new StringBuilder( length + 200 );
+        result.append( "id,name,email,amount,comment\n" );
+        while ( result.length() < length )
+        {
+            final String name = pick( rnd, IDENTIFIERS );
+            result.append( rnd.nextInt( 1_000_000 ) ).append( ',' )
+                .append( name ).append( ',' )
+                .append( name ).append( '@' ).append( "example.com" ).append( ',' )
+                .append( rnd.nextInt( 2000 ) - 1000 ).append( '.' ).append( twoDigits( rnd.nextInt( 100 ) ) ).append( ',' )
+                .append( '"' ).append( pick( rnd, WORDS ) ).append( ';' ).append( pick( rnd, WORDS ) ).append( '"' ).append( '\n' );
+        }
+        return result.toString();
+    }
+
+    /**
+     * Generates input for the {@link Grammars#literals() literals grammar}: lines assigning base64 data
+     * or a URL to a variable, followed by a comment. Blanks always end a token, so literals and comments
+     * contain none.
+     *
+     * @param length minimum length of the generated text
+     * @return
+     */
+    public static String literals(int length)
+    {
+        final Random rnd = new Random( SEED );
+        final String base64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        final StringBuilder result = new StringBuilder( length + 300 );
+        while ( result.length() < length )
+        {
+            result.append( pick( rnd, IDENTIFIERS ) ).append( " = \"" );
+            if ( rnd.nextBoolean() )
+            {
+                for ( int i = 40 + rnd.nextInt( 160 ) ; i > 0 ; i-- ) {
+                    result.append( base64.charAt( rnd.nextInt( base64.length() ) ) );
+                }
+            }
+            else
+            {
+                result.append( "https://example.com/" ).append( pick( rnd, LOGGERS ).replace( '.', '/' ) ).append( "?key=" ).append( pick( rnd, WORDS ) );
+            }
+            result.append( "\"; #" );
+            for ( int i = 2 + rnd.nextInt( 8 ) ; i > 0 ; i-- ) {
+                result.append( pick( rnd, WORDS ) ).append( '_' );
+            }
+            result.append( '\n' );
+        }
+        return result.toString();
+    }
+
+    /**
+     * Generates input for the {@link Grammars#synthetic(int) synthetic grammar}.
+     *
+     * @param ruleCount number of rules in the grammar
+     * @param length minimum length of the generated text
+     * @return
+     */
+    public static String synthetic(int ruleCount, int length)
+    {
+        final Random rnd = new Random( SEED );
+        final StringBuilder result = new StringBuilder( length + 20 );
+        while ( result.length() < length )
+        {
+            switch( rnd.nextInt( 3 ) )
+            {
+                case 0:
+                    result.append( Grammars.syntheticPrefix( rnd.nextInt( ruleCount ) ) ).append( rnd.nextInt( 100_000 ) );
+                    break;
+                case 1:
+                    result.append( identifier( rnd ) );
+                    break;
+                default:
+                    result.append( rnd.nextInt( 100_000 ) );
+            }
+            result.append( ' ' );
+        }
+        return result.toString();
+    }
+
+    /**
+     * Generates input for a synthetic grammar ({@link Grammars#synthetic(int)}, {@link Grammars#wideSynthetic(int)})
+     * where rule <code>i</code> is used with a frequency proportional to <code>1/(i+1)</code> (Zipf's law),
+     * like keywords and identifiers in real text.
+     *
+     * @param ruleCount number of rules in the grammar
+     * @param length minimum length of the generated text
+     * @param prefixes literal prefix per rule index
+     * @return
+     */
+    public static String skewedSynthetic(int ruleCount, int length, IntFunction<String> prefixes)
+    {
+        final double[] cumulative = new double[ ruleCount ];
+        double sum = 0;
+        for ( int i = 0 ; i < ruleCount ; i++ )
+        {
+            sum += 1.0 / ( i + 1 );
+            cumulative[i] = sum;
+        }
+        final Random rnd = new Random( SEED );
+        final StringBuilder result = new StringBuilder( length + 20 );
+        while ( result.length() < length )
+        {
+            int rule = Arrays.binarySearch( cumulative, rnd.nextDouble() * sum );
+            rule = rule < 0 ? Math.min( -rule - 1, ruleCount - 1 ) : rule;
+            result.append( prefixes.apply( rule ) ).append( rnd.nextInt( 100_000 ) ).append( ' ' );
+        }
+        return result.toString();
+    }
+
+    /**
+     * Generates lower-case identifiers and numbers separated by blanks.
+     *
+     * @param length minimum length of the generated text
+     * @return
+     */
+    public static String identifiersAndNumbers(int length)
+    {
+        final Random rnd = new Random( SEED );
+        final StringBuilder result = new StringBuilder( length + 20 );
+        while ( result.length() < length )
+        {
+            if ( rnd.nextBoolean() ) {
+                result.append( identifier( rnd ) );
+            } else {
+                result.append( rnd.nextInt( 100_000 ) );
+            }
+            result.append( ' ' );
+        }
+        return result.toString();
+    }
+
+    private static String identifier(Random rnd)
+    {
+        final int len = 1 + rnd.nextInt( 10 );
+        final StringBuilder result = new StringBuilder( len );
+        for ( int i = 0 ; i < len ; i++ ) {
+            result.append( (char) ( 'a' + rnd.nextInt( 26 ) ) );
+        }
+        return result.toString();
+    }
+
+    private static String twoDigits(int value) {
+        return value < 10 ? "0"+value : Integer.toString( value );
+    }
+
+    private static String pick(Random rnd, String[] values) {
+        return values[ rnd.nextInt( values.length ) ];
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex.benchmarks;
+
+import de.codesourcery.regex.Lexer;
+import de.codesourcery.regex.Scanner;
+import de.codesourcery.regex.Token;
+import de.codesourcery.regex.TokenType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures throughput of the generated {@link Lexer} on identifiers and numbers,
+ * the only input its built-in tables understand.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GeneratedLexerBenchmark
+{
+    @Param({"10000", "1000000"})
+    public int inputLength;
+
+    private String input;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        input = Corpora.identifiersAndNumbers( inputLength );
+    }
+
+    @Benchmark
+    public int generatedLexer(LexerBenchmark.Counters counters)
+    {
+        final Lexer lexer = new Lexer( new Scanner( input ) );
+        int count = 0;
+        for ( Token token = lexer.next() ; ! token.hasType( TokenType.EOF ) ; token = lexer.next() ) {
+            count++;
+        }
+        counters.tokens += count;
+        counters.characters += input.length();
+        return count;
+    }
+}
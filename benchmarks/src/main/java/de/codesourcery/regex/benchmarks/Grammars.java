@@ -0,0 +1,237 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex.benchmarks;
+
+import de.codesourcery.regex.LexerBuilder;
+
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Lexer grammars used by the benchmarks.
+ */
+public final class Grammars
+{
+    public enum Kind
+    {
+        SOURCE,
+        LOG,
+        CSV,
+        SYNTHETIC,
+        LITERALS
+    }
+
+    public static final List<String> JAVA_KEYWORDS = List.of( "if", "else", "for", "while", "return", "class", "public", "private", "static", "void", "int", "new" );
+
+    public static final List<String> LOG_LEVELS = List.of( "TRACE", "DEBUG", "INFO", "WARN", "ERROR" );
+
+    private Grammars() {
+    }
+
+    public static LexerBuilder.Configuration get(Kind kind)
+    {
+        switch( kind ) {
+            case SOURCE:    return sourceCode();
+            case LOG:       return logFile();
+            case CSV:       return csv();
+            case SYNTHETIC: return synthetic( 16 );
+            case LITERALS:  return literals();
+            default:
+                throw new IllegalArgumentException( "Unhandled kind: "+kind );
+        }
+    }
+
+    /**
+     * Grammar for Java-like source code.
+     *
+     * @return
+     */
+    public static LexerBuilder.Configuration sourceCode()
+    {
+        final LexerBuilder.Configuration config = new LexerBuilder.Configuration( false );
+        for ( String keyword : JAVA_KEYWORDS ) {
+            config.addRule( keyword.toUpperCase(), keyword, keyword.toUpperCase() );
+        }
+        config.addRule( "IDENTIFIER", "[a-zA-Z_][a-zA-Z0-9_]*", "IDENTIFIER" );
+        config.addRule( "NUMBER", "[0-9]+(\\.[0-9]+)?", "NUMBER" );
+        config.addRule( "STRING", "\"[a-zA-Z0-9_.,;:=+*/<>()]*\"", "STRING" );
+        config.addRule( "LPAREN", "\\(", "LPAREN" );
+        config.addRule( "RPAREN", "\\)", "RPAREN" );
+        config.addRule( "LBRACE", "{", "LBRACE" );
+        config.addRule( "RBRACE", "}", "RBRACE" );
+        config.addRule( "SEMICOLON", ";", "SEMICOLON" );
+        config.addRule( "COMMA", ",", "COMMA" );
+        config.addRule( "DOT", "\\.", "DOT" );
+        config.addRule( "EQ", "==", "EQ" );
+        config.addRule( "ASSIGN", "=", "ASSIGN" );
+        config.addRule( "PLUS", "\\+", "PLUS" );
+        config.addRule( "MINUS", "-", "MINUS" );
+        config.addRule( "TIMES", "\\*", "TIMES" );
+        config.addRule( "LE", "<=", "LE" );
+        config.addRule( "LT", "<", "LT" );
+        config.addRule( "GE", ">=", "GE" );
+        config.addRule( "GT", ">", "GT" );
+        config.addRule( "NEWLINE", "\n", "NEWLINE" );
+        return config;
+    }
+
+    /**
+     * Grammar for log files.
+     *
+     * @return
+     */
+    public static LexerBuilder.Configuration logFile()
+    {
+        final LexerBuilder.Configuration config = new LexerBuilder.Configuration( false );
+        for ( String level : LOG_LEVELS ) {
+            config.addRule( level, level, level );
+        }
+        config.addRule( "DATE", "[0-9][0-9][0-9][0-9]-[0-9][0-9]-[0-9][0-9]", "DATE" );
+        config.addRule( "TIME", "[0-9][0-9]:[0-9][0-9]:[0-9][0-9]\\.[0-9][0-9][0-9]", "TIME" );
+        config.addRule( "WORD", "[a-zA-Z_][a-zA-Z0-9_.]*", "WORD" );
+        config.addRule( "NUMBER", "[0-9]+", "NUMBER" );
+        config.addRule( "LBRACKET", "\\[", "LBRACKET" );
+        config.addRule( "RBRACKET", "\\]", "RBRACKET" );
+        config.addRule( "DASH", "-", "DASH" );
+        config.addRule( "COLON", ":", "COLON" );
+        config.addRule( "EQUALS", "=", "EQUALS" );
+        config.addRule( "NEWLINE", "\n", "NEWLINE" );
+        return config;
+    }
+
+    /**
+     * Grammar for CSV files.
+     *
+     * @return
+     */
+    public static LexerBuilder.Configuration csv()
+    {
+        final LexerBuilder.Configuration config = new LexerBuilder.Configuration( false );
+        config.addRule( "NUMBER", "-?[0-9]+(\\.[0-9]+)?", "NUMBER" );
+        config.addRule( "FIELD", "[a-zA-Z_][a-zA-Z0-9_.@]*", "FIELD" );
+        config.addRule( "QUOTED", "\"[a-zA-Z0-9_.,;@]*\"", "QUOTED" );
+        config.addRule( "COMMA", ",", "COMMA" );
+        config.addRule( "NEWLINE", "\n", "NEWLINE" );
+        return config;
+    }
+
+    /**
+     * Grammar for assignments of long string literals with trailing comments.
+     *
+     * @return
+     */
+    public static LexerBuilder.Configuration literals()
+    {
+        final LexerBuilder.Configuration config = new LexerBuilder.Configuration( false );
+        config.addRule( "IDENTIFIER", "[a-zA-Z_][a-zA-Z0-9_]*", "IDENTIFIER" );
+        config.addRule( "STRING", "\"[^\"\\n]*\"", "STRING" );
+        config.addRule( "COMMENT", "#[^\\n]*", "COMMENT" );
+        config.addRule( "ASSIGN", "=", "ASSIGN" );
+        config.addRule( "SEMICOLON", ";", "SEMICOLON" );
+        config.addRule( "NEWLINE", "\n", "NEWLINE" );
+        return config;
+    }
+
+    /**
+     * Synthetic grammar with a given number of rules of the form <code>prefix[0-9]+</code>,
+     * plus identifiers and numbers.
+     *
+     * @param ruleCount
+     * @return
+     */
+    public static LexerBuilder.Configuration synthetic(int ruleCount)
+    {
+        final LexerBuilder.Configuration config = new LexerBuilder.Configuration( false );
+        for ( int i = 0 ; i < ruleCount ; i++ ) {
+            config.addRule( "RULE"+i, syntheticPrefix( i )+"[0-9]+", "RULE"+i );
+        }
+        config.addRule( "IDENTIFIER", "[a-z]+", "IDENTIFIER" );
+        config.addRule( "NUMBER", "[0-9]+", "NUMBER" );
+        return config;
+    }
+
+    /**
+     * Returns the literal prefix of a rule of the {@link #synthetic(int) synthetic grammar}.
+     *
+     * @param ruleIdx
+     * @return
+     */
+    public static String syntheticPrefix(int ruleIdx)
+    {
+        final StringBuilder result = new StringBuilder("k");
+        int value = ruleIdx;
+        do
+        {
+            result.append( (char) ('a' + value % 26) );
+            value /= 26;
+        } while ( value > 0 );
+        return result.toString();
+    }
+
+    /**
+     * Synthetic grammar like {@link #synthetic(int)} whose rules start with distinct characters
+     * (see {@link #widePrefix(int)}), so every rule adds a column to the transition map and the
+     * uncompressed tables grow with the square of the number of rules.
+     *
+     * @param ruleCount number of rules, at most 4096
+     * @return
+     */
+    public static LexerBuilder.Configuration wideSynthetic(int ruleCount)
+    {
+        if ( ruleCount > 4096 ) {
+            throw new IllegalArgumentException( "At most 4096 rules are supported" );
+        }
+        final LexerBuilder.Configuration config = new LexerBuilder.Configuration( false );
+        for ( int i = 0 ; i < ruleCount ; i++ ) {
+            config.addRule( "RULE"+i, widePrefix( i )+"[0-9]+", "RULE"+i );
+        }
+        config.addRule( "IDENTIFIER", "[a-z]+", "IDENTIFIER" );
+        config.addRule( "NUMBER", "[0-9]+", "NUMBER" );
+        return config;
+    }
+
+    /**
+     * Returns the literal prefix of a rule of the {@link #wideSynthetic(int) wide synthetic grammar}.
+     *
+     * @param ruleIdx
+     * @return
+     */
+    public static String widePrefix(int ruleIdx)
+    {
+        return "k" + (char) ( '\u0100' + ruleIdx );
+    }
+
+    /**
+     * Turns a grammar into a <code>java.util.regex</code> pattern that matches one token (or a run of whitespace)
+     * when used with {@link java.util.regex.Matcher#lookingAt()}.
+     *
+     * Note that <code>java.util.regex</code> picks the first matching alternative instead of the longest match,
+     * so rules are ordered by descending length of their regex which gives the same tokens for all
+     * grammars used here.
+     *
+     * @param config
+     * @return
+     */
+    public static Pattern toJavaPattern(LexerBuilder.Configuration config)
+    {
+        final String alternatives = config.rules.stream()
+            .sorted( (a,b) -> Integer.compare( b.regex.length(), a.regex.length() ) )
+            .map( rule -> "(?:"+rule.regex.replace( "{", "\\{" ).replace( "}", "\\}" )+")" )
+            .collect( Collectors.joining( "|" ) );
+        return Pattern.compile( "[ \t]+|"+alternatives );
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex.benchmarks;
+
+import de.codesourcery.regex.LexerBuilder;
+import de.codesourcery.regex.LexerTables;
+import de.codesourcery.regex.Scanner;
+import de.codesourcery.regex.TableDrivenLexer;
+import de.codesourcery.regex.Token;
+import de.codesourcery.regex.TokenType;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Measures lexer throughput on different kinds of input.
+ *
+ * Besides the number of complete inputs lexed per second, the <code>tokens</code> and <code>characters</code>
+ * counters report tokens/s and characters/s.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LexerBenchmark
+{
+    @Param({"SOURCE", "LOG", "CSV", "SYNTHETIC", "LITERALS"})
+    public Grammars.Kind corpus;
+
+    @Param({"10000", "1000000"})
+    public int inputLength;
+
+    @Param({"false", "true"})
+    public boolean compressTables;
+
+    private String input;
+    private LexerTables tables;
+    private Pattern pattern;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Counters
+    {
+        public long tokens;
+        public long characters;
+
+        @Setup(Level.Iteration)
+        public void reset()
+        {
+            tokens = 0;
+            characters = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException
+    {
+        final LexerBuilder.Configuration config = Grammars.get( corpus );
+        config.compressTables = compressTables;
+        input = Corpora.generate( corpus, inputLength );
+        tables = new LexerBuilder().buildTables( config );
+        pattern = Grammars.toJavaPattern( config );
+
+        final int tokens = tableDrivenLexer( new Counters() );
+        final int javaTokens = javaRegexTokenizer( new Counters() );
+        if ( tokens != javaTokens ) {
+            throw new IllegalStateException( "Lexers disagree on "+corpus+" input, got "+tokens+" tokens but java.util.regex found "+javaTokens );
+        }
+    }
+
+    @Benchmark
+    public int tableDrivenLexer(Counters counters)
+    {
+        final TableDrivenLexer lexer = new TableDrivenLexer( tables, new Scanner( input ) );
+        lexer.setSkipWhitespace( false );
+        int count = 0;
+        for ( Token token = lexer.next() ; ! token.hasType( TokenType.EOF ) ; token = lexer.next() )
+        {
+            if ( token.hasType( TokenType.TEXT ) ) {
+                throw new IllegalStateException( "Unmatched input at offset "+token.offset );
+            }
+            count++;
+        }
+        counters.tokens += count;
+        counters.characters += input.length();
+        return count;
+    }
+
+    @Benchmark
+    public int javaRegexTokenizer(Counters counters)
+    {
+        final Matcher matcher = pattern.matcher( input );
+        int count = 0;
+        int offset = 0;
+        final int len = input.length();
+        while ( offset < len )
+        {
+            matcher.region( offset, len );
+            if ( ! matcher.lookingAt() ) {
+                throw new IllegalStateException( "Unmatched input at offset "+offset );
+            }
+            offset = matcher.end();
+            count++;
+        }
+        counters.tokens += count;
+        counters.characters += len;
+        return count;
+    }
+}
@@ -0,0 +1,167 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex.benchmarks;
+
+import de.codesourcery.regex.BitStateBacktracker;
+import de.codesourcery.regex.NFAProgram;
+import de.codesourcery.regex.Scanner;
+import de.codesourcery.regex.StateMachine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Compares matching a single regex against a whole input using the NFA, the DFA and <code>java.util.regex</code>.
+ *
+ * Input lengths are kept moderate because the recursive backtracker ({@link de.codesourcery.regex.State#matches(Scanner)})
+ * recurses once per character.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MatchBenchmark
+{
+    public enum Expression
+    {
+        IDENTIFIER("[a-z_][a-z0-9_]*"),
+        ALTERNATION("(foo|bar|baz)+"),
+        NUMBER("[0-9]+(\\.[0-9]+)?");
+
+        public final String regex;
+
+        Expression(String regex) {
+            this.regex = regex;
+        }
+    }
+
+    @Param
+    public Expression expression;
+
+    @Param({"16", "256", "1024"})
+    public int inputLength;
+
+    private String input;
+    private StateMachine nfa;
+    private StateMachine dfa;
+    private NFAProgram program;
+    private BitStateBacktracker backtracker;
+    private Pattern pattern;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        input = input( expression, inputLength );
+
+        nfa = new StateMachine();
+        nfa.setup( expression.regex, false );
+
+        dfa = new StateMachine();
+        dfa.setup( expression.regex, false );
+        dfa.toDFA( state -> {}, rules -> rules.iterator().next() );
+
+        program = new NFAProgram( nfa.initialState );
+        backtracker = new BitStateBacktracker( program );
+
+        pattern = Pattern.compile( expression.regex );
+
+        if ( ! nfa.matches( input ) || ! StateMachine.matchesDFA( dfa.initialState, input ) || ! pattern.matcher( input ).matches() ) {
+            throw new IllegalStateException( "Benchmark input does not match "+expression.regex );
+        }
+    }
+
+    static String input(Expression expression, int length)
+    {
+        final Random rnd = new Random( 0xdeadbeefL );
+        final StringBuilder result = new StringBuilder( length );
+        switch( expression )
+        {
+            case IDENTIFIER:
+                result.append( '_' );
+                while ( result.length() < length ) {
+                    result.append( "abcdefghijklmnopqrstuvwxyz0123456789_".charAt( rnd.nextInt( 37 ) ) );
+                }
+                return result.toString();
+            case ALTERNATION:
+                final String[] words = { "foo", "bar", "baz" };
+                while ( result.length() < length ) {
+                    result.append( words[ rnd.nextInt( 3 ) ] );
+                }
+                return result.toString();
+            case NUMBER:
+                while ( result.length() < length - 3 ) {
+                    result.append( (char) ( '0' + rnd.nextInt( 10 ) ) );
+                }
+                return result.append( ".42" ).toString();
+            default:
+                throw new IllegalArgumentException( "Unhandled expression: "+expression );
+        }
+    }
+
+    /**
+     * Engine picked by {@link StateMachine#matches(String)}.
+     */
+    @Benchmark
+    public boolean nfaMatches()
+    {
+        return nfa.matches( input );
+    }
+
+    @Benchmark
+    public boolean recursiveBacktracking()
+    {
+        return nfa.initialState.matches( new Scanner( input ) );
+    }
+
+    @Benchmark
+    public boolean bitStateBacktracking()
+    {
+        return backtracker.matches( input );
+    }
+
+    @Benchmark
+    public boolean nfaSimulation()
+    {
+        return program.matches( input );
+    }
+
+    @Benchmark
+    public boolean dfaMatches()
+    {
+        return StateMachine.matchesDFA( dfa.initialState, input );
+    }
+
+    @Benchmark
+    public boolean javaRegexMatches()
+    {
+        return pattern.matcher( input ).matches();
+    }
+}
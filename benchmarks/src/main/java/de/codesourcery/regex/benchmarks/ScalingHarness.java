@@ -0,0 +1,486 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex.benchmarks;
+
+import de.codesourcery.regex.BitStateBacktracker;
+import de.codesourcery.regex.EpsilonElimination;
+import de.codesourcery.regex.IncrementalLexer;
+import de.codesourcery.regex.Lexer;
+import de.codesourcery.regex.LexerBuilder;
+import de.codesourcery.regex.LexerTables;
+import de.codesourcery.regex.NFAProgram;
+import de.codesourcery.regex.Scanner;
+import de.codesourcery.regex.StateMachine;
+import de.codesourcery.regex.TableDrivenLexer;
+import de.codesourcery.regex.Token;
+import de.codesourcery.regex.TokenType;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.IntFunction;
+import java.util.regex.Pattern;
+
+/**
+ * Measures how the engines scale on adversarial input.
+ *
+ * Each case runs an engine on doubling input (or pattern) sizes and fits a power law <code>t = c * n^k</code>
+ * to the timings. The exponent <code>k</code> of cases whose engine is supposed to run in linear time
+ * must not exceed {@link #MAX_LINEAR_EXPONENT}, otherwise the harness exits with status 1. Cases without
+ * such a claim (backtracking matchers, subset construction) are only reported; they stop growing once
+ * a single run exceeds the time budget or is predicted to do so.
+ *
+ * All inputs are generated on the fly. Usage:
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar de.codesourcery.regex.benchmarks.ScalingHarness [-budget &lt;millis&gt;] [case name substring]
+ * </pre>
+ */
+public final class ScalingHarness
+{
+    /**
+     * Largest power-law exponent accepted for engines claimed to be linear, leaves room for
+     * cache effects and timing noise.
+     */
+    public static final double MAX_LINEAR_EXPONENT = 1.35;
+
+    // minimum time spent per measurement so that tiny sizes are not dominated by timer resolution
+    private static final long MIN_MEASUREMENT_NANOS = 20_000_000L;
+    private static final int MEASUREMENTS = 5;
+    // time spent running the smallest size before measuring so that the JIT does not skew the fit
+    private static final long WARMUP_NANOS = 1_000_000_000L;
+
+    // prevents the JIT from eliminating the measured code
+    private static volatile long sink;
+
+    private long budgetNanos = 2_000_000_000L;
+
+    private static final class Case
+    {
+        public final String name;
+        public final boolean claimedLinear;
+        public final int minSize;
+        public final int maxSize;
+        // creates the (untimed) input for a size and returns the timed operation
+        public final IntFunction<Runnable> workload;
+
+        public Case(String name, boolean claimedLinear, int minSize, int maxSize, IntFunction<Runnable> workload)
+        {
+            this.name = name;
+            this.claimedLinear = claimedLinear;
+            this.minSize = minSize;
+            this.maxSize = maxSize;
+            this.workload = workload;
+        }
+    }
+
+    private static final class Result
+    {
+        public final Case testCase;
+        public final List<Integer> sizes = new ArrayList<>();
+        public final List<Double> nanos = new ArrayList<>();
+        public String stopReason;
+
+        public Result(Case testCase) {
+            this.testCase = testCase;
+        }
+
+        /**
+         * Least-squares fit of <code>log(t) = log(c) + k * log(n)</code>.
+         *
+         * @return exponent <code>k</code> or NaN if there are less than two measurements
+         */
+        public double exponent()
+        {
+            final int n = sizes.size();
+            if ( n < 2 ) {
+                return Double.NaN;
+            }
+            double sumX = 0, sumY = 0, sumXX = 0, sumXY = 0;
+            for ( int i = 0 ; i < n ; i++ )
+            {
+                final double x = Math.log( sizes.get( i ) );
+                final double y = Math.log( nanos.get( i ) );
+                sumX += x;
+                sumY += y;
+                sumXX += x * x;
+                sumXY += x * y;
+            }
+            return ( n * sumXY - sumX * sumY ) / ( n * sumXX - sumX * sumX );
+        }
+
+        /**
+         * Returns whether the time ratio between successive doublings keeps increasing,
+         * which hints at exponential rather than polynomial growth.
+         *
+         * @return
+         */
+        public boolean looksExponential()
+        {
+            if ( nanos.size() < 3 ) {
+                return false;
+            }
+            final int last = nanos.size() - 1;
+            final double ratio1 = nanos.get( last - 1 ) / nanos.get( last - 2 );
+            final double ratio2 = nanos.get( last ) / nanos.get( last - 1 );
+            return ratio2 > 8 && ratio2 > 2 * ratio1;
+        }
+
+        public String growth()
+        {
+            final double k = exponent();
+            if ( Double.isNaN( k ) ) {
+                return "unknown";
+            }
+            if ( looksExponential() ) {
+                return "exponential";
+            }
+            if ( k <= MAX_LINEAR_EXPONENT ) {
+                return "linear";
+            }
+            return String.format( Locale.ROOT, "n^%.1f", k );
+        }
+
+        public boolean failed() {
+            return testCase.claimedLinear && ( stopReason != null || exponent() > MAX_LINEAR_EXPONENT );
+        }
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        final ScalingHarness harness = new ScalingHarness();
+        String filter = null;
+        for ( int i = 0 ; i < args.length ; i++ )
+        {
+            if ( "-budget".equals( args[i] ) && i + 1 < args.length ) {
+                harness.budgetNanos = Long.parseLong( args[++i] ) * 1_000_000L;
+            } else {
+                filter = args[i];
+            }
+        }
+
+        boolean failed = false;
+        for ( Case testCase : cases() )
+        {
+            if ( filter != null && ! testCase.name.contains( filter ) ) {
+                continue;
+            }
+            final Result result = harness.run( testCase );
+            print( result );
+            failed |= result.failed();
+        }
+        // measurements that timed out may still be running
+        System.exit( failed ? 1 : 0 );
+    }
+
+    private static List<Case> cases()
+    {
+        final List<Case> result = new ArrayList<>();
+
+        // linear-time engines
+
+        result.add( new Case( "dfa-matches (a|b)*abb", true, 1 << 10, 1 << 16, size ->
+        {
+            final StateMachine dfa = dfa( "(a|b)*abb" );
+            final String input = repeat( "ab", size / 2 ) + "b";
+            return () -> sink += StateMachine.matchesDFA( dfa.initialState, input ) ? 1 : 0;
+        }));
+
+        final LexerTables nearMissA = tables( "A=a", "AB=a*b" );
+        result.add( new Case( "table-lexer near-miss a*b on aaa...", true, 1 << 13, 1 << 19, size ->
+        {
+            final String input = "a".repeat( size );
+            return () -> sink += countTokens( nearMissA, input );
+        }));
+
+        final LexerTables nearMissGroup = tables( "A=a", "B=b", "ABC=(ab)*c" );
+        result.add( new Case( "table-lexer near-miss (ab)*c on abab...", true, 1 << 13, 1 << 19, size ->
+        {
+            final String input = repeat( "ab", size / 2 );
+            return () -> sink += countTokens( nearMissGroup, input );
+        }));
+
+        final LexerTables logTables = tables( Grammars.logFile() );
+        result.add( new Case( "table-lexer log corpus", true, 1 << 13, 1 << 19, size ->
+        {
+            final String input = Corpora.logFile( size );
+            return () -> sink += countTokens( logTables, input );
+        }));
+
+        result.add( new Case( "incremental-lexer near-miss a*b on aaa...", true, 1 << 13, 1 << 18, size ->
+        {
+            final IncrementalLexer lexer = new IncrementalLexer( nearMissA );
+            final String input = "a".repeat( size );
+            return () -> sink += lexer.lex( input ).getTokenCount();
+        }));
+
+        result.add( new Case( "generated-lexer identifiers and numbers", true, 1 << 13, 1 << 19, size ->
+        {
+            final String input = Corpora.identifiersAndNumbers( size );
+            return () -> {
+                final Lexer lexer = new Lexer( new Scanner( input ) );
+                int count = 0;
+                while ( ! lexer.next().hasType( TokenType.EOF ) ) {
+                    count++;
+                }
+                sink += count;
+            };
+        }));
+
+        result.add( new Case( "StateMachine.matches (a|aa)*c on aaa...", true, 1 << 10, 1 << 18, size ->
+        {
+            final StateMachine nfa = nfa( "(a|aa)*c" );
+            final String input = "a".repeat( size );
+            return () -> sink += nfa.matches( input ) ? 1 : 0;
+        }));
+
+        result.add( new Case( "bit-state backtracker (a|aa)*c on aaa...", true, 1 << 10, 1 << 18, size ->
+        {
+            final BitStateBacktracker backtracker = new BitStateBacktracker( new NFAProgram( nfa( "(a|aa)*c" ).initialState ) );
+            final String input = "a".repeat( size );
+            return () -> sink += backtracker.matches( input ) ? 1 : 0;
+        }));
+
+        result.add( new Case( "nfa-simulation [a-z]*[a-y]*[a-x]*b on aaa...", true, 1 << 10, 1 << 18, size ->
+        {
+            final NFAProgram program = new NFAProgram( nfa( "[a-z]*[a-y]*[a-x]*b" ).initialState );
+            final String input = "a".repeat( size );
+            return () -> sink += program.matches( input ) ? 1 : 0;
+        }));
+
+        result.add( new Case( "parse and match [0-9a-f]{n} on n hex digits", true, 1 << 10, 1 << 18, size ->
+        {
+            final String regex = "[0-9a-f]{" + size + "}";
+            final String input = "0123456789abcdef".repeat( size / 16 + 1 ).substring( 0, size );
+            return () -> sink += nfa( regex ).matches( input ) ? 1 : 0;
+        }));
+
+        result.add( new Case( "epsilon elimination of a grammar with n rules", true, 16, 1024, size ->
+        {
+            final StateMachine nfa = grammar( Grammars.synthetic( size ) );
+            return () -> sink += EpsilonElimination.apply( nfa.initialState ).getID();
+        }));
+
+        result.add( new Case( "toDFA ([a-c]|[!-x])*[!-x] with x = ' ' + n", true, 1 << 8, 1 << 15, size ->
+        {
+            // the classes get wider with n but still only induce a handful of symbols
+            final char last = (char) ( ' ' + size );
+            final String regex = "([a-c]|[!-" + last + "])*[!-" + last + "]";
+            return () -> sink += dfa( regex ).initialState.getID();
+        }));
+
+        // engines without linear-time guarantee, reported only
+
+        result.add( new Case( "recursive backtracker (a|aa)*c on aaa...", false, 4, 64, size ->
+        {
+            final StateMachine nfa = nfa( "(a|aa)*c" );
+            final String input = "a".repeat( size );
+            return () -> sink += nfa.initialState.matches( new Scanner( input ) ) ? 1 : 0;
+        }));
+
+        result.add( new Case( "recursive backtracker [a-z]*[a-y]*[a-x]*b on aaa...", false, 4, 1024, size ->
+        {
+            final StateMachine nfa = nfa( "[a-z]*[a-y]*[a-x]*b" );
+            final String input = "a".repeat( size );
+            return () -> sink += nfa.initialState.matches( new Scanner( input ) ) ? 1 : 0;
+        }));
+
+        result.add( new Case( "toDFA (a|b)*a(a|b)^n", false, 1, 32, size ->
+        {
+            final String regex = "(a|b)*a" + "(a|b)".repeat( size );
+            return () -> sink += dfa( regex ).initialState.getID();
+        }));
+
+        result.add( new Case( "toDFA alternation of n literals", false, 4, 512, size ->
+        {
+            final LexerBuilder.Configuration config = Grammars.synthetic( size );
+            return () -> sink += tables( config ).getStateCount();
+        }));
+
+        result.add( new Case( "java.util.regex (a|aa)*c on aaa...", false, 4, 64, size ->
+        {
+            final Pattern pattern = Pattern.compile( "(a|aa)*c" );
+            final String input = "a".repeat( size );
+            return () -> sink += pattern.matcher( input ).matches() ? 1 : 0;
+        }));
+
+        return result;
+    }
+
+    private Result run(Case testCase) throws InterruptedException
+    {
+        final Result result = new Result( testCase );
+        if ( measure( testCase, testCase.minSize, WARMUP_NANOS, 1 ) < 0 )
+        {
+            result.stopReason = "size "+testCase.minSize+" exceeded budget of "+( budgetNanos / 1_000_000 )+" ms";
+            return result;
+        }
+        for ( int size = testCase.minSize ; size <= testCase.maxSize ; size *= 2 )
+        {
+            final int n = result.nanos.size();
+            if ( n >= 2 )
+            {
+                // doubling ratios square with each step for exponential growth, assume the worst
+                final double last = result.nanos.get( n - 1 );
+                final double ratio = Math.max( 2, last / result.nanos.get( n - 2 ) );
+                if ( last * ratio * ratio > budgetNanos )
+                {
+                    result.stopReason = "next size predicted to exceed budget";
+                    break;
+                }
+            }
+            final double nanos = measure( testCase, size, MIN_MEASUREMENT_NANOS, MEASUREMENTS );
+            if ( nanos < 0 )
+            {
+                result.stopReason = "size "+size+" exceeded budget of "+( budgetNanos / 1_000_000 )+" ms";
+                break;
+            }
+            result.sizes.add( size );
+            result.nanos.add( nanos );
+        }
+        if ( testCase.claimedLinear && result.stopReason != null && result.sizes.size() > 1 ) {
+            // not having reached the largest size is a failure in itself, but still show the fit
+            result.stopReason += " (FAILED)";
+        }
+        return result;
+    }
+
+    /**
+     * Measures one size.
+     *
+     * @param testCase
+     * @param size
+     * @param minNanos minimum time to spend per measurement
+     * @param measurements number of measurements to take
+     * @return best time per operation in nanoseconds or -1 if the time budget was exceeded
+     */
+    private double measure(Case testCase, int size, long minNanos, int measurements) throws InterruptedException
+    {
+        final double[] best = { Double.MAX_VALUE };
+        final RuntimeException[] error = { null };
+        final Runnable task = () ->
+        {
+            try
+            {
+                final Runnable op = testCase.workload.apply( size );
+                op.run(); // warm-up
+                for ( int i = 0 ; i < measurements ; i++ )
+                {
+                    int iterations = 0;
+                    final long start = System.nanoTime();
+                    long elapsed;
+                    do {
+                        op.run();
+                        iterations++;
+                        elapsed = System.nanoTime() - start;
+                    } while ( elapsed < minNanos );
+                    best[0] = Math.min( best[0], elapsed / (double) iterations );
+                }
+            }
+            catch(RuntimeException e) {
+                error[0] = e;
+            }
+        };
+        // deep recursion in the NFA matcher needs a large stack
+        final Thread thread = new Thread( null, task, "scaling-"+testCase.name, 1L << 30 );
+        thread.setDaemon( true );
+        thread.start();
+        thread.join( Math.max( 1, ( budgetNanos * ( measurements + 1 ) + minNanos * measurements ) / 1_000_000 ) );
+        if ( thread.isAlive() ) {
+            return -1;
+        }
+        if ( error[0] != null ) {
+            throw error[0];
+        }
+        return best[0] > budgetNanos ? -1 : best[0];
+    }
+
+    private static void print(Result result)
+    {
+        final Case testCase = result.testCase;
+        System.out.println( testCase.name + ( testCase.claimedLinear ? " [claimed linear]" : "" ) );
+        for ( int i = 0 ; i < result.sizes.size() ; i++ )
+        {
+            final int size = result.sizes.get( i );
+            final double nanos = result.nanos.get( i );
+            System.out.println( String.format( Locale.ROOT, "  n = %8d  %14.0f ns  %10.2f ns/n", size, nanos, nanos / size ) );
+        }
+        if ( result.stopReason != null ) {
+            System.out.println( "  stopped: " + result.stopReason );
+        }
+        System.out.println( String.format( Locale.ROOT, "  fitted exponent: %.2f, growth: %s%s", result.exponent(), result.growth(), result.failed() ? "  ** SUPER-LINEAR **" : "" ) );
+        System.out.println();
+    }
+
+    private static int countTokens(LexerTables tables, String input)
+    {
+        final TableDrivenLexer lexer = new TableDrivenLexer( tables, new Scanner( input ) );
+        int count = 0;
+        for ( Token token = lexer.next() ; ! token.hasType( TokenType.EOF ) ; token = lexer.next() ) {
+            count++;
+        }
+        return count;
+    }
+
+    private static LexerTables tables(String... rules)
+    {
+        final LexerBuilder.Configuration config = new LexerBuilder.Configuration( false );
+        for ( String rule : rules )
+        {
+            final int idx = rule.indexOf( '=' );
+            config.addRule( rule.substring( 0, idx ), rule.substring( idx + 1 ), rule.substring( 0, idx ) );
+        }
+        return tables( config );
+    }
+
+    private static LexerTables tables(LexerBuilder.Configuration config)
+    {
+        try {
+            return new LexerBuilder().buildTables( config );
+        } catch (IOException e) {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    private static StateMachine grammar(LexerBuilder.Configuration config)
+    {
+        try {
+            return new LexerBuilder().buildStateMachine( config );
+        } catch (IOException e) {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    private static StateMachine nfa(String regex)
+    {
+        final StateMachine result = new StateMachine();
+        result.setup( regex, false );
+        return result;
+    }
+
+    private static StateMachine dfa(String regex)
+    {
+        final StateMachine result = nfa( regex );
+        result.toDFA( state -> {}, rules -> rules.iterator().next() );
+        return result;
+    }
+
+    private static String repeat(String s, int count) {
+        return s.repeat( count );
+    }
+}
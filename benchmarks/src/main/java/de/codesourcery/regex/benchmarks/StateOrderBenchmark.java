@@ -0,0 +1,96 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex.benchmarks;
+
+import de.codesourcery.regex.LexerBuilder;
+import de.codesourcery.regex.LexerTables;
+import de.codesourcery.regex.Scanner;
+import de.codesourcery.regex.TableDrivenLexer;
+import de.codesourcery.regex.Token;
+import de.codesourcery.regex.TokenType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lexes large synthetic grammars with and without numbering states by a profile
+ * ({@link LexerBuilder.Configuration#profileSample}), with dense and with compressed tables.
+ *
+ * Rules are used with skewed frequencies, so few states are hot. The profile sample is the first
+ * 10% of the input. The uncompressed tables of the <code>WIDE</code> grammar ({@link Grammars#wideSynthetic(int)})
+ * take 8 MB for 1024 rules and 128 MB for 4096 rules, those of the <code>NARROW</code> grammar
+ * ({@link Grammars#synthetic(int)}) less than 1 MB. Building the wide grammar with 4096 rules takes
+ * about half a minute.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+@State(Scope.Thread)
+public class StateOrderBenchmark
+{
+    @Param({"NARROW", "WIDE"})
+    public String grammar;
+
+    @Param({"1024", "4096"})
+    public int ruleCount;
+
+    @Param({"false", "true"})
+    public boolean profiled;
+
+    @Param({"false", "true"})
+    public boolean compressed;
+
+    private String input;
+    private LexerTables tables;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException
+    {
+        final boolean wide = "WIDE".equals( grammar );
+        input = Corpora.skewedSynthetic( ruleCount, 1_000_000, wide ? Grammars::widePrefix : Grammars::syntheticPrefix );
+        final LexerBuilder.Configuration config = wide ? Grammars.wideSynthetic( ruleCount ) : Grammars.synthetic( ruleCount );
+        if ( profiled ) {
+            config.profileSample = input.substring( 0, input.length() / 10 );
+        }
+        config.compressTables = compressed;
+        tables = new LexerBuilder().buildTables( config );
+    }
+
+    @Benchmark
+    public int tableDrivenLexer()
+    {
+        final TableDrivenLexer lexer = new TableDrivenLexer( tables, new Scanner( input ) );
+        int count = 0;
+        for ( Token token = lexer.next() ; ! token.hasType( TokenType.EOF ) ; token = lexer.next() ) {
+            count++;
+        }
+        return count;
+    }
+}
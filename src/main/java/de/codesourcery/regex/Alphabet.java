@@ -15,38 +15,234 @@
  */
 package de.codesourcery.regex;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
-public class Alphabet
+/**
+ * The input symbols of an automaton: the coarsest partition of the character space induced by all
+ * character sets its transitions consume (the <i>minterms</i>).
+ *
+ * Two characters belong to the same symbol if every transition that consumes one of them also
+ * consumes the other, so subset construction only needs to consider one move per symbol and the
+ * resulting DFA needs one column per symbol. Characters no transition consumes belong to no symbol.
+ * Computing the partition takes <code>O(r log r + r * s / 64)</code> for <code>r</code> intervals
+ * in <code>s</code> distinct sets, independent of how many characters the intervals contain.
+ */
+public final class Alphabet
 {
-    public boolean containsAnyChar;
+    private static final int[] NO_SYMBOLS = new int[0];
+
+    // symbols sorted by their first character
+    private final List<CharRanges> symbols;
+    // distinct character set -> indices of the symbols it consists of
+    private final Map<CharRanges,int[]> symbolsOf;
+    // sorted, disjoint intervals and the symbol each one belongs to
+    private final char[] intervalFirst;
+    private final char[] intervalLast;
+    private final int[] intervalSymbol;
 
-    public interface IAlphabetVisitor
+    private Alphabet(List<CharRanges> symbols, Map<CharRanges,int[]> symbolsOf, char[] intervalFirst, char[] intervalLast, int[] intervalSymbol)
     {
-        void visitAny();
+        this.symbols = symbols;
+        this.symbolsOf = symbolsOf;
+        this.intervalFirst = intervalFirst;
+        this.intervalLast = intervalLast;
+        this.intervalSymbol = intervalSymbol;
+    }
+
+    /**
+     * Computes the partition induced by some character sets.
+     *
+     * @param sets character sets in any order, may contain duplicates
+     * @return
+     */
+    public static Alphabet of(Collection<CharRanges> sets)
+    {
+        final Map<CharRanges,Integer> distinct = new LinkedHashMap<>();
+        for ( CharRanges set : sets )
+        {
+            if ( ! set.isEmpty() ) {
+                distinct.putIfAbsent( set, distinct.size() );
+            }
+        }
+        final List<CharRanges> classes = new ArrayList<>( distinct.keySet() );
+
+        // sweep over all interval boundaries, events are (position << 32 | set index << 1 | end)
+        int eventCount = 0;
+        for ( CharRanges set : classes ) {
+            eventCount += 2 * set.rangeCount();
+        }
+        final long[] events = new long[ eventCount ];
+        int idx = 0;
+        for ( int i = 0 ; i < classes.size() ; i++ )
+        {
+            final CharRanges set = classes.get( i );
+            for ( int r = 0 , len = set.rangeCount() ; r < len ; r++ )
+            {
+                events[idx++] = ( (long) set.first( r ) << 32 ) | ( (long) i << 1 );
+                events[idx++] = ( (long) ( set.last( r ) + 1 ) << 32 ) | ( (long) i << 1 ) | 1;
+            }
+        }
+        Arrays.sort( events );
+
+        final List<CharRanges.Builder> builders = new ArrayList<>();
+        final Map<BitSet,Integer> symbolBySignature = new HashMap<>();
+        final List<BitSet> setsBySymbol = new ArrayList<>();
+        final BitSet active = new BitSet( classes.size() );
+        final List<int[]> intervals = new ArrayList<>();
+        for ( int i = 0 ; i < events.length ; )
+        {
+            final int position = (int) ( events[i] >>> 32 );
+            for ( ; i < events.length && (int) ( events[i] >>> 32 ) == position ; i++ )
+            {
+                final int set = (int) ( events[i] & 0xffffffffL ) >>> 1;
+                if ( ( events[i] & 1 ) == 0 ) {
+                    active.set( set );
+                } else {
+                    active.clear( set );
+                }
+            }
+            if ( i == events.length || active.isEmpty() ) {
+                continue;
+            }
+            final int end = (int) ( events[i] >>> 32 ) - 1;
+            Integer symbol = symbolBySignature.get( active );
+            if ( symbol == null )
+            {
+                symbol = builders.size();
+                final BitSet signature = (BitSet) active.clone();
+                symbolBySignature.put( signature, symbol );
+                setsBySymbol.add( signature );
+                builders.add( new CharRanges.Builder() );
+            }
+            builders.get( symbol ).add( (char) position, (char) end );
+            final int[] previous = intervals.isEmpty() ? null : intervals.get( intervals.size() - 1 );
+            if ( previous != null && previous[2] == symbol && previous[1] + 1 == position ) {
+                previous[1] = end;
+            } else {
+                intervals.add( new int[] { position, end, symbol } );
+            }
+        }
+
+        final List<CharRanges> symbols = new ArrayList<>( builders.size() );
+        builders.forEach( b -> symbols.add( b.build() ) );
+
+        final Map<CharRanges,int[]> symbolsOf = new HashMap<>();
+        final List<List<Integer>> perSet = new ArrayList<>();
+        classes.forEach( c -> perSet.add( new ArrayList<>() ) );
+        for ( int symbol = 0 ; symbol < setsBySymbol.size() ; symbol++ )
+        {
+            final BitSet signature = setsBySymbol.get( symbol );
+            for ( int set = signature.nextSetBit( 0 ) ; set >= 0 ; set = signature.nextSetBit( set + 1 ) ) {
+                perSet.get( set ).add( symbol );
+            }
+        }
+        for ( int i = 0 ; i < classes.size() ; i++ ) {
+            symbolsOf.put( classes.get( i ), perSet.get( i ).stream().mapToInt( Integer::intValue ).toArray() );
+        }
 
-        void visitChar( char c );
+        final char[] first = new char[ intervals.size() ];
+        final char[] last = new char[ intervals.size() ];
+        final int[] symbol = new int[ intervals.size() ];
+        for ( int i = 0 ; i < intervals.size() ; i++ )
+        {
+            first[i] = (char) intervals.get( i )[0];
+            last[i] = (char) intervals.get( i )[1];
+            symbol[i] = intervals.get( i )[2];
+        }
+        return new Alphabet( symbols, symbolsOf, first, last, symbol );
     }
 
-    public final Set<Character> characters = new HashSet<>();
+    /**
+     * Returns the number of symbols.
+     *
+     * @return
+     */
+    public int size() {
+        return symbols.size();
+    }
 
-    public void add(char c) {
-        characters.add(c);
+    /**
+     * Returns the characters of a symbol.
+     *
+     * @param symbol symbol index, ranging from 0 to {@link #size()} (exclusive)
+     * @return
+     */
+    public CharRanges symbol(int symbol) {
+        return symbols.get( symbol );
     }
 
-    public void addAnyChar() {
-        containsAnyChar = true;
+    /**
+     * Returns the symbols a character set consists of.
+     *
+     * @param set one of the character sets this alphabet was computed from
+     * @return symbol indices in ascending order
+     */
+    public int[] symbolsOf(CharRanges set)
+    {
+        final int[] result = symbolsOf.get( set );
+        if ( result == null ) {
+            if ( set.isEmpty() ) {
+                return NO_SYMBOLS;
+            }
+            throw new IllegalArgumentException( "Character set "+set+" is not part of this alphabet" );
+        }
+        return result;
     }
 
-    public void visit(IAlphabetVisitor v) {
-        if ( containsAnyChar ) {
-            v.visitAny();
+    /**
+     * Returns the symbol a character belongs to.
+     *
+     * @param c
+     * @return symbol index or -1 if no transition consumes this character
+     */
+    public int symbolOf(char c)
+    {
+        int low = 0;
+        int high = intervalFirst.length - 1;
+        while ( low <= high )
+        {
+            final int mid = ( low + high ) >>> 1;
+            if ( c < intervalFirst[mid] ) {
+                high = mid - 1;
+            } else if ( c > intervalLast[mid] ) {
+                low = mid + 1;
+            } else {
+                return intervalSymbol[mid];
+            }
         }
-        characters.forEach( v::visitChar );
+        return -1;
     }
 
-    public int size() {
-        return characters.size()+ ( containsAnyChar ? 1 : 0 );
+    /**
+     * Returns the number of maximal intervals of characters that belong to the same symbol.
+     *
+     * @return
+     */
+    public int intervalCount() {
+        return intervalFirst.length;
+    }
+
+    public char intervalFirst(int interval) {
+        return intervalFirst[interval];
+    }
+
+    public char intervalLast(int interval) {
+        return intervalLast[interval];
+    }
+
+    public int intervalSymbol(int interval) {
+        return intervalSymbol[interval];
+    }
+
+    @Override
+    public String toString() {
+        return "Alphabet" + symbols;
     }
 }
@@ -0,0 +1,156 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex;
+
+import java.util.Arrays;
+
+/**
+ * Backtracking matcher that never explores the same (NFA state, input offset) pair twice.
+ *
+ * Instead of recursing like {@link State#matches(Scanner)} it keeps the pairs still to be explored
+ * on an explicit stack and remembers visited pairs in a bitset, so matching takes at most
+ * <code>O(NFA states * input length)</code> steps. Because the bitset needs one bit per pair,
+ * this engine is only used for inputs where <code>states * (length + 1)</code> stays within a budget,
+ * see {@link #fits(NFAProgram, int, long)}. For longer inputs {@link NFAProgram#matches(CharSequence)} is used.
+ *
+ * Instances are not thread-safe but can be reused for any number of inputs.
+ */
+public final class BitStateBacktracker
+{
+    /**
+     * Default maximum size of the visited bitset in bits (32 KiB).
+     */
+    public static final long DEFAULT_BUDGET_BITS = 256 * 1024;
+
+    private final NFAProgram program;
+
+    private long[] visited = new long[0];
+
+    // pending (state, offset) pairs
+    private int[] stack = new int[ 64 ];
+
+    public BitStateBacktracker(NFAProgram program)
+    {
+        if ( program == null ) {
+            throw new IllegalArgumentException("Program must not be NULL");
+        }
+        this.program = program;
+    }
+
+    /**
+     * Returns whether the visited bitset for an input fits within a budget.
+     *
+     * @param program
+     * @param inputLength
+     * @param budgetBits maximum number of bits to use
+     * @return
+     */
+    public static boolean fits(NFAProgram program, int inputLength, long budgetBits)
+    {
+        return (long) program.virtualStateCount * ( inputLength + 1 ) <= budgetBits;
+    }
+
+    /**
+     * Returns whether the NFA matches the whole input.
+     *
+     * @param input
+     * @return
+     */
+    public boolean matches(CharSequence input)
+    {
+        final int len = input.length();
+        final int stateCount = program.virtualStateCount;
+        final int words = (int) ( ( (long) stateCount * ( len + 1 ) + 63 ) >>> 6 );
+        if ( visited.length < words ) {
+            visited = new long[ words ];
+        } else {
+            Arrays.fill( visited, 0, words, 0 );
+        }
+
+        int stackPtr = 0;
+        stack[stackPtr++] = program.initialState;
+        stack[stackPtr++] = 0;
+        while ( stackPtr > 0 )
+        {
+            final int offset = stack[--stackPtr];
+            final int state = stack[--stackPtr];
+
+            final long bit = (long) offset * stateCount + state;
+            final int word = (int) ( bit >>> 6 );
+            final long mask = 1L << bit;
+            if ( ( visited[word] & mask ) != 0 ) {
+                continue;
+            }
+            visited[word] |= mask;
+
+            if ( offset == len && program.isAccepting( state ) ) {
+                return true;
+            }
+
+            if ( state >= program.stateCount )
+            {
+                if ( stackPtr + 4 > stack.length ) {
+                    stack = Arrays.copyOf( stack, stack.length * 2 );
+                }
+                final int repeat = program.repeatOf( state );
+                if ( state - program.repeatBase[repeat] >= program.repeatMin[repeat] )
+                {
+                    stack[stackPtr++] = program.repeatTargets[repeat];
+                    stack[stackPtr++] = offset;
+                }
+                final int next = offset < len ? program.repeatStep( repeat, state, input.charAt( offset ) ) : -1;
+                if ( next != -1 )
+                {
+                    stack[stackPtr++] = next;
+                    stack[stackPtr++] = offset + 1;
+                }
+                continue;
+            }
+
+            final int[] epsilon = program.epsilonTargets[state];
+            final int[] repeats = program.repeatsFrom[state];
+            final int[] targets = offset < len ? program.rangeTargets[state] : null;
+            final int needed = stackPtr + 2 * ( epsilon.length + repeats.length + ( targets == null ? 0 : targets.length ) );
+            if ( needed > stack.length ) {
+                stack = Arrays.copyOf( stack, Math.max( stack.length * 2, needed ) );
+            }
+            for ( int i = 0 ; i < epsilon.length ; i++ )
+            {
+                stack[stackPtr++] = epsilon[i];
+                stack[stackPtr++] = offset;
+            }
+            for ( int i = 0 ; i < repeats.length ; i++ )
+            {
+                stack[stackPtr++] = program.repeatBase[ repeats[i] ];
+                stack[stackPtr++] = offset;
+            }
+            if ( targets != null )
+            {
+                final char c = input.charAt( offset );
+                final char[] bounds = program.ranges[state];
+                for ( int i = 0 ; i < bounds.length ; i += 2 )
+                {
+                    if ( c >= bounds[i] && c <= bounds[i+1] )
+                    {
+                        stack[stackPtr++] = targets[i >> 1];
+                        stack[stackPtr++] = offset + 1;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,308 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex;
+
+import java.util.Arrays;
+
+/**
+ * Immutable set of characters stored as sorted, disjoint and non-adjacent intervals.
+ *
+ * Character classes like <code>[a-z]</code> or <code>.</code> are kept as a handful of intervals
+ * instead of one entry per character, so the cost of building and converting automatons depends on
+ * the number of intervals and not on the number of characters they contain.
+ */
+public final class CharRanges
+{
+    public static final CharRanges EMPTY = new CharRanges( new char[0] );
+
+    /**
+     * All characters.
+     */
+    public static final CharRanges ANY = new CharRanges( new char[] { Character.MIN_VALUE, Character.MAX_VALUE } );
+
+    // pairs of (first, last) character
+    private final char[] bounds;
+
+    private CharRanges(char[] bounds) {
+        this.bounds = bounds;
+    }
+
+    public static CharRanges of(char c) {
+        return new CharRanges( new char[] { c, c } );
+    }
+
+    /**
+     * Create a single interval.
+     *
+     * @param first
+     * @param last last character (inclusive)
+     * @return
+     */
+    public static CharRanges range(char first, char last)
+    {
+        if ( last < first ) {
+            throw new IllegalArgumentException( "Invalid range "+first+"-"+last );
+        }
+        return first == Character.MIN_VALUE && last == Character.MAX_VALUE ? ANY : new CharRanges( new char[] { first, last } );
+    }
+
+    /**
+     * Create a set.
+     *
+     * @param chars characters in any order, may contain duplicates
+     * @return
+     */
+    public static CharRanges of(char[] chars)
+    {
+        final Builder builder = new Builder();
+        for ( char c : chars ) {
+            builder.add( c );
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns the number of intervals.
+     *
+     * @return
+     */
+    public int rangeCount() {
+        return bounds.length / 2;
+    }
+
+    /**
+     * Returns the first character of an interval.
+     *
+     * @param range
+     * @return
+     */
+    public char first(int range) {
+        return bounds[ 2 * range ];
+    }
+
+    /**
+     * Returns the last character (inclusive) of an interval.
+     *
+     * @param range
+     * @return
+     */
+    public char last(int range) {
+        return bounds[ 2 * range + 1 ];
+    }
+
+    public boolean isEmpty() {
+        return bounds.length == 0;
+    }
+
+    public boolean isAny() {
+        return this == ANY || ( bounds.length == 2 && bounds[0] == Character.MIN_VALUE && bounds[1] == Character.MAX_VALUE );
+    }
+
+    public boolean isSingleChar() {
+        return bounds.length == 2 && bounds[0] == bounds[1];
+    }
+
+    /**
+     * Returns the number of characters in this set.
+     *
+     * @return
+     */
+    public int size()
+    {
+        int result = 0;
+        for ( int i = 0 ; i < bounds.length ; i += 2 ) {
+            result += bounds[i+1] - bounds[i] + 1;
+        }
+        return result;
+    }
+
+    public boolean contains(char c)
+    {
+        // binary search for the last interval starting at or before c
+        int low = 0;
+        int high = bounds.length / 2 - 1;
+        while ( low <= high )
+        {
+            final int mid = ( low + high ) >>> 1;
+            if ( c < bounds[ 2 * mid ] ) {
+                high = mid - 1;
+            } else if ( c > bounds[ 2 * mid + 1 ] ) {
+                low = mid + 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public CharRanges union(CharRanges other)
+    {
+        if ( other.isEmpty() || this.isAny() ) {
+            return this;
+        }
+        if ( this.isEmpty() || other.isAny() ) {
+            return other;
+        }
+        final Builder builder = new Builder();
+        builder.add( this );
+        builder.add( other );
+        return builder.build();
+    }
+
+    /**
+     * Returns the set of all characters not in this set.
+     *
+     * @return
+     */
+    public CharRanges complement()
+    {
+        if ( isEmpty() ) {
+            return ANY;
+        }
+        if ( isAny() ) {
+            return EMPTY;
+        }
+        final Builder builder = new Builder();
+        int next = Character.MIN_VALUE;
+        for ( int i = 0 ; i < bounds.length ; i += 2 )
+        {
+            if ( bounds[i] > next ) {
+                builder.add( (char) next, (char) ( bounds[i] - 1 ) );
+            }
+            next = bounds[i+1] + 1;
+        }
+        if ( next <= Character.MAX_VALUE ) {
+            builder.add( (char) next, Character.MAX_VALUE );
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns whether this set and another one have characters in common.
+     *
+     * @param other
+     * @return
+     */
+    public boolean intersects(CharRanges other)
+    {
+        int i = 0;
+        int j = 0;
+        while ( i < bounds.length && j < other.bounds.length )
+        {
+            if ( bounds[i+1] < other.bounds[j] ) {
+                i += 2;
+            } else if ( other.bounds[j+1] < bounds[i] ) {
+                j += 2;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof CharRanges && Arrays.equals( bounds, ((CharRanges) o).bounds );
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode( bounds );
+    }
+
+    @Override
+    public String toString()
+    {
+        if ( isAny() ) {
+            return "anyChar";
+        }
+        if ( isSingleChar() ) {
+            return "'" + bounds[0] + "'";
+        }
+        final StringBuilder result = new StringBuilder("[");
+        for ( int i = 0 ; i < bounds.length ; i += 2 )
+        {
+            result.append( bounds[i] );
+            if ( bounds[i+1] > bounds[i] ) {
+                result.append( bounds[i+1] == bounds[i] + 1 ? "" : "-" ).append( bounds[i+1] );
+            }
+        }
+        return result.append( "]" ).toString();
+    }
+
+    /**
+     * Collects intervals in any order and merges them into a {@link CharRanges}.
+     */
+    public static final class Builder
+    {
+        // first characters in the upper, last characters in the lower 16 bits
+        private long[] ranges = new long[ 8 ];
+        private int size;
+
+        public Builder add(char c) {
+            return add( c, c );
+        }
+
+        public Builder add(char first, char last)
+        {
+            if ( last < first ) {
+                throw new IllegalArgumentException( "Invalid range "+first+"-"+last );
+            }
+            if ( size == ranges.length ) {
+                ranges = Arrays.copyOf( ranges, size * 2 );
+            }
+            ranges[size++] = ( (long) first << 16 ) | last;
+            return this;
+        }
+
+        public Builder add(CharRanges set)
+        {
+            for ( int i = 0 ; i < set.bounds.length ; i += 2 ) {
+                add( set.bounds[i], set.bounds[i+1] );
+            }
+            return this;
+        }
+
+        public CharRanges build()
+        {
+            if ( size == 0 ) {
+                return EMPTY;
+            }
+            Arrays.sort( ranges, 0, size );
+            final char[] result = new char[ 2 * size ];
+            int count = 0;
+            for ( int i = 0 ; i < size ; i++ )
+            {
+                final char first = (char) ( ranges[i] >>> 16 );
+                final char last = (char) ranges[i];
+                if ( count > 0 && first <= result[count-1] + 1 )
+                {
+                    // overlaps or touches the previous interval
+                    if ( last > result[count-1] ) {
+                        result[count-1] = last;
+                    }
+                } else {
+                    result[count++] = first;
+                    result[count++] = last;
+                }
+            }
+            if ( count == 2 && result[0] == Character.MIN_VALUE && result[1] == Character.MAX_VALUE ) {
+                return ANY;
+            }
+            return new CharRanges( Arrays.copyOf( result, count ) );
+        }
+    }
+}
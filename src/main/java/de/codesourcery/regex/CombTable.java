@@ -0,0 +1,325 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable transition table compressed with row displacement ('comb vector'), like
+ * the <code>yy_base</code>/<code>yy_def</code>/<code>yy_nxt</code>/<code>yy_chk</code> arrays generated by flex.
+ *
+ * Each state gets a default transition, the most common entry of its row. All other entries
+ * are stored in one shared <code>next</code> array, starting at the state's <code>base</code> offset, with
+ * the rows of different states interleaved so they fill each other's gaps. The <code>check</code> array records
+ * which state owns a slot. A lookup is thus:
+ * <pre>
+ * index = base[state] + column
+ * next  = check[index] == state ? next[index] : defaults[state]
+ * </pre>
+ * <code>next</code> and <code>check</code> use the smallest of <code>byte</code>, <code>short</code> or <code>int</code>
+ * elements that can hold every state ID.
+ *
+ * The first states may be stored as hot rows: every column of such a row is stored explicitly and the rows
+ * of all hot states come first, one after the other, so lookups in frequently used states always hit
+ * <code>next</code> and touch adjacent slots. The lookup itself is the same for hot and cold states.
+ */
+public final class CombTable
+{
+    /**
+     * <code>check</code> value of a slot that is not owned by any state.
+     */
+    private static final int UNUSED = -1;
+
+    private final int columns;
+    private final int[] base;
+    private final int[] defaults;
+    private final int width;
+
+    // exactly one pair is not null, depending on width
+    private final byte[] next8;
+    private final byte[] check8;
+    private final short[] next16;
+    private final short[] check16;
+    private final int[] next32;
+    private final int[] check32;
+
+    private CombTable(int columns, int[] base, int[] defaults, int[] next, int[] check)
+    {
+        this.columns = columns;
+        this.base = base;
+        this.defaults = defaults;
+        this.width = width( base.length );
+        switch( width )
+        {
+            case 1:
+                next8 = new byte[ next.length ];
+                check8 = new byte[ check.length ];
+                for ( int i = 0 ; i < next.length ; i++ ) {
+                    next8[i] = (byte) next[i];
+                    check8[i] = (byte) check[i];
+                }
+                next16 = check16 = null;
+                next32 = check32 = null;
+                break;
+            case 2:
+                next16 = new short[ next.length ];
+                check16 = new short[ check.length ];
+                for ( int i = 0 ; i < next.length ; i++ ) {
+                    next16[i] = (short) next[i];
+                    check16[i] = (short) check[i];
+                }
+                next8 = check8 = null;
+                next32 = check32 = null;
+                break;
+            default:
+                next32 = next;
+                check32 = check;
+                next8 = check8 = null;
+                next16 = check16 = null;
+        }
+    }
+
+    /**
+     * Returns the number of bytes per <code>next</code>/<code>check</code> element needed for a number of states.
+     *
+     * @param stateCount
+     * @return 1, 2 or 4
+     */
+    public static int width(int stateCount)
+    {
+        if ( stateCount <= Byte.MAX_VALUE + 1 ) {
+            return 1;
+        }
+        return stateCount <= Short.MAX_VALUE + 1 ? 2 : 4;
+    }
+
+    /**
+     * Compresses a dense transition table.
+     *
+     * @param rows transition table with one row of <code>columns</code> entries per state, entries are state IDs or negative
+     * @param stateCount number of rows
+     * @param columns number of columns per row
+     * @return
+     */
+    public static CombTable build(int[] rows, int stateCount, int columns)
+    {
+        return build( rows, stateCount, columns, 0 );
+    }
+
+    /**
+     * Compresses a dense transition table, storing the rows of the first states in full.
+     *
+     * @param rows transition table with one row of <code>columns</code> entries per state, entries are state IDs or negative
+     * @param stateCount number of rows
+     * @param columns number of columns per row
+     * @param hotStateCount number of states, starting with state 0, whose rows get stored with every column
+     * @return
+     */
+    public static CombTable build(int[] rows, int stateCount, int columns, int hotStateCount)
+    {
+        if ( columns < 1 || rows.length != stateCount * columns ) {
+            throw new IllegalArgumentException( "Table has "+rows.length+" entries but expected "+stateCount+" rows with "+columns+" columns each" );
+        }
+        if ( hotStateCount < 0 || hotStateCount > stateCount ) {
+            throw new IllegalArgumentException( "Invalid number of hot states: "+hotStateCount );
+        }
+        final int[] defaults = new int[ stateCount ];
+        final int[][] explicitColumns = new int[ stateCount ][];
+        final Map<Integer,Integer> counts = new HashMap<>();
+        for ( int state = 0 ; state < stateCount ; state++ )
+        {
+            final int rowOffset = state * columns;
+            counts.clear();
+            int best = rows[ rowOffset ];
+            int bestCount = 0;
+            for ( int column = 0 ; column < columns ; column++ )
+            {
+                final int value = rows[ rowOffset + column ];
+                if ( value >= stateCount || value < LexerTables.PAST_TOKEN ) {
+                    throw new IllegalArgumentException( "Invalid entry "+value+" for state "+state+", column "+column );
+                }
+                final int count = counts.merge( value, 1, Integer::sum );
+                if ( count > bestCount ) {
+                    best = value;
+                    bestCount = count;
+                }
+            }
+            defaults[ state ] = best;
+            final int[] explicit = new int[ state < hotStateCount ? columns : columns - bestCount ];
+            for ( int column = 0, i = 0 ; column < columns ; column++ )
+            {
+                if ( state < hotStateCount || rows[ rowOffset + column ] != best ) {
+                    explicit[i++] = column;
+                }
+            }
+            explicitColumns[ state ] = explicit;
+        }
+
+        // hot rows come first, one after the other
+        final int[] base = new int[ stateCount ];
+        final BitSet used = new BitSet();
+        int maxBase = 0;
+        for ( int state = 0 ; state < hotStateCount ; state++ ) {
+            base[ state ] = maxBase = state * columns;
+        }
+        used.set( 0, hotStateCount * columns );
+
+        // first fit for all other rows, placing the fullest rows first
+        final Integer[] order = new Integer[ stateCount - hotStateCount ];
+        for ( int i = 0 ; i < order.length ; i++ ) {
+            order[i] = hotStateCount + i;
+        }
+        Arrays.sort( order, (a,b) -> Integer.compare( explicitColumns[b].length, explicitColumns[a].length ) );
+
+        for ( int state : order )
+        {
+            final int[] explicit = explicitColumns[ state ];
+            if ( explicit.length == 0 ) {
+                continue;
+            }
+            int candidate = used.nextClearBit( explicit[0] ) - explicit[0];
+            for ( int i = 1 ; i < explicit.length ; )
+            {
+                if ( used.get( candidate + explicit[i] ) ) {
+                    candidate = used.nextClearBit( candidate + explicit[0] + 1 ) - explicit[0];
+                    i = 1;
+                } else {
+                    i++;
+                }
+            }
+            for ( int column : explicit ) {
+                used.set( candidate + column );
+            }
+            base[ state ] = candidate;
+            maxBase = Math.max( maxBase, candidate );
+        }
+
+        // pad so that base + column is always a valid index
+        final int[] next = new int[ maxBase + columns ];
+        final int[] check = new int[ next.length ];
+        Arrays.fill( check, UNUSED );
+        for ( int state = 0 ; state < stateCount ; state++ )
+        {
+            for ( int column : explicitColumns[ state ] )
+            {
+                next[ base[state] + column ] = rows[ state * columns + column ];
+                check[ base[state] + column ] = state;
+            }
+        }
+        return new CombTable( columns, base, defaults, next, check );
+    }
+
+    /**
+     * Look up a transition.
+     *
+     * @param state state ID
+     * @param column
+     * @return ID of the next state or a negative value as stored in the uncompressed table
+     */
+    public int get(int state, int column)
+    {
+        final int index = base[ state ] + column;
+        switch( width )
+        {
+            case 1:
+                if ( check8[ index ] == state ) {
+                    return next8[ index ];
+                }
+                break;
+            case 2:
+                if ( check16[ index ] == state ) {
+                    return next16[ index ];
+                }
+                break;
+            default:
+                if ( check32[ index ] == state ) {
+                    return next32[ index ];
+                }
+        }
+        return defaults[ state ];
+    }
+
+    public int getStateCount()
+    {
+        return base.length;
+    }
+
+    public int getColumnCount()
+    {
+        return columns;
+    }
+
+    /**
+     * Returns the number of slots in the <code>next</code> and <code>check</code> arrays.
+     *
+     * @return
+     */
+    public int getSlotCount()
+    {
+        return width == 1 ? next8.length : width == 2 ? next16.length : next32.length;
+    }
+
+    /**
+     * Returns the number of bytes per <code>next</code> and <code>check</code> element.
+     *
+     * @return 1, 2 or 4
+     */
+    public int getWidth()
+    {
+        return width;
+    }
+
+    /**
+     * Returns the size of all arrays in bytes, not counting object headers.
+     *
+     * @return
+     */
+    public int sizeInBytes()
+    {
+        return 4 * ( base.length + defaults.length ) + 2 * width * getSlotCount();
+    }
+
+    // element access for code generation
+
+    int base(int state)
+    {
+        return base[ state ];
+    }
+
+    int defaultTransition(int state)
+    {
+        return defaults[ state ];
+    }
+
+    int next(int slot)
+    {
+        return width == 1 ? next8[ slot ] : width == 2 ? next16[ slot ] : next32[ slot ];
+    }
+
+    int check(int slot)
+    {
+        return width == 1 ? check8[ slot ] : width == 2 ? check16[ slot ] : check32[ slot ];
+    }
+
+    @Override
+    public String toString()
+    {
+        return "CombTable[ states: "+base.length+", columns: "+columns+", slots: "+getSlotCount()+", width: "+width+" ]";
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits for converting an NFA into a DFA.
+ *
+ * Subset construction may produce a number of DFA states that is exponential in the size of
+ * the NFA, these limits bound the time and memory a single (possibly user supplied) pattern can take.
+ * When a limit is exceeded, {@link StateMachine#toDFA(java.util.function.Consumer, java.util.function.Function, CompileLimits)}
+ * throws a {@link DFALimitExceededException} and {@link LexerBuilder#compile(LexerBuilder.Configuration, CompileLimits)}
+ * falls back to simulating the NFA.
+ *
+ * All limits default to 'unlimited'. An instance may be cancelled from any thread while a
+ * compilation is using it.
+ */
+public final class CompileLimits
+{
+    public enum Limit
+    {
+        DFA_STATES,
+        TABLE_BYTES,
+        DURATION,
+        CANCELLED
+    }
+
+    /**
+     * Maximum number of DFA states.
+     */
+    public int maxDfaStates = Integer.MAX_VALUE;
+
+    /**
+     * Maximum size of the transition table in bytes, as estimated by {@link #estimateTableBytes(int, int)}.
+     */
+    public long maxTableBytes = Long.MAX_VALUE;
+
+    /**
+     * Maximum time the conversion may take in milliseconds.
+     */
+    public long maxDurationMillis = Long.MAX_VALUE;
+
+    private volatile boolean cancelled;
+
+    /**
+     * Requests cancellation of all compilations using this instance.
+     *
+     * Compilation checks for cancellation after each DFA state it creates.
+     */
+    public void cancel()
+    {
+        this.cancelled = true;
+    }
+
+    public boolean isCancelled()
+    {
+        return cancelled;
+    }
+
+    /**
+     * Estimates the size of a transition table.
+     *
+     * @param dfaStates number of DFA states
+     * @param columns number of columns per state (including the 'any char' column)
+     * @return
+     */
+    public static long estimateTableBytes(int dfaStates, int columns)
+    {
+        return (long) dfaStates * columns * Integer.BYTES;
+    }
+
+    /**
+     * Checks the limits.
+     *
+     * @param dfaStates number of DFA states created so far
+     * @param columns number of columns per state (including the 'any char' column)
+     * @param startNanos {@link System#nanoTime()} when the conversion started
+     * @return the limit that was exceeded or <code>null</code>
+     */
+    Limit check(int dfaStates, int columns, long startNanos)
+    {
+        if ( cancelled ) {
+            return Limit.CANCELLED;
+        }
+        if ( dfaStates > maxDfaStates ) {
+            return Limit.DFA_STATES;
+        }
+        if ( estimateTableBytes( dfaStates, columns ) > maxTableBytes ) {
+            return Limit.TABLE_BYTES;
+        }
+        if ( System.nanoTime() - startNanos > TimeUnit.MILLISECONDS.toNanos( maxDurationMillis ) ) {
+            return Limit.DURATION;
+        }
+        return null;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "CompileLimits[ maxDfaStates: "+maxDfaStates+", maxTableBytes: "+maxTableBytes+", maxDurationMillis: "+maxDurationMillis+", cancelled: "+cancelled+" ]";
+    }
+}
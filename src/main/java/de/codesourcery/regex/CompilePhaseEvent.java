@@ -0,0 +1,145 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder event emitted for each phase of compiling a regular expression or lexer.
+ *
+ * State and transition counts are only gathered when the event is actually going to be recorded,
+ * so the overhead is negligible when no recording is running.
+ */
+@Name("de.codesourcery.regex.CompilePhase")
+@Label("Regex Compile Phase")
+@Category({"Regex", "Compilation"})
+@Description("Time spent in one phase of compiling a regular expression or lexer")
+@StackTrace(false)
+public final class CompilePhaseEvent extends Event
+{
+    /**
+     * Parsing the regex, this includes building the NFA (Thompson or Glushkov construction).
+     */
+    public static final String PARSE = "parse";
+    /**
+     * Simplifying the NFA.
+     */
+    public static final String SIMPLIFY = "simplify";
+    /**
+     * Removing states that are unreachable or cannot reach an accepting state.
+     */
+    public static final String TRIM = "trim";
+    /**
+     * Turning the NFA into a DFA using subset construction.
+     */
+    public static final String TO_DFA = "toDFA";
+    /**
+     * Building lexer tables from a DFA.
+     */
+    public static final String BUILD_TABLES = "buildTables";
+    /**
+     * Generating lexer source code.
+     */
+    public static final String GENERATE_SOURCE = "generateSource";
+
+    @Label("Phase")
+    public String phase;
+
+    @Label("Rule Name")
+    public String ruleName;
+
+    @Label("Pattern")
+    public String pattern;
+
+    @Label("NFA States")
+    public int nfaStates;
+
+    @Label("NFA Transitions")
+    public int nfaTransitions;
+
+    @Label("DFA States")
+    public int dfaStates;
+
+    @Label("DFA Transitions")
+    public int dfaTransitions;
+
+    @Label("Alphabet Size")
+    public int alphabetSize;
+
+    /**
+     * Creates and starts an event.
+     *
+     * @param phase
+     * @param ruleName name of the lexer rule being compiled, may be <code>null</code>
+     * @param pattern regex being compiled, may be <code>null</code>
+     * @return
+     */
+    public static CompilePhaseEvent begin(String phase, String ruleName, String pattern)
+    {
+        final CompilePhaseEvent event = new CompilePhaseEvent();
+        event.phase = phase;
+        event.ruleName = ruleName;
+        event.pattern = pattern;
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Sets the NFA state and transition counts.
+     *
+     * @param initialState initial state of the NFA, may be <code>null</code>
+     */
+    public void nfa(State initialState)
+    {
+        if ( initialState != null )
+        {
+            final int[] counts = count( initialState );
+            nfaStates = counts[0];
+            nfaTransitions = counts[1];
+        }
+    }
+
+    /**
+     * Sets the DFA state and transition counts.
+     *
+     * @param initialState initial state of the DFA, may be <code>null</code>
+     */
+    public void dfa(State initialState)
+    {
+        if ( initialState != null )
+        {
+            final int[] counts = count( initialState );
+            dfaStates = counts[0];
+            dfaTransitions = counts[1];
+        }
+    }
+
+    private static int[] count(State initialState)
+    {
+        final int[] result = new int[2];
+        initialState.visitOutgoingStates( state ->
+        {
+            result[0]++;
+            result[1] += state.outgoingTransitionCount();
+        });
+        return result;
+    }
+}
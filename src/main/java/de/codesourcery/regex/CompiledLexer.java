@@ -0,0 +1,113 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex;
+
+/**
+ * Result of {@link LexerBuilder#compile(LexerBuilder.Configuration, CompileLimits)}.
+ *
+ * Holds either {@link LexerTables} for a DFA or, if one of the {@link CompileLimits} was exceeded
+ * while constructing the DFA, an {@link NFAProgram} to be simulated instead. Immutable.
+ */
+public final class CompiledLexer
+{
+    private final LexerTables tables;
+    private final NFAProgram program;
+    private final DFALimitExceededException fallbackReason;
+
+    public CompiledLexer(LexerTables tables)
+    {
+        if ( tables == null ) {
+            throw new IllegalArgumentException("Tables must not be NULL");
+        }
+        this.tables = tables;
+        this.program = null;
+        this.fallbackReason = null;
+    }
+
+    public CompiledLexer(NFAProgram program, DFALimitExceededException fallbackReason)
+    {
+        if ( program == null ) {
+            throw new IllegalArgumentException("Program must not be NULL");
+        }
+        if ( fallbackReason == null ) {
+            throw new IllegalArgumentException("Fallback reason must not be NULL");
+        }
+        this.tables = null;
+        this.program = program;
+        this.fallbackReason = fallbackReason;
+    }
+
+    /**
+     * Returns whether the rules got compiled into a DFA.
+     *
+     * @return <code>true</code> if {@link #getTables()} is available, <code>false</code> if the NFA gets simulated
+     */
+    public boolean isDeterministic()
+    {
+        return tables != null;
+    }
+
+    /**
+     * @return tables or <code>null</code> if {@link #isDeterministic()} is <code>false</code>
+     */
+    public LexerTables getTables()
+    {
+        return tables;
+    }
+
+    /**
+     * @return NFA or <code>null</code> if {@link #isDeterministic()} is <code>true</code>
+     */
+    public NFAProgram getProgram()
+    {
+        return program;
+    }
+
+    /**
+     * Returns the limit that made DFA construction fail.
+     *
+     * @return limit or <code>null</code> if {@link #isDeterministic()} is <code>true</code>
+     */
+    public CompileLimits.Limit getTrippedLimit()
+    {
+        return fallbackReason == null ? null : fallbackReason.limit;
+    }
+
+    /**
+     * @return exception that made DFA construction fail or <code>null</code>
+     */
+    public DFALimitExceededException getFallbackReason()
+    {
+        return fallbackReason;
+    }
+
+    /**
+     * Creates a lexer for some input.
+     *
+     * @param scanner
+     * @return {@link TableDrivenLexer} or {@link NFALexer}
+     */
+    public ILexer createLexer(IScanner scanner)
+    {
+        return tables != null ? new TableDrivenLexer( tables, scanner ) : new NFALexer( program, scanner );
+    }
+
+    @Override
+    public String toString()
+    {
+        return tables != null ? "CompiledLexer[ "+tables+" ]" : "CompiledLexer[ "+program+", limit exceeded: "+fallbackReason.limit+" ]";
+    }
+}
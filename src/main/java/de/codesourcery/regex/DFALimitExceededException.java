@@ -0,0 +1,36 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex;
+
+/**
+ * Thrown when converting an NFA into a DFA exceeds one of the {@link CompileLimits}.
+ *
+ * The state machine being converted is left untouched and still holds the NFA.
+ */
+public class DFALimitExceededException extends IllegalStateException
+{
+    private static final long serialVersionUID = 1L;
+
+    public final CompileLimits.Limit limit;
+    public final int dfaStates;
+
+    public DFALimitExceededException(CompileLimits.Limit limit, int dfaStates, CompileLimits limits)
+    {
+        super( "DFA conversion aborted after "+dfaStates+" states, limit "+limit+" exceeded ("+limits+")" );
+        this.limit = limit;
+        this.dfaStates = dfaStates;
+    }
+}
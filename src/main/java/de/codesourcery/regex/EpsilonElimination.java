@@ -0,0 +1,362 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Removes all epsilon transitions from an NFA.
+ *
+ * Epsilon closures are computed once per strongly connected component of the epsilon graph
+ * (Tarjan's algorithm, iterative so deep automatons do not overflow the stack), in reverse topological
+ * order so every component can reuse the closures of its successors. Every state that is the initial
+ * state or the target of a character transition then gets a copy of all non-epsilon transitions
+ * leaving its closure and becomes accepting if its closure contains an accepting state.
+ * Finally states that are not reachable from the initial state or cannot reach an accepting state
+ * get dropped.
+ *
+ * The input is left unchanged. Accepting states of the result are flagged {@link State#isAcceptingState}
+ * and keep the {@link State#lexerRule} of the accepting state in their closure. If a closure contains
+ * accepting states of more than one rule (only possible for rules matching the empty string), the state
+ * keeps the rule of the first one.
+ */
+public final class EpsilonElimination
+{
+    private static final int[] NO_STATES = new int[0];
+
+    private final List<State> states = new ArrayList<>();
+    private final Map<State,Integer> indices = new HashMap<>();
+    private int[][] epsilonTargets;
+    private boolean[] accepting;
+
+    // per state: strongly connected component, per component: epsilon closure
+    private int[] component;
+    private int[][] closures;
+
+    private EpsilonElimination() {
+    }
+
+    /**
+     * Creates an epsilon-free copy of an NFA.
+     *
+     * @param initialState initial state of the NFA
+     * @return initial state of the copy
+     */
+    public static State apply(State initialState)
+    {
+        return new EpsilonElimination().eliminate( initialState );
+    }
+
+    private State eliminate(State initialState)
+    {
+        gatherStates( initialState );
+        final int stateCount = states.size();
+
+        // after subset construction or Glushkov's construction only flagged states accept,
+        // in NFAs built by Thompson's construction every terminal state does
+        final boolean flagged = states.stream().anyMatch( s -> s.isAcceptingState );
+        accepting = new boolean[ stateCount ];
+        epsilonTargets = new int[ stateCount ][];
+        final boolean[] keep = new boolean[ stateCount ];
+        keep[0] = true;
+        for ( int i = 0 ; i < stateCount ; i++ )
+        {
+            final State state = states.get( i );
+            accepting[i] = flagged ? state.isAcceptingState : state.isTerminalState();
+            final List<Integer> epsilon = new ArrayList<>();
+            for ( Transition<?> t : state.getOutgoingTransitions() )
+            {
+                if ( t.isEpsilon() ) {
+                    epsilon.add( indices.get( t.destination ) );
+                } else {
+                    keep[ indices.get( t.destination ) ] = true;
+                }
+            }
+            epsilonTargets[i] = epsilon.stream().mapToInt( Integer::intValue ).toArray();
+        }
+
+        computeClosures();
+
+        // rewire: state -> non-epsilon transitions leaving its closure
+        final List<List<Transition<?>>> transitions = new ArrayList<>( stateCount );
+        final boolean[] newAccepting = new boolean[ stateCount ];
+        final LexerBuilder.LexerRule[] rules = new LexerBuilder.LexerRule[ stateCount ];
+        for ( int i = 0 ; i < stateCount ; i++ )
+        {
+            if ( ! keep[i] ) {
+                transitions.add( null );
+                continue;
+            }
+            final List<Transition<?>> list = new ArrayList<>();
+            for ( int member : closures[ component[i] ] )
+            {
+                final State state = states.get( member );
+                if ( accepting[member] && ! newAccepting[i] )
+                {
+                    newAccepting[i] = true;
+                    rules[i] = state.lexerRule;
+                }
+                for ( Transition<?> t : state.getOutgoingTransitions() )
+                {
+                    if ( ! t.isEpsilon() ) {
+                        list.add( t );
+                    }
+                }
+            }
+            transitions.add( list );
+        }
+
+        // drop states that are unreachable or cannot reach an accepting state
+        final boolean[] reachable = new boolean[ stateCount ];
+        final int[] stack = new int[ stateCount ];
+        int stackPtr = 0;
+        reachable[0] = true;
+        stack[stackPtr++] = 0;
+        final List<List<Integer>> predecessors = new ArrayList<>( stateCount );
+        for ( int i = 0 ; i < stateCount ; i++ ) {
+            predecessors.add( null );
+        }
+        while ( stackPtr > 0 )
+        {
+            final int current = stack[--stackPtr];
+            for ( Transition<?> t : transitions.get( current ) )
+            {
+                final int target = indices.get( t.destination );
+                if ( predecessors.get( target ) == null ) {
+                    predecessors.set( target, new ArrayList<>() );
+                }
+                predecessors.get( target ).add( current );
+                if ( ! reachable[target] ) {
+                    reachable[target] = true;
+                    stack[stackPtr++] = target;
+                }
+            }
+        }
+        final boolean[] live = new boolean[ stateCount ];
+        for ( int i = 0 ; i < stateCount ; i++ )
+        {
+            if ( reachable[i] && newAccepting[i] ) {
+                live[i] = true;
+                stack[stackPtr++] = i;
+            }
+        }
+        while ( stackPtr > 0 )
+        {
+            final List<Integer> preds = predecessors.get( stack[--stackPtr] );
+            if ( preds != null )
+            {
+                for ( int pred : preds )
+                {
+                    if ( ! live[pred] ) {
+                        live[pred] = true;
+                        stack[stackPtr++] = pred;
+                    }
+                }
+            }
+        }
+        live[0] = true;
+
+        // create new states
+        final State[] copies = new State[ stateCount ];
+        int transitionCount = 0;
+        for ( int i = 0 ; i < stateCount ; i++ )
+        {
+            if ( live[i] )
+            {
+                final State original = states.get( i );
+                final State copy = new State( original.debugLabel );
+                copy.isAcceptingState = newAccepting[i];
+                copy.lexerRule = rules[i];
+                copies[i] = copy;
+            }
+        }
+        for ( int i = 0 ; i < stateCount ; i++ )
+        {
+            if ( copies[i] == null ) {
+                continue;
+            }
+            final Set<Transition<?>> added = new HashSet<>();
+            for ( Transition<?> t : transitions.get( i ) )
+            {
+                final State destination = copies[ indices.get( t.destination ) ];
+                if ( destination != null )
+                {
+                    final Transition<?> copy = t.copy( copies[i], destination );
+                    if ( added.add( copy ) ) {
+                        copies[i].addTransition( copy );
+                        transitionCount++;
+                    }
+                }
+            }
+        }
+        if ( StateMachine.DEBUG ) {
+            System.out.println("Epsilon elimination: "+stateCount+" states -> "+Arrays.stream( copies ).filter( x -> x != null ).count()+" states, "+transitionCount+" transitions");
+        }
+        return copies[0];
+    }
+
+    private void gatherStates(State initialState)
+    {
+        final List<State> stack = new ArrayList<>();
+        stack.add( initialState );
+        indices.put( initialState, 0 );
+        states.add( initialState );
+        while ( ! stack.isEmpty() )
+        {
+            final State current = stack.remove( stack.size() - 1 );
+            for ( Transition<?> t : current.getOutgoingTransitions() )
+            {
+                if ( ! indices.containsKey( t.destination ) )
+                {
+                    indices.put( t.destination, states.size() );
+                    states.add( t.destination );
+                    stack.add( t.destination );
+                }
+            }
+        }
+    }
+
+    /**
+     * Tarjan's algorithm on the epsilon graph, computing the closure of each component
+     * as soon as it is complete (all components reachable from it are complete by then).
+     */
+    private void computeClosures()
+    {
+        final int stateCount = states.size();
+        component = new int[ stateCount ];
+        Arrays.fill( component, -1 );
+        final int[] lowLink = new int[ stateCount ];
+        final int[] order = new int[ stateCount ];
+        Arrays.fill( order, -1 );
+        final boolean[] onStack = new boolean[ stateCount ];
+        final int[] sccStack = new int[ stateCount ];
+        int sccStackPtr = 0;
+        // call stack of (state, index of next epsilon target to visit)
+        final int[] callState = new int[ stateCount ];
+        final int[] callEdge = new int[ stateCount ];
+        final List<int[]> closureList = new ArrayList<>();
+        // stamp per state to deduplicate closure members
+        final int[] seenIn = new int[ stateCount ];
+        Arrays.fill( seenIn, -1 );
+        int counter = 0;
+
+        for ( int root = 0 ; root < stateCount ; root++ )
+        {
+            if ( order[root] != -1 ) {
+                continue;
+            }
+            int depth = 0;
+            callState[0] = root;
+            callEdge[0] = 0;
+            order[root] = lowLink[root] = counter++;
+            sccStack[sccStackPtr++] = root;
+            onStack[root] = true;
+            while ( depth >= 0 )
+            {
+                final int state = callState[depth];
+                final int[] targets = epsilonTargets[state];
+                if ( callEdge[depth] < targets.length )
+                {
+                    final int target = targets[ callEdge[depth]++ ];
+                    if ( order[target] == -1 )
+                    {
+                        order[target] = lowLink[target] = counter++;
+                        sccStack[sccStackPtr++] = target;
+                        onStack[target] = true;
+                        depth++;
+                        callState[depth] = target;
+                        callEdge[depth] = 0;
+                    }
+                    else if ( onStack[target] )
+                    {
+                        lowLink[state] = Math.min( lowLink[state], order[target] );
+                    }
+                    continue;
+                }
+                if ( lowLink[state] == order[state] )
+                {
+                    // pop component
+                    final int id = closureList.size();
+                    final List<Integer> members = new ArrayList<>();
+                    int member;
+                    do
+                    {
+                        member = sccStack[--sccStackPtr];
+                        onStack[member] = false;
+                        component[member] = id;
+                        members.add( member );
+                    } while ( member != state );
+
+                    final IntArrayBuilder closure = new IntArrayBuilder();
+                    // the state itself comes first so it keeps its own lexer rule if accepting
+                    for ( int i = members.size() - 1 ; i >= 0 ; i-- )
+                    {
+                        seenIn[ members.get( i ) ] = id;
+                        closure.add( members.get( i ) );
+                    }
+                    for ( int m : members )
+                    {
+                        for ( int target : epsilonTargets[m] )
+                        {
+                            final int targetComponent = component[target];
+                            if ( targetComponent != id )
+                            {
+                                for ( int c : closureList.get( targetComponent ) )
+                                {
+                                    if ( seenIn[c] != id ) {
+                                        seenIn[c] = id;
+                                        closure.add( c );
+                                    }
+                                }
+                            }
+                        }
+                    }
+                    closureList.add( closure.toArray() );
+                }
+                depth--;
+                if ( depth >= 0 ) {
+                    final int parent = callState[depth];
+                    lowLink[parent] = Math.min( lowLink[parent], lowLink[state] );
+                }
+            }
+        }
+        closures = closureList.toArray( new int[0][] );
+    }
+
+    private static final class IntArrayBuilder
+    {
+        private int[] data = new int[ 4 ];
+        private int size;
+
+        void add(int value)
+        {
+            if ( size == data.length ) {
+                data = Arrays.copyOf( data, data.length * 2 );
+            }
+            data[size++] = value;
+        }
+
+        int[] toArray() {
+            return size == 0 ? NO_STATES : Arrays.copyOf( data, size );
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex;
+
+import java.util.Arrays;
+
+/**
+ * Remembers (DFA state, input position) configurations from which no accepting state can be reached.
+ *
+ * Maximal munch lexing needs to scan past the end of a token to find out whether a longer
+ * match exists and rewinds to the last accepting position if there is none. Without
+ * memoization inputs like <code>aaaa...b</code> against the rules <code>a</code> and <code>a*b</code>
+ * take quadratic time because the same doomed suffix is scanned again for each token. Marking
+ * each configuration visited after the last accepting position as failed guarantees that no
+ * configuration is scanned twice (T. Reps, "Maximal-munch tokenization in linear time").
+ *
+ * Since the lexer only moves forward, configurations before the start of the current token are
+ * never looked at again and get discarded as soon as a token starts past all remembered positions.
+ *
+ * Failed configurations are kept in a ring indexed by position that covers the positions from the start
+ * of the current token to the last one marked. Each position has room for a few states, more are kept in
+ * an open addressing hash set of <code>position * stateCount + state</code> keys. Lookups for nearby
+ * positions stay close in memory, and memory is proportional to the lookahead rather than to lookahead
+ * times number of states.
+ */
+final class FailureMemo
+{
+    private static final int INITIAL_CAPACITY = 64;
+
+    // ints per position: the number of states marked, followed by up to SLOT_SIZE - 1 states
+    private static final int SLOT_SHIFT = 2;
+    private static final int SLOT_SIZE = 1 << SLOT_SHIFT;
+
+    private static final long EMPTY = -1;
+
+    private final int stateCount;
+    private int[] ring = new int[ INITIAL_CAPACITY * SLOT_SIZE ];
+    // positions from base (inclusive) to end (exclusive) have valid slots
+    private int base;
+    private int end;
+    private int maxPosition = -1;
+
+    private long[] spilled = newTable( INITIAL_CAPACITY );
+    private int spilledCount;
+
+    private int[] path = new int[16];
+
+    FailureMemo(int stateCount)
+    {
+        this.stateCount = stateCount;
+    }
+
+    /**
+     * Must be called before recognizing a token.
+     *
+     * @param position start position of the token
+     */
+    void startToken(int position)
+    {
+        if ( position > maxPosition || position < base )
+        {
+            if ( maxPosition != -1 )
+            {
+                if ( spilledCount > 0 )
+                {
+                    Arrays.fill( spilled, EMPTY );
+                    spilledCount = 0;
+                }
+                maxPosition = -1;
+            }
+            end = position;
+        }
+        // positions before the token start are never looked at again
+        base = position;
+    }
+
+    boolean hasFailed(int state, int position)
+    {
+        if ( position > maxPosition ) {
+            return false;
+        }
+        final int slot = slot( position );
+        final int count = ring[ slot ];
+        for ( int i = 1, last = Math.min( count, SLOT_SIZE - 1 ) ; i <= last ; i++ )
+        {
+            if ( ring[ slot + i ] == state ) {
+                return true;
+            }
+        }
+        return count >= SLOT_SIZE && contains( key( state, position ) );
+    }
+
+    /**
+     * Records the state reached after consuming a number of characters of the current token.
+     *
+     * @param length number of characters consumed so far
+     * @param state state reached
+     */
+    void visited(int length, int state)
+    {
+        if ( length == path.length ) {
+            path = Arrays.copyOf( path, path.length * 2 );
+        }
+        path[length] = state;
+    }
+
+    /**
+     * Returns whether configurations after a position may have been marked as failed.
+     *
+     * @param position
+     * @return
+     */
+    boolean hasFailuresAfter(int position)
+    {
+        return position < maxPosition;
+    }
+
+    /**
+     * Records a run of characters consumed without leaving a state.
+     *
+     * @param length number of characters consumed before the run
+     * @param runLength number of characters in the run
+     * @param state state the run stays in
+     */
+    void visitedRun(int length, int runLength, int state)
+    {
+        if ( length + runLength >= path.length ) {
+            path = Arrays.copyOf( path, Math.max( path.length * 2, length + runLength + 1 ) );
+        }
+        Arrays.fill( path, length + 1, length + runLength + 1, state );
+    }
+
+    /**
+     * Marks all configurations visited after the last accepting one as failed.
+     *
+     * @param tokenStart start position of the token
+     * @param acceptedLength length of the longest accepted prefix or <code>-1</code> if there was none
+     * @param scannedLength number of characters scanned
+     */
+    void markFailed(int tokenStart, int acceptedLength, int scannedLength)
+    {
+        for ( int length = acceptedLength + 1 ; length <= scannedLength ; length++ )
+        {
+            final int position = tokenStart + length;
+            mark( path[length], position );
+            if ( position > maxPosition ) {
+                maxPosition = position;
+            }
+        }
+    }
+
+    private void mark(int state, int position)
+    {
+        if ( position >= end )
+        {
+            if ( position - base >= ring.length >> SLOT_SHIFT ) {
+                grow( position - base + 1 );
+            }
+            for ( ; end <= position ; end++ ) {
+                ring[ slot( end ) ] = 0;
+            }
+        }
+        final int slot = slot( position );
+        final int count = ring[ slot ];
+        for ( int i = 1, last = Math.min( count, SLOT_SIZE - 1 ) ; i <= last ; i++ )
+        {
+            if ( ring[ slot + i ] == state ) {
+                return;
+            }
+        }
+        if ( count < SLOT_SIZE - 1 )
+        {
+            ring[ slot + count + 1 ] = state;
+            ring[ slot ] = count + 1;
+        }
+        else if ( add( key( state, position ) ) )
+        {
+            ring[ slot ] = count + 1;
+        }
+    }
+
+    private int slot(int position)
+    {
+        return ( position & ( ( ring.length >> SLOT_SHIFT ) - 1 ) ) << SLOT_SHIFT;
+    }
+
+    private void grow(int positions)
+    {
+        final int[] old = ring;
+        final int oldMask = ( old.length >> SLOT_SHIFT ) - 1;
+        int capacity = old.length >> SLOT_SHIFT;
+        while ( capacity < positions ) {
+            capacity *= 2;
+        }
+        ring = new int[ capacity * SLOT_SIZE ];
+        for ( int position = base ; position < end ; position++ ) {
+            System.arraycopy( old, ( position & oldMask ) << SLOT_SHIFT, ring, slot( position ), SLOT_SIZE );
+        }
+    }
+
+    private long key(int state, int position)
+    {
+        return (long) position * stateCount + state;
+    }
+
+    private static long[] newTable(int capacity)
+    {
+        final long[] result = new long[ capacity ];
+        Arrays.fill( result, EMPTY );
+        return result;
+    }
+
+    private static int slot(long key, long[] table)
+    {
+        // Fibonacci hashing, table length is a power of two
+        return (int) ( ( key * 0x9e3779b97f4a7c15L ) >>> ( 64 - Integer.numberOfTrailingZeros( table.length ) ) );
+    }
+
+    private boolean contains(long key)
+    {
+        final int mask = spilled.length - 1;
+        for ( int slot = slot( key, spilled ) ; ; slot = ( slot + 1 ) & mask )
+        {
+            final long value = spilled[ slot ];
+            if ( value == key ) {
+                return true;
+            }
+            if ( value == EMPTY ) {
+                return false;
+            }
+        }
+    }
+
+    private boolean add(long key)
+    {
+        if ( 2 * ( spilledCount + 1 ) > spilled.length )
+        {
+            final long[] old = spilled;
+            spilled = newTable( old.length * 2 );
+            for ( long value : old )
+            {
+                if ( value != EMPTY ) {
+                    insert( value );
+                }
+            }
+        }
+        if ( insert( key ) )
+        {
+            spilledCount++;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean insert(long key)
+    {
+        final int mask = spilled.length - 1;
+        for ( int slot = slot( key, spilled ) ; ; slot = ( slot + 1 ) & mask )
+        {
+            final long value = spilled[ slot ];
+            if ( value == key ) {
+                return false;
+            }
+            if ( value == EMPTY )
+            {
+                spilled[ slot ] = key;
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Turns a {@link RegexNode} tree into an epsilon-free NFA using Glushkov's construction
+ * (position automaton).
+ *
+ * Every occurrence of a character set in the expression is a position and gets its own state,
+ * all transitions into that state consume the position's characters. The initial state has
+ * transitions to all positions that can come first, every position has transitions to all
+ * positions that can follow it. States of positions that can come last (and the initial state
+ * if the expression matches the empty string) are flagged as {@link State#isAcceptingState accepting}
+ * because, unlike with Thompson's construction, they may have outgoing transitions.
+ *
+ * A character set repeated a fixed number of times (<code>[0-9]{4}</code>) is a single position
+ * entered through a {@link TransitionRepeat}, any other repeated node gets expanded once per count.
+ */
+public final class GlushkovBuilder
+{
+    // one entry per position
+    private final List<RegexNode> atoms = new ArrayList<>();
+    private final List<Set<Integer>> follow = new ArrayList<>();
+
+    // first/last positions of a sub-expression and whether it matches the empty string
+    private static final class Info
+    {
+        public final Set<Integer> first = new LinkedHashSet<>();
+        public final Set<Integer> last = new LinkedHashSet<>();
+        public boolean nullable;
+    }
+
+    private GlushkovBuilder() {
+    }
+
+    /**
+     * Build an NFA.
+     *
+     * @param node
+     * @return initial state
+     */
+    public static State build(RegexNode node)
+    {
+        return new GlushkovBuilder().buildNFA( node );
+    }
+
+    private State buildNFA(RegexNode node)
+    {
+        final Info info = analyze( node );
+
+        final State initial = new State();
+        final State[] states = new State[ atoms.size() ];
+        for ( int i = 0 ; i < states.length ; i++ ) {
+            states[i] = new State();
+        }
+        for ( int position : info.first ) {
+            addTransitions( initial, position, states[position] );
+        }
+        for ( int i = 0 ; i < states.length ; i++ )
+        {
+            for ( int position : follow.get( i ) ) {
+                addTransitions( states[i], position, states[position] );
+            }
+        }
+        for ( int position : info.last ) {
+            states[position].isAcceptingState = true;
+        }
+        initial.isAcceptingState = info.nullable;
+        return initial;
+    }
+
+    private void addTransitions(State from, int position, State to)
+    {
+        final RegexNode atom = atoms.get( position );
+        if ( atom instanceof RegexNode.Repeat )
+        {
+            final RegexNode.Repeat repeat = (RegexNode.Repeat) atom;
+            final RegexNode.CharSet set = (RegexNode.CharSet) repeat.child;
+            from.addTransition( new TransitionRepeat( set.characters, repeat.min, repeat.max, from, to ) );
+            return;
+        }
+        final RegexNode.CharSet set = (RegexNode.CharSet) atom;
+        from.transition( set.characters, to );
+    }
+
+    private Info position(RegexNode atom, boolean nullable)
+    {
+        final int position = atoms.size();
+        atoms.add( atom );
+        follow.add( new LinkedHashSet<>() );
+        final Info result = new Info();
+        result.first.add( position );
+        result.last.add( position );
+        result.nullable = nullable;
+        return result;
+    }
+
+    private Info analyze(RegexNode node)
+    {
+        if ( node.isCharSet() ) {
+            return position( node, false );
+        }
+        if ( node instanceof RegexNode.Sequence ) {
+            return sequence( node.children() );
+        }
+        if ( node instanceof RegexNode.Alternation )
+        {
+            final Info result = new Info();
+            for ( RegexNode child : node.children() )
+            {
+                final Info info = analyze( child );
+                result.first.addAll( info.first );
+                result.last.addAll( info.last );
+                result.nullable |= info.nullable;
+            }
+            return result;
+        }
+        if ( node instanceof RegexNode.Repeat ) {
+            return repeat( (RegexNode.Repeat) node );
+        }
+        throw new IllegalArgumentException( "Unhandled node: "+node );
+    }
+
+    private Info repeat(RegexNode.Repeat repeat)
+    {
+        final boolean loop = repeat.isUnbounded() && repeat.min <= 1;
+        if ( loop || ( repeat.min == 0 && repeat.max == 1 ) )
+        {
+            final Info info = analyze( repeat.child );
+            if ( loop ) {
+                info.last.forEach( position -> follow.get( position ).addAll( info.first ) );
+            }
+            info.nullable |= repeat.min == 0;
+            return info;
+        }
+        if ( repeat.child.isCharSet() ) {
+            return position( repeat, repeat.min == 0 );
+        }
+        // x{m,n} -> m copies of x followed by n-m copies of x? (or x* if unbounded)
+        final List<RegexNode> copies = new ArrayList<>();
+        for ( int i = 0 ; i < repeat.min ; i++ ) {
+            copies.add( repeat.child );
+        }
+        if ( repeat.isUnbounded() ) {
+            copies.add( new RegexNode.Repeat( repeat.child, 0, TransitionRepeat.UNBOUNDED ) );
+        } else {
+            for ( int i = repeat.min ; i < repeat.max ; i++ ) {
+                copies.add( new RegexNode.Repeat( repeat.child, 0, 1 ) );
+            }
+        }
+        return sequence( copies );
+    }
+
+    private Info sequence(List<RegexNode> children)
+    {
+        final Info result = new Info();
+        result.nullable = true;
+        for ( RegexNode child : children )
+        {
+            final Info info = analyze( child );
+            result.last.forEach( position -> follow.get( position ).addAll( info.first ) );
+            if ( result.nullable ) {
+                result.first.addAll( info.first );
+            }
+            if ( ! info.nullable ) {
+                result.last.clear();
+            }
+            result.last.addAll( info.last );
+            result.nullable &= info.nullable;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,38 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex;
+
+/**
+ * A lexer turning input into {@link Token}s.
+ *
+ * @see TableDrivenLexer
+ * @see NFALexer
+ */
+public interface ILexer
+{
+    boolean eof();
+
+    Token peek();
+
+    Token next();
+
+    /**
+     * Sets whether whitespace should be skipped or returned as {@link TokenType#WHITESPACE} tokens.
+     *
+     * @param yesNo
+     */
+    void setSkipWhitespace(boolean yesNo);
+}
@@ -13,4 +13,39 @@ public interface IScanner
     void setOffset(int offset);
 
     int offset();
+
+    /**
+     * Advances past all characters that are contained in a set.
+     *
+     * @param set characters to skip
+     * @return number of characters skipped
+     */
+    default int skip(char[] set)
+    {
+        int count = 0;
+        while ( ! eof() && ScalarCharSearch.contains( set, peek() ) )
+        {
+            next();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Advances past all characters that lie within some intervals.
+     *
+     * @param ranges intervals of characters to skip, as pairs of first and last (inclusive) character
+     * @param skipped receives the characters skipped
+     * @return number of characters skipped
+     */
+    default int skipWithin(char[] ranges, StringBuilder skipped)
+    {
+        int count = 0;
+        while ( ! eof() && ScalarCharSearch.inRanges( ranges, peek() ) )
+        {
+            skipped.append( next() );
+            count++;
+        }
+        return count;
+    }
 }
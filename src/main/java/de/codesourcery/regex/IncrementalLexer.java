@@ -0,0 +1,553 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Lexer that re-tokenizes only the part of a text that is affected by an edit.
+ *
+ * Lexing a text yields a {@link Snapshot} that, besides the tokens, remembers for each token how far
+ * the lexer had looked at the input when recognizing it or any token before it. This includes the
+ * lookahead of earlier tokens whose failed matches the lexer relied on (see <code>FailureMemo</code>).
+ * When the text gets edited, lexing restarts at the first token whose recognition might have been
+ * influenced by the edit and stops as soon as a token starts behind the edit at the same (shifted)
+ * position as a token of the previous snapshot. All remaining tokens are taken over.
+ *
+ * Text and tokens are kept in gap buffers with the gap at the last edit, positions of tokens behind
+ * the gap are stored relative to the end of the text so that taking them over does not touch them.
+ * An edit thus costs time proportional to its size, its distance from the previous edit and the
+ * number of tokens that need to be re-lexed, not to the size of the text. In exchange,
+ * {@link #relex(Snapshot, int, int, String)} updates the snapshot's buffers in place and the
+ * previous snapshot cannot be used any more.
+ *
+ * Whitespace is always returned as {@link TokenType#WHITESPACE} tokens so that the tokens
+ * of a snapshot cover the whole text. Tables with more than one mode are not supported, the
+ * state at the start of a token would need to include the whole {@link ModeStack}.
+ */
+public final class IncrementalLexer
+{
+    private final LexerTables tables;
+
+    public IncrementalLexer(LexerTables tables)
+    {
+        if ( tables == null ) {
+            throw new IllegalArgumentException("Tables must not be NULL");
+        }
+        if ( tables.getModeCount() > 1 ) {
+            throw new IllegalArgumentException("Tables with more than one mode are not supported");
+        }
+        this.tables = tables;
+    }
+
+    /**
+     * Result of (re-)lexing a text.
+     *
+     * A snapshot is only valid until it gets passed to {@link IncrementalLexer#relex(Snapshot, int, int, String)},
+     * all methods throw an {@link IllegalStateException} afterwards.
+     */
+    public static final class Snapshot
+    {
+        private final Document document;
+        private final int version;
+        private final int firstRelexed;
+        private final int relexedCount;
+        private String text;
+        private LineIndex lineIndex;
+
+        private Snapshot(Document document, int firstRelexed, int relexedCount)
+        {
+            this.document = document;
+            this.version = document.version;
+            this.firstRelexed = firstRelexed;
+            this.relexedCount = relexedCount;
+        }
+
+        private Document document()
+        {
+            if ( document.version != version ) {
+                throw new IllegalStateException("Snapshot has been edited and is no longer valid");
+            }
+            return document;
+        }
+
+        /**
+         * Returns the text, creating a string of it on first use.
+         *
+         * @return
+         */
+        public String getText()
+        {
+            final Document doc = document();
+            if ( text == null ) {
+                text = doc.substring( 0, doc.length );
+            }
+            return text;
+        }
+
+        public int getTokenCount()
+        {
+            return document().tokenCount();
+        }
+
+        public Token getToken(int idx)
+        {
+            final Document doc = document();
+            return doc.token( Objects.checkIndex( idx, doc.tokenCount() ) );
+        }
+
+        /**
+         * Returns all tokens, not including a trailing {@link TokenType#EOF} token.
+         *
+         * @return
+         */
+        public Token[] getTokens()
+        {
+            final Document doc = document();
+            final Token[] result = new Token[ doc.tokenCount() ];
+            for ( int i = 0 ; i < result.length ; i++ ) {
+                result[i] = doc.token( i );
+            }
+            return result;
+        }
+
+        /**
+         * Returns the index of the first token that got re-lexed when creating this snapshot.
+         *
+         * @return
+         */
+        public int getFirstRelexed()
+        {
+            document();
+            return firstRelexed;
+        }
+
+        /**
+         * Returns the number of tokens that got re-lexed when creating this snapshot,
+         * all others were taken over from the previous snapshot.
+         *
+         * @return
+         */
+        public int getRelexedCount()
+        {
+            document();
+            return relexedCount;
+        }
+
+        /**
+         * Returns the line index of the text, building it on first use.
+         *
+         * @return
+         */
+        public LineIndex getLineIndex()
+        {
+            if ( lineIndex == null ) {
+                lineIndex = new LineIndex( getText() );
+            }
+            return lineIndex;
+        }
+    }
+
+    /**
+     * Lexes a text from scratch.
+     *
+     * @param text
+     * @return
+     */
+    public Snapshot lex(String text)
+    {
+        return relex( new Document(), 0, 0, text );
+    }
+
+    /**
+     * Re-lexes a text after an edit.
+     *
+     * @param previous snapshot of the text before the edit, invalid afterwards
+     * @param offset offset of the edit
+     * @param removedLength number of characters removed at <code>offset</code>
+     * @param insertedText text inserted at <code>offset</code>
+     * @return
+     */
+    public Snapshot relex(Snapshot previous, int offset, int removedLength, String insertedText)
+    {
+        final Document doc = previous.document();
+        if ( offset < 0 || removedLength < 0 || offset + removedLength > doc.length ) {
+            throw new IllegalArgumentException( "Edit at offset "+offset+" removing "+removedLength+" characters is out of range, text has "+doc.length+" characters" );
+        }
+        return relex( doc, offset, removedLength, insertedText );
+    }
+
+    private Snapshot relex(Document doc, int offset, int removedLength, String insertedText)
+    {
+        // restart at the first token that looked at the edited part. Reaches never decrease, so
+        // walking back from the first token starting at or after the edit finds it
+        int first = doc.indexOfStart( offset );
+        while ( first > 0 && doc.reach( first - 1 ) > offset ) {
+            first--;
+        }
+        doc.moveTokenGap( first );
+        doc.removeTokensStartingBefore( offset + removedLength );
+        doc.edit( offset, removedLength, insertedText );
+        doc.version++;
+
+        final int editEnd = offset + insertedText.length();
+        final int restartOffset = first > 0 ? doc.end( first - 1 ) : 0;
+        int reach = first > 0 ? doc.reach( first - 1 ) : 0;
+
+        final TrackingScanner scanner = new TrackingScanner( doc );
+        scanner.setOffset( restartOffset );
+        final TableDrivenLexer lexer = new TableDrivenLexer( tables, scanner );
+        lexer.setSkipWhitespace( false );
+
+        int relexed = 0;
+        while ( true )
+        {
+            final int position = scanner.offset();
+            doc.removeTokensStartingBefore( position );
+            // tokens behind the edit only depend on text behind the edit and can be taken over
+            // as soon as one of them starts where the lexer is
+            if ( position >= editEnd && doc.hasTokenBehindGap() && doc.startBehindGap() == position )
+            {
+                doc.raiseReachesBehindGap( reach );
+                break;
+            }
+            final Token token = lexer.next();
+            if ( token.hasType( TokenType.EOF ) ) {
+                break;
+            }
+            // the scanner's high-water mark covers lookahead of earlier tokens this one relies on
+            reach = Math.max( reach, scanner.examinedEnd() );
+            doc.addToken( token, reach );
+            relexed++;
+        }
+        return new Snapshot( doc, first, relexed );
+    }
+
+    /**
+     * Text and tokens of a snapshot.
+     */
+    private static final class Document
+    {
+        // text, chars [textGapStart,textGapEnd) are unused
+        private char[] chars = new char[ 16 ];
+        private int textGapStart;
+        private int textGapEnd = chars.length;
+        int length;
+
+        // tokens [0,tokenGapStart) before the gap store absolute positions,
+        // tokens [tokenGapEnd,capacity) behind the gap store positions minus the text length
+        private int[] starts = new int[ 16 ];
+        private int[] lengths = new int[ 16 ];
+        private int[] reaches = new int[ 16 ];
+        private String[] typeNames = new String[ 16 ];
+        private TokenType[] types = new TokenType[ 16 ];
+        private int tokenGapStart;
+        private int tokenGapEnd = starts.length;
+
+        int version;
+
+        int tokenCount()
+        {
+            return starts.length - ( tokenGapEnd - tokenGapStart );
+        }
+
+        private int slot(int idx)
+        {
+            return idx < tokenGapStart ? idx : idx + ( tokenGapEnd - tokenGapStart );
+        }
+
+        private int absolute(int[] positions, int idx)
+        {
+            return idx < tokenGapStart ? positions[ idx ] : positions[ slot( idx ) ] + length;
+        }
+
+        int start(int idx)
+        {
+            return absolute( starts, idx );
+        }
+
+        int end(int idx)
+        {
+            return start( idx ) + lengths[ slot( idx ) ];
+        }
+
+        /**
+         * Returns the position after the last character looked at when recognizing
+         * the token or any token before it.
+         *
+         * @param idx
+         * @return
+         */
+        int reach(int idx)
+        {
+            return absolute( reaches, idx );
+        }
+
+        Token token(int idx)
+        {
+            final int slot = slot( idx );
+            final int start = start( idx );
+            return new Token( substring( start, start + lengths[ slot ] ), start, types[ slot ], typeNames[ slot ] );
+        }
+
+        /**
+         * Returns the index of the first token starting at or after a position.
+         *
+         * @param position
+         * @return
+         */
+        int indexOfStart(int position)
+        {
+            int low = 0;
+            int high = tokenCount();
+            while ( low < high )
+            {
+                final int mid = ( low + high ) >>> 1;
+                if ( start( mid ) < position ) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        void moveTokenGap(int idx)
+        {
+            while ( tokenGapStart > idx )
+            {
+                tokenGapStart--;
+                tokenGapEnd--;
+                moveToken( tokenGapStart, tokenGapEnd, -length );
+            }
+            while ( tokenGapStart < idx )
+            {
+                moveToken( tokenGapEnd, tokenGapStart, length );
+                tokenGapStart++;
+                tokenGapEnd++;
+            }
+        }
+
+        private void moveToken(int from, int to, int shift)
+        {
+            starts[ to ] = starts[ from ] + shift;
+            reaches[ to ] = reaches[ from ] + shift;
+            lengths[ to ] = lengths[ from ];
+            types[ to ] = types[ from ];
+            final String typeName = typeNames[ from ];
+            typeNames[ from ] = null;
+            typeNames[ to ] = typeName;
+        }
+
+        boolean hasTokenBehindGap()
+        {
+            return tokenGapEnd < starts.length;
+        }
+
+        int startBehindGap()
+        {
+            return starts[ tokenGapEnd ] + length;
+        }
+
+        void removeTokensStartingBefore(int position)
+        {
+            while ( hasTokenBehindGap() && startBehindGap() < position )
+            {
+                typeNames[ tokenGapEnd ] = null;
+                tokenGapEnd++;
+            }
+        }
+
+        /**
+         * Makes the reaches of the tokens behind the gap at least as large as a position.
+         *
+         * Tokens taken over may have relied on failed matches of tokens that got replaced, so
+         * their reaches are kept as an upper bound.
+         *
+         * @param reach
+         */
+        void raiseReachesBehindGap(int reach)
+        {
+            for ( int slot = tokenGapEnd ; slot < starts.length && reaches[ slot ] + length < reach ; slot++ ) {
+                reaches[ slot ] = reach - length;
+            }
+        }
+
+        void addToken(Token token, int reach)
+        {
+            if ( tokenGapStart == tokenGapEnd )
+            {
+                final int capacity = starts.length * 2;
+                final int behind = starts.length - tokenGapEnd;
+                starts = grow( starts, capacity, behind );
+                lengths = grow( lengths, capacity, behind );
+                reaches = grow( reaches, capacity, behind );
+                typeNames = grow( typeNames, capacity, behind );
+                types = grow( types, capacity, behind );
+                tokenGapEnd = capacity - behind;
+            }
+            starts[ tokenGapStart ] = token.offset;
+            lengths[ tokenGapStart ] = token.text.length();
+            reaches[ tokenGapStart ] = reach;
+            typeNames[ tokenGapStart ] = token.typeName;
+            types[ tokenGapStart ] = token.tokenType;
+            tokenGapStart++;
+        }
+
+        private static int[] grow(int[] array, int capacity, int behind)
+        {
+            final int[] result = Arrays.copyOf( array, capacity );
+            System.arraycopy( array, array.length - behind, result, capacity - behind, behind );
+            return result;
+        }
+
+        private static <T> T[] grow(T[] array, int capacity, int behind)
+        {
+            final T[] result = Arrays.copyOf( array, capacity );
+            System.arraycopy( array, array.length - behind, result, capacity - behind, behind );
+            Arrays.fill( result, array.length - behind, Math.min( array.length, capacity - behind ), null );
+            return result;
+        }
+
+        char charAt(int position)
+        {
+            return chars[ position < textGapStart ? position : position + ( textGapEnd - textGapStart ) ];
+        }
+
+        String substring(int start, int end)
+        {
+            if ( end <= textGapStart ) {
+                return new String( chars, start, end - start );
+            }
+            final int gap = textGapEnd - textGapStart;
+            if ( start >= textGapStart ) {
+                return new String( chars, start + gap, end - start );
+            }
+            return new StringBuilder( end - start )
+                .append( chars, start, textGapStart - start )
+                .append( chars, textGapEnd, end - textGapStart )
+                .toString();
+        }
+
+        void edit(int offset, int removedLength, String insertedText)
+        {
+            // move the gap to the edit
+            if ( offset < textGapStart )
+            {
+                final int count = textGapStart - offset;
+                System.arraycopy( chars, offset, chars, textGapEnd - count, count );
+                textGapStart -= count;
+                textGapEnd -= count;
+            }
+            else if ( offset > textGapStart )
+            {
+                final int count = offset - textGapStart;
+                System.arraycopy( chars, textGapEnd, chars, textGapStart, count );
+                textGapStart += count;
+                textGapEnd += count;
+            }
+            textGapEnd += removedLength;
+
+            final int inserted = insertedText.length();
+            if ( textGapEnd - textGapStart < inserted )
+            {
+                final int behind = chars.length - textGapEnd;
+                final int capacity = Math.max( chars.length * 2, textGapStart + inserted + behind + 16 );
+                final char[] newChars = Arrays.copyOf( chars, capacity );
+                System.arraycopy( chars, textGapEnd, newChars, capacity - behind, behind );
+                chars = newChars;
+                textGapEnd = capacity - behind;
+            }
+            insertedText.getChars( 0, inserted, chars, textGapStart );
+            textGapStart += inserted;
+            length += inserted - removedLength;
+        }
+    }
+
+    /**
+     * Scanner that keeps track of the furthest position the lexer looked at.
+     */
+    private static final class TrackingScanner implements IScanner
+    {
+        private final Document input;
+        private int offset;
+        private int examinedEnd;
+
+        TrackingScanner(Document input)
+        {
+            this.input = input;
+        }
+
+        int examinedEnd() {
+            return examinedEnd;
+        }
+
+        private void examined(int position)
+        {
+            if ( position + 1 > examinedEnd ) {
+                examinedEnd = position + 1;
+            }
+        }
+
+        @Override
+        public boolean eof()
+        {
+            if ( offset >= input.length )
+            {
+                // hitting the end of the input influences the result as well
+                examined( offset );
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public char next()
+        {
+            examined( offset );
+            return input.charAt( offset++ );
+        }
+
+        @Override
+        public char peek()
+        {
+            examined( offset );
+            return input.charAt( offset );
+        }
+
+        @Override
+        public void goBack()
+        {
+            if ( offset == 0 ) {
+                throw new IllegalStateException( "Already at beginning of input" );
+            }
+            offset--;
+        }
+
+        @Override
+        public void setOffset(int offset)
+        {
+            this.offset = offset;
+        }
+
+        @Override
+        public int offset()
+        {
+            return offset;
+        }
+    }
+}
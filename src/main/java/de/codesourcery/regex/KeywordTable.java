@@ -0,0 +1,244 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable minimal perfect hash mapping keywords to token types.
+ *
+ * Keywords that are also matched by a more general rule (like <code>true</code> being
+ * matched by an identifier rule) are not compiled into the lexer DFA, instead the
+ * lexer looks up the text of each token it recognized in this table.
+ *
+ * The hash uses the 'hash and displace' scheme: keys are first distributed into buckets using
+ * a fixed seed, then each bucket gets its own seed chosen at build time so that all keys
+ * of the bucket land on distinct, free slots. A lookup thus costs two hash computations and
+ * one string comparison, independent of the number of keywords.
+ */
+public final class KeywordTable
+{
+    private static final int MAX_SEED = 1 << 20;
+
+    private final int[] seeds;
+    private final String[] keywords;
+    private final String[] tokenTypes;
+    private final int minLength;
+    private final int maxLength;
+
+    private KeywordTable(int[] seeds, String[] keywords, String[] tokenTypes)
+    {
+        this.seeds = seeds;
+        this.keywords = keywords;
+        this.tokenTypes = tokenTypes;
+        this.minLength = Arrays.stream( keywords ).mapToInt( String::length ).min().orElse( 0 );
+        this.maxLength = Arrays.stream( keywords ).mapToInt( String::length ).max().orElse( 0 );
+    }
+
+    /**
+     * Builds a perfect hash for the given keywords.
+     *
+     * @param keywordToTokenType map of keyword to token type
+     * @return
+     */
+    public static KeywordTable build(Map<String,String> keywordToTokenType)
+    {
+        final int size = keywordToTokenType.size();
+        if ( size == 0 ) {
+            throw new IllegalArgumentException("Need at least one keyword");
+        }
+        final List<List<String>> buckets = new ArrayList<>( Collections.nCopies( size, null ) );
+        for ( String keyword : keywordToTokenType.keySet() )
+        {
+            final int bucket = index( hash( keyword, 0 ), size );
+            if ( buckets.get( bucket ) == null ) {
+                buckets.set( bucket, new ArrayList<>() );
+            }
+            buckets.get( bucket ).add( keyword );
+        }
+
+        final Integer[] order = new Integer[ size ];
+        for ( int i = 0 ; i < size ; i++ ) {
+            order[i] = i;
+        }
+        // place large buckets first while there are still many free slots
+        Arrays.sort( order, Comparator.comparingInt( (Integer i) -> buckets.get( i ) == null ? 0 : buckets.get( i ).size() ).reversed() );
+
+        final int[] seeds = new int[ size ];
+        final String[] keywords = new String[ size ];
+        final String[] tokenTypes = new String[ size ];
+        final int[] slots = new int[ size ];
+        for ( int bucket : order )
+        {
+            final List<String> keys = buckets.get( bucket );
+            if ( keys == null ) {
+                break;
+            }
+            int seed = 1;
+outer:
+            for ( ; seed < MAX_SEED ; seed++ )
+            {
+                for (int i = 0, len = keys.size(); i < len; i++)
+                {
+                    final int slot = index( hash( keys.get( i ), seed ), size );
+                    if ( keywords[slot] != null ) {
+                        continue outer;
+                    }
+                    for ( int j = 0 ; j < i ; j++ ) {
+                        if ( slots[j] == slot ) {
+                            continue outer;
+                        }
+                    }
+                    slots[i] = slot;
+                }
+                break;
+            }
+            if ( seed == MAX_SEED ) {
+                throw new IllegalStateException( "Failed to find perfect hash for keywords "+keys );
+            }
+            seeds[bucket] = seed;
+            for (int i = 0, len = keys.size(); i < len; i++)
+            {
+                keywords[ slots[i] ] = keys.get( i );
+                tokenTypes[ slots[i] ] = keywordToTokenType.get( keys.get(i) );
+            }
+        }
+        return new KeywordTable( seeds, keywords, tokenTypes );
+    }
+
+    /**
+     * Recreates a table from the arrays of a table built by {@link #build(Map)}, as stored in generated lexers.
+     *
+     * @param seeds seed per bucket
+     * @param keywords keyword per slot
+     * @param tokenTypes token type per slot
+     * @return
+     */
+    static KeywordTable of(int[] seeds, String[] keywords, String[] tokenTypes)
+    {
+        if ( keywords.length == 0 || seeds.length != keywords.length || tokenTypes.length != keywords.length ) {
+            throw new IllegalArgumentException( "Expected one seed, keyword and token type per slot" );
+        }
+        final KeywordTable result = new KeywordTable( seeds.clone(), keywords.clone(), tokenTypes.clone() );
+        for ( int slot = 0 ; slot < keywords.length ; slot++ )
+        {
+            if ( result.indexOf( keywords[ slot ] ) != slot ) {
+                throw new IllegalArgumentException( "Seeds do not map keyword '"+keywords[ slot ]+"' to its slot" );
+            }
+        }
+        return result;
+    }
+
+    private static int index(int hash, int size) {
+        return (hash & 0x7fffffff) % size;
+    }
+
+    private static int hash(CharSequence s, int seed)
+    {
+        // FNV-1a
+        int h = 0x811c9dc5 ^ ( seed * 0x9e3779b9 );
+        for ( int i = 0, len = s.length() ; i < len ; i++ ) {
+            h ^= s.charAt( i );
+            h *= 0x01000193;
+        }
+        return h ^ ( h >>> 15 );
+    }
+
+    /**
+     * Look up the token type of a keyword.
+     *
+     * @param text
+     * @return token type or <code>null</code> if the text is no keyword
+     */
+    public String lookup(CharSequence text)
+    {
+        final int slot = indexOf( text );
+        return slot < 0 ? null : tokenTypes[slot];
+    }
+
+    /**
+     * Look up the slot of a keyword.
+     *
+     * @param text
+     * @return slot, ranging from 0 to {@link #size()} (exclusive), or <code>-1</code> if the text is no keyword
+     */
+    public int indexOf(CharSequence text)
+    {
+        final int len = text.length();
+        if ( len < minLength || len > maxLength ) {
+            return -1;
+        }
+        final int size = keywords.length;
+        final int slot = index( hash( text, seeds[ index( hash( text, 0 ), size ) ] ), size );
+        final String candidate = keywords[slot];
+        if ( candidate.length() != len ) {
+            return -1;
+        }
+        for ( int i = 0 ; i < len ; i++ ) {
+            if ( candidate.charAt( i ) != text.charAt( i ) ) {
+                return -1;
+            }
+        }
+        return slot;
+    }
+
+    public int size() {
+        return keywords.length;
+    }
+
+    /**
+     * Returns all keywords along with their token types.
+     *
+     * @return
+     */
+    public Map<String,String> toMap()
+    {
+        final Map<String,String> result = new LinkedHashMap<>();
+        for ( int i = 0 ; i < keywords.length ; i++ ) {
+            result.put( keywords[i], tokenTypes[i] );
+        }
+        return result;
+    }
+
+    // direct access for code generation, callers must not modify the arrays
+
+    int[] seeds()
+    {
+        return seeds;
+    }
+
+    String[] keywords()
+    {
+        return keywords;
+    }
+
+    String[] tokenTypes()
+    {
+        return tokenTypes;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "KeywordTable"+toMap();
+    }
+}
@@ -5,8 +5,6 @@ import java.util.List;
 
 public class Lexer
 {
-    private static final boolean DEBUG = true;
-
     private final List<Token> tokens = new ArrayList<>();
 
     private final IScanner scanner;
@@ -15,12 +13,41 @@ public class Lexer
 
     private final StringBuilder buffer = new StringBuilder();
 
+    private final FailureMemo memo = new FailureMemo( STATE_COUNT );
+
+    private LexerMetrics metrics = LexerMetrics.GLOBAL;
+
     private boolean skipWhitespace = true;
 
+    private final ModeStack modes = new ModeStack();
+
+    // mode switch to perform once the lookahead token gets consumed
+    private int pendingModeAction = ModeStack.NONE;
+
     public Lexer(IScanner scanner) {
         this.scanner = scanner;
     }
 
+    public String getMode()
+    {
+        return MODES[ modes.current() ];
+    }
+
+    /**
+     * Switches to a mode, forgetting all modes pushed so far and any lookahead.
+     *
+     * @param mode
+     */
+    public void setMode(String mode)
+    {
+        final int index = java.util.Arrays.asList( MODES ).indexOf( mode );
+        if ( index == -1 ) {
+            throw new IllegalArgumentException( "Unknown mode '"+mode+"'" );
+        }
+        modes.reset( index );
+        discardLookahead();
+    }
+
     public boolean eof() {
         if ( tokens.isEmpty() ) {
             parse();
@@ -32,196 +59,276 @@ public class Lexer
         if ( tokens.isEmpty() ) {
             parse();
         }
+        modes.apply( pendingModeAction );
+        pendingModeAction = ModeStack.NONE;
         return tokens.remove(0);
     }
 
+    /**
+     * Sets where to record metrics, only used if {@link LexerMetrics#ENABLED} is set.
+     *
+     * @param metrics
+     */
+    public void setMetrics(LexerMetrics metrics)
+    {
+        this.metrics = metrics;
+    }
+
     public void setSkipWhitespace(boolean yesNo)
     {
         if ( this.skipWhitespace != yesNo )
         {
-            if ( ! this.tokens.isEmpty() ) {
-                this.scanner.setOffset( this.tokens.get(0).offset );
-                this.tokens.clear();
-            }
+            discardLookahead();
             this.skipWhitespace = yesNo;
         }
     }
 
+    private void discardLookahead()
+    {
+        if ( ! this.tokens.isEmpty() ) {
+            this.scanner.setOffset( this.tokens.get(0).offset );
+            this.tokens.clear();
+        }
+        pendingModeAction = ModeStack.NONE;
+    }
+
+    private static final char[] WHITESPACE = { ' ', '\t' };
+
     private static final boolean isWhitespace(char c) {
         return c == '\t' || c == ' ';
     }
 
     private void parse()
     {
-        if ( scanner.eof() )
+        while ( true )
         {
-            tokens.add( new Token("",scanner.offset(),TokenType.EOF));
-            return;
+            if ( scanner.eof() )
+            {
+                tokens.add( new Token("",scanner.offset(),TokenType.EOF));
+                return;
+            }
+
+            buffer.setLength( 0 );
+
+            final int whitespaceOffset = scanner.offset();
+            final int skipped = scanner.skip( WHITESPACE );
+            if ( skipped == 0 ) {
+                break;
+            }
+            if ( ! skipWhitespace )
+            {
+                scanner.setOffset( whitespaceOffset );
+                for ( int i = 0 ; i < skipped ; i++ ) {
+                    buffer.append( scanner.next() );
+                }
+                if ( LexerMetrics.ENABLED ) {
+                    metrics.tokenRecognized( TokenType.WHITESPACE.name(), buffer.length(), buffer.length() );
+                }
+                tokens.add( new Token(buffer.toString(),whitespaceOffset,TokenType.WHITESPACE));
+                return;
+            }
+            if ( LexerMetrics.ENABLED ) {
+                metrics.charactersScanned( skipped );
+            }
         }
 
-        buffer.setLength( 0 );
+        final long startTime = LexerMetrics.LATENCY_ENABLED ? System.nanoTime() : 0;
+        int scanned = 0;
 
         final int startOffset = scanner.offset();
-        for ( ; ! scanner.eof() && isWhitespace( scanner.peek() ) ; ) {
-            buffer.append( scanner.next() );
-        }
-        if ( buffer.length() > 0 ) {
-            tokens.add( new Token(buffer.toString(),scanner.offset(),TokenType.WHITESPACE));
-            return;
-        }
-        int matchedTokenType = -1;
-        int previousState = -1;
-        int currentState = INITIAL_STATE_OFFSET;
-        while ( ! scanner.eof() )
+        memo.startToken( startOffset );
+
+        // maximal munch: keep going until no transition is possible and
+        // then rewind to the end of the longest match
+        int acceptedState = -1;
+        int acceptedLength = -1;
+        int currentState = initialStateOffsets[ modes.current() ];
+        // whether the last character looped back to the current state
+        boolean looping = false;
+        while ( true )
         {
-            if ( DEBUG )
-            {
-                System.out.println( "current_state = " + currentState + " / matchedTokenType = " + matchedTokenType );
+            final int length = buffer.length();
+            memo.visited( length, stateIndex( currentState ) );
+            if ( scanner.eof() || memo.hasFailed( stateIndex( currentState ), startOffset + length ) ) {
+                break;
             }
-            final char c = scanner.next();
-            if ( isWhitespace( c ) )
+            // once a state loops, skip all characters it loops on at once unless configurations
+            // ahead may have failed already: the run would need to stop there
+            final char[] ranges = loopRanges[ stateIndex( currentState ) ];
+            if ( looping && ranges != null && ! memo.hasFailuresAfter( startOffset + length ) )
             {
-                if ( skipWhitespace )
+                final int run = scanner.skipWithin( ranges, buffer );
+                if ( run > 0 )
                 {
+                    memo.visitedRun( length, run, stateIndex( currentState ) );
+                    if ( LexerMetrics.ENABLED ) {
+                        scanned += run;
+                    }
+                    if ( tokenTypes[ stateIndex( currentState ) ] != null )
+                    {
+                        acceptedState = currentState;
+                        acceptedLength = buffer.length();
+                    }
+                    looping = false;
                     continue;
                 }
-                scanner.goBack();
-                return;
             }
-            final int character = mapChar( c );
-            if ( DEBUG )
-            {
-                System.out.println( "'" + c + "' maps to " + character );
+            final char c = scanner.next();
+            if ( LexerMetrics.ENABLED ) {
+                scanned++;
             }
-            int nextState = transitionMap[currentState + character];
-            if ( nextState == -2 )
+            if ( isWhitespace( c ) )
             {
                 scanner.goBack();
-                if ( DEBUG )
-                {
-                    System.out.println( "Reached terminal state" );
-                }
                 break;
             }
-            else if ( nextState == -1 )
+            final int character = mapChar( c );
+            final int nextState = nextState( currentState, character );
+            if ( nextState < 0 )
             {
-                // character not matched, try to match 'any' character
-                if ( DEBUG )
-                {
-                    System.out.println( "Match failed, trying 'any' character match." );
-                }
-                nextState = transitionMap[ currentState ];
-                if ( nextState < 0 )
-                {
-                    scanner.goBack();
-                    if ( DEBUG )
-                    {
-                        System.out.println( "'any' character match FAILED, giving up." );
-                    }
-                    break; // failed to match
-                }
-                else
-                {
-                    if ( DEBUG )
-                    {
-                        System.out.println( "'any' character match succeeded" );
-                    }
-                }
-            } else {
-                if ( DEBUG )
-                {
-                    System.out.println("New state: "+nextState);
-                }
+                scanner.goBack();
+                break; // failed to match
             }
             buffer.append(c);
+            looping = nextState == currentState;
             currentState = nextState;
-            if ( previousState != currentState )
+            if ( tokenTypes[ stateIndex( currentState ) ] != null )
             {
-                // state transition
-                if ( DEBUG )
-                {
-                    System.out.println( "State transition: " + previousState + " -> " + currentState );
-                }
-                matchedTokenType = currentState;
+                acceptedState = currentState;
+                acceptedLength = buffer.length();
             }
-            previousState = currentState;
         }
-        final TokenType type;
-        if ( matchedTokenType < 0 )
+        memo.markFailed( startOffset, acceptedLength, buffer.length() );
+
+        final Token token;
+        if ( acceptedState < 0 )
         {
-            type = TokenType.TEXT;
+            // input not recognized, consume one character so we make progress
+            scanner.setOffset( startOffset );
+            token = new Token( Character.toString( scanner.next() ), startOffset, TokenType.TEXT );
         }
         else
         {
-            type = tokenTypes[matchedTokenType / ALPHABET_SIZE];
+            scanner.setOffset( startOffset + acceptedLength );
+            buffer.setLength( acceptedLength );
+            token = new Token( buffer.toString(), startOffset, tokenType( acceptedState, buffer ) );
+            pendingModeAction = modeActions[ stateIndex( acceptedState ) ];
         }
-        tokens.add( new Token( buffer.toString(), startOffset, type ) );
-    }
-
-    private static final int ALPHABET_SIZE = 36;
-
-    private static final int INITIAL_STATE_OFFSET = 72; // TODO: Generated code
-
-    private static final int[] transitionMap = new int[] { 0,0,0,0,0,0,0,0,0,0,0,-2,-2,
-    -2,-2,-2,-2,-2,-2,-2,-2,-2,-2,-2,-2,-2,-2,-2,-2,-2,-2,-2,-2,-2,-2,-20,-2,-2,-2,-2,
-    -2,-2,-2,-2,-2,-2,36,36,36,36,36,36,36,36,36,36,36,36,36,36,36,36,36,36,36,36,36,
-    36,36,36,360,144,144,144,144,144,144,144,144,144,144,108,108,108,108,108,108,108,
-    108,108,108,108,108,108,108,108,108,108,108,108,108,108,108,108,108,1080,-2,-2,-2,
-    -2,-2,-2,-2,-2,-2,-2,36,36,36,36,36,36,36,36,36,36,36,36,36,36,36,36,36,36,36,36,
-    36,36,36,36,360,0,0,0,0,0,0,0,0,0,0,-2,-2,-2,-2,-2,-2,-2,-2,-2,-2,-2,-2,-2,-2,-2,
-    -2,-2,-2,-2,-2,-2,-2,-2,-2,-20,-2,-2,-2,-2,-2,-2,-2,-2,-2,-2,-2,-2,-2,-2,-2,-2,-2,
-    -2,-2,-2,-2,-2,-2,-2,-2,-2,-2,-2,-2,-2,-2,-2,-2,-2,-2};
-
-    private static final TokenType[] tokenTypes = new TokenType[] {
-    TokenType.NUMBER,
-    TokenType.IDENTIFIER,
-    null,
-    TokenType.IDENTIFIER,
-    TokenType.NUMBER,
-    null
+        tokens.add( token );
+
+        if ( LexerMetrics.ENABLED )
+        {
+            metrics.tokenRecognized( token.typeName, Math.max( scanned, token.text.length() ), token.text.length() );
+            if ( LexerMetrics.LATENCY_ENABLED ) {
+                metrics.tokenLatency( System.nanoTime() - startTime );
+            }
+        }
+    }
+
+    private static final int ALPHABET_SIZE = 4;
+
+    private static final int STATE_COUNT = 5;
+
+    private static final String[] MODES = new String[] { "DEFAULT"};
+
+    private static final int[] initialStateOffsets = new int[] { 0};
+
+    private static final int[] modeActions = new int[ STATE_COUNT ];
+
+    private static final char[] blockOffsets = new char[] { 0,128,128,128,128,128,128,
+    128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,
+    128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,
+    128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,
+    128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,
+    128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,
+    128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,
+    128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,
+    128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,
+    128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,
+    128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,
+    128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,
+    128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,
+    128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,
+    128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,
+    128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,
+    128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,
+    128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,
+    128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,
+    128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,
+    128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,
+    128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,
+    128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,
+    128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,
+    128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,128,
+    128};
+
+    private static final char[] blockColumns = new char[] { 0,0,0,0,0,0,0,0,0,0,0,0,0,
+    0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,1,1,1,1,1,1,
+    1,1,1,1,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,
+    2,0,3,3,3,3,3,3,3,3,3,3,3,3,3,3,3,3,3,3,3,3,3,3,3,3,3,3,0,0,0,0,0,0,0,0,0,0,0,0,0,
+    0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,
+    0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,
+    0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0};
+
+    private static final int[] transitionMap = new int[] { -1,4,8,8,-1,4,-1,-1,-1,12,
+    8,16,-1,12,-1,12,-1,12,8,16};
+
+    private static final char[] loops = new char[] { 0,1,48,57,1,95,95,2,48,57,97,122,
+    1,97,122};
+
+    private static final char[][] loopRanges = unpackLoopRanges( loops );
+
+    private static final TokenType[] tokenTypes = new TokenType[] {    
+    null,TokenType.NUMBER,
+        TokenType.IDENTIFIER,TokenType.IDENTIFIER,TokenType.IDENTIFIER};
+
+    private static final int[] keywordSeeds = new int[] { 1,0,1};
+
+    private static final String[] keywordTexts = new String[] { "true","null","false"
     };
 
+    private static final String[] keywordTypeNames = new String[] { "TRUE","NULL","FALSE"
+    };
+
+    private static final TokenType[] keywordTypes = new TokenType[] { TokenType.TRUE,
+    TokenType.NULL,TokenType.FALSE};
+
+    private static final KeywordTable keywords = KeywordTable.of( keywordSeeds, keywordTexts, keywordTypeNames );
+
     private int mapChar(char c)
     {
-        switch( c ) {
-            case '0': return 1;
-            case '1': return 2;
-            case '2': return 3;
-            case '3': return 4;
-            case '4': return 5;
-            case '5': return 6;
-            case '6': return 7;
-            case '7': return 8;
-            case '8': return 9;
-            case '9': return 10;
-            case 'a': return 11;
-            case 'b': return 12;
-            case 'c': return 13;
-            case 'd': return 14;
-            case 'e': return 15;
-            case 'f': return 16;
-            case 'g': return 17;
-            case 'h': return 18;
-            case 'i': return 19;
-            case 'j': return 20;
-            case 'k': return 21;
-            case 'l': return 22;
-            case 'm': return 23;
-            case 'n': return 24;
-            case 'o': return 25;
-            case 'p': return 26;
-            case 'q': return 27;
-            case 'r': return 28;
-            case 's': return 29;
-            case 't': return 30;
-            case 'u': return 31;
-            case 'v': return 32;
-            case 'w': return 33;
-            case 'x': return 34;
-            case 'y': return 35;
-            case 'z': return 36;
-            default: return ANY_CHARACTER_INDEX;
+        return blockColumns[ blockOffsets[ c >>> 7 ] + ( c & 127 ) ];
+    }
+
+    private int nextState(int state, int column)
+    {
+        return transitionMap[ state + column ];
+    }
+
+    private int stateIndex(int state)
+    {
+        return state / ALPHABET_SIZE;
+    }
+
+    private static char[][] unpackLoopRanges(char[] loops)
+    {
+        final char[][] result = new char[ STATE_COUNT ][];
+        for ( int state = 0, i = 0 ; state < STATE_COUNT ; state++ )
+        {
+            final int count = loops[i++];
+            if ( count > 0 )
+            {
+                result[ state ] = java.util.Arrays.copyOfRange( loops, i, i + 2 * count );
+                i += 2 * count;
+            }
         }
+        return result;
+    }
+
+    private TokenType tokenType(int state, CharSequence text)
+    {
+        final int keyword = keywords.indexOf( text );
+        return keyword < 0 ? tokenTypes[ stateIndex( state ) ] : keywordTypes[ keyword ];
     }
 
     public static void main(String[] args)
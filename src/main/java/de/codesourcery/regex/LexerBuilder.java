@@ -8,24 +8,120 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
 public class LexerBuilder
 {
+    /**
+     * Generated tables with more elements than this are emitted as packed strings instead of array literals.
+     */
+    private static final int MAX_ARRAY_LITERAL = 1024;
+
+    /**
+     * Number of characters per string constant of a packed table, a constant must not
+     * exceed 65535 bytes in modified UTF-8 (up to three bytes per character).
+     */
+    private static final int PACKED_CHUNK_LENGTH = 16384;
+
+    // decoding functions for packed tables, by element type
+    private static final Map<String,String> DECODERS = Map.of(
+            "byte", "    private static byte[] unpackBytes(String... chunks)\n" +
+                    "    {\n" +
+                    "        final String packed = String.join( \"\", chunks );\n" +
+                    "        final byte[] result = new byte[ packed.length() ];\n" +
+                    "        for ( int i = 0 ; i < result.length ; i++ ) {\n" +
+                    "            result[i] = (byte) ( packed.charAt( i ) - 2 );\n" +
+                    "        }\n" +
+                    "        return result;\n" +
+                    "    }\n",
+            "short", "    private static short[] unpackShorts(String... chunks)\n" +
+                    "    {\n" +
+                    "        final String packed = String.join( \"\", chunks );\n" +
+                    "        final short[] result = new short[ packed.length() ];\n" +
+                    "        for ( int i = 0 ; i < result.length ; i++ ) {\n" +
+                    "            result[i] = (short) ( packed.charAt( i ) - 2 );\n" +
+                    "        }\n" +
+                    "        return result;\n" +
+                    "    }\n",
+            "char", "    private static char[] unpackChars(String... chunks)\n" +
+                    "    {\n" +
+                    "        return String.join( \"\", chunks ).toCharArray();\n" +
+                    "    }\n",
+            "int", "    private static int[] unpackInts(int charsPerValue, String... chunks)\n" +
+                    "    {\n" +
+                    "        final String packed = String.join( \"\", chunks );\n" +
+                    "        final int[] result = new int[ packed.length() / charsPerValue ];\n" +
+                    "        for ( int i = 0, j = 0 ; i < result.length ; i++, j += charsPerValue )\n" +
+                    "        {\n" +
+                    "            final int value = charsPerValue == 1 ? packed.charAt( j ) : packed.charAt( j ) << 16 | packed.charAt( j + 1 );\n" +
+                    "            result[i] = value - 2;\n" +
+                    "        }\n" +
+                    "        return result;\n" +
+                    "    }\n",
+            "TokenType", "    private static TokenType[] unpackTokenTypes(TokenType[] types, String... chunks)\n" +
+                    "    {\n" +
+                    "        final String packed = String.join( \"\", chunks );\n" +
+                    "        final TokenType[] result = new TokenType[ packed.length() ];\n" +
+                    "        for ( int i = 0 ; i < result.length ; i++ ) {\n" +
+                    "            result[i] = types[ packed.charAt( i ) - 2 ];\n" +
+                    "        }\n" +
+                    "        return result;\n" +
+                    "    }\n" );
+
+    /**
+     * Mode (start condition) of rules that do not specify one, lexers start in this mode.
+     */
+    public static final String DEFAULT_MODE = "DEFAULT";
+
     public StateMachine stateMachine;
 
     public static final class Configuration
     {
         public final List<LexerRule> rules = new ArrayList<>();
         public final boolean caseInsensitive;
+        /**
+         * Whether literal rules that are also matched by a more general rule
+         * should be looked up in a {@link KeywordTable} instead of being compiled into the DFA.
+         */
+        public boolean extractKeywords = true;
+        /**
+         * Algorithm used to build the NFA of each rule.
+         */
+        public NFAConstruction nfaConstruction = NFAConstruction.THOMPSON;
+        /**
+         * Whether to compress the transition map into a {@link CombTable}.
+         */
+        public boolean compressTables = false;
+        /**
+         * Sample input to tokenize before emitting tables, <code>null</code> to skip profiling.
+         * States get numbered so that frequently visited states and their most frequent successors
+         * have adjacent rows in the transition map. With {@link #compressTables} the most visited states
+         * get full rows at the start of the {@link CombTable}, all others sparse ones (see {@link #hotRowBytes}).
+         */
+        public CharSequence profileSample;
+        /**
+         * Maximum size in bytes of the full rows that states visited by the {@link #profileSample} get in
+         * compressed tables.
+         */
+        public int hotRowBytes = 32 * 1024;
+        /**
+         * Whether states that loop on a few intervals of characters skip whole runs of them
+         * instead of looking up one transition per character, see {@link LexerTables}.
+         */
+        public boolean accelerateLoops = true;
 
         public Configuration(boolean caseInsensitive) {
             this.caseInsensitive = caseInsensitive;
@@ -46,12 +142,155 @@ public class LexerBuilder
 
         public void addRule(String ruleName,String regex, String tokenType)
         {
-            final LexerRule newRule = new LexerRule( ruleName, regex, tokenType);
+            addRule( new LexerRule( ruleName, regex, tokenType) );
+        }
+
+        /**
+         * Adds a rule that is only active in some modes.
+         *
+         * @param modes modes the rule is active in
+         * @param ruleName
+         * @param regex
+         * @param tokenType
+         * @param action mode switch to perform after a token got recognized by this rule, may be <code>null</code>
+         */
+        public void addRule(List<String> modes, String ruleName, String regex, String tokenType, ModeAction action)
+        {
+            addRule( new LexerRule( modes, ruleName, regex, tokenType, action ) );
+        }
+
+        private void addRule(LexerRule newRule)
+        {
             if ( rules.stream().anyMatch( x -> x.ruleName.equals( newRule.ruleName ) ) ) {
                 throw new IllegalArgumentException( "Duplicate rule '"+newRule.ruleName+"'" );
             }
             rules.add( newRule );
         }
+
+        /**
+         * Returns all modes used by rules, in the order lexers number them.
+         *
+         * @return {@link LexerBuilder#DEFAULT_MODE} followed by all other modes in order of first appearance
+         */
+        public List<String> getModes()
+        {
+            final Set<String> result = new LinkedHashSet<>();
+            result.add( DEFAULT_MODE );
+            for ( LexerRule rule : rules )
+            {
+                result.addAll( rule.modes );
+                if ( rule.action != null && rule.action.mode != null ) {
+                    result.add( rule.action.mode );
+                }
+            }
+            return new ArrayList<>( result );
+        }
+
+        /**
+         * Returns whether any rule is restricted to a mode other than {@link LexerBuilder#DEFAULT_MODE} or switches modes.
+         *
+         * @return
+         */
+        public boolean hasModes()
+        {
+            return rules.stream().anyMatch( r -> r.action != null || ! r.modes.equals( DEFAULT_MODES ) );
+        }
+
+        /**
+         * Returns a copy of this configuration without some rules.
+         *
+         * @param toRemove
+         * @return
+         */
+        public Configuration without(Collection<LexerRule> toRemove)
+        {
+            final Configuration result = new Configuration( caseInsensitive );
+            result.extractKeywords = extractKeywords;
+            result.nfaConstruction = nfaConstruction;
+            result.compressTables = compressTables;
+            result.profileSample = profileSample;
+            result.hotRowBytes = hotRowBytes;
+            result.accelerateLoops = accelerateLoops;
+            rules.stream().filter( r -> ! toRemove.contains( r ) ).forEach( result.rules::add );
+            return result;
+        }
+    }
+
+    private static final List<String> DEFAULT_MODES = List.of( DEFAULT_MODE );
+
+    /**
+     * Mode switch performed after a token got recognized.
+     */
+    public static final class ModeAction
+    {
+        public enum Kind
+        {
+            /**
+             * Remember the current mode and enter another one.
+             */
+            PUSH,
+            /**
+             * Return to the mode that was current before the last {@link #PUSH}.
+             */
+            POP,
+            /**
+             * Enter another mode without remembering the current one.
+             */
+            SWITCH
+        }
+
+        public final Kind kind;
+        // target mode, null for POP
+        public final String mode;
+
+        private ModeAction(Kind kind, String mode)
+        {
+            if ( kind != Kind.POP && ( mode == null || mode.isBlank() ) ) {
+                throw new IllegalArgumentException( "Mode must not be blank" );
+            }
+            this.kind = kind;
+            this.mode = mode;
+        }
+
+        public static ModeAction push(String mode)
+        {
+            return new ModeAction( Kind.PUSH, mode );
+        }
+
+        public static ModeAction pop()
+        {
+            return new ModeAction( Kind.POP, null );
+        }
+
+        public static ModeAction switchTo(String mode)
+        {
+            return new ModeAction( Kind.SWITCH, mode );
+        }
+
+        /**
+         * Encodes this action for {@link ModeStack#apply(int)}.
+         *
+         * @param modes all modes as returned by {@link Configuration#getModes()}
+         * @return
+         */
+        int encode(List<String> modes)
+        {
+            switch( kind )
+            {
+                case PUSH:
+                    return ModeStack.encode( ModeStack.PUSH, modes.indexOf( mode ) );
+                case POP:
+                    return ModeStack.encode( ModeStack.POP, 0 );
+                default:
+                    return ModeStack.encode( ModeStack.SWITCH, modes.indexOf( mode ) );
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return kind == Kind.POP ? "pop" : kind.name().toLowerCase()+"("+mode+")";
+        }
     }
 
     public static final class LexerRule {
@@ -59,12 +298,67 @@ public class LexerBuilder
         public final String ruleName;
         public final String regex;
         public final String tokenType;
+        /**
+         * Modes this rule is active in.
+         */
+        public final List<String> modes;
+        /**
+         * Mode switch after this rule recognized a token, <code>null</code> if the mode stays the same.
+         */
+        public final ModeAction action;
 
         public LexerRule(String ruleName, String regex,String tokenType)
         {
+            this( DEFAULT_MODES, ruleName, regex, tokenType, null );
+        }
+
+        public LexerRule(List<String> modes, String ruleName, String regex, String tokenType, ModeAction action)
+        {
+            if ( modes == null || modes.isEmpty() ) {
+                throw new IllegalArgumentException( "Rule '"+ruleName+"' needs to be active in at least one mode" );
+            }
             this.ruleName = ruleName;
             this.regex = regex;
             this.tokenType = tokenType;
+            this.modes = List.copyOf( modes );
+            this.action = action;
+        }
+
+        /**
+         * Returns whether this rule's regex only matches a single fixed string.
+         *
+         * @return
+         */
+        public boolean isLiteral()
+        {
+            return getLiteral() != null;
+        }
+
+        /**
+         * Returns the string matched by this rule's regex.
+         *
+         * @return literal or <code>null</code> if the regex contains any operators
+         */
+        public String getLiteral()
+        {
+            final StringBuilder result = new StringBuilder();
+            for ( int i = 0, len = regex.length() ; i < len ; i++ )
+            {
+                char c = regex.charAt( i );
+                if ( c == '\\' )
+                {
+                    if ( ++i == len ) {
+                        return null;
+                    }
+                    c = RegexParser.unescape( regex.charAt( i ) );
+                }
+                else if ( StateMachine.isOperator( c ) || StateMachine.repetitionLength( regex, i ) > 0 )
+                {
+                    return null;
+                }
+                result.append( c );
+            }
+            return result.length() == 0 ? null : result.toString();
         }
 
         @Override
@@ -86,7 +380,8 @@ public class LexerBuilder
         @Override
         public String toString()
         {
-            return ruleName+"="+regex+( tokenType == null ? "" : " -> "+tokenType);
+            return ( modes.equals( DEFAULT_MODES ) ? "" : "<"+String.join( ",", modes )+">" )+ruleName+"="+regex+( tokenType == null ? "" : " -> "+tokenType)+
+                    ( action == null ? "" : " "+action );
         }
     }
 
@@ -104,7 +399,9 @@ outer:
                 if ( line.isBlank() ) {
                     continue;
                 }
-                System.out.println("LINE: "+line);
+                if ( StateMachine.DEBUG ) {
+                    System.out.println("LINE: "+line);
+                }
                 for ( int i = 0 , l = line.length(); i < l ; i++ )
                 {
                     final char c = line.charAt( i );
@@ -120,18 +417,60 @@ outer:
                 if ( idx == -1 ) {
                     throw new IllegalArgumentException("Missing '=' on line "+lineNo);
                 }
-                final String tokenType = line.substring(0,idx);
+                String tokenType = line.substring(0,idx).trim();
                 final String regex = line.substring(idx+1);
                 if ( regex.isBlank() ) {
                     throw new IllegalArgumentException( "Blank regex on line "+lineNo );
                 }
+                // optional <MODE,...> prefix and mode action after the token type
+                List<String> modes = DEFAULT_MODES;
+                if ( tokenType.startsWith( "<" ) )
+                {
+                    final int end = tokenType.indexOf( '>' );
+                    if ( end == -1 ) {
+                        throw new IllegalArgumentException( "Missing '>' on line "+lineNo );
+                    }
+                    modes = Arrays.stream( tokenType.substring( 1, end ).split( "," ) ).map( String::trim ).collect( Collectors.toList() );
+                    tokenType = tokenType.substring( end + 1 ).trim();
+                }
+                ModeAction action = null;
+                final String[] parts = tokenType.split( "\\s+" );
+                if ( parts.length > 2 ) {
+                    throw new IllegalArgumentException( "Malformed token type on line "+lineNo );
+                }
+                if ( parts.length == 2 )
+                {
+                    tokenType = parts[0];
+                    action = parseModeAction( parts[1], lineNo );
+                }
                 // TODO: tokenType is also used as rule name here
-                result.addRule( tokenType, regex, tokenType);
+                result.addRule( modes, tokenType, regex, tokenType, action );
             }
         }
         return result;
     }
 
+    private static ModeAction parseModeAction(String action, int lineNo)
+    {
+        if ( action.equals( "pop" ) ) {
+            return ModeAction.pop();
+        }
+        final int open = action.indexOf( '(' );
+        if ( open != -1 && action.endsWith( ")" ) )
+        {
+            final String mode = action.substring( open + 1, action.length() - 1 ).trim();
+            switch( action.substring( 0, open ) )
+            {
+                case "push":
+                    return ModeAction.push( mode );
+                case "switch":
+                    return ModeAction.switchTo( mode );
+                default:
+            }
+        }
+        throw new IllegalArgumentException( "Unknown mode action '"+action+"' on line "+lineNo+", expected push(MODE), pop or switch(MODE)" );
+    }
+
     /**
      *
      * @param config
@@ -162,21 +501,22 @@ outer:
 
     public String build(InputStream configFile) throws IOException
     {
-        final Configuration config = parseConfiguration( configFile, true );
-
-        stateMachine = buildStateMachine( config );
-
-        if ( ! stateMachine.isDFA() )
-        {
-            stateMachine.toDFA( state -> {}, getAmbiguousRulesResolver( config ) );
-            if ( ! stateMachine.isDFA() ) {
-                throw new IllegalStateException("DFA conversion failed");
-            }
-        }
+        return build( parseConfiguration( configFile, true ) );
+    }
 
-        final Alphabet alphabet = stateMachine.initialState.getAlphabet();
-        final Function<State,Integer> stateIdToArrayOffset = state -> state.getID() * (alphabet.size());
+    /**
+     * Generates the source of the tables and table access methods used by {@link Lexer}.
+     *
+     * @param config
+     * @return
+     * @throws IOException
+     */
+    public String build(Configuration config) throws IOException
+    {
+        config = config.without( Collections.emptyList() );
+        final LexerTables tables = buildTables( config );
 
+        final CompilePhaseEvent event = CompilePhaseEvent.begin( CompilePhaseEvent.GENERATE_SOURCE, null, null );
         final StringBuilder source = new StringBuilder();
 
         // alphabet size
@@ -186,222 +526,740 @@ outer:
         private static final int ALPHABET_SIZE = 26; // TODO: Generated code
          */
         final String line = "private static final int ALPHABET_SIZE = {0};\n\n";
-        source.append( MessageFormat.format( line, alphabet.size() ) );
+        source.append( MessageFormat.format( line, Integer.toString( tables.getAlphabetSize() ) ) );
 
-        // renumber state IDs so they start with zero
-        Map<Integer, State> existingStates = stateMachine.initialState.gatherAllStates();
-        if ( existingStates.isEmpty() ) {
-            throw new IllegalStateException("Graph needs to have at least one node");
+        source.append( "private static final int STATE_COUNT = " ).append( tables.getStateCount() ).append( ";\n\n" );
+
+        // names of all modes and index of the initial state per mode when starting to look for the next token
+        final String[] modeNames = new String[ tables.getModeCount() ];
+        for ( int mode = 0 ; mode < modeNames.length ; mode++ ) {
+            modeNames[ mode ] = '"' + tables.getModeName( mode ) + '"';
         }
+        appendArray( source, "private static final String[] MODES = new String[] { ", modeNames );
 
-        final AtomicInteger id = new AtomicInteger(0);
-        existingStates.values().forEach( state ->
+        // decoding functions needed for arrays emitted as packed strings, by element type
+        final Set<String> decoders = new TreeSet<>();
+
+        appendTable( source, decoders, "int", "initialStateOffsets", tables.initialStateOffsets() );
+
+        // mode switch per state ID, as encoded by ModeStack
+        if ( Arrays.stream( tables.modeActions() ).allMatch( action -> action == ModeStack.NONE ) ) {
+            source.append( "private static final int[] modeActions = new int[ STATE_COUNT ];\n\n" );
+        } else {
+            appendTable( source, decoders, "int", "modeActions", tables.modeActions() );
+        }
+
+        // character -> index mapping, two-stage lookup of the character's block and its column within the block
+        final StringBuilder mappingFunc = new StringBuilder("    private int mapChar(char c)\n" +
+                "    {\n" +
+                "        return blockColumns[ blockOffsets[ c >>> "+LexerTables.BLOCK_SHIFT+" ] + ( c & "+( LexerTables.BLOCK_SIZE - 1 )+" ) ];\n" +
+                "    }\n");
+
+        final char[] blockOffsets = tables.blockOffsets();
+        final char[] blockColumns = tables.blockColumns();
+        appendTable( source, decoders, "char", "blockOffsets", toInts( blockOffsets ) );
+        appendTable( source, decoders, "char", "blockColumns", toInts( blockColumns ) );
+
+        // transition map, either dense or as comb vector
+        final StringBuilder accessFuncs = new StringBuilder();
+        final CombTable comb = tables.comb();
+        if ( comb == null )
         {
-            final int newId = id.get();
-            id.incrementAndGet();
-            if ( state.id != newId ) {
-                System.out.println("Re-assigning state "+state.getID()+ " -> "+newId );
+            final int[] transitionMap = tables.transitionMap();
+            appendTable( source, decoders, "int", "transitionMap", transitionMap );
+            accessFuncs.append( "    private int nextState(int state, int column)\n" +
+                    "    {\n" +
+                    "        return transitionMap[ state + column ];\n" +
+                    "    }\n\n" +
+                    "    private int stateIndex(int state)\n" +
+                    "    {\n" +
+                    "        return state / ALPHABET_SIZE;\n" +
+                    "    }\n" );
+        }
+        else
+        {
+            final String type = comb.getWidth() == 1 ? "byte" : comb.getWidth() == 2 ? "short" : "int";
+            final int[] base = new int[ comb.getStateCount() ];
+            final int[] defaults = new int[ comb.getStateCount() ];
+            for ( int i = 0 ; i < base.length ; i++ )
+            {
+                base[i] = comb.base( i );
+                defaults[i] = comb.defaultTransition( i );
             }
-            state.id = newId;
-        } );
-        existingStates = stateMachine.initialState.gatherAllStates();
+            final int[] next = new int[ comb.getSlotCount() ];
+            final int[] check = new int[ comb.getSlotCount() ];
+            for ( int i = 0 ; i < next.length ; i++ )
+            {
+                next[i] = comb.next( i );
+                check[i] = comb.check( i );
+            }
+            appendTable( source, decoders, "int", "base", base );
+            appendTable( source, decoders, "int", "defaults", defaults );
+            appendTable( source, decoders, type, "next", next );
+            appendTable( source, decoders, type, "check", check );
+            accessFuncs.append( "    private int nextState(int state, int column)\n" +
+                    "    {\n" +
+                    "        final int index = base[ state ] + column;\n" +
+                    "        return check[ index ] == state ? next[ index ] : defaults[ state ];\n" +
+                    "    }\n\n" +
+                    "    private int stateIndex(int state)\n" +
+                    "    {\n" +
+                    "        return state;\n" +
+                    "    }\n" );
+        }
 
-        // get initial state
-        final List<State> entryStates =
-                existingStates.values().stream().filter( x -> x.incomingTransitionCount() == 0 ).collect( Collectors.toList() );
+        // intervals of characters accelerated states loop on, per state ID the number of intervals followed by their first and last characters
+        final StringBuilder loops = new StringBuilder();
+        for ( int state = 0 ; state < tables.getStateCount() ; state++ )
+        {
+            final char[] ranges = tables.loopRanges( tables.isCompressed() ? state : state * tables.getAlphabetSize() );
+            if ( ranges == null ) {
+                loops.append( (char) 0 );
+            } else {
+                loops.append( (char) ( ranges.length / 2 ) ).append( ranges );
+            }
+        }
+        appendTable( source, decoders, "char", "loops", toInts( loops.toString().toCharArray() ) );
+        source.append( "private static final char[][] loopRanges = unpackLoopRanges( loops );\n\n" );
+        accessFuncs.append( "\n" +
+                "    private static char[][] unpackLoopRanges(char[] loops)\n" +
+                "    {\n" +
+                "        final char[][] result = new char[ STATE_COUNT ][];\n" +
+                "        for ( int state = 0, i = 0 ; state < STATE_COUNT ; state++ )\n" +
+                "        {\n" +
+                "            final int count = loops[i++];\n" +
+                "            if ( count > 0 )\n" +
+                "            {\n" +
+                "                result[ state ] = java.util.Arrays.copyOfRange( loops, i, i + 2 * count );\n" +
+                "                i += 2 * count;\n" +
+                "            }\n" +
+                "        }\n" +
+                "        return result;\n" +
+                "    }\n" );
 
-        if ( entryStates.isEmpty() ) {
-            throw new IllegalStateException("Graph has no entry node ?");
+        // output mapping of terminal states to token types
+        final String[] tokenTypes = tables.tokenTypes();
+        if ( tokenTypes.length > MAX_ARRAY_LITERAL )
+        {
+            // token type names in order of first appearance, states refer to them by index + 1
+            final List<String> names = new ArrayList<>();
+            final int[] typeIndices = new int[ tokenTypes.length ];
+            for ( int i = 0 ; i < tokenTypes.length ; i++ )
+            {
+                if ( tokenTypes[i] != null )
+                {
+                    if ( ! names.contains( tokenTypes[i] ) ) {
+                        names.add( tokenTypes[i] );
+                    }
+                    typeIndices[i] = names.indexOf( tokenTypes[i] ) + 1;
+                }
+            }
+            source.append( "private static final TokenType[] tokenTypes = unpackTokenTypes( new TokenType[] { null," )
+                    .append( names.stream().map( name -> "TokenType." + name ).collect( Collectors.joining( "," ) ) )
+                    .append( " },\n" );
+            appendStringLiteral( source, pack( typeIndices, 1 ) );
+            source.append( ");\n\n" );
+            decoders.add( "TokenType" );
         }
-        if ( entryStates.size() != 1 ) {
-            throw new IllegalStateException("Graph has more than one entry node ?");
+        else
+        {
+            final String termStates = "private static final TokenType[] tokenTypes = new TokenType[] {    \n";
+            source.append( termStates );
+
+            int lineLen = termStates.length();
+            for ( int i = 0, len= tokenTypes.length ; i < len  ; i++ )
+            {
+                final String toAppend = tokenTypes[i] == null ? "null" : "TokenType." + tokenTypes[i];
+                source.append( toAppend );
+                lineLen+=toAppend.length();
+                if ( (i+1) < len ) {
+                    source.append(",");
+                    lineLen++;
+                }
+                if ( lineLen > 80 ) {
+                    source.append("\n    ");
+                    lineLen = 4;
+                }
+            }
+            source.append("};\n\n");
         }
 
-        // gather terminal states
-        final Map<Integer,State> terminalStates = new HashMap<>();
-        // TODO: State that is not associated with any token type
-        // TODO: but is terminal nonetheless ... maybe an artifact of a bug in my NFA -> DFA conversion ?
-        State theUnmatchedState = null;
-        for ( State state : existingStates.values() )
+        // keywords looked up in a perfect hash after a token got recognized, with their token types in slot order
+        final KeywordTable keywords = tables.getKeywords();
+        if ( keywords == null )
         {
-            if ( state.isTerminalState() )
+            accessFuncs.append( "\n" +
+                    "    private TokenType tokenType(int state, CharSequence text)\n" +
+                    "    {\n" +
+                    "        return tokenTypes[ stateIndex( state ) ];\n" +
+                    "    }\n" );
+        }
+        else
+        {
+            final String[] texts = new String[ keywords.size() ];
+            final String[] typeNames = new String[ keywords.size() ];
+            final String[] types = new String[ keywords.size() ];
+            for ( int i = 0 ; i < texts.length ; i++ )
             {
-                if ( state.lexerRule == null ) {
-                    if ( theUnmatchedState != null )
-                    {
-                        throw new IllegalStateException( "Terminal state " + state + " has no lexer rule assigned ?" );
-                    }
-                    theUnmatchedState = state;
+                final StringBuilder literal = new StringBuilder();
+                appendStringLiteral( literal, keywords.keywords()[i] );
+                texts[i] = literal.toString();
+                typeNames[i] = '"' + keywords.tokenTypes()[i] + '"';
+                types[i] = "TokenType." + keywords.tokenTypes()[i];
+            }
+            appendTable( source, decoders, "int", "keywordSeeds", keywords.seeds() );
+            appendArray( source, "private static final String[] keywordTexts = new String[] { ", texts );
+            appendArray( source, "private static final String[] keywordTypeNames = new String[] { ", typeNames );
+            appendArray( source, "private static final TokenType[] keywordTypes = new TokenType[] { ", types );
+            source.append( "private static final KeywordTable keywords = KeywordTable.of( keywordSeeds, keywordTexts, keywordTypeNames );\n\n" );
+            accessFuncs.append( "\n" +
+                    "    private TokenType tokenType(int state, CharSequence text)\n" +
+                    "    {\n" +
+                    "        final int keyword = keywords.indexOf( text );\n" +
+                    "        return keyword < 0 ? tokenTypes[ stateIndex( state ) ] : keywordTypes[ keyword ];\n" +
+                    "    }\n" );
+        }
+
+        // append mapping and table access functions
+        source.append( mappingFunc ).append( "\n" ).append( accessFuncs );
+        for ( String type : decoders ) {
+            source.append( "\n" ).append( DECODERS.get( type ) );
+        }
+
+        event.end();
+        if ( event.shouldCommit() )
+        {
+            event.dfaStates = tables.getStateCount();
+            event.alphabetSize = tables.getAlphabetSize();
+            event.commit();
+        }
+        return source.toString();
+    }
+
+    private static int[] toInts(char[] values)
+    {
+        final int[] result = new int[ values.length ];
+        for ( int i = 0 ; i < values.length ; i++ ) {
+            result[i] = values[i];
+        }
+        return result;
+    }
+
+    private static void appendArray(StringBuilder source, String declaration, String[] values)
+    {
+        source.append( declaration );
+        int lineLength = declaration.length();
+        for (int i = 0, len = values.length; i < len; i++)
+        {
+            source.append( values[i] );
+            lineLength += values[i].length();
+            if ( (i+1) < len ) {
+                source.append(",");
+                lineLength++;
+            }
+            if ( lineLength > 80 )
+            {
+                source.append( "\n" );
+                lineLength = 0;
+            }
+        }
+        source.append("};\n\n");
+    }
+
+    /**
+     * Appends the declaration of a table, as array literal if it is small and as packed string otherwise.
+     *
+     * Array literals compile to code that stores every single element, making <code>&lt;clinit&gt;</code> slow and
+     * running into the 64 KB method size limit for large tables. Packed strings end up in the constant pool instead
+     * and get decoded once when the class is loaded.
+     *
+     * @param source
+     * @param decoders receives the element type if a decoding function is needed
+     * @param type element type, one of <code>byte</code>, <code>short</code>, <code>char</code> or <code>int</code>
+     * @param name
+     * @param values
+     */
+    private static void appendTable(StringBuilder source, Set<String> decoders, String type, String name, int[] values)
+    {
+        final String declaration = "private static final "+type+"[] "+name+" = ";
+        if ( values.length <= MAX_ARRAY_LITERAL )
+        {
+            final String[] literals = new String[ values.length ];
+            for ( int i = 0 ; i < values.length ; i++ ) {
+                literals[i] = Integer.toString( values[i] );
+            }
+            appendArray( source, declaration + "new "+type+"[] { ", literals );
+            return;
+        }
+        decoders.add( type );
+        source.append( declaration );
+        switch( type )
+        {
+            case "char":
+                final StringBuilder chars = new StringBuilder();
+                for ( int value : values ) {
+                    chars.append( (char) value );
+                }
+                source.append( "unpackChars(\n" );
+                appendStringLiteral( source, chars.toString() );
+                break;
+            case "int":
+                // negative markers are stored with an offset of two, larger values need two characters per element
+                final int charsPerValue = Arrays.stream( values ).allMatch( v -> v + 2 <= Character.MAX_VALUE ) ? 1 : 2;
+                source.append( "unpackInts( " ).append( charsPerValue ).append( ",\n" );
+                appendStringLiteral( source, pack( values, charsPerValue ) );
+                break;
+            default:
+                source.append( "unpack" ).append( Character.toUpperCase( type.charAt( 0 ) ) ).append( type.substring( 1 ) ).append( "s(\n" );
+                appendStringLiteral( source, pack( values, 1 ) );
+        }
+        source.append( ");\n\n" );
+    }
+
+    private static String pack(int[] values, int charsPerValue)
+    {
+        final StringBuilder result = new StringBuilder( values.length * charsPerValue );
+        for ( int value : values )
+        {
+            final int packed = value + 2;
+            if ( charsPerValue == 2 ) {
+                result.append( (char) ( packed >>> 16 ) );
+            }
+            result.append( (char) packed );
+        }
+        return result.toString();
+    }
+
+    /**
+     * Appends string literals holding some text, as comma-separated chunks that
+     * each fit into a single class file constant.
+     *
+     * @param source
+     * @param text
+     */
+    private static void appendStringLiteral(StringBuilder source, String text)
+    {
+        for ( int start = 0 ; start < text.length() || start == 0 ; start += PACKED_CHUNK_LENGTH )
+        {
+            if ( start > 0 ) {
+                source.append( ",\n" );
+            }
+            final int end = Math.min( text.length(), start + PACKED_CHUNK_LENGTH );
+            source.append( '"' );
+            int lineLength = 1;
+            for ( int i = start ; i < end ; i++ )
+            {
+                final char c = text.charAt( i );
+                final String escaped;
+                if ( c == '"' || c == '\\' ) {
+                    escaped = "\\" + c;
+                } else if ( c == '\n' ) {
+                    escaped = "\\n";
+                } else if ( c == '\r' ) {
+                    escaped = "\\r";
+                } else if ( c >= ' ' && c <= '~' ) {
+                    escaped = Character.toString( c );
+                } else {
+                    escaped = String.format( "\\u%04x", (int) c );
                 }
-                if ( terminalStates.put( state.getID(), state ) != null ) {
-                    throw new IllegalStateException( "State with ID "+state.getID()+" already seen?");
+                source.append( escaped );
+                lineLength += escaped.length();
+                if ( lineLength > 80 && i + 1 < end )
+                {
+                    source.append( "\" +\n\"" );
+                    lineLength = 1;
                 }
             }
+            source.append( '"' );
         }
+    }
 
-        // Index of initial state
-        /*
-         * Index of initial state when starting to look for the next token.
-        private static final int INITIAL_STATE_OFFSET = -1; // TODO: Generated code
-         */
-        String line2 = "private static final int INITIAL_STATE_OFFSET = {0}; // TODO: Generated code\n\n";
-        source.append( MessageFormat.format( line2, stateIdToArrayOffset.apply( entryStates.get(0) ) ) );
+    /**
+     * Parses a configuration and compiles it into lexer tables.
+     *
+     * @param configFile
+     * @return
+     * @throws IOException
+     * @see TableDrivenLexer
+     */
+    public LexerTables buildTables(InputStream configFile) throws IOException
+    {
+        return buildTables( parseConfiguration( configFile, true ) );
+    }
 
-        // character -> index mapping
-        final StringBuilder mappingFunc = new StringBuilder("    private int mapChar(char c)\n" +
-                "    {\n" +
-                "        switch( c ) {\n");
+    /**
+     * Compiles a configuration into lexer tables.
+     *
+     * @param config
+     * @return
+     * @throws IOException
+     * @see TableDrivenLexer
+     */
+    public LexerTables buildTables(Configuration config) throws IOException
+    {
+        return compile( config, new CompileLimits() ).getTables();
+    }
+
+    /**
+     * Compiles a configuration into lexer tables, falling back to simulating the NFA
+     * if the DFA exceeds some limits.
+     *
+     * Configurations with more than one mode get compiled into a single DFA with one initial state per mode,
+     * states reachable from several modes are shared. There is no fallback for them, exceeding a limit
+     * throws a {@link DFALimitExceededException}. Keywords are never extracted from configurations that use modes.
+     *
+     * @param config
+     * @param limits limits for constructing the DFA
+     * @return
+     * @throws IOException
+     * @see CompiledLexer#createLexer(IScanner)
+     */
+    public CompiledLexer compile(Configuration config, CompileLimits limits) throws IOException
+    {
+        final List<String> modes = config.getModes();
+        final Map<String,String> keywords = new HashMap<>();
+        if ( config.extractKeywords && ! config.hasModes() )
+        {
+            final List<LexerRule> keywordRules = findKeywordRules( config );
+            keywordRules.forEach( rule -> keywords.putIfAbsent( rule.getLiteral(), rule.tokenType ) );
+            config = config.without( keywordRules );
+        }
+
+        final List<State> initialStates;
+        if ( modes.size() > 1 )
+        {
+            final List<State> nfas = buildModeNFAs( config, modes );
+            StateMachine.trim( nfas );
+            initialStates = StateMachine.toDFA( nfas, getAmbiguousRulesResolver( config ), limits );
+            stateMachine = new StateMachine();
+            stateMachine.initialState = initialStates.get( 0 );
+        }
+        else
+        {
+            stateMachine = buildStateMachine( config );
+            stateMachine.simplify();
+            initialStates = null;
+        }
 
-        final Map<Character,Integer> characterMap = new HashMap<>();
-        final Map<Integer,Character> intToCharMap = new HashMap<>();
-        int idx = 1; // index 0 is reserved for ANY_CHARACTER_INDEX
-        final List<Character> sorted = new ArrayList<>( alphabet.characters );
-        sorted.sort( Character::compare );
-        for ( Character c : sorted)
+        if ( ! stateMachine.isDFA() )
         {
-            if ( c == '\\' ) {
-                mappingFunc.append( "        case '\\" + c + "': return " + idx + ";\n" );
+            try
+            {
+                stateMachine.toDFA( state -> {}, getAmbiguousRulesResolver( config ), limits );
             }
-            else
+            catch(DFALimitExceededException e)
             {
-                mappingFunc.append( "        case '" + c + "': return " + idx + ";\n" );
+                if ( StateMachine.DEBUG ) {
+                    System.out.println( e.getMessage()+", falling back to NFA simulation" );
+                }
+                return new CompiledLexer( new NFAProgram( stateMachine.initialState, config, keywords.isEmpty() ? null : KeywordTable.build( keywords ) ), e );
+            }
+            if ( ! stateMachine.isDFA() ) {
+                throw new IllegalStateException("DFA conversion failed");
             }
-            characterMap.put( c, idx );
-            intToCharMap.put( idx, c );
-            idx++;
         }
-        mappingFunc.append("        default: return ANY_CHARACTER_INDEX;\n    }\n" +
-                "    }\n");
 
-        // transition map
-        final String s = "private static final int[] transitionMap = new int[] { ";
-        source.append( s );
-        int lineLength = s.length();
-        for ( int stateId = 0 ; stateId < existingStates.values().size() ; stateId++ )
+        final CompilePhaseEvent event = CompilePhaseEvent.begin( CompilePhaseEvent.BUILD_TABLES, null, null );
+
+        // one initial state per mode
+        final List<State> roots = initialStates == null ? List.of( stateMachine.initialState ) : initialStates;
+        // transitions into dead states become NO_TRANSITION
+        StateMachine.trim( roots );
+        final List<CharRanges> sets = new ArrayList<>();
+        roots.forEach( root -> root.visitOutgoingTransitions( t -> {
+            if ( ! t.isEpsilon() ) {
+                sets.add( t.getCharacters() );
+            }
+        }) );
+        final Alphabet alphabet = Alphabet.of( sets );
+
+        // renumber state IDs so they start with zero
+        Map<Integer, State> existingStates = gatherAllStates( roots );
+        if ( existingStates.isEmpty() ) {
+            throw new IllegalStateException("Graph needs to have at least one node");
+        }
+
+        final AtomicInteger id = new AtomicInteger(0);
+        existingStates.values().forEach( state ->
+        {
+            final int newId = id.get();
+            id.incrementAndGet();
+            if ( state.id != newId ) {
+                if ( StateMachine.DEBUG ) {
+                    System.out.println("Re-assigning state "+state.getID()+ " -> "+newId );
+                }
+            }
+            state.id = newId;
+        } );
+        existingStates = gatherAllStates( roots );
+
+        for ( State state : existingStates.values() )
+        {
+            if ( state.isAcceptingState && state.lexerRule == null ) {
+                throw new IllegalStateException( "Accepting state " + state + " has no lexer rule assigned ?" );
+            }
+        }
+
+        // transitions per state and symbol, holding the ID of the next state
+        final int stateCount = existingStates.size();
+        final int symbolCount = alphabet.size();
+        final int[] symbolMap = new int[ stateCount * symbolCount ];
+        final String[] tokenTypes = new String[ stateCount ];
+        final int[] modeActions = new int[ stateCount ];
+        for ( int stateId = 0 ; stateId < stateCount ; stateId++ )
         {
             final State state = existingStates.get( stateId );
             if ( state == null ) {
                 throw new RuntimeException("Found no state with ID "+stateId+" ?");
             }
 
-            final int[] tmp = new int[ alphabet.size() ];
+            final int rowOffset = stateId * symbolCount;
+            Arrays.fill( symbolMap, rowOffset, rowOffset + symbolCount, LexerTables.NO_TRANSITION );
 
-            // prepare data
-            final Map<Character,Transition> transitionMap = new HashMap<>();
-            boolean gotAny = false;
             for ( Transition t : state.getOutgoingTransitions() )
             {
-                if ( t.isAnyChar() )
-                {
-                    if ( gotAny ) {
-                        throw new IllegalStateException( "State "+state+" has more than one ANY_CHARACTER transition?" );
-                    }
-                    tmp[ 0 ] = stateIdToArrayOffset.apply( t.destination );
-                    gotAny = true;
+                if ( t.isEpsilon() || t.isRepeat() ) {
+                    throw new RuntimeException("Unhandled transition type: "+t);
                 }
-                else if ( t.isChar() )
+                for ( int symbol : alphabet.symbolsOf( t.getCharacters() ) )
                 {
-                    final char c = ((TransitionChar) t).c;
-                    if ( transitionMap.put( c, t ) != null ) {
-                        throw new IllegalStateException( "State "+state+" has more than one '"+c+"' character transition?" );
+                    if ( symbolMap[ rowOffset + symbol ] != LexerTables.NO_TRANSITION ) {
+                        throw new IllegalStateException( "State "+state+" has more than one transition for "+alphabet.symbol( symbol )+"?" );
                     }
-                } else {
-                    throw new RuntimeException("Unhandled transition type: "+t);
+                    symbolMap[ rowOffset + symbol ] = t.destination.getID();
                 }
             }
-            // fill in array entries
-            for ( int arrayIdx = 1 ; arrayIdx < alphabet.size() ; arrayIdx++ )
+
+            tokenTypes[ stateId ] = state.isAcceptingState ? state.lexerRule.tokenType : null;
+            if ( tokenTypes[ stateId ] != null && state.lexerRule.action != null ) {
+                modeActions[ stateId ] = state.lexerRule.action.encode( modes );
+            }
+        }
+
+        // symbols with identical columns in every state share a column, index 0 is reserved for ANY_CHARACTER_INDEX
+        final int[] symbolColumns = characterClasses( symbolMap, stateCount, symbolCount );
+        int alphabetSize = 1;
+        for ( int column : symbolColumns ) {
+            alphabetSize = Math.max( alphabetSize, column + 1 );
+        }
+
+        // character interval -> column mapping, merging adjacent intervals that ended up in the same column
+        final char[] ranges = new char[ 2 * alphabet.intervalCount() ];
+        final int[] rangeColumns = new int[ alphabet.intervalCount() ];
+        int rangeCount = 0;
+        for ( int i = 0 ; i < alphabet.intervalCount() ; i++ )
+        {
+            final int column = symbolColumns[ alphabet.intervalSymbol( i ) ];
+            if ( rangeCount > 0 && rangeColumns[ rangeCount - 1 ] == column && ranges[ 2 * rangeCount - 1 ] + 1 == alphabet.intervalFirst( i ) )
             {
-                final Character c = intToCharMap.get( arrayIdx );
-                Transition transition = transitionMap.get( c );
-                if ( transition != null ) {
-                    if ( transition.destination.equals( theUnmatchedState ) ) {
-                        tmp[arrayIdx] = -2; // special marker indicating that we moved past a recognized token
-                    } else
-                    {
-                        tmp[arrayIdx] = stateIdToArrayOffset.apply( transition.destination );
-                    }
-                } else {
-                    tmp[arrayIdx] = -1;
-                }
+                ranges[ 2 * rangeCount - 1 ] = alphabet.intervalLast( i );
+                continue;
             }
+            ranges[ 2 * rangeCount ] = alphabet.intervalFirst( i );
+            ranges[ 2 * rangeCount + 1 ] = alphabet.intervalLast( i );
+            rangeColumns[ rangeCount++ ] = column;
+        }
 
-            for (int i = 0, tmpLength = tmp.length; i < tmpLength; i++)
+        // transition map
+        final int[] transitionMap = new int[ stateCount * alphabetSize ];
+        Arrays.fill( transitionMap, LexerTables.NO_TRANSITION );
+        for ( int stateId = 0 ; stateId < stateCount ; stateId++ )
+        {
+            for ( int symbol = 0 ; symbol < symbolCount ; symbol++ )
             {
-                final int value = tmp[i];
-                final String tmpString = Integer.toString( value );
-                source.append( tmpString );
-                lineLength += tmpString.length();
-                if ( (i+1) < tmpLength ) {
-                    source.append(",");
-                    lineLength++;
-                }
+                final int next = symbolMap[ stateId * symbolCount + symbol ];
+                transitionMap[ stateId * alphabetSize + symbolColumns[ symbol ] ] = next < 0 ? next : next * alphabetSize;
+            }
+        }
+        final int[] initialStateOffsets = new int[ roots.size() ];
+        for ( int mode = 0 ; mode < initialStateOffsets.length ; mode++ ) {
+            initialStateOffsets[ mode ] = roots.get( mode ).getID() * alphabetSize;
+        }
+        LexerTables dense = new LexerTables( modes.toArray( new String[0] ), initialStateOffsets, modeActions,
+                alphabetSize, Arrays.copyOf( ranges, 2 * rangeCount ), Arrays.copyOf( rangeColumns, rangeCount ), transitionMap, tokenTypes,
+                keywords.isEmpty() ? null : KeywordTable.build( keywords ) );
+        int hotStateCount = 0;
+        if ( config.profileSample != null )
+        {
+            final StateProfile profile = StateProfile.run( dense, config.profileSample );
+            dense = dense.renumber( profile.order() );
+            // next and check hold one element of CombTable#width bytes per column
+            final int rowBytes = 2 * alphabetSize * CombTable.width( dense.getStateCount() );
+            hotStateCount = Math.min( profile.visitedStateCount(), config.hotRowBytes / rowBytes );
+        }
+        if ( ! config.accelerateLoops ) {
+            dense = dense.withoutAcceleration();
+        }
+        final LexerTables result = config.compressTables ? dense.compress( hotStateCount ) : dense;
+        event.end();
+        if ( event.shouldCommit() )
+        {
+            event.dfa( stateMachine.initialState );
+            event.alphabetSize = alphabetSize;
+            event.commit();
+        }
+        return new CompiledLexer( result );
+    }
 
-                if ( lineLength > 80 )
-                {
-                    source.append( "\n" );
-                    lineLength = 0;
+    private static Map<Integer,State> gatherAllStates(List<State> roots)
+    {
+        final Map<Integer,State> result = new HashMap<>();
+        roots.forEach( root -> result.putAll( root.gatherAllStates() ) );
+        return result;
+    }
+
+    /**
+     * Groups symbols into character classes that behave the same in every state.
+     *
+     * Runs a partition refinement over the rows of the table: two symbols stay in
+     * the same class as long as every row seen so far has the same entry for both of them.
+     *
+     * @param symbolMap transitions, one row of <code>symbolCount</code> entries per state
+     * @param stateCount
+     * @param symbolCount
+     * @return column per symbol, columns are numbered starting with 1 in order of first appearance
+     */
+    static int[] characterClasses(int[] symbolMap, int stateCount, int symbolCount)
+    {
+        int[] classes = new int[ symbolCount ];
+        int classCount = symbolCount == 0 ? 0 : 1;
+        final Map<Long,Integer> refined = new HashMap<>();
+        for ( int stateId = 0 ; stateId < stateCount && classCount < symbolCount ; stateId++ )
+        {
+            refined.clear();
+            final int[] next = new int[ symbolCount ];
+            for ( int symbol = 0 ; symbol < symbolCount ; symbol++ )
+            {
+                final long key = ( (long) classes[ symbol ] << 32 ) | ( symbolMap[ stateId * symbolCount + symbol ] & 0xffffffffL );
+                Integer newClass = refined.get( key );
+                if ( newClass == null ) {
+                    newClass = refined.size();
+                    refined.put( key, newClass );
                 }
+                next[ symbol ] = newClass;
             }
+            classes = next;
+            classCount = refined.size();
         }
-        source.append("};\n\n");
-
-        // output mapping of terminal states to token types
-        final String termStates = "private static final TokenType[] tokenTypes = new TokenType[] {    \n";
-        source.append( termStates );
+        for ( int symbol = 0 ; symbol < symbolCount ; symbol++ ) {
+            classes[ symbol ]++;
+        }
+        return classes;
+    }
 
-        int lineLen = termStates.length();
-        for ( int i = 0, len= existingStates.values().size() ; i < len  ; i++ )
+    /**
+     * Finds literal rules that can be recognized by looking up the text of tokens matched by another rule.
+     *
+     * A literal rule qualifies if it is matched by at least one non-literal rule and comes
+     * before all of them (so it would always win when resolving the ambiguity).
+     *
+     * @param config
+     * @return
+     */
+    public static List<LexerRule> findKeywordRules(Configuration config)
+    {
+        final List<LexerRule> result = new ArrayList<>();
+        final Map<LexerRule,State> matchers = new HashMap<>();
+        for ( LexerRule rule : config.rules )
         {
-            State terminal = terminalStates.get( i );
-            final String toAppend;
-            if ( terminal == null || terminal.lexerRule == null ) {
-                toAppend = "null";
-            } else {
-                toAppend = terminal.lexerRule.tokenType;
+            final String literal = rule.getLiteral();
+            if ( literal == null ) {
+                continue;
             }
-            source.append( toAppend );
-            lineLen+=toAppend.length();
-            if ( (i+1) < len ) {
-                source.append(",");
-                lineLen++;
+            final int ruleIdx = config.indexOf( rule );
+            boolean subsumed = false;
+            boolean preceded = false;
+            for ( LexerRule other : config.rules )
+            {
+                if ( other.isLiteral() ) {
+                    continue;
+                }
+                final State dfa = matchers.computeIfAbsent( other, LexerBuilder::buildDFA );
+                if ( StateMachine.matchesDFA( dfa, literal ) )
+                {
+                    subsumed = true;
+                    preceded |= config.indexOf( other ) < ruleIdx;
+                }
             }
-            if ( lineLen > 80 ) {
-                source.append("\n    ");
+            if ( subsumed && ! preceded ) {
+                result.add( rule );
             }
         }
-        source.append("};\n\n");
+        return result;
+    }
 
-        // append mapping function
-        source.append( mappingFunc );
-        return source.toString();
+    private static State buildDFA(LexerRule rule)
+    {
+        final StateMachine sm = new StateMachine();
+        sm.setRuleName( rule.ruleName );
+        try
+        {
+            sm.setup( rule.regex, false );
+        }
+        catch(Exception e) {
+            throw new IllegalArgumentException("Invalid regex for rule '"+rule.ruleName+"'");
+        }
+        sm.toDFA( state -> {}, rules -> rules.iterator().next() );
+        return sm.initialState;
     }
 
     public StateMachine buildStateMachine(Configuration config) throws IOException {
 
-        final Map<String, StateMachine> matchers = new HashMap<>();
-
         StateMachine result = null;
 
         for ( LexerRule rule : config.rules )
         {
-            final String tokenType = rule.ruleName;
-            final String regex = rule.regex;
-            final StateMachine sm = new StateMachine();
-            matchers.put( tokenType, sm );
-            try
-            {
-                sm.setup( regex,false );
-                sm.initialState.getTerminalStates().forEach( s -> s.lexerRule = rule );
-                if ( result == null ) {
-                    result = sm;
-                } else {
-                    result = result.union( sm );
-                }
+            final StateMachine sm = buildNFA( config, rule );
+            if ( result == null ) {
+                result = sm;
+            } else {
+                result = result.union( sm );
             }
-            catch(Exception e) {
-                throw new IllegalArgumentException("Invalid regex for rule '"+tokenType+"'");
+        }
+        return result;
+    }
+
+    private static StateMachine buildNFA(Configuration config, LexerRule rule)
+    {
+        final StateMachine sm = new StateMachine();
+        sm.setRuleName( rule.ruleName );
+        sm.setConstruction( config.nfaConstruction );
+        try
+        {
+            sm.setup( rule.regex, false );
+            sm.initialState.getTerminalStates().forEach( s -> s.lexerRule = rule );
+        }
+        catch(Exception e) {
+            throw new IllegalArgumentException("Invalid regex for rule '"+rule.ruleName+"'");
+        }
+        return sm;
+    }
+
+    /**
+     * Builds one NFA per mode, recognizing the rules active in that mode.
+     *
+     * Rules active in several modes share their NFA, so the subset construction
+     * ends up with the same DFA states for them.
+     *
+     * @param config
+     * @param modes
+     * @return initial states, in the same order as the modes
+     */
+    private static List<State> buildModeNFAs(Configuration config, List<String> modes)
+    {
+        final Map<LexerRule,State> nfas = new HashMap<>();
+        for ( LexerRule rule : config.rules ) {
+            nfas.put( rule, StateMachine.expandRepeats( buildNFA( config, rule ).initialState ) );
+        }
+        final List<State> result = new ArrayList<>();
+        for ( String mode : modes )
+        {
+            final State start = new State();
+            config.rules.stream().filter( rule -> rule.modes.contains( mode ) ).forEach( rule -> start.transition( nfas.get( rule ) ) );
+            if ( start.outgoingTransitionCount() == 0 ) {
+                throw new IllegalArgumentException( "Mode '"+mode+"' has no rules" );
             }
+            result.add( start );
         }
         return result;
     }
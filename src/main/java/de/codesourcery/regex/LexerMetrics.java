@@ -0,0 +1,186 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters collected by the lexers.
+ *
+ * Collection is controlled by system properties that are read once when this class is loaded:
+ * <ul>
+ *     <li><code>regex.lexer.metrics</code> enables counters for scanned characters, recognized tokens (per type)
+ *     and rewinds</li>
+ *     <li><code>regex.lexer.metrics.latency</code> additionally records how long it took to recognize each token</li>
+ * </ul>
+ * Since the flags are <code>static final</code>, the JIT removes all instrumentation from the lexers' hot loops
+ * when they are off.
+ *
+ * Counters are thread-safe and may be read at any time, e.g. to export them to a monitoring system.
+ */
+public final class LexerMetrics
+{
+    public static final boolean ENABLED = Boolean.getBoolean( "regex.lexer.metrics" );
+
+    public static final boolean LATENCY_ENABLED = ENABLED && Boolean.getBoolean( "regex.lexer.metrics.latency" );
+
+    /**
+     * Instance used by lexers unless told otherwise.
+     */
+    public static final LexerMetrics GLOBAL = new LexerMetrics();
+
+    /**
+     * Number of latency histogram buckets, bucket <code>i</code> counts tokens that took
+     * less than <code>2^i</code> nanoseconds (and at least <code>2^(i-1)</code>).
+     */
+    public static final int LATENCY_BUCKETS = 40;
+
+    private final LongAdder charactersScanned = new LongAdder();
+    private final LongAdder tokens = new LongAdder();
+    private final LongAdder rewinds = new LongAdder();
+    private final LongAdder charactersRewound = new LongAdder();
+    private final Map<String,LongAdder> tokensByType = new ConcurrentHashMap<>();
+    private final AtomicLongArray latencyHistogram = new AtomicLongArray( LATENCY_BUCKETS );
+
+    /**
+     * Records a recognized token.
+     *
+     * @param typeName token type
+     * @param scanned number of characters looked at, including characters past the end of the token
+     * @param consumed number of characters that are part of the token
+     */
+    public void tokenRecognized(String typeName, int scanned, int consumed)
+    {
+        this.tokens.increment();
+        this.charactersScanned.add( scanned );
+        if ( scanned > consumed )
+        {
+            this.rewinds.increment();
+            this.charactersRewound.add( scanned - consumed );
+        }
+        tokensByType.computeIfAbsent( typeName, k -> new LongAdder() ).increment();
+    }
+
+    /**
+     * Records characters that were looked at without becoming part of a token (skipped whitespace).
+     *
+     * @param count
+     */
+    public void charactersScanned(int count)
+    {
+        this.charactersScanned.add( count );
+    }
+
+    /**
+     * Records how long it took to recognize a token.
+     *
+     * @param nanos
+     */
+    public void tokenLatency(long nanos)
+    {
+        final int bucket = 64 - Long.numberOfLeadingZeros( Math.max( 0, nanos ) );
+        latencyHistogram.incrementAndGet( Math.min( bucket, LATENCY_BUCKETS - 1 ) );
+    }
+
+    public long getCharactersScanned()
+    {
+        return charactersScanned.sum();
+    }
+
+    public long getTokens()
+    {
+        return tokens.sum();
+    }
+
+    public long getTokens(String typeName)
+    {
+        final LongAdder adder = tokensByType.get( typeName );
+        return adder == null ? 0 : adder.sum();
+    }
+
+    public long getRewinds()
+    {
+        return rewinds.sum();
+    }
+
+    public long getCharactersRewound()
+    {
+        return charactersRewound.sum();
+    }
+
+    /**
+     * Returns the token latency histogram.
+     *
+     * @return array with {@link #LATENCY_BUCKETS} elements
+     * @see #LATENCY_BUCKETS
+     */
+    public long[] getLatencyHistogram()
+    {
+        final long[] result = new long[ LATENCY_BUCKETS ];
+        for ( int i = 0 ; i < LATENCY_BUCKETS ; i++ ) {
+            result[i] = latencyHistogram.get( i );
+        }
+        return result;
+    }
+
+    /**
+     * Returns all counters by name.
+     *
+     * @return
+     */
+    public Map<String,Long> snapshot()
+    {
+        final Map<String,Long> result = new TreeMap<>();
+        result.put( "characters_scanned", getCharactersScanned() );
+        result.put( "tokens", getTokens() );
+        result.put( "rewinds", getRewinds() );
+        result.put( "characters_rewound", getCharactersRewound() );
+        tokensByType.forEach( (type, count) -> result.put( "tokens."+type, count.sum() ) );
+        if ( LATENCY_ENABLED )
+        {
+            for ( int i = 0 ; i < LATENCY_BUCKETS ; i++ )
+            {
+                final long count = latencyHistogram.get( i );
+                if ( count > 0 ) {
+                    result.put( "latency_lt_2^"+i+"ns", count );
+                }
+            }
+        }
+        return result;
+    }
+
+    public void reset()
+    {
+        charactersScanned.reset();
+        tokens.reset();
+        rewinds.reset();
+        charactersRewound.reset();
+        tokensByType.clear();
+        for ( int i = 0 ; i < LATENCY_BUCKETS ; i++ ) {
+            latencyHistogram.set( i, 0 );
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "LexerMetrics"+snapshot();
+    }
+}
@@ -0,0 +1,715 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Immutable transition tables of a lexer DFA as produced by {@link LexerBuilder#buildTables(LexerBuilder.Configuration)}.
+ *
+ * Instances hold no mutable state and may be shared freely between threads, all per-input
+ * state lives in the {@link TableDrivenLexer} instances using them.
+ *
+ * The layout is the same as the one used by the generated lexer source: each DFA state
+ * occupies one row of {@link #getAlphabetSize()} columns in the transition map and states are
+ * referred to by the offset of their row. Characters get mapped to columns by a sorted list of
+ * intervals, all characters of an interval share one column. For lookups the intervals are expanded
+ * into a two-stage table: the upper bits of a character select a block of {@link #BLOCK_SIZE} columns
+ * and the lower bits the column within the block, identical blocks are stored only once. Each column stands for a class of
+ * characters that behave the same in every state, so several intervals may map to the same column.
+ * Column 0 is reserved for characters that are not part of any interval.
+ *
+ * States that loop to themselves on a few intervals of characters, like the body of an identifier
+ * or a string literal, are accelerated: lexers skip the whole run of looping characters with
+ * {@link IScanner#skipWithin(char[], StringBuilder)} instead of looking up one transition per character.
+ *
+ * Lexers with several modes (start conditions) share one DFA, each mode has its own initial state and
+ * accepting states may carry a mode switch to perform after recognizing a token (see {@link ModeStack}).
+ *
+ * Tables returned by {@link #compress()} keep the transition map in a {@link CombTable} instead and
+ * refer to states by their ID, the 'offset' of a state's row is then its ID.
+ */
+public final class LexerTables
+{
+    /**
+     * Column used for characters that are not part of the alphabet, it never has a transition.
+     */
+    public static final int ANY_CHARACTER_INDEX = 0;
+
+    /**
+     * Transition map entry indicating there is no transition for a character.
+     *
+     * This is the dead state: {@link LexerBuilder} trims all states that cannot reach an accepting
+     * state, so lexers stop as soon as no match is possible anymore.
+     */
+    public static final int NO_TRANSITION = -1;
+
+    /**
+     * Transition map entry indicating that we moved past a recognized token, lexers treat it like {@link #NO_TRANSITION}.
+     *
+     * No longer produced by {@link LexerBuilder}, transitions into the dead state are {@link #NO_TRANSITION} instead.
+     */
+    public static final int PAST_TOKEN = -2;
+
+    /**
+     * Number of bits of a character that select its column within a block of the character map.
+     */
+    public static final int BLOCK_SHIFT = 7;
+
+    /**
+     * Number of characters per block of the character map.
+     */
+    public static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+
+    /**
+     * Largest number of intervals a state may loop on to get accelerated, {@link CharSearch} compares
+     * up to this many intervals using vector instructions.
+     */
+    public static final int MAX_LOOP_RANGES = 8;
+
+    private final int alphabetSize;
+    // per mode
+    private final String[] modeNames;
+    private final int[] initialStateOffsets;
+    private final int[] transitionMap;
+    private final CombTable comb;
+    // divisor turning a row offset into a state ID
+    private final int rowSize;
+    // sorted, disjoint intervals (pairs of first and last character) and their columns
+    private final char[] ranges;
+    private final int[] rangeColumns;
+    // two-stage character map: offset of each character's block in blockColumns, column of every character within its block
+    private final char[] blockOffsets;
+    private final char[] blockColumns;
+    // per state ID, intervals of characters the state loops on or null if the state is not accelerated
+    private final char[][] loopRanges;
+    private final String[] tokenTypes;
+    // per state ID, mode switch as encoded by ModeStack
+    private final int[] modeActions;
+    private final KeywordTable keywords;
+
+    /**
+     * Create instance.
+     *
+     * @param initialStateOffset offset of the initial state's row
+     * @param alphabetSize number of columns per row, including {@link #ANY_CHARACTER_INDEX}
+     * @param ranges sorted, disjoint intervals of characters as pairs of first and last (inclusive) character
+     * @param rangeColumns column each interval maps to
+     * @param transitionMap transition map, one row per state
+     * @param tokenTypes token type per state ID, <code>null</code> for non-accepting states
+     */
+    public LexerTables(int initialStateOffset, int alphabetSize, char[] ranges, int[] rangeColumns, int[] transitionMap, String[] tokenTypes)
+    {
+        this( initialStateOffset, alphabetSize, ranges, rangeColumns, transitionMap, tokenTypes, null );
+    }
+
+    /**
+     * Create instance.
+     *
+     * @param initialStateOffset offset of the initial state's row
+     * @param alphabetSize number of columns per row, including {@link #ANY_CHARACTER_INDEX}
+     * @param ranges sorted, disjoint intervals of characters as pairs of first and last (inclusive) character
+     * @param rangeColumns column each interval maps to
+     * @param transitionMap transition map, one row per state
+     * @param tokenTypes token type per state ID, <code>null</code> for non-accepting states
+     * @param keywords keywords that are not part of the DFA but need to be looked up after a token got recognized, may be <code>null</code>
+     */
+    public LexerTables(int initialStateOffset, int alphabetSize, char[] ranges, int[] rangeColumns, int[] transitionMap, String[] tokenTypes, KeywordTable keywords)
+    {
+        this( new String[] { LexerBuilder.DEFAULT_MODE }, new int[] { initialStateOffset }, new int[ tokenTypes.length ], alphabetSize, ranges, rangeColumns, transitionMap, tokenTypes, keywords );
+    }
+
+    /**
+     * Create instance.
+     *
+     * @param modeNames names of all modes, the first one is the mode lexers start in
+     * @param initialStateOffsets offset of the initial state's row per mode
+     * @param modeActions mode switch per state ID as encoded by {@link ModeStack#encode(int, int)}
+     * @param alphabetSize number of columns per row, including {@link #ANY_CHARACTER_INDEX}
+     * @param ranges sorted, disjoint intervals of characters as pairs of first and last (inclusive) character
+     * @param rangeColumns column each interval maps to
+     * @param transitionMap transition map, one row per state
+     * @param tokenTypes token type per state ID, <code>null</code> for non-accepting states
+     * @param keywords keywords that are not part of the DFA but need to be looked up after a token got recognized, may be <code>null</code>
+     */
+    public LexerTables(String[] modeNames, int[] initialStateOffsets, int[] modeActions, int alphabetSize, char[] ranges, int[] rangeColumns, int[] transitionMap, String[] tokenTypes, KeywordTable keywords)
+    {
+        this.alphabetSize = alphabetSize;
+        if ( alphabetSize < 1 ) {
+            throw new IllegalArgumentException( "Alphabet size must be positive" );
+        }
+        if ( transitionMap.length != tokenTypes.length * alphabetSize ) {
+            throw new IllegalArgumentException( "Transition map has "+transitionMap.length+" entries but expected "+tokenTypes.length+" states with "+alphabetSize+" columns each" );
+        }
+        if ( modeNames.length == 0 || modeNames.length != initialStateOffsets.length ) {
+            throw new IllegalArgumentException( "Expected one initial state per mode" );
+        }
+        for ( int initialStateOffset : initialStateOffsets )
+        {
+            if ( initialStateOffset < 0 || initialStateOffset >= transitionMap.length || ( initialStateOffset % alphabetSize ) != 0 ) {
+                throw new IllegalArgumentException( "Invalid initial state offset "+initialStateOffset );
+            }
+        }
+        if ( modeActions.length != tokenTypes.length ) {
+            throw new IllegalArgumentException( "Expected one mode action per state" );
+        }
+        for ( int action : modeActions )
+        {
+            if ( ( action >>> 2 ) >= modeNames.length ) {
+                throw new IllegalArgumentException( "Mode action "+action+" refers to unknown mode" );
+            }
+        }
+        if ( ranges.length != 2 * rangeColumns.length ) {
+            throw new IllegalArgumentException( "Expected one column per interval" );
+        }
+        for ( int i = 0 ; i < rangeColumns.length ; i++ )
+        {
+            if ( ranges[2*i] > ranges[2*i+1] || ( i > 0 && ranges[2*i-1] >= ranges[2*i] ) ) {
+                throw new IllegalArgumentException( "Intervals need to be sorted and disjoint" );
+            }
+            if ( rangeColumns[i] <= ANY_CHARACTER_INDEX || rangeColumns[i] >= alphabetSize ) {
+                throw new IllegalArgumentException( "Invalid column "+rangeColumns[i]+" for interval "+i );
+            }
+        }
+        this.modeNames = modeNames.clone();
+        this.initialStateOffsets = initialStateOffsets.clone();
+        this.ranges = ranges.clone();
+        this.rangeColumns = rangeColumns.clone();
+        this.blockOffsets = new char[ ( Character.MAX_VALUE + 1 ) >> BLOCK_SHIFT ];
+        this.blockColumns = buildCharacterMap( this.ranges, this.rangeColumns, this.blockOffsets );
+        this.transitionMap = transitionMap.clone();
+        this.loopRanges = findLoopRanges( this.ranges, this.rangeColumns, this.transitionMap, alphabetSize );
+        this.comb = null;
+        this.rowSize = alphabetSize;
+        this.tokenTypes = tokenTypes.clone();
+        this.modeActions = modeActions.clone();
+        this.keywords = keywords;
+    }
+
+    private LexerTables(LexerTables dense, CombTable comb)
+    {
+        this.alphabetSize = dense.alphabetSize;
+        this.modeNames = dense.modeNames;
+        this.initialStateOffsets = new int[ dense.initialStateOffsets.length ];
+        for ( int mode = 0 ; mode < initialStateOffsets.length ; mode++ ) {
+            this.initialStateOffsets[ mode ] = dense.stateIndex( dense.initialStateOffsets[ mode ] );
+        }
+        this.ranges = dense.ranges;
+        this.rangeColumns = dense.rangeColumns;
+        this.blockOffsets = dense.blockOffsets;
+        this.blockColumns = dense.blockColumns;
+        this.transitionMap = null;
+        this.loopRanges = dense.loopRanges;
+        this.comb = comb;
+        this.rowSize = 1;
+        this.tokenTypes = dense.tokenTypes;
+        this.modeActions = dense.modeActions;
+        this.keywords = dense.keywords;
+    }
+
+    private LexerTables(LexerTables source, char[][] loopRanges)
+    {
+        this.alphabetSize = source.alphabetSize;
+        this.modeNames = source.modeNames;
+        this.initialStateOffsets = source.initialStateOffsets;
+        this.ranges = source.ranges;
+        this.rangeColumns = source.rangeColumns;
+        this.blockOffsets = source.blockOffsets;
+        this.blockColumns = source.blockColumns;
+        this.transitionMap = source.transitionMap;
+        this.loopRanges = loopRanges;
+        this.comb = source.comb;
+        this.rowSize = source.rowSize;
+        this.tokenTypes = source.tokenTypes;
+        this.modeActions = source.modeActions;
+        this.keywords = source.keywords;
+    }
+
+    /**
+     * Expands character intervals into blocks of columns, sharing identical blocks.
+     *
+     * @param ranges
+     * @param rangeColumns
+     * @param blockOffsets receives the offset of each character's block in the returned array
+     * @return columns of all distinct blocks
+     */
+    private static char[] buildCharacterMap(char[] ranges, int[] rangeColumns, char[] blockOffsets)
+    {
+        final Map<String,Integer> blocks = new HashMap<>();
+        final StringBuilder result = new StringBuilder();
+        final char[] block = new char[ BLOCK_SIZE ];
+        int range = 0;
+        for ( int blockIndex = 0 ; blockIndex < blockOffsets.length ; blockIndex++ )
+        {
+            final int firstChar = blockIndex << BLOCK_SHIFT;
+            for ( int i = 0 ; i < BLOCK_SIZE ; i++ )
+            {
+                final int c = firstChar + i;
+                while ( range < rangeColumns.length && ranges[ 2 * range + 1 ] < c ) {
+                    range++;
+                }
+                block[i] = (char) ( range < rangeColumns.length && ranges[ 2 * range ] <= c ? rangeColumns[ range ] : ANY_CHARACTER_INDEX );
+            }
+            final String key = new String( block );
+            Integer offset = blocks.get( key );
+            if ( offset == null )
+            {
+                offset = result.length();
+                blocks.put( key, offset );
+                result.append( block );
+            }
+            blockOffsets[ blockIndex ] = (char) (int) offset;
+        }
+        return result.toString().toCharArray();
+    }
+
+    /**
+     * Finds states that loop to themselves on at most {@link #MAX_LOOP_RANGES} intervals of characters.
+     *
+     * Blanks always end a token, so they are never part of the intervals.
+     *
+     * @param ranges
+     * @param rangeColumns
+     * @param transitionMap
+     * @param alphabetSize
+     * @return intervals as pairs of first and last (inclusive) character per state ID, <code>null</code> for states that do not get accelerated
+     */
+    private static char[][] findLoopRanges(char[] ranges, int[] rangeColumns, int[] transitionMap, int alphabetSize)
+    {
+        final char[][] result = new char[ transitionMap.length / alphabetSize ][];
+        final StringBuilder loop = new StringBuilder();
+        for ( int state = 0 ; state < result.length ; state++ )
+        {
+            final int row = state * alphabetSize;
+            loop.setLength( 0 );
+            for ( int range = 0 ; range < rangeColumns.length && loop.length() <= 2 * MAX_LOOP_RANGES ; range++ )
+            {
+                if ( transitionMap[ row + rangeColumns[ range ] ] == row ) {
+                    addLoopRange( loop, ranges[ 2 * range ], ranges[ 2 * range + 1 ] );
+                }
+            }
+            if ( loop.length() > 0 && loop.length() <= 2 * MAX_LOOP_RANGES ) {
+                result[ state ] = loop.toString().toCharArray();
+            }
+        }
+        return result;
+    }
+
+    private static void addLoopRange(StringBuilder loop, char first, char last)
+    {
+        for ( int c = first ; c <= last ; )
+        {
+            // split around blanks
+            if ( c == ' ' || c == '\t' ) {
+                c++;
+                continue;
+            }
+            int end = c;
+            while ( end < last && end + 1 != ' ' && end + 1 != '\t' ) {
+                end++;
+            }
+            final int length = loop.length();
+            if ( length > 0 && loop.charAt( length - 1 ) + 1 == c ) {
+                loop.setCharAt( length - 1, (char) end );
+            } else {
+                loop.append( (char) c ).append( (char) end );
+            }
+            c = end + 1;
+        }
+    }
+
+    /**
+     * Returns a copy of these tables with the transition map compressed into a {@link CombTable}.
+     *
+     * States of the returned tables are referred to by their ID instead of their row offset.
+     *
+     * @return compressed tables, <code>this</code> if already compressed
+     */
+    public LexerTables compress()
+    {
+        return compress( 0 );
+    }
+
+    /**
+     * Returns a copy of these tables with the transition map compressed into a {@link CombTable} that
+     * stores the rows of the first states in full (see {@link CombTable#build(int[], int, int, int)}).
+     *
+     * States of the returned tables are referred to by their ID instead of their row offset.
+     *
+     * @param hotStateCount number of states, starting with state 0, whose rows get stored with every column
+     * @return compressed tables, <code>this</code> if already compressed
+     */
+    public LexerTables compress(int hotStateCount)
+    {
+        if ( isCompressed() ) {
+            return this;
+        }
+        final int[] rows = new int[ transitionMap.length ];
+        for ( int i = 0 ; i < rows.length ; i++ ) {
+            rows[i] = transitionMap[i] < 0 ? transitionMap[i] : transitionMap[i] / alphabetSize;
+        }
+        return new LexerTables( this, CombTable.build( rows, getStateCount(), alphabetSize, hotStateCount ) );
+    }
+
+    /**
+     * Returns a copy of these tables in which no state is accelerated.
+     *
+     * @return
+     */
+    LexerTables withoutAcceleration()
+    {
+        return new LexerTables( this, new char[ loopRanges.length ][] );
+    }
+
+    /**
+     * Returns a copy of these tables with the states numbered differently.
+     *
+     * @param newIds new ID per current state ID, a permutation of all state IDs
+     * @return
+     * @throws IllegalStateException if these tables are compressed
+     */
+    public LexerTables renumber(int[] newIds)
+    {
+        if ( isCompressed() ) {
+            throw new IllegalStateException( "Compressed tables cannot be renumbered" );
+        }
+        final int stateCount = getStateCount();
+        if ( newIds.length != stateCount ) {
+            throw new IllegalArgumentException( "Expected "+stateCount+" state IDs" );
+        }
+        final boolean[] used = new boolean[ stateCount ];
+        for ( int newId : newIds )
+        {
+            if ( newId < 0 || newId >= stateCount || used[ newId ] ) {
+                throw new IllegalArgumentException( "State IDs are not a permutation" );
+            }
+            used[ newId ] = true;
+        }
+        final int[] rows = new int[ transitionMap.length ];
+        final String[] types = new String[ stateCount ];
+        final int[] actions = new int[ stateCount ];
+        for ( int state = 0 ; state < stateCount ; state++ )
+        {
+            final int newId = newIds[ state ];
+            for ( int column = 0 ; column < alphabetSize ; column++ )
+            {
+                final int next = transitionMap[ state * alphabetSize + column ];
+                rows[ newId * alphabetSize + column ] = next < 0 ? next : newIds[ next / alphabetSize ] * alphabetSize;
+            }
+            types[ newId ] = tokenTypes[ state ];
+            actions[ newId ] = modeActions[ state ];
+        }
+        final int[] initialStates = new int[ initialStateOffsets.length ];
+        for ( int mode = 0 ; mode < initialStates.length ; mode++ ) {
+            initialStates[ mode ] = newIds[ initialStateOffsets[ mode ] / alphabetSize ] * alphabetSize;
+        }
+        return new LexerTables( modeNames, initialStates, actions, alphabetSize, ranges, rangeColumns, rows, types, keywords );
+    }
+
+    /**
+     * Returns whether the transition map is stored in a {@link CombTable}.
+     *
+     * @return
+     */
+    public boolean isCompressed()
+    {
+        return comb != null;
+    }
+
+    /**
+     * Returns the size of the transition map in bytes, not counting object headers.
+     *
+     * @return
+     */
+    public int getTransitionMapBytes()
+    {
+        return isCompressed() ? comb.sizeInBytes() : 4 * transitionMap.length;
+    }
+
+    /**
+     * Returns the number of columns in each row of the transition map (including the 'any char' column).
+     *
+     * @return
+     */
+    public int getAlphabetSize()
+    {
+        return alphabetSize;
+    }
+
+    /**
+     * Returns the offset of the row where lexing of a new token starts in the first mode (the ID of the initial state if {@link #isCompressed()}).
+     *
+     * @return
+     */
+    public int getInitialStateOffset()
+    {
+        return initialStateOffsets[ 0 ];
+    }
+
+    /**
+     * Returns the offset of the row where lexing of a new token starts in some mode.
+     *
+     * @param mode mode index, ranging from 0 to {@link #getModeCount()} (exclusive)
+     * @return
+     */
+    public int getInitialStateOffset(int mode)
+    {
+        return initialStateOffsets[ mode ];
+    }
+
+    public int getModeCount()
+    {
+        return modeNames.length;
+    }
+
+    public String getModeName(int mode)
+    {
+        return modeNames[ mode ];
+    }
+
+    /**
+     * Returns the index of a mode.
+     *
+     * @param name
+     * @return
+     * @throws IllegalArgumentException if there is no such mode
+     */
+    public int modeIndex(String name)
+    {
+        for ( int mode = 0 ; mode < modeNames.length ; mode++ )
+        {
+            if ( modeNames[ mode ].equals( name ) ) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException( "Unknown mode '"+name+"'" );
+    }
+
+    /**
+     * Returns the mode switch to perform after a state recognized a token.
+     *
+     * @param stateOffset row offset of the state
+     * @return action to pass to {@link ModeStack#apply(int)}, {@link ModeStack#NONE} if the mode stays the same
+     */
+    public int modeAction(int stateOffset)
+    {
+        return modeActions[ stateOffset / rowSize ];
+    }
+
+    public int getStateCount()
+    {
+        return tokenTypes.length;
+    }
+
+    /**
+     * Returns the ID of a state.
+     *
+     * @param stateOffset row offset of the state
+     * @return state ID, ranging from 0 to {@link #getStateCount()} (exclusive)
+     */
+    public int stateIndex(int stateOffset)
+    {
+        return stateOffset / rowSize;
+    }
+
+    /**
+     * Maps a character to its column in the transition map.
+     *
+     * @param c
+     * @return column index or {@link #ANY_CHARACTER_INDEX}
+     */
+    public int mapChar(char c)
+    {
+        return blockColumns[ blockOffsets[ c >>> BLOCK_SHIFT ] + ( c & ( BLOCK_SIZE - 1 ) ) ];
+    }
+
+    /**
+     * Look up a transition.
+     *
+     * @param stateOffset offset of the current state's row
+     * @param column column as returned by {@link #mapChar(char)}
+     * @return row offset of the next state, {@link #NO_TRANSITION} or {@link #PAST_TOKEN}
+     */
+    public int nextState(int stateOffset, int column)
+    {
+        return comb == null ? transitionMap[ stateOffset + column ] : comb.get( stateOffset, column );
+    }
+
+    /**
+     * Returns the token type recognized by a state.
+     *
+     * @param stateOffset row offset of the state
+     * @return token type or <code>null</code> if this is not an accepting state
+     */
+    public String tokenType(int stateOffset)
+    {
+        return tokenTypes[ stateOffset / rowSize ];
+    }
+
+    /**
+     * Returns the token type of a recognized token, taking keywords into account.
+     *
+     * @param stateOffset row offset of the accepting state the DFA stopped in
+     * @param text text of the token
+     * @return token type or <code>null</code> if this is not an accepting state
+     */
+    public String tokenType(int stateOffset, CharSequence text)
+    {
+        final String type = tokenType( stateOffset );
+        if ( type != null && keywords != null )
+        {
+            final String keyword = keywords.lookup( text );
+            if ( keyword != null ) {
+                return keyword;
+            }
+        }
+        return type;
+    }
+
+    /**
+     * Returns the keywords that got compiled into a perfect hash instead of the DFA.
+     *
+     * @return keywords or <code>null</code>
+     */
+    public KeywordTable getKeywords()
+    {
+        return keywords;
+    }
+
+    public boolean isAcceptingState(int stateOffset)
+    {
+        return tokenType( stateOffset ) != null;
+    }
+
+    /**
+     * Returns whether a state loops to itself on few enough intervals of characters to be skipped over in one go.
+     *
+     * @param stateOffset row offset of the state
+     * @return
+     */
+    public boolean isAccelerated(int stateOffset)
+    {
+        return loopRanges[ stateOffset / rowSize ] != null;
+    }
+
+    /**
+     * Returns the number of accelerated states.
+     *
+     * @return
+     */
+    public int getAcceleratedStateCount()
+    {
+        return (int) Arrays.stream( loopRanges ).filter( Objects::nonNull ).count();
+    }
+
+    /**
+     * Returns the number of character intervals.
+     *
+     * @return
+     */
+    public int getRangeCount()
+    {
+        return rangeColumns.length;
+    }
+
+    /**
+     * Returns the first character of an interval.
+     *
+     * @param range interval index, ranging from 0 to {@link #getRangeCount()} (exclusive)
+     * @return
+     */
+    public char rangeFirst(int range)
+    {
+        return ranges[ 2 * range ];
+    }
+
+    /**
+     * Returns the last (inclusive) character of an interval.
+     *
+     * @param range interval index, ranging from 0 to {@link #getRangeCount()} (exclusive)
+     * @return
+     */
+    public char rangeLast(int range)
+    {
+        return ranges[ 2 * range + 1 ];
+    }
+
+    /**
+     * Returns the column all characters of an interval map to.
+     *
+     * @param range interval index, ranging from 0 to {@link #getRangeCount()} (exclusive)
+     * @return
+     */
+    public int rangeColumn(int range)
+    {
+        return rangeColumns[ range ];
+    }
+
+    // direct access for code generation, callers must not modify the arrays
+
+    char[] blockOffsets()
+    {
+        return blockOffsets;
+    }
+
+    char[] blockColumns()
+    {
+        return blockColumns;
+    }
+
+    // intervals of characters an accelerated state loops on, null if the state is not accelerated
+    char[] loopRanges(int stateOffset)
+    {
+        return loopRanges[ stateOffset / rowSize ];
+    }
+
+    // null if compressed
+    int[] transitionMap()
+    {
+        return transitionMap;
+    }
+
+    CombTable comb()
+    {
+        return comb;
+    }
+
+    String[] tokenTypes()
+    {
+        return tokenTypes;
+    }
+
+    int[] modeActions()
+    {
+        return modeActions;
+    }
+
+    int[] initialStateOffsets()
+    {
+        return initialStateOffsets;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "LexerTables[ states: "+getStateCount()+", alphabet size: "+alphabetSize+", keywords: "+( keywords == null ? 0 : keywords.size() )+", accelerated: "+getAcceleratedStateCount()+
+                ( modeNames.length > 1 ? ", modes: "+modeNames.length : "" )+
+                ( isCompressed() ? ", compressed: "+comb.getSlotCount()+" slots of "+comb.getWidth()+" bytes" : "" )+" ]";
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex;
+
+import java.util.Arrays;
+
+/**
+ * Immutable index of where the lines of a text start, used to turn {@link Token#offset}s into
+ * line and column numbers.
+ *
+ * Lexers only track flat offsets since counting lines for every character would slow down
+ * tokenization. Instead the index gets built in a separate pass that finds all newlines with
+ * {@link CharSearch#indexesOf(char[], int, int, char)} and positions are resolved by binary search over the line starts.
+ *
+ * Lines end with <code>'\n'</code> (so <code>"\r\n"</code> works as well), line and column numbers start at 1.
+ */
+public final class LineIndex
+{
+    private final int length;
+    private final int[] lineStarts;
+
+    /**
+     * Create instance.
+     *
+     * @param text
+     */
+    public LineIndex(CharSequence text)
+    {
+        this( text.toString().toCharArray(), text.length() );
+    }
+
+    /**
+     * Create instance.
+     *
+     * @param text
+     * @param length number of characters of <code>text</code> to index
+     */
+    public LineIndex(char[] text, int length)
+    {
+        if ( length < 0 || length > text.length ) {
+            throw new IllegalArgumentException( "Invalid length "+length+", text has "+text.length+" characters" );
+        }
+        final int[] newlines = CharSearch.indexesOf( text, 0, length, '\n' );
+        final int[] starts = new int[ newlines.length + 1 ];
+        for ( int i = 0 ; i < newlines.length ; i++ ) {
+            starts[ i + 1 ] = newlines[i] + 1;
+        }
+        this.length = length;
+        this.lineStarts = starts;
+    }
+
+    /**
+     * Returns the number of lines, a text ending with a newline has an empty last line.
+     *
+     * @return
+     */
+    public int getLineCount()
+    {
+        return lineStarts.length;
+    }
+
+    /**
+     * Returns the offset of a line's first character.
+     *
+     * @param line line number, starting at 1
+     * @return
+     */
+    public int lineStart(int line)
+    {
+        if ( line < 1 || line > lineStarts.length ) {
+            throw new IllegalArgumentException( "Invalid line "+line+", text has "+lineStarts.length+" lines" );
+        }
+        return lineStarts[ line - 1 ];
+    }
+
+    /**
+     * Returns the line an offset is on.
+     *
+     * @param offset offset ranging from 0 to the length of the text (inclusive, the offset of a {@link TokenType#EOF} token)
+     * @return line number, starting at 1
+     */
+    public int line(int offset)
+    {
+        if ( offset < 0 || offset > length ) {
+            throw new IllegalArgumentException( "Invalid offset "+offset+", text has "+length+" characters" );
+        }
+        final int idx = Arrays.binarySearch( lineStarts, offset );
+        return idx >= 0 ? idx + 1 : -( idx + 1 );
+    }
+
+    /**
+     * Returns the column an offset is at.
+     *
+     * @param offset offset ranging from 0 to the length of the text (inclusive)
+     * @return column number, starting at 1
+     */
+    public int column(int offset)
+    {
+        return offset - lineStarts[ line( offset ) - 1 ] + 1;
+    }
+
+    /**
+     * Returns the line a token starts on.
+     *
+     * @param token
+     * @return line number, starting at 1
+     */
+    public int line(Token token)
+    {
+        return line( token.offset );
+    }
+
+    /**
+     * Returns the column a token starts at.
+     *
+     * @param token
+     * @return column number, starting at 1
+     */
+    public int column(Token token)
+    {
+        return column( token.offset );
+    }
+
+    @Override
+    public String toString()
+    {
+        return "LineIndex[ characters: "+length+", lines: "+lineStarts.length+" ]";
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex;
+
+import java.util.Arrays;
+
+/**
+ * Current mode (start condition) of a lexer and the modes to return to.
+ *
+ * Mode switches are encoded as a single <code>int</code> per accepting state, the lower
+ * two bits hold the kind of action ({@link #NONE}, {@link #PUSH}, {@link #POP} or {@link #SWITCH})
+ * and the remaining bits the index of the target mode. Modes are numbered in the order
+ * returned by {@link LexerBuilder.Configuration#getModes()}, mode 0 is always {@link LexerBuilder#DEFAULT_MODE}.
+ */
+public final class ModeStack
+{
+    public static final int NONE = 0;
+    public static final int PUSH = 1;
+    public static final int POP = 2;
+    public static final int SWITCH = 3;
+
+    private static final int KIND_BITS = 2;
+
+    private int mode;
+    private int[] stack = new int[ 4 ];
+    private int depth;
+
+    /**
+     * Encodes a mode switch.
+     *
+     * @param kind one of {@link #PUSH}, {@link #POP} or {@link #SWITCH}
+     * @param mode index of the target mode, ignored for {@link #POP}
+     * @return
+     */
+    public static int encode(int kind, int mode)
+    {
+        if ( kind < NONE || kind > SWITCH || mode < 0 ) {
+            throw new IllegalArgumentException( "Invalid mode action "+kind+" to mode "+mode );
+        }
+        return mode << KIND_BITS | kind;
+    }
+
+    /**
+     * Returns the index of the current mode.
+     *
+     * @return
+     */
+    public int current()
+    {
+        return mode;
+    }
+
+    /**
+     * Switches to a mode and forgets all modes pushed so far.
+     *
+     * @param mode
+     */
+    public void reset(int mode)
+    {
+        if ( mode < 0 ) {
+            throw new IllegalArgumentException( "Invalid mode "+mode );
+        }
+        this.mode = mode;
+        this.depth = 0;
+    }
+
+    /**
+     * Applies an encoded mode switch.
+     *
+     * Popping with no modes pushed returns to mode 0.
+     *
+     * @param action as returned by {@link #encode(int, int)}, {@link #NONE} does nothing
+     */
+    public void apply(int action)
+    {
+        switch( action & ( ( 1 << KIND_BITS ) - 1 ) )
+        {
+            case PUSH:
+                if ( depth == stack.length ) {
+                    stack = Arrays.copyOf( stack, depth * 2 );
+                }
+                stack[ depth++ ] = mode;
+                mode = action >>> KIND_BITS;
+                break;
+            case POP:
+                mode = depth == 0 ? 0 : stack[ --depth ];
+                break;
+            case SWITCH:
+                mode = action >>> KIND_BITS;
+                break;
+            default:
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ModeStack[ mode: "+mode+", depth: "+depth+" ]";
+    }
+}
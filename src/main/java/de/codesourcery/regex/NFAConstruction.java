@@ -0,0 +1,36 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex;
+
+/**
+ * Algorithm used to turn a {@link RegexNode} tree into an NFA.
+ *
+ * @see StateMachine#setConstruction(NFAConstruction)
+ * @see LexerBuilder.Configuration#nfaConstruction
+ */
+public enum NFAConstruction
+{
+    /**
+     * Thompson's construction ({@link ThompsonBuilder}): two states per character and
+     * epsilon transitions to glue sub-expressions together.
+     */
+    THOMPSON,
+    /**
+     * Glushkov's position automaton ({@link GlushkovBuilder}): one state per character position
+     * plus an initial state, no epsilon transitions.
+     */
+    GLUSHKOV
+}
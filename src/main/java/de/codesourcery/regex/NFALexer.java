@@ -0,0 +1,209 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lexer that simulates an NFA instead of running a DFA.
+ *
+ * Used when the lexer rules are too complex to be turned into a DFA within the configured
+ * {@link CompileLimits}. Produces the same tokens as {@link TableDrivenLexer} but needs time
+ * proportional to the number of NFA states for each character examined.
+ *
+ * Instances are not thread-safe, the {@link NFAProgram} may be shared by any number of lexers.
+ */
+public class NFALexer implements ILexer
+{
+    private final List<Token> tokens = new ArrayList<>();
+
+    private final NFAProgram program;
+
+    private final NFAProgram.Run run;
+
+    private final IScanner scanner;
+
+    private final StringBuilder buffer = new StringBuilder();
+
+    private LexerMetrics metrics = LexerMetrics.GLOBAL;
+
+    private boolean skipWhitespace = true;
+
+    public NFALexer(NFAProgram program, IScanner scanner)
+    {
+        if ( program == null ) {
+            throw new IllegalArgumentException("Program must not be NULL");
+        }
+        if ( scanner == null ) {
+            throw new IllegalArgumentException("Scanner must not be NULL");
+        }
+        this.program = program;
+        this.run = program.new Run();
+        this.scanner = scanner;
+    }
+
+    public NFAProgram getProgram()
+    {
+        return program;
+    }
+
+    /**
+     * Sets where to record metrics, only used if {@link LexerMetrics#ENABLED} is set.
+     *
+     * @param metrics
+     */
+    public void setMetrics(LexerMetrics metrics)
+    {
+        if ( metrics == null ) {
+            throw new IllegalArgumentException("Metrics must not be NULL");
+        }
+        this.metrics = metrics;
+    }
+
+    @Override
+    public boolean eof() {
+        if ( tokens.isEmpty() ) {
+            parse();
+        }
+        return tokens.get(0).hasType( TokenType.EOF );
+    }
+
+    @Override
+    public Token peek() {
+        if ( tokens.isEmpty() ) {
+            parse();
+        }
+        return tokens.get(0);
+    }
+
+    @Override
+    public Token next() {
+        if ( tokens.isEmpty() ) {
+            parse();
+        }
+        return tokens.remove(0);
+    }
+
+    @Override
+    public void setSkipWhitespace(boolean yesNo)
+    {
+        if ( this.skipWhitespace != yesNo )
+        {
+            if ( ! this.tokens.isEmpty() ) {
+                this.scanner.setOffset( this.tokens.get(0).offset );
+                this.tokens.clear();
+            }
+            this.skipWhitespace = yesNo;
+        }
+    }
+
+    private static final char[] WHITESPACE = { ' ', '\t' };
+
+    private static boolean isWhitespace(char c) {
+        return c == '\t' || c == ' ';
+    }
+
+    private void parse()
+    {
+        while ( true )
+        {
+            if ( scanner.eof() )
+            {
+                tokens.add( new Token( "", scanner.offset(), TokenType.EOF ) );
+                return;
+            }
+
+            buffer.setLength( 0 );
+
+            final int startOffset = scanner.offset();
+            final int skipped = scanner.skip( WHITESPACE );
+            if ( skipped == 0 ) {
+                break;
+            }
+            if ( ! skipWhitespace )
+            {
+                scanner.setOffset( startOffset );
+                for ( int i = 0 ; i < skipped ; i++ ) {
+                    buffer.append( scanner.next() );
+                }
+                if ( LexerMetrics.ENABLED ) {
+                    metrics.tokenRecognized( TokenType.WHITESPACE.name(), buffer.length(), buffer.length() );
+                }
+                tokens.add( new Token( buffer.toString(), startOffset, TokenType.WHITESPACE ) );
+                return;
+            }
+            if ( LexerMetrics.ENABLED ) {
+                metrics.charactersScanned( skipped );
+            }
+        }
+
+        final long startTime = LexerMetrics.LATENCY_ENABLED ? System.nanoTime() : 0;
+        int scanned = 0;
+
+        final int startOffset = scanner.offset();
+
+        // maximal munch: keep going until no NFA state is active anymore and
+        // then rewind to the end of the longest match
+        run.reset();
+        String acceptedType = null;
+        int acceptedLength = -1;
+        while ( ! scanner.eof() )
+        {
+            final char c = scanner.next();
+            if ( LexerMetrics.ENABLED ) {
+                scanned++;
+            }
+            if ( isWhitespace( c ) || ! run.step( c ) ) {
+                scanner.goBack();
+                break;
+            }
+            buffer.append( c );
+            final String type = run.tokenType();
+            if ( type != null )
+            {
+                acceptedType = type;
+                acceptedLength = buffer.length();
+            }
+        }
+
+        final Token token;
+        if ( acceptedType == null )
+        {
+            // input not recognized at all, consume one character so we make progress
+            scanner.setOffset( startOffset );
+            token = new Token( Character.toString( scanner.next() ), startOffset, TokenType.TEXT );
+        }
+        else
+        {
+            scanner.setOffset( startOffset + acceptedLength );
+            buffer.setLength( acceptedLength );
+            final KeywordTable keywords = program.getKeywords();
+            final String keyword = keywords == null ? null : keywords.lookup( buffer );
+            final String type = keyword != null ? keyword : acceptedType;
+            token = new Token( buffer.toString(), startOffset, TokenType.forName( type ), type );
+        }
+        tokens.add( token );
+
+        if ( LexerMetrics.ENABLED )
+        {
+            metrics.tokenRecognized( token.typeName, Math.max( scanned, token.text.length() ), token.text.length() );
+            if ( LexerMetrics.LATENCY_ENABLED ) {
+                metrics.tokenLatency( System.nanoTime() - startTime );
+            }
+        }
+    }
+}
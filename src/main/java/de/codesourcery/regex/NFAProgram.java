@@ -0,0 +1,424 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable, array-based copy of an NFA that can be run by simulating all
+ * NFA states in parallel (Thompson's algorithm).
+ *
+ * Unlike {@link State#matches(Scanner)} this never backtracks, so matching takes
+ * <code>O(input length * NFA size)</code> time. It is the engine of last resort when
+ * the NFA is too large to be turned into a DFA, see {@link CompileLimits}.
+ *
+ * {@link TransitionRepeat}s are simulated with one virtual state per repetition count, numbered
+ * after the real states. Virtual states are not stored in any table so the program stays
+ * proportional to the size of the pattern, only the per-run arrays grow with the counts.
+ */
+public final class NFAProgram
+{
+    private static final char[] NO_CHARS = new char[0];
+    private static final int[] NO_TARGETS = new int[0];
+
+    final int stateCount;
+    final int initialState;
+    // per state: epsilon targets and character intervals (pairs of first and last character) with their targets
+    final int[][] epsilonTargets;
+    final char[][] ranges;
+    final int[][] rangeTargets;
+    // per state: whether it is a terminal state and the rule it recognizes
+    final boolean[] accepting;
+    final String[] tokenTypes;
+    final int[] rulePriorities;
+    final KeywordTable keywords;
+    // number of real and virtual states
+    final int virtualStateCount;
+    // per state: repetitions entered via epsilon
+    final int[][] repeatsFrom;
+    // per repetition: virtual state for count 0, characters, bounds and target state
+    final int[] repeatBase;
+    final CharRanges[] repeatCharacters;
+    final int[] repeatMin;
+    // highest count tracked, unbounded repetitions stay at 'min' once it has been reached
+    final int[] repeatLast;
+    final boolean[] repeatUnbounded;
+    final int[] repeatTargets;
+
+    /**
+     * Create instance.
+     *
+     * @param initialState initial state of the NFA
+     */
+    public NFAProgram(State initialState)
+    {
+        this( initialState, null, null );
+    }
+
+    /**
+     * Create instance for a lexer.
+     *
+     * @param initialState initial state of the NFA
+     * @param config configuration used to resolve ambiguous rules (rules defined earlier win), may be <code>null</code>
+     * @param keywords keywords that are not part of the NFA, may be <code>null</code>
+     */
+    NFAProgram(State initialState, LexerBuilder.Configuration config, KeywordTable keywords)
+    {
+        final List<State> states = new ArrayList<>( initialState.gatherAllStates().values() );
+        final Map<State,Integer> indices = new HashMap<>();
+        for ( int i = 0, len = states.size() ; i < len ; i++ ) {
+            indices.put( states.get( i ), i );
+        }
+
+        this.stateCount = states.size();
+        this.initialState = indices.get( initialState );
+        this.epsilonTargets = new int[ stateCount ][];
+        this.ranges = new char[ stateCount ][];
+        this.rangeTargets = new int[ stateCount ][];
+        this.accepting = new boolean[ stateCount ];
+        this.tokenTypes = new String[ stateCount ];
+        this.rulePriorities = new int[ stateCount ];
+        this.keywords = keywords;
+
+        // after subset construction (and in NFAs built by Glushkov's construction) only states flagged
+        // as accepting accept, in NFAs built by Thompson's construction every terminal state does
+        final boolean isDFA = states.stream().anyMatch( s -> s.isAcceptingState );
+
+        final IntList epsilon = new IntList();
+        final IntList bounds = new IntList();
+        final IntList targets = new IntList();
+        final IntList repeats = new IntList();
+        final List<TransitionRepeat> allRepeats = new ArrayList<>();
+        this.repeatsFrom = new int[ stateCount ][];
+        for ( int i = 0 ; i < stateCount ; i++ )
+        {
+            final State state = states.get( i );
+            repeats.clear();
+            epsilon.clear();
+            bounds.clear();
+            targets.clear();
+            for ( Transition<?> t : state.getOutgoingTransitions() )
+            {
+                final int target = indices.get( t.destination );
+                if ( t.isEpsilon() ) {
+                    epsilon.add( target );
+                } else if ( t.isRepeat() ) {
+                    repeats.add( allRepeats.size() );
+                    allRepeats.add( (TransitionRepeat) t );
+                } else {
+                    final CharRanges characters = t.getCharacters();
+                    for ( int r = 0 , len = characters.rangeCount() ; r < len ; r++ )
+                    {
+                        bounds.add( characters.first( r ) );
+                        bounds.add( characters.last( r ) );
+                        targets.add( target );
+                    }
+                }
+            }
+            epsilonTargets[i] = epsilon.toArray();
+            repeatsFrom[i] = repeats.toArray();
+            rangeTargets[i] = targets.toArray();
+            final int[] b = bounds.toArray();
+            ranges[i] = b.length == 0 ? NO_CHARS : new char[ b.length ];
+            for ( int j = 0 ; j < b.length ; j++ ) {
+                ranges[i][j] = (char) b[j];
+            }
+
+            accepting[i] = isDFA ? state.isAcceptingState : state.isTerminalState();
+            if ( accepting[i] && state.lexerRule != null )
+            {
+                tokenTypes[i] = state.lexerRule.tokenType;
+                rulePriorities[i] = config == null ? 0 : config.indexOf( state.lexerRule );
+            } else {
+                rulePriorities[i] = Integer.MAX_VALUE;
+            }
+        }
+
+        final int repeatCount = allRepeats.size();
+        this.repeatBase = new int[ repeatCount ];
+        this.repeatCharacters = new CharRanges[ repeatCount ];
+        this.repeatMin = new int[ repeatCount ];
+        this.repeatLast = new int[ repeatCount ];
+        this.repeatUnbounded = new boolean[ repeatCount ];
+        this.repeatTargets = new int[ repeatCount ];
+        long virtualStates = stateCount;
+        for ( int r = 0 ; r < repeatCount ; r++ )
+        {
+            final TransitionRepeat repeat = allRepeats.get( r );
+            repeatBase[r] = (int) virtualStates;
+            repeatCharacters[r] = repeat.characters;
+            repeatMin[r] = repeat.min;
+            repeatUnbounded[r] = repeat.isUnbounded();
+            repeatLast[r] = repeat.isUnbounded() ? repeat.min : repeat.max;
+            repeatTargets[r] = indices.get( repeat.destination );
+            virtualStates += repeatLast[r] + 1;
+        }
+        if ( virtualStates > Integer.MAX_VALUE - 8 ) {
+            throw new IllegalArgumentException( "Repetition counts too large" );
+        }
+        this.virtualStateCount = (int) virtualStates;
+    }
+
+    /**
+     * Returns the repetition a virtual state belongs to.
+     *
+     * @param virtualState state number, must be greater than or equal to {@link #stateCount}
+     * @return
+     */
+    int repeatOf(int virtualState)
+    {
+        final int idx = Arrays.binarySearch( repeatBase, virtualState );
+        return idx >= 0 ? idx : -idx - 2;
+    }
+
+    /**
+     * Returns the virtual state reached when a repetition consumes a character in some virtual state.
+     *
+     * @param repeat
+     * @param virtualState
+     * @param c
+     * @return next virtual state or -1
+     */
+    int repeatStep(int repeat, int virtualState, char c)
+    {
+        if ( ! repeatCharacters[repeat].contains( c ) ) {
+            return -1;
+        }
+        final int count = virtualState - repeatBase[repeat];
+        if ( count < repeatLast[repeat] ) {
+            return virtualState + 1;
+        }
+        return repeatUnbounded[repeat] ? virtualState : -1;
+    }
+
+    boolean isAccepting(int state)
+    {
+        return state < stateCount && accepting[state];
+    }
+
+    public int getStateCount()
+    {
+        return stateCount;
+    }
+
+    /**
+     * Returns the keywords that got compiled into a perfect hash instead of the NFA.
+     *
+     * @return keywords or <code>null</code>
+     */
+    public KeywordTable getKeywords()
+    {
+        return keywords;
+    }
+
+    /**
+     * Returns whether the NFA matches the whole input.
+     *
+     * @param input
+     * @return
+     */
+    public boolean matches(CharSequence input)
+    {
+        final Run run = new Run();
+        for ( int i = 0, len = input.length() ; i < len ; i++ )
+        {
+            if ( ! run.step( input.charAt( i ) ) ) {
+                return false;
+            }
+        }
+        return run.isAccepting();
+    }
+
+    /**
+     * The set of NFA states active while matching.
+     *
+     * Not thread-safe, each thread needs its own instance.
+     */
+    final class Run
+    {
+        private int[] current = new int[ virtualStateCount ];
+        private int currentSize;
+        private int[] next = new int[ virtualStateCount ];
+        private int nextSize;
+        // generation each state was last added in, avoids clearing a set on every step
+        private final int[] addedIn = new int[ virtualStateCount ];
+        private int generation;
+        private final int[] stack = new int[ virtualStateCount ];
+
+        Run()
+        {
+            reset();
+        }
+
+        /**
+         * Resets to the epsilon closure of the initial state.
+         */
+        void reset()
+        {
+            nextSize = 0;
+            generation++;
+            addClosure( initialState );
+            swap();
+        }
+
+        /**
+         * Advances all active states by one character.
+         *
+         * @param c
+         * @return <code>false</code> if no state is active anymore
+         */
+        boolean step(char c)
+        {
+            nextSize = 0;
+            generation++;
+            for ( int i = 0 ; i < currentSize ; i++ )
+            {
+                final int state = current[i];
+                if ( state >= stateCount )
+                {
+                    final int target = repeatStep( repeatOf( state ), state, c );
+                    if ( target != -1 ) {
+                        addClosure( target );
+                    }
+                    continue;
+                }
+                final char[] bounds = ranges[state];
+                for ( int j = 0 ; j < bounds.length ; j += 2 )
+                {
+                    if ( c >= bounds[j] && c <= bounds[j+1] ) {
+                        addClosure( rangeTargets[state][j >> 1] );
+                    }
+                }
+            }
+            swap();
+            return currentSize > 0;
+        }
+
+        boolean isAccepting()
+        {
+            for ( int i = 0 ; i < currentSize ; i++ )
+            {
+                if ( NFAProgram.this.isAccepting( current[i] ) ) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Returns the token type recognized by the active states.
+         *
+         * @return token type of the highest-priority rule or <code>null</code>
+         */
+        String tokenType()
+        {
+            int best = -1;
+            for ( int i = 0 ; i < currentSize ; i++ )
+            {
+                final int state = current[i];
+                if ( state < stateCount && tokenTypes[state] != null && ( best == -1 || rulePriorities[state] < rulePriorities[best] ) ) {
+                    best = state;
+                }
+            }
+            return best == -1 ? null : tokenTypes[best];
+        }
+
+        private void addClosure(int state)
+        {
+            if ( addedIn[state] == generation ) {
+                return;
+            }
+            int stackPtr = 0;
+            addedIn[state] = generation;
+            stack[stackPtr++] = state;
+            while ( stackPtr > 0 )
+            {
+                final int s = stack[--stackPtr];
+                next[nextSize++] = s;
+                if ( s >= stateCount )
+                {
+                    // leave the repetition once the minimum count has been reached
+                    final int repeat = repeatOf( s );
+                    final int target = repeatTargets[repeat];
+                    if ( s - repeatBase[repeat] >= repeatMin[repeat] && addedIn[target] != generation ) {
+                        addedIn[target] = generation;
+                        stack[stackPtr++] = target;
+                    }
+                    continue;
+                }
+                final int[] epsilon = epsilonTargets[s];
+                for ( int i = 0 ; i < epsilon.length ; i++ )
+                {
+                    final int target = epsilon[i];
+                    if ( addedIn[target] != generation ) {
+                        addedIn[target] = generation;
+                        stack[stackPtr++] = target;
+                    }
+                }
+                final int[] repeats = repeatsFrom[s];
+                for ( int i = 0 ; i < repeats.length ; i++ )
+                {
+                    final int target = repeatBase[ repeats[i] ];
+                    if ( addedIn[target] != generation ) {
+                        addedIn[target] = generation;
+                        stack[stackPtr++] = target;
+                    }
+                }
+            }
+        }
+
+        private void swap()
+        {
+            final int[] tmp = current;
+            current = next;
+            currentSize = nextSize;
+            next = tmp;
+            nextSize = 0;
+        }
+    }
+
+    private static final class IntList
+    {
+        private int[] data = new int[ 4 ];
+        private int size;
+
+        void add(int value)
+        {
+            if ( size == data.length ) {
+                data = Arrays.copyOf( data, data.length * 2 );
+            }
+            data[size++] = value;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        int[] toArray() {
+            return size == 0 ? NO_TARGETS : Arrays.copyOf( data, size );
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "NFAProgram[ states: "+stateCount+", keywords: "+( keywords == null ? 0 : keywords.size() )+" ]";
+    }
+}
@@ -0,0 +1,321 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * Node of the abstract syntax tree a regular expression gets parsed into by {@link RegexParser}.
+ *
+ * Nodes are immutable and compare structurally, so {@link RegexSimplifier} can look for
+ * common sub-expressions using {@link #equals(Object)}.
+ */
+public abstract class RegexNode
+{
+    /**
+     * Matches the empty string.
+     */
+    public static final RegexNode EMPTY = new Sequence( List.of() );
+
+    private RegexNode() {
+    }
+
+    /**
+     * Returns whether this node matches exactly one character.
+     *
+     * @return
+     */
+    public boolean isCharSet() {
+        return false;
+    }
+
+    public boolean isEmpty() {
+        return false;
+    }
+
+    /**
+     * Returns the nodes this node consists of when it is used as part of a sequence.
+     *
+     * @return
+     */
+    public List<RegexNode> sequenceElements() {
+        return List.of( this );
+    }
+
+    public List<RegexNode> children() {
+        return List.of();
+    }
+
+    /**
+     * A single character out of a set of characters.
+     */
+    public static final class CharSet extends RegexNode
+    {
+        public static final CharSet ANY = new CharSet( CharRanges.ANY );
+
+        public final CharRanges characters;
+
+        private CharSet(CharRanges characters)
+        {
+            this.characters = characters;
+        }
+
+        public static CharSet of(char c) {
+            return new CharSet( CharRanges.of( c ) );
+        }
+
+        public static CharSet of(CharRanges characters)
+        {
+            if ( characters.isEmpty() ) {
+                throw new IllegalArgumentException( "Empty character set" );
+            }
+            return characters.isAny() ? ANY : new CharSet( characters );
+        }
+
+        public boolean isAny() {
+            return characters.isAny();
+        }
+
+        public CharSet union(CharSet other) {
+            return of( characters.union( other.characters ) );
+        }
+
+        @Override
+        public boolean isCharSet() {
+            return true;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof CharSet && characters.equals( ((CharSet) o).characters );
+        }
+
+        @Override
+        public int hashCode() {
+            return characters.hashCode();
+        }
+
+        @Override
+        public String toString()
+        {
+            if ( isAny() ) {
+                return ".";
+            }
+            if ( characters.isSingleChar() ) {
+                return escape( characters.first( 0 ) );
+            }
+            final StringBuilder result = new StringBuilder("[");
+            for ( int i = 0 , len = characters.rangeCount() ; i < len ; i++ )
+            {
+                final char first = characters.first( i );
+                final char last = characters.last( i );
+                result.append( escape( first ) );
+                if ( last == first + 1 ) {
+                    result.append( escape( last ) );
+                } else if ( last > first ) {
+                    result.append( '-' ).append( escape( last ) );
+                }
+            }
+            return result.append( "]" ).toString();
+        }
+
+        private static String escape(char c) {
+            switch( c )
+            {
+                case '\n': return "\\n";
+                case '\r': return "\\r";
+                case '\t': return "\\t";
+                case '\f': return "\\f";
+                default:
+                    return StateMachine.isOperator( c ) || c == '\\' || c == '{' || c == '-' || c == '^' ? "\\" + c : Character.toString( c );
+            }
+        }
+    }
+
+    /**
+     * Nodes that need to match one after another.
+     */
+    public static final class Sequence extends RegexNode
+    {
+        public final List<RegexNode> children;
+
+        public Sequence(List<RegexNode> children) {
+            this.children = List.copyOf( children );
+        }
+
+        /**
+         * Create a sequence, returning the only node if there is just one.
+         *
+         * @param children
+         * @return
+         */
+        public static RegexNode of(List<RegexNode> children) {
+            return children.size() == 1 ? children.get( 0 ) : children.isEmpty() ? EMPTY : new Sequence( children );
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return children.isEmpty();
+        }
+
+        @Override
+        public List<RegexNode> sequenceElements() {
+            return children;
+        }
+
+        @Override
+        public List<RegexNode> children() {
+            return children;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Sequence && children.equals( ((Sequence) o).children );
+        }
+
+        @Override
+        public int hashCode() {
+            return children.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return children.stream().map( c -> c instanceof Alternation ? "(" + c + ")" : c.toString() ).collect( Collectors.joining() );
+        }
+    }
+
+    /**
+     * Nodes of which one needs to match.
+     */
+    public static final class Alternation extends RegexNode
+    {
+        public final List<RegexNode> children;
+
+        public Alternation(List<RegexNode> children) {
+            this.children = List.copyOf( children );
+        }
+
+        /**
+         * Create an alternation, returning the only node if there is just one.
+         *
+         * @param children
+         * @return
+         */
+        public static RegexNode of(List<RegexNode> children)
+        {
+            if ( children.isEmpty() ) {
+                throw new IllegalArgumentException( "Alternation needs at least one node" );
+            }
+            return children.size() == 1 ? children.get( 0 ) : new Alternation( children );
+        }
+
+        @Override
+        public List<RegexNode> children() {
+            return children;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Alternation && children.equals( ((Alternation) o).children );
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * children.hashCode() + 1;
+        }
+
+        @Override
+        public String toString() {
+            return children.stream().map( RegexNode::toString ).collect( Collectors.joining( "|" ) );
+        }
+    }
+
+    /**
+     * A node that needs to match between <code>min</code> and <code>max</code> times.
+     */
+    public static final class Repeat extends RegexNode
+    {
+        public final RegexNode child;
+        public final int min;
+        public final int max;
+
+        /**
+         * Create instance.
+         *
+         * @param child
+         * @param min
+         * @param max maximum or {@link TransitionRepeat#UNBOUNDED}
+         */
+        public Repeat(RegexNode child, int min, int max)
+        {
+            if ( min < 0 || ( max != TransitionRepeat.UNBOUNDED && max < min ) ) {
+                throw new IllegalArgumentException( "Invalid repetition {"+min+","+max+"}" );
+            }
+            this.child = child;
+            this.min = min;
+            this.max = max;
+        }
+
+        public boolean isUnbounded() {
+            return max == TransitionRepeat.UNBOUNDED;
+        }
+
+        @Override
+        public List<RegexNode> children() {
+            return List.of( child );
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if ( o instanceof Repeat ) {
+                final Repeat other = (Repeat) o;
+                return min == other.min && max == other.max && child.equals( other.child );
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash( child, min, max );
+        }
+
+        @Override
+        public String toString()
+        {
+            final String body = child.isCharSet() ? child.toString() : "(" + child + ")";
+            if ( min == 0 && max == 1 ) {
+                return body + "?";
+            }
+            if ( isUnbounded() && min <= 1 ) {
+                return body + ( min == 0 ? "*" : "+" );
+            }
+            return body + "{" + min + ( min == max ? "" : "," + ( isUnbounded() ? "" : Integer.toString( max ) ) ) + "}";
+        }
+    }
+
+    /**
+     * Returns the number of nodes in this tree.
+     *
+     * @return
+     */
+    public int size()
+    {
+        return 1 + children().stream().mapToInt( RegexNode::size ).sum();
+    }
+}
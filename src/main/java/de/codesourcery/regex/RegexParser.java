@@ -0,0 +1,333 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses a regular expression into a {@link RegexNode} tree.
+ *
+ * Precedence from lowest to highest is union ('|'), concatenation and the postfix
+ * operators ('*', '+', '?', '{m}', '{m,}', '{m,n}'). A '{' that does not start a
+ * valid repetition is an ordinary character. <code>[^...]</code> matches all characters not listed in the
+ * class. <code>\n</code>, <code>\r</code>, <code>\t</code> and <code>\f</code> stand for control characters,
+ * a '\' before any other character makes it literal. <code>\p{Name}</code> (<code>\pL</code> for single-letter names)
+ * matches characters with a unicode property, <code>\P{Name}</code> all others, see {@link UnicodeClasses}.
+ *
+ * Not thread-safe, use one instance per expression.
+ */
+public final class RegexParser
+{
+    private final String regex;
+    private final boolean caseInsensitive;
+    private final Scanner scanner;
+
+    public RegexParser(String regex, boolean caseInsensitive)
+    {
+        this.regex = regex;
+        this.caseInsensitive = caseInsensitive;
+        this.scanner = new Scanner( regex );
+    }
+
+    /**
+     * Parse the expression.
+     *
+     * @return
+     * @throws IllegalArgumentException if the expression is malformed
+     */
+    public RegexNode parse()
+    {
+        final RegexNode result = parseAlternation();
+        if ( ! scanner.eof() ) {
+            throw new IllegalArgumentException("Unbalanced ')' at offset "+scanner.offset());
+        }
+        return result;
+    }
+
+    private RegexNode parseAlternation()
+    {
+        final List<RegexNode> alternatives = new ArrayList<>();
+        alternatives.add( parseSequence() );
+        while ( scanner.consume( '|' ) ) {
+            alternatives.add( parseSequence() );
+        }
+        return RegexNode.Alternation.of( alternatives );
+    }
+
+    private RegexNode parseSequence()
+    {
+        final List<RegexNode> elements = new ArrayList<>();
+        while ( ! scanner.eof() && scanner.peek() != '|' && scanner.peek() != ')' )
+        {
+            RegexNode atom = parseAtom();
+            while ( ! scanner.eof() )
+            {
+                final RegexNode repeated = parseQuantifier( atom );
+                if ( repeated == null ) {
+                    break;
+                }
+                atom = repeated;
+            }
+            elements.add( atom );
+        }
+        return RegexNode.Sequence.of( elements );
+    }
+
+    private RegexNode parseAtom()
+    {
+        final int offset = scanner.offset();
+        final char c = scanner.consume();
+        switch( c )
+        {
+            case '(':
+                final RegexNode group = parseAlternation();
+                if ( ! scanner.consume( ')' ) ) {
+                    throw new IllegalArgumentException("Missing ')' at offset "+scanner.offset());
+                }
+                return group;
+            case '[':
+                return parseCharacterClass();
+            case '.':
+                return RegexNode.CharSet.ANY;
+            case '\\':
+                if ( isPropertyEscape() ) {
+                    return RegexNode.CharSet.of( property() );
+                }
+                return literal( escapedChar() );
+            case '*':
+            case '+':
+            case '?':
+                throw new IllegalArgumentException("Nothing to repeat at offset "+offset);
+            case ']':
+                throw new IllegalArgumentException("Unbalanced ']' at offset "+offset);
+            default:
+                return literal( c );
+        }
+    }
+
+    /**
+     * Parses a postfix operator.
+     *
+     * @param atom the node the operator applies to
+     * @return repeated node or <code>null</code> if there is no postfix operator at the current offset
+     */
+    private RegexNode parseQuantifier(RegexNode atom)
+    {
+        switch( scanner.peek() )
+        {
+            case '*':
+                scanner.consume();
+                return new RegexNode.Repeat( atom, 0, TransitionRepeat.UNBOUNDED );
+            case '+':
+                scanner.consume();
+                return new RegexNode.Repeat( atom, 1, TransitionRepeat.UNBOUNDED );
+            case '?':
+                scanner.consume();
+                return new RegexNode.Repeat( atom, 0, 1 );
+            case '{':
+                final int length = StateMachine.repetitionLength( regex, scanner.offset() );
+                if ( length == 0 ) {
+                    return null;
+                }
+                final String[] bounds = regex.substring( scanner.offset() + 1, scanner.offset() + length - 1 ).split( ",", -1 );
+                final int min = parseRepetitionCount( bounds[0] );
+                final int max = bounds.length == 1 ? min : bounds[1].isEmpty() ? TransitionRepeat.UNBOUNDED : parseRepetitionCount( bounds[1] );
+                if ( max != TransitionRepeat.UNBOUNDED && max < min ) {
+                    throw new IllegalArgumentException("Invalid repetition {"+min+","+max+"} at offset "+scanner.offset());
+                }
+                scanner.setOffset( scanner.offset() + length );
+                return new RegexNode.Repeat( atom, min, max );
+            default:
+                return null;
+        }
+    }
+
+    private int parseRepetitionCount(String value)
+    {
+        try {
+            return Integer.parseInt( value );
+        }
+        catch(NumberFormatException e) {
+            throw new IllegalArgumentException("Repetition count too large: "+value+" at offset "+scanner.offset());
+        }
+    }
+
+    private RegexNode parseCharacterClass()
+    {
+        final int start = scanner.offset() - 1;
+        final CharRanges.Builder chars = new CharRanges.Builder();
+        final boolean negated = scanner.consume( '^' );
+        boolean empty = true;
+        while ( true )
+        {
+            if ( scanner.eof() ) {
+                throw new IllegalArgumentException("Missing ']' for character class at offset "+start);
+            }
+            char c = scanner.consume();
+            if ( c == ']' ) {
+                break;
+            }
+            if ( c == '\\' )
+            {
+                if ( isPropertyEscape() )
+                {
+                    chars.add( property() );
+                    empty = false;
+                    continue;
+                }
+                c = escapedChar();
+            }
+            if ( ! scanner.eof() && scanner.peek() == '-' && scanner.offset() + 1 < regex.length() && regex.charAt( scanner.offset() + 1 ) != ']' )
+            {
+                // range
+                scanner.consume(); // consume '-'
+                char end = scanner.consume();
+                if ( end == '\\' ) {
+                    end = escapedChar();
+                }
+                if ( end < c ) {
+                    throw new IllegalArgumentException("Invalid range "+c+"-"+end+" at offset "+scanner.offset());
+                }
+                chars.add( c, end );
+                if ( caseInsensitive )
+                {
+                    // only case-insensitive ranges need to look at every character
+                    for ( char current = c ; current <= end ; current++ )
+                    {
+                        addChar( chars, current );
+                        if ( current == Character.MAX_VALUE ) {
+                            break;
+                        }
+                    }
+                }
+            } else {
+                addChar( chars, c );
+            }
+            empty = false;
+        }
+        if ( empty ) {
+            throw new IllegalArgumentException("Empty character class at offset "+start);
+        }
+        final CharRanges result = negated ? chars.build().complement() : chars.build();
+        if ( result.isEmpty() ) {
+            throw new IllegalArgumentException("Character class matches no character at offset "+start);
+        }
+        return RegexNode.CharSet.of( result );
+    }
+
+    private boolean isPropertyEscape()
+    {
+        return ! scanner.eof() && ( scanner.peek() == 'p' || scanner.peek() == 'P' );
+    }
+
+    /**
+     * Parses a unicode property following a '\'.
+     *
+     * @return characters matched by the property, case variants included if this parser is case-insensitive
+     */
+    private CharRanges property()
+    {
+        final int start = scanner.offset() - 1;
+        final boolean negated = scanner.consume() == 'P';
+        final String name;
+        if ( scanner.consume( '{' ) )
+        {
+            final int end = regex.indexOf( '}', scanner.offset() );
+            if ( end == -1 ) {
+                throw new IllegalArgumentException("Missing '}' for unicode property at offset "+start);
+            }
+            name = regex.substring( scanner.offset(), end );
+            scanner.setOffset( end + 1 );
+        }
+        else
+        {
+            if ( scanner.eof() ) {
+                throw new IllegalArgumentException("Missing unicode property name at offset "+start);
+            }
+            name = Character.toString( scanner.consume() );
+        }
+        CharRanges result = UnicodeClasses.forName( name );
+        if ( caseInsensitive )
+        {
+            final CharRanges.Builder chars = new CharRanges.Builder();
+            for ( int i = 0 ; i < result.rangeCount() ; i++ )
+            {
+                for ( int c = result.first( i ) ; c <= result.last( i ) ; c++ ) {
+                    addChar( chars, (char) c );
+                }
+            }
+            result = chars.build();
+        }
+        if ( negated ) {
+            result = result.complement();
+        }
+        if ( result.isEmpty() ) {
+            throw new IllegalArgumentException("Unicode property '"+name+"' matches no character at offset "+start);
+        }
+        return result;
+    }
+
+    private char escapedChar()
+    {
+        if ( scanner.eof() ) {
+            throw new IllegalArgumentException("Dangling '\\' at end of expression");
+        }
+        return unescape( scanner.consume() );
+    }
+
+    /**
+     * Returns the character an escape sequence stands for.
+     *
+     * @param c character following the '\'
+     * @return
+     */
+    static char unescape(char c)
+    {
+        switch( c )
+        {
+            case 'n': return '\n';
+            case 'r': return '\r';
+            case 't': return '\t';
+            case 'f': return '\f';
+            default:
+                return c;
+        }
+    }
+
+    private RegexNode literal(char c)
+    {
+        final CharRanges.Builder chars = new CharRanges.Builder();
+        addChar( chars, c );
+        return RegexNode.CharSet.of( chars.build() );
+    }
+
+    private void addChar(CharRanges.Builder chars, char c)
+    {
+        chars.add( c );
+        if ( caseInsensitive )
+        {
+            final char lower = Character.toLowerCase( c );
+            final char upper = Character.toUpperCase( c );
+            if ( lower != c ) {
+                chars.add( lower );
+            }
+            if ( upper != c ) {
+                chars.add( upper );
+            }
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rewrites a {@link RegexNode} tree into an equivalent but smaller one before it gets
+ * turned into an NFA.
+ *
+ * Passes (applied bottom-up until nothing changes):
+ * <ul>
+ *     <li>flattening of nested sequences and alternations (including groups)</li>
+ *     <li>alternatives that match a single character are merged into one character set, <code>a|b|[0-9]</code> becomes <code>[ab0-9]</code></li>
+ *     <li>common prefixes and suffixes of alternatives are factored out, <code>abc|abd</code> becomes <code>ab[cd]</code></li>
+ *     <li>an empty alternative turns the alternation optional, <code>a|</code> becomes <code>a?</code></li>
+ *     <li>nested and adjacent repetitions are folded when the result matches the same strings,
+ *     <code>(a*)+</code> becomes <code>a*</code>, <code>(a{2}){3}</code> becomes <code>a{6}</code> and <code>[0-9][0-9]*</code> becomes <code>[0-9]+</code></li>
+ * </ul>
+ *
+ * All rewrites preserve the language. They do not preserve which alternative matched, which does not
+ * matter because this library only answers whether (and how far) an expression matches.
+ */
+public final class RegexSimplifier
+{
+    private RegexSimplifier() {
+    }
+
+    /**
+     * Simplify a tree.
+     *
+     * @param node
+     * @return simplified tree, may be the same instance
+     */
+    public static RegexNode simplify(RegexNode node)
+    {
+        RegexNode current = node;
+        while ( true )
+        {
+            final RegexNode next = rewrite( current );
+            if ( next.equals( current ) ) {
+                return next;
+            }
+            current = next;
+        }
+    }
+
+    private static RegexNode rewrite(RegexNode node)
+    {
+        if ( node instanceof RegexNode.Sequence ) {
+            return simplifySequence( node.children() );
+        }
+        if ( node instanceof RegexNode.Alternation ) {
+            return simplifyAlternation( node.children() );
+        }
+        if ( node instanceof RegexNode.Repeat ) {
+            final RegexNode.Repeat repeat = (RegexNode.Repeat) node;
+            return simplifyRepeat( rewrite( repeat.child ), repeat.min, repeat.max );
+        }
+        return node;
+    }
+
+    private static RegexNode simplifySequence(List<RegexNode> children)
+    {
+        // flatten
+        final List<RegexNode> flat = new ArrayList<>();
+        for ( RegexNode child : children ) {
+            flat.addAll( rewrite( child ).sequenceElements() );
+        }
+
+        // fold adjacent repetitions of the same node, x{a,b}x{c,d} -> x{a+c,b+d}
+        final List<RegexNode> result = new ArrayList<>();
+        for ( RegexNode element : flat )
+        {
+            if ( ! result.isEmpty() )
+            {
+                final RegexNode previous = result.get( result.size() - 1 );
+                if ( previous instanceof RegexNode.Repeat || element instanceof RegexNode.Repeat )
+                {
+                    final RegexNode.Repeat r1 = asRepeat( previous );
+                    final RegexNode.Repeat r2 = asRepeat( element );
+                    if ( r1.child.equals( r2.child ) )
+                    {
+                        final long min = (long) r1.min + r2.min;
+                        final long max = r1.isUnbounded() || r2.isUnbounded() ? TransitionRepeat.UNBOUNDED : (long) r1.max + r2.max;
+                        if ( max <= Integer.MAX_VALUE )
+                        {
+                            result.set( result.size() - 1, simplifyRepeat( r1.child, (int) min, (int) max ) );
+                            continue;
+                        }
+                    }
+                }
+            }
+            result.add( element );
+        }
+        return RegexNode.Sequence.of( result );
+    }
+
+    private static RegexNode.Repeat asRepeat(RegexNode node)
+    {
+        return node instanceof RegexNode.Repeat ? (RegexNode.Repeat) node : new RegexNode.Repeat( node, 1, 1 );
+    }
+
+    private static RegexNode simplifyAlternation(List<RegexNode> children)
+    {
+        // flatten and drop duplicates
+        final Set<RegexNode> unique = new LinkedHashSet<>();
+        boolean optional = false;
+        for ( RegexNode child : children )
+        {
+            final RegexNode simplified = rewrite( child );
+            final List<RegexNode> nested = simplified instanceof RegexNode.Alternation ? simplified.children() : List.of( simplified );
+            for ( RegexNode alternative : nested )
+            {
+                if ( alternative.isEmpty() ) {
+                    optional = true;
+                } else {
+                    unique.add( alternative );
+                }
+            }
+        }
+        final List<RegexNode> alternatives = new ArrayList<>( unique );
+
+        // merge single characters into one set
+        RegexNode.CharSet charSet = null;
+        int charSetIndex = -1;
+        for ( int i = 0 ; i < alternatives.size() ; i++ )
+        {
+            if ( alternatives.get( i ).isCharSet() )
+            {
+                final RegexNode.CharSet set = (RegexNode.CharSet) alternatives.get( i );
+                if ( charSet == null ) {
+                    charSet = set;
+                    charSetIndex = i;
+                } else {
+                    charSet = charSet.union( set );
+                    alternatives.remove( i-- );
+                }
+            }
+        }
+        if ( charSet != null ) {
+            alternatives.set( charSetIndex, charSet );
+        }
+
+        List<RegexNode> factored = factor( alternatives, true );
+        factored = factor( factored, false );
+
+        if ( factored.isEmpty() ) {
+            return RegexNode.EMPTY;
+        }
+        final RegexNode result = RegexNode.Alternation.of( factored );
+        return optional ? simplifyRepeat( result, 0, 1 ) : result;
+    }
+
+    /**
+     * Factors out the first (or last) element shared by several alternatives.
+     *
+     * @param alternatives
+     * @param prefix whether to factor out prefixes or suffixes
+     * @return
+     */
+    private static List<RegexNode> factor(List<RegexNode> alternatives, boolean prefix)
+    {
+        // group alternatives by their first (last) element, keeping the order of first occurrence
+        final Map<RegexNode,List<List<RegexNode>>> groups = new LinkedHashMap<>();
+        for ( RegexNode alternative : alternatives )
+        {
+            final List<RegexNode> elements = alternative.sequenceElements();
+            final RegexNode key = prefix ? elements.get( 0 ) : elements.get( elements.size() - 1 );
+            groups.computeIfAbsent( key, k -> new ArrayList<>() ).add( elements );
+        }
+        if ( groups.size() == alternatives.size() ) {
+            return alternatives;
+        }
+
+        final List<RegexNode> result = new ArrayList<>();
+        for ( Map.Entry<RegexNode, List<List<RegexNode>>> entry : groups.entrySet() )
+        {
+            final List<List<RegexNode>> members = entry.getValue();
+            if ( members.size() == 1 )
+            {
+                result.add( RegexNode.Sequence.of( members.get( 0 ) ) );
+                continue;
+            }
+            final List<RegexNode> rests = new ArrayList<>();
+            for ( List<RegexNode> elements : members )
+            {
+                final List<RegexNode> rest = prefix ? elements.subList( 1, elements.size() ) : elements.subList( 0, elements.size() - 1 );
+                rests.add( RegexNode.Sequence.of( rest ) );
+            }
+            final RegexNode remainder = simplifyAlternation( rests );
+            final List<RegexNode> sequence = new ArrayList<>();
+            if ( prefix ) {
+                sequence.add( entry.getKey() );
+                sequence.addAll( remainder.sequenceElements() );
+            } else {
+                sequence.addAll( remainder.sequenceElements() );
+                sequence.add( entry.getKey() );
+            }
+            result.add( simplifySequence( sequence ) );
+        }
+        return result;
+    }
+
+    private static RegexNode simplifyRepeat(RegexNode child, int min, int max)
+    {
+        final boolean unbounded = max == TransitionRepeat.UNBOUNDED;
+        if ( child.isEmpty() || max == 0 ) {
+            return RegexNode.EMPTY;
+        }
+        if ( min == 1 && max == 1 ) {
+            return child;
+        }
+        if ( child instanceof RegexNode.Repeat )
+        {
+            // (x{a,b}){c,d} matches x{k} for all k in the union of [i*a,i*b] with c <= i <= d,
+            // this is a single interval if [i*a,i*b] and [(i+1)*a,(i+1)*b] touch for i = c (and thus for all larger i)
+            final RegexNode.Repeat inner = (RegexNode.Repeat) child;
+            final boolean contiguous = min == max ||
+                    ( inner.isUnbounded() ? ( min > 0 || inner.min <= 1 ) : (long) inner.min <= (long) min * ( inner.max - inner.min ) + 1 );
+            if ( contiguous )
+            {
+                final long newMin = (long) inner.min * min;
+                final long newMax = inner.isUnbounded() || unbounded ? TransitionRepeat.UNBOUNDED : (long) inner.max * max;
+                if ( newMin <= Integer.MAX_VALUE && newMax <= Integer.MAX_VALUE ) {
+                    return simplifyRepeat( inner.child, (int) newMin, (int) newMax );
+                }
+            }
+        }
+        return new RegexNode.Repeat( child, min, max );
+    }
+}
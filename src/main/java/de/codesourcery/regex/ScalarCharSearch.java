@@ -0,0 +1,93 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex;
+
+import java.util.Arrays;
+
+/**
+ * Character at a time implementation of {@link CharSearch}, shared by all its variants.
+ */
+final class ScalarCharSearch
+{
+    private ScalarCharSearch() {
+    }
+
+    static boolean contains(char[] set, char c)
+    {
+        for ( char member : set )
+        {
+            if ( member == c ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static boolean inRanges(char[] ranges, char c)
+    {
+        for ( int i = 0 ; i < ranges.length ; i += 2 )
+        {
+            if ( c >= ranges[i] && c <= ranges[i+1] ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static int indexOfAny(char[] text, int from, int to, char[] set)
+    {
+        int i = from;
+        while ( i < to && ! contains( set, text[i] ) ) {
+            i++;
+        }
+        return i;
+    }
+
+    static int indexOfNone(char[] text, int from, int to, char[] set)
+    {
+        int i = from;
+        while ( i < to && contains( set, text[i] ) ) {
+            i++;
+        }
+        return i;
+    }
+
+    static int indexOfOutside(char[] text, int from, int to, char[] ranges)
+    {
+        int i = from;
+        while ( i < to && inRanges( ranges, text[i] ) ) {
+            i++;
+        }
+        return i;
+    }
+
+    static int[] indexesOf(char[] text, int from, int to, char c)
+    {
+        int[] result = new int[ 16 ];
+        int count = 0;
+        for ( int i = from ; i < to ; i++ )
+        {
+            if ( text[i] == c )
+            {
+                if ( count == result.length ) {
+                    result = Arrays.copyOf( result, count * 2 );
+                }
+                result[ count++ ] = i;
+            }
+        }
+        return Arrays.copyOf( result, count );
+    }
+}
@@ -17,24 +17,25 @@ package de.codesourcery.regex;
 
 public class Scanner implements IScanner
 {
-    private final String input;
+    private final char[] input;
     private int offset;
+    private LineIndex lineIndex;
 
     public Scanner(String input)
     {
-        this.input = input;
+        this.input = input.toCharArray();
     }
 
     public char peek() {
-        return input.charAt(offset);
+        return input[offset];
     }
 
     public char consume() {
-        return input.charAt(offset++);
+        return input[offset++];
     }
 
     public boolean consume(char c) {
-        if ( ! eof() && input.charAt(offset) == c ) {
+        if ( ! eof() && input[offset] == c ) {
             offset++;
             return true;
         }
@@ -43,7 +44,7 @@ public class Scanner implements IScanner
 
     @Override
     public boolean eof() {
-        return offset >= input.length();
+        return offset >= input.length;
     }
 
     @Override
@@ -70,4 +71,34 @@ public class Scanner implements IScanner
     public void setOffset(int offset) {
         this.offset = offset;
     }
-}
\ No newline at end of file
+
+    @Override
+    public int skip(char[] set)
+    {
+        final int start = offset;
+        offset = CharSearch.indexOfNone( input, offset, input.length, set );
+        return offset - start;
+    }
+
+    @Override
+    public int skipWithin(char[] ranges, StringBuilder skipped)
+    {
+        final int start = offset;
+        offset = CharSearch.indexOfOutside( input, offset, input.length, ranges );
+        skipped.append( input, start, offset - start );
+        return offset - start;
+    }
+
+    /**
+     * Returns the line index of the input, building it on first use.
+     *
+     * @return
+     */
+    public LineIndex lineIndex()
+    {
+        if ( lineIndex == null ) {
+            lineIndex = new LineIndex( input, input.length );
+        }
+        return lineIndex;
+    }
+}
@@ -16,8 +16,11 @@
 package de.codesourcery.regex;
 
 import java.awt.*;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -50,37 +53,50 @@ public final class State
 
     public boolean isDFA()
     {
-        final Set<Character> seen = new HashSet<>();
         for ( State s : gatherAllStates().values() )
         {
-            if ( ! s.isDFA(seen) ) {
+            if ( ! s.hasDeterministicTransitions() ) {
                 return false;
             }
         }
         return true;
     }
-    public boolean isDFA(Set<Character> seen)
+
+    /**
+     * Returns whether every character leads to at most one state.
+     *
+     * @return <code>false</code> if this state has epsilon transitions, repetitions or
+     * transitions consuming overlapping character sets
+     */
+    public boolean hasDeterministicTransitions()
     {
-        seen.clear();
-        boolean gotAny = false;
-        for ( Transition t : getOutgoingTransitions() ) {
-            if ( t.isEpsilon() ) {
+        final List<CharRanges> sets = new ArrayList<>();
+        int rangeCount = 0;
+        for ( Transition<?> t : getOutgoingTransitions() )
+        {
+            if ( t.isEpsilon() || t.isRepeat() ) {
                 return false;
             }
-            else if ( t.isAnyChar() )
-            {
-                if ( gotAny ) {
-                    return false;
-                }
-                gotAny = true;
+            sets.add( t.getCharacters() );
+            rangeCount += t.getCharacters().rangeCount();
+        }
+        if ( sets.size() <= 1 ) {
+            return true;
+        }
+        // disjoint if no interval starts before the previous one ended
+        final long[] ranges = new long[ rangeCount ];
+        int idx = 0;
+        for ( CharRanges set : sets )
+        {
+            for ( int i = 0 , len = set.rangeCount() ; i < len ; i++ ) {
+                ranges[idx++] = ( (long) set.first( i ) << 16 ) | set.last( i );
             }
-            else
-            {
-                final char c = ((TransitionChar) t).c;
-                if ( seen.contains( c ) ) {
-                    return false;
-                }
-                seen.add( c );
+        }
+        Arrays.sort( ranges );
+        for ( int i = 1 ; i < ranges.length ; i++ )
+        {
+            if ( ( ranges[i] >>> 16 ) <= ( ranges[i-1] & 0xffff ) ) {
+                return false;
             }
         }
         return true;
@@ -134,19 +150,13 @@ public final class State
         {
             throw new IllegalArgumentException("State "+this+" - duplicate transition "+newTransition);
         }
-        if ( newTransition.isOutgoing(this ) && ! newTransition.isEpsilon() )
-        {
-            if ( allTransitions.stream().filter( x-> x.isOutgoing(this) ).anyMatch(x -> x.matchesIgnoringDirection(newTransition )))
-            {
-                throw new IllegalArgumentException("State "+this+" - same outgoing transition "+newTransition);
-            }
-        }
+        // an NFA may have several transitions for the same character, they only need to lead to different states
         allTransitions.add(idx,newTransition );
         if ( ! newTransition.isLoop() )
         {
             if (!newTransition.isEpsilon())
             {
-                if (newTransition.destination.allTransitions.stream().filter(x -> x.isIncoming(this)).anyMatch(x -> x.matchesIgnoringDirection(newTransition)))
+                if (newTransition.destination.allTransitions.stream().filter(x -> x.isOutgoing(this)).anyMatch(x -> x.matchesIgnoringDirection(newTransition)))
                 {
                     throw new IllegalArgumentException("State " + newTransition.destination + " - same outgoing transition " + newTransition);
                 }
@@ -172,6 +182,24 @@ public final class State
         return addTransition( new TransitionChar( c, this, nextState ) );
     }
 
+    /**
+     * Add transition consuming any character out of a set.
+     *
+     * @param characters
+     * @param nextState
+     * @return
+     */
+    public State transition(CharRanges characters, State nextState)
+    {
+        if ( characters.isSingleChar() ) {
+            return transition( characters.first( 0 ), nextState );
+        }
+        if ( characters.isAny() ) {
+            return anyCharacter( nextState );
+        }
+        return addTransition( new TransitionRange( characters, this, nextState ) );
+    }
+
     /**
      * Add epsilon transition.
      *
@@ -205,17 +233,20 @@ public final class State
         return new Subgraph(entry,entry);
     }
 
+    /**
+     * Returns the symbols of the automaton starting at this state.
+     *
+     * @return
+     */
     public Alphabet getAlphabet()
     {
-        final Alphabet alphabet = new Alphabet();
+        final List<CharRanges> sets = new ArrayList<>();
         visitOutgoingTransitions( transition -> {
-            if ( transition.isAnyChar() ) {
-                alphabet.addAnyChar();
-            } else if ( transition.isChar() ) {
-                alphabet.add( ((TransitionChar) transition).c );
+            if ( ! transition.isEpsilon() ) {
+                sets.add( transition.getCharacters() );
             }
         });
-        return alphabet;
+        return Alphabet.of( sets );
     }
 
     private State copyGraph(State currentNode, Map<Integer, State> copies, Set<State> exits)
@@ -246,21 +277,23 @@ public final class State
 
     public void visitOutgoingTransitions(Consumer<Transition> visitor)
     {
-        visitOutgoingTransitions( visitor, new HashSet<>() );
-    }
-
-    private void visitOutgoingTransitions(Consumer<Transition> visitor, Set<State> visited)
-    {
-        if ( visited.contains(  this ) ) {
-            return;
-        }
+        // depth-first with an explicit stack, automata for repetitions like a{5000} are too deep to recurse
+        final Set<State> visited = new HashSet<>();
+        final Deque<Iterator<?>> stack = new ArrayDeque<>();
         visited.add( this );
-        for ( Transition t : getOutgoingTransitions() )
+        stack.push( getOutgoingTransitions().iterator() );
+        while ( ! stack.isEmpty() )
         {
-            if ( t.isOutgoing( this ) )
+            final Iterator<?> it = stack.peek();
+            if ( ! it.hasNext() )
             {
-                visitor.accept( t );
-                t.destination.visitOutgoingTransitions( visitor, visited );
+                stack.pop();
+                continue;
+            }
+            final Transition<?> t = (Transition<?>) it.next();
+            visitor.accept( t );
+            if ( visited.add( t.destination ) ) {
+                stack.push( t.destination.getOutgoingTransitions().iterator() );
             }
         }
     }
@@ -277,21 +310,24 @@ public final class State
 
     public void visitOutgoingStates(Consumer<State> visitor)
     {
-        visitOutgoingStates(visitor,new HashSet<>());
-    }
-
-    private void visitOutgoingStates(Consumer<State> visitor, Set<State> visited)
-    {
-        if ( visited.contains(  this ) ) {
-            return;
-        }
+        final Set<State> visited = new HashSet<>();
+        final Deque<Iterator<?>> stack = new ArrayDeque<>();
         visited.add( this );
-        visitor.accept(this);
-        for ( Transition t : getOutgoingTransitions() )
+        visitor.accept( this );
+        stack.push( getOutgoingTransitions().iterator() );
+        while ( ! stack.isEmpty() )
         {
-            if ( t.isOutgoing( this ) )
+            final Iterator<?> it = stack.peek();
+            if ( ! it.hasNext() )
+            {
+                stack.pop();
+                continue;
+            }
+            final State destination = ( (Transition<?>) it.next() ).destination;
+            if ( visited.add( destination ) )
             {
-                t.destination.visitOutgoingStates( visitor, visited );
+                visitor.accept( destination );
+                stack.push( destination.getOutgoingTransitions().iterator() );
             }
         }
     }
@@ -301,13 +337,21 @@ public final class State
         final int offset = scanner.offset();
 
         final List<Transition> transitions = getOutgoingTransitions();
-        if ( transitions.isEmpty() )
+        if ( transitions.isEmpty() || ( isAcceptingState && scanner.eof() ) )
         {
             return true; // terminal state reached
         }
         for (int i = 0, len = transitions.size(); i < len; i++)
         {
             final Transition transition = transitions.get( i );
+            if ( transition.isRepeat() )
+            {
+                if ( matchesRepeat( (TransitionRepeat) transition, scanner ) ) {
+                    return true;
+                }
+                scanner.setOffset( offset );
+                continue;
+            }
             if ( transition.matches( scanner ) &&
                     transition.next( this ).matches( scanner ) &&
                     scanner.eof() )
@@ -319,6 +363,26 @@ public final class State
         return false;
     }
 
+    private static boolean matchesRepeat(TransitionRepeat repeat, Scanner scanner)
+    {
+        final int offset = scanner.offset();
+        for ( int count = 0 ; repeat.isUnbounded() || count <= repeat.max ; count++ )
+        {
+            if ( count >= repeat.min )
+            {
+                if ( repeat.destination.matches( scanner ) && scanner.eof() ) {
+                    return true;
+                }
+                scanner.setOffset( offset + count );
+            }
+            if ( scanner.eof() || ! repeat.matches( scanner.peek() ) ) {
+                break;
+            }
+            scanner.consume();
+        }
+        return false;
+    }
+
     public List<Transition> getOutgoingTransitions()
     {
         return allTransitions.stream().filter( x -> x.isOutgoing( this ) ).collect( Collectors.toList() );
@@ -368,7 +432,11 @@ public final class State
                 if ( idx != -1 ) {
                     throw new IllegalStateException( "Already removed once ? "+t );
                 }
-                if ( this.equals( t.origination ) )
+                if ( t.isLoop() )
+                {
+                    // loops are only stored once
+                }
+                else if ( this.equals( t.origination ) )
                 {
                     if ( ! t.destination.allTransitions.remove(t) ) {
                         throw new IllegalStateException("Failed to remove "+t+" from "+t.destination);
@@ -391,52 +459,12 @@ public final class State
         return idx;
     }
 
-    public void postprocess()
-    {
-        gatherAllStates().values().forEach( State::collapseIntermediateStates );
-    }
-
     public Map<Integer, State> gatherAllStates() {
         final Map<Integer,State> allStates = new HashMap<>();
         visitOutgoingStates( state -> allStates.put( state.getID(), state ) );
         return allStates;
     }
 
-    private void collapseIntermediateStates()
-    {
-        final List<Transition> outgoing = getOutgoingTransitions();
-        for (int idx = 0, len = outgoing.size() ; idx < len ; idx++)
-        {
-            final Transition transition = outgoing.get( idx );
-            if ( ! transition.destination.equals(this) && transition.destination.outgoingTransitionCount() == 1  )
-            {
-                final Transition nextHop = transition.destination.firstOutgoingTransition();
-                if ( nextHop.isEpsilon() )
-                {
-                    // [state1] -> any -> [state2] -> epsilon -> [state3]
-                    if ( transition.destination.outgoingTransitionCount() == 1 )
-                    {
-                        final int removedIdx = removeTransition(transition);
-                        final Transition newTransition = transition.copyNewDestination(nextHop.destination);
-                        insertTransition(removedIdx, newTransition);
-                    }
-                }
-                else if ( transition.isEpsilon() )
-                {
-                    // [state1] -> epsilon -> [state2] -> any -> [state3]
-                    System.out.println("Removing transition "+nextHop);
-
-                    if ( getOutgoingTransitions().stream().noneMatch(t -> t.matchesIgnoringDirection(nextHop) ) )
-                    {
-                        final int removedIdx = removeTransition(transition);
-                        final Transition copy = nextHop.copy(this, nextHop.destination);
-                        insertTransition(removedIdx, copy);
-                    }
-                }
-            }
-        }
-    }
-
     public int getID() {
         return id;
     }
@@ -15,226 +15,311 @@
  */
 package de.codesourcery.regex;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
-import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Function;
-import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 public class StateMachine
 {
+    /**
+     * Whether to print each step of building and converting automatons to stdout.
+     */
+    public static final boolean DEBUG = Boolean.getBoolean( "regex.debug" );
+
     public State initialState;
     private String expression;
-    private boolean caseInsensitive;
+    private String ruleName;
+    private RegexNode syntaxTree;
+    private NFAConstruction construction = NFAConstruction.THOMPSON;
+    private long bitStateBudget = BitStateBacktracker.DEFAULT_BUDGET_BITS;
+
+    // array-based copy of the automaton used by matches(), rebuilt when the automaton changes
+    private NFAProgram program;
+    private State programState;
+
+    /**
+     * Sets the name of the lexer rule this state machine is built for,
+     * used when reporting {@link CompilePhaseEvent}s.
+     *
+     * @param ruleName
+     */
+    public void setRuleName(String ruleName)
+    {
+        this.ruleName = ruleName;
+    }
+
+    /**
+     * Sets the algorithm {@link #setup(String, boolean)} uses to build the NFA.
+     *
+     * @param construction
+     */
+    public void setConstruction(NFAConstruction construction)
+    {
+        if ( construction == null ) {
+            throw new IllegalArgumentException("Construction must not be NULL");
+        }
+        this.construction = construction;
+    }
+
+    public NFAConstruction getConstruction()
+    {
+        return construction;
+    }
+
+    /**
+     * Returns the simplified syntax tree of the expression passed to {@link #setup(String, boolean)}.
+     *
+     * @return syntax tree or <code>null</code>
+     */
+    public RegexNode getSyntaxTree()
+    {
+        return syntaxTree;
+    }
 
+    /**
+     * Parses an expression, simplifies its syntax tree (see {@link RegexSimplifier}) and
+     * turns it into an NFA using the {@link #setConstruction(NFAConstruction) selected construction}.
+     *
+     * @param regex
+     * @param caseInsensitive
+     * @throws IllegalArgumentException if the expression is malformed
+     */
     public void setup(String regex,boolean caseInsensitive)
     {
         this.expression = regex;
-        this.caseInsensitive = caseInsensitive;
-        setup(new Scanner(regex));
+        final CompilePhaseEvent event = CompilePhaseEvent.begin( CompilePhaseEvent.PARSE, ruleName, regex );
+        syntaxTree = RegexSimplifier.simplify( new RegexParser( regex, caseInsensitive ).parse() );
+        initialState = construction == NFAConstruction.GLUSHKOV ? GlushkovBuilder.build( syntaxTree ) : ThompsonBuilder.build( syntaxTree ).entry;
+        event.end();
+        if ( event.shouldCommit() )
+        {
+            event.nfa( initialState );
+            event.commit();
+        }
     }
 
-    private void setup(Scanner scanner)
+    /**
+     * Returns whether a character has a special meaning when not escaped.
+     *
+     * @param c
+     * @return
+     */
+    public static boolean isOperator(char c)
     {
-        final GraphList graphList = new GraphList();
-        while ( ! scanner.eof() ) {
-            parse(scanner, graphList );
+        switch(c)
+        {
+            case '|':
+            case '(':
+            case ')':
+            case '[':
+            case ']':
+            case '.':
+                return true;
+            default:
+                return isPostfixOperator( c );
         }
-        final Subgraph first = graphList.join();
-        initialState = first.entry;
     }
 
-    private void parse(Scanner scanner, GraphList graphList)
-    {
-        while ( ! scanner.eof() )
+    private static boolean isPostfixOperator(char c) {
+        switch(c)
         {
-            char currentChar = scanner.consume();
-            if (currentChar == '\\')
-            {
-                currentChar = scanner.consume();
-                addCharTransition( scanner, graphList, currentChar, true );
-                continue;
-            }
+            case '*':
+            case '?':
+            case '+':
+                return true;
+            default:
+                return false;
+        }
+    }
 
-            if ( currentChar == '[' ) { // character class
-                graphList.add( parseCharacterClass( scanner ) );
-                return;
+    /**
+     * Returns the length of a repetition (<code>{m}</code>, <code>{m,}</code> or <code>{m,n}</code>)
+     * starting at some offset.
+     *
+     * A '{' that does not start a repetition is an ordinary character.
+     *
+     * @param regex
+     * @param offset
+     * @return length including the curly braces or 0 if there is no repetition at this offset
+     */
+    public static int repetitionLength(CharSequence regex, int offset)
+    {
+        final int len = regex.length();
+        if ( offset >= len || regex.charAt( offset ) != '{' ) {
+            return 0;
+        }
+        int i = offset + 1;
+        final int minStart = i;
+        while ( i < len && isDigit( regex.charAt( i ) ) ) {
+            i++;
+        }
+        if ( i == minStart ) {
+            return 0;
+        }
+        if ( i < len && regex.charAt( i ) == ',' )
+        {
+            i++;
+            while ( i < len && isDigit( regex.charAt( i ) ) ) {
+                i++;
             }
+        }
+        return i < len && regex.charAt( i ) == '}' ? i - offset + 1 : 0;
+    }
 
-            if (currentChar == '|') // union
-            {
-                final GraphList expr = new GraphList();
-                parse(scanner, expr);
-                Subgraph union1 = graphList.join();
-                Subgraph union2 = expr.join();
+    private static boolean isDigit(char c)
+    {
+        return c >= '0' && c <= '9';
+    }
 
-                final Subgraph result = new Subgraph(new State(), new State());
-                result.entry.transition(union1.entry);
-                result.entry.transition(union2.entry);
+    /**
+     * Replaces this automaton with an equivalent one without epsilon transitions.
+     *
+     * @see EpsilonElimination
+     */
+    public void simplify() {
+        final CompilePhaseEvent event = CompilePhaseEvent.begin( CompilePhaseEvent.SIMPLIFY, ruleName, expression );
+        initialState = EpsilonElimination.apply( initialState );
+        program = null;
+        event.end();
+        if ( event.shouldCommit() )
+        {
+            event.nfa( initialState );
+            event.commit();
+        }
+    }
 
-                union1.exit.transition(result.exit );
-                union2.exit.transition(result.exit );
+    /**
+     * Removes all states that cannot reach an accepting state.
+     *
+     * @return number of states removed
+     * @see #trim(List)
+     */
+    public int trim()
+    {
+        program = null;
+        return trim( Collections.singletonList( initialState ) );
+    }
 
-                graphList.set(result);
-                return;
-            }
+    /**
+     * Removes states that are not reachable from any initial state or cannot reach an accepting state.
+     *
+     * Transitions into such dead states get removed, so simulations and lexers stop at the first character
+     * after which no match is possible anymore instead of walking on in states that never accept. Initial states
+     * are always kept. Like in {@link EpsilonElimination} accepting states are the ones flagged {@link State#isAcceptingState}
+     * or, if no state is flagged (NFAs built by Thompson's construction), the terminal states.
+     *
+     * @param initialStates initial states of the automaton, all states reachable from any of them are kept if they are live
+     * @return number of states removed
+     */
+    public static int trim(List<State> initialStates)
+    {
+        final CompilePhaseEvent event = CompilePhaseEvent.begin( CompilePhaseEvent.TRIM, null, null );
 
-            if (currentChar == '(')
+        // forward: states reachable from an initial state
+        final Set<State> reachable = new HashSet<>( initialStates );
+        final Stack<State> stack = new Stack<>();
+        initialStates.forEach( stack::push );
+        while ( ! stack.isEmpty() )
+        {
+            for ( Transition<?> t : stack.pop().getOutgoingTransitions() )
             {
-                final GraphList list = new GraphList();
-                parse(scanner, list);
-                final Subgraph joined = list.join();
-                final boolean createNewBox = graphList.size() == 0 || (!scanner.eof() && isPostfixOperator( scanner.peek() ) );
-                if ( createNewBox )
-                {
-                    graphList.add( joined );
+                if ( reachable.add( t.destination ) ) {
+                    stack.push( t.destination );
                 }
-                else
-                {
-                    final Subgraph existing = graphList.join();
-                    existing.exit.transition( joined.entry );
-                    graphList.set( new Subgraph( existing.entry, joined.exit ) );
-                }
-                return;
-            }
-
-            if (currentChar == ')')
-            {
-                // calling code relies on only one box being present
-                graphList.join();
-                return;
-            }
-
-            switch (currentChar)
-            {
-                case '+': // 1...n
-                    Subgraph last = graphList.last();
-                    Subgraph repeat = last.entry.copyGraph();
-                    repeat.exit.transition( repeat.entry );
-                    final State newExit = new State();
-                    repeat.entry.transition( newExit );
-
-                    final Subgraph merged = GraphList.of( last, repeat ).join();
-                    merged.exit = newExit;
-                    graphList.set( graphList.size() - 1, merged );
-                    return;
-                case '*': // 0...n
-
-                    final Subgraph newSubgraph = graphList.join();
-                    newSubgraph.exit.transition( newSubgraph.entry );
-
-                    final State newStart = new State();
-                    newStart.transition( newSubgraph.entry );
-
-                    final State newEnd = new State();
-                    newSubgraph.exit.transition( newEnd );
-
-                    newStart.transition( newEnd );
-                    graphList.set( new Subgraph( newStart, newEnd ) );
-                    return;
-                case '?': // 0..1
-                    last = graphList.last();
-                    last.entry.transition(last.exit);
-                    return;
-                default:
-                    addCharTransition( scanner, graphList, currentChar, false );
             }
         }
-    }
 
-    private void addCharTransition(Scanner scanner, GraphList graphList, char currentChar,boolean quoted)
-    {
-        final boolean createNewBox = graphList.size() == 0 || (!scanner.eof() && isPostfixOperator( scanner.peek() ) );
-        final State entry = createNewBox ? new State() : graphList.last().exit;
-        final State exit = new State();
-        if (currentChar == '.' && ! quoted )
+        // backward: reachable states that can reach an accepting state
+        final boolean flagged = reachable.stream().anyMatch( s -> s.isAcceptingState );
+        final Set<State> live = new HashSet<>();
+        for ( State state : reachable )
         {
-            entry.anyCharacter(exit);
+            if ( flagged ? state.isAcceptingState : state.isTerminalState() )
+            {
+                live.add( state );
+                stack.push( state );
+            }
         }
-        else
+        while ( ! stack.isEmpty() )
         {
-            if ( caseInsensitive )
+            for ( Transition<?> t : stack.pop().getIncomingTransitions() )
             {
-                final char lower = Character.toLowerCase( currentChar );
-                final char upper= Character.toUpperCase( currentChar );
-                if ( lower != upper )
-                {
-                    entry.transition( lower, exit );
-                    entry.transition( upper, exit );
-                } else {
-                    entry.transition( currentChar, exit );
+                if ( reachable.contains( t.origination ) && live.add( t.origination ) ) {
+                    stack.push( t.origination );
                 }
-            } else {
-                entry.transition( currentChar, exit );
             }
         }
-        if ( createNewBox )
-        {
-            graphList.add( new Subgraph( entry, exit ) );
-        } else {
-            graphList.last().exit = exit;
-        }
-    }
-
-    private Subgraph parseCharacterClass(Scanner scanner) {
 
-        final State start = new State();
-        final State end = new State();
-        final Subgraph subgraph = new Subgraph( start, end );
-        boolean quoted = false;
-        while ( ! quoted )
+        int removed = 0;
+        for ( State state : reachable )
         {
-            final char c = scanner.consume();
-            if ( ! quoted && c == ']' ) {
-                break;
-            }
-            if ( c == '\\' ) {
-                quoted = true;
-                continue;
+            final boolean keep = live.contains( state ) || initialStates.contains( state );
+            if ( ! keep ) {
+                removed++;
             }
-            if ( scanner.peek() == '-' ) {
-                // range
-                scanner.consume(); // consume '-'
-                char c2 = scanner.consume();
-                for ( char current = c ; current <= c2 ; current++ ) {
-                    start.transition( current, end );
+            for ( Transition<?> t : new ArrayList<>( state.getAllTransitions() ) )
+            {
+                // the other end may have removed it already
+                if ( ! state.getAllTransitions().contains( t ) ) {
+                    continue;
+                }
+                final State other = t.isOutgoing( state ) ? t.destination : t.origination;
+                if ( ! keep || ! reachable.contains( other ) || ( t.isOutgoing( state ) && ! live.contains( other ) && ! initialStates.contains( other ) ) ) {
+                    state.removeTransition( t );
                 }
-            } else {
-                start.transition( c, end );
             }
-            quoted = false;
-        }
-        if ( subgraph.entry.getAllTransitions().isEmpty() ) {
-            throw new IllegalStateException("Empty character class at offset "+scanner.offset());
         }
-        return subgraph;
-    }
-
-    private static boolean isPostfixOperator(char c) {
-        switch(c)
+        event.end();
+        if ( event.shouldCommit() )
         {
-            case '*':
-            case '?':
-            case '+':
-                return true;
-            default:
-                return false;
+            event.nfa( initialStates.get( 0 ) );
+            event.commit();
         }
+        return removed;
     }
 
-    public void simplify() {
-        initialState.postprocess();
+    /**
+     * Sets the maximum size of the visited bitset (in bits) up to which {@link #matches(String)}
+     * uses a {@link BitStateBacktracker}.
+     *
+     * @param bits
+     */
+    public void setBitStateBudget(long bits)
+    {
+        this.bitStateBudget = bits;
     }
 
+    /**
+     * Returns whether this automaton matches the whole input.
+     *
+     * Uses a {@link BitStateBacktracker} if its visited bitset fits into the {@link #setBitStateBudget(long) budget},
+     * otherwise simulates the automaton with {@link NFAProgram#matches(CharSequence)}. Both run in
+     * <code>O(states * input length)</code>.
+     *
+     * @param input
+     * @return
+     */
     public boolean matches(String input)
     {
-        return initialState.matches(new Scanner(input) );
+        if ( program == null || programState != initialState )
+        {
+            // a private epsilon-free copy, so the simulation does not need to follow epsilon chains
+            program = new NFAProgram( EpsilonElimination.apply( initialState ) );
+            programState = initialState;
+        }
+        if ( BitStateBacktracker.fits( program, input.length(), bitStateBudget ) ) {
+            return new BitStateBacktracker( program ).matches( input );
+        }
+        return program.matches( input );
     }
 
     public StateMachine union(StateMachine other) {
@@ -249,19 +334,100 @@ public class StateMachine
         return result;
     }
 
-    private void highlight(Set<State> toHighlight, String color, Consumer<State> debugImage)
+    private static void highlight(State root, Set<State> highlighted, Set<State> toHighlight, String color, Consumer<State> debugImage)
     {
-        initialState.resetAllColors();
-        highlightNoReset( toHighlight, color, debugImage );
+        // only states highlighted before have a color, resetting the whole graph for each DFA state is quadratic
+        highlighted.forEach( s -> s.color = null );
+        highlighted.clear();
+        highlightNoReset( root, highlighted, toHighlight, color, debugImage );
     }
 
-    private void highlightNoReset(Set<State> toHighlight, String color, Consumer<State> debugImage)
+    private static void highlightNoReset(State root, Set<State> highlighted, Set<State> toHighlight, String color, Consumer<State> debugImage)
     {
         toHighlight.forEach( s -> s.color = color );
-        debugImage.accept( initialState );
+        highlighted.addAll( toHighlight );
+        debugImage.accept( root );
     }
 
     public void toDFA(Consumer<State> debugImage, Function<Set<LexerBuilder.LexerRule>, LexerBuilder.LexerRule> ambiguityResolver)
+    {
+        toDFA( debugImage, ambiguityResolver, new CompileLimits() );
+    }
+
+    /**
+     * Turns this NFA into a DFA using subset construction.
+     *
+     * @param debugImage
+     * @param ambiguityResolver picks the rule to use for DFA states that recognize more than one rule
+     * @param limits limits on DFA size and conversion time
+     * @throws DFALimitExceededException if a limit was exceeded, this state machine is left unchanged in this case
+     */
+    public void toDFA(Consumer<State> debugImage, Function<Set<LexerBuilder.LexerRule>, LexerBuilder.LexerRule> ambiguityResolver, CompileLimits limits)
+    {
+        final CompilePhaseEvent event = CompilePhaseEvent.begin( CompilePhaseEvent.TO_DFA, ruleName, expression );
+        final State nfa = initialState;
+        // a DFA needs one state per repetition count anyway
+        final State source = expandRepeats( nfa );
+
+        // subset construction over the symbols of the NFA instead of single characters
+        final Alphabet alphabet = source.getAlphabet();
+        initialState = subsetConstruction( Collections.singletonList( source ), alphabet, debugImage, ambiguityResolver, limits ).get( 0 );
+
+        if ( ! initialState.isDFA() ) {
+            throw new IllegalStateException("Automaton is not a DFA ?");
+        }
+        event.end();
+        if ( event.shouldCommit() )
+        {
+            event.nfa( nfa );
+            event.dfa( initialState );
+            event.alphabetSize = alphabet.size();
+            event.commit();
+        }
+    }
+
+    /**
+     * Turns several NFAs into a single DFA with one initial state per NFA.
+     *
+     * All NFAs share one subset construction, so sets of NFA states reachable from
+     * more than one of them end up as a single DFA state.
+     *
+     * @param nfas initial states of the NFAs
+     * @param ambiguityResolver picks the rule to use for DFA states that recognize more than one rule
+     * @param limits limits on DFA size and conversion time, applying to the DFA as a whole
+     * @return initial states of the DFA, in the same order as the NFAs
+     * @throws DFALimitExceededException if a limit was exceeded
+     */
+    public static List<State> toDFA(List<State> nfas, Function<Set<LexerBuilder.LexerRule>, LexerBuilder.LexerRule> ambiguityResolver, CompileLimits limits)
+    {
+        final CompilePhaseEvent event = CompilePhaseEvent.begin( CompilePhaseEvent.TO_DFA, null, null );
+        final List<State> sources = new ArrayList<>();
+        final List<CharRanges> sets = new ArrayList<>();
+        for ( State nfa : nfas )
+        {
+            final State source = expandRepeats( nfa );
+            source.visitOutgoingTransitions( transition -> {
+                if ( ! transition.isEpsilon() ) {
+                    sets.add( transition.getCharacters() );
+                }
+            });
+            sources.add( source );
+        }
+        final Alphabet alphabet = Alphabet.of( sets );
+        final List<State> result = subsetConstruction( sources, alphabet, state -> {}, ambiguityResolver, limits );
+        event.end();
+        if ( event.shouldCommit() )
+        {
+            event.nfa( nfas.get( 0 ) );
+            event.dfa( result.get( 0 ) );
+            event.alphabetSize = alphabet.size();
+            event.commit();
+        }
+        return result;
+    }
+
+    private static List<State> subsetConstruction(List<State> sources, Alphabet alphabet, Consumer<State> debugImage,
+            Function<Set<LexerBuilder.LexerRule>, LexerBuilder.LexerRule> ambiguityResolver, CompileLimits limits)
     {
         final String stateNames = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
 
@@ -272,151 +438,205 @@ public class StateMachine
         move(T,a)        Set of states to which there is a transition on input symbol a from some NFA state in T
         */
 
-        // calculate size of language
-        final Alphabet alphabet = initialState.getAlphabet();
-
-        // Begin with the Start X state and find ε-closure(X)
-        final State first = new State();
+        final int columns = alphabet.size() + 1;
+        final long startNanos = System.nanoTime();
 
         final Map<State,Set<State>> newGraph = new HashMap<>();
+        final Map<Set<State>,State> dfaStates = new HashMap<>();
         final Consumer<State> assignName = (state) -> {
             final int idx = newGraph.size();
             final String prefix = Character.toString( stateNames.charAt( idx % stateNames.length() ) );
-            int count = 0;
-            while ( true )
-            {
-                final String newName = count == 0 ? prefix : prefix+count;
-                if ( newGraph.keySet().stream().noneMatch( x -> newName.equals(x.debugLabel) ) ) {
-                    break;
-                }
-                count++;
-            }
+            final int count = idx / stateNames.length();
             state.debugLabel = count == 0 ? prefix : prefix+count;
-            System.out.println("State "+state.getID()+" becomes "+state.debugLabel);
+            if ( DEBUG ) {
+                System.out.println("State "+state.getID()+" becomes "+state.debugLabel);
+            }
         };
-        assignName.accept(  first );
-
-        final Set<State> a = epsilonClosure( initialState );
-        newGraph.put( first , a );
 
+        // Begin with the Start X state of each NFA and find ε-closure(X)
+        final List<State> entries = new ArrayList<>();
         final Stack<State> toProcess = new Stack<>();
-        toProcess.push( first );
-
+        for ( State source : sources )
+        {
+            final Set<State> closure = epsilonClosure( source );
+            State entry = dfaStates.get( closure );
+            if ( entry == null )
+            {
+                entry = new State();
+                assignName.accept( entry );
+                markAccepting( entry, closure, ambiguityResolver );
+                newGraph.put( entry, closure );
+                dfaStates.put( closure, entry );
+                toProcess.push( entry );
+            }
+            entries.add( entry );
+        }
+        final State source = sources.get( 0 );
+        final Set<State> a = newGraph.get( entries.get( 0 ) );
+        final Set<State> highlighted = new HashSet<>();
+        source.resetAllColors();
+
+        final List<Set<State>> moveSets = new ArrayList<>();
+        for ( int i = 0 ; i < alphabet.size() ; i++ ) {
+            moveSets.add( new HashSet<>() );
+        }
         while ( ! toProcess.isEmpty() )
         {
             final State current = toProcess.pop();
-            System.out.println("Now processing "+current+" "+newGraph.get(current)+" , stack size: "+toProcess.size());
+            checkLimits( limits, newGraph.size(), columns, startNanos );
+            if ( DEBUG ) {
+                System.out.println("Now processing "+current+" "+newGraph.get(current)+" , stack size: "+toProcess.size());
+            }
 
-            highlight( a , "red" , debugImage );
+            highlight( source, highlighted, a , "red" , debugImage );
 
-            alphabet.visit( new Alphabet.IAlphabetVisitor()
+            // move(T,a) for all symbols at once
+            moveSets.forEach( Set::clear );
+            for (State state : newGraph.get( current ) )
             {
-                final Set<State> moveSet = new HashSet<>();
-
-                @Override
-                public void visitAny()
+                for ( Transition<?> t : state.getOutgoingTransitions() )
                 {
-                    process( new Predicate<>()
+                    if ( ! t.isEpsilon() )
                     {
-                        @Override
-                        public boolean test(Transition t)
-                        {
-                            return t.isAnyChar();
-                        }
-
-                        @Override
-                        public String toString()
-                        {
-                            return "'anyChar'";
+                        for ( int symbol : alphabet.symbolsOf( t.getCharacters() ) ) {
+                            moveSets.get( symbol ).add( t.destination );
                         }
-                    }, (src, dst) -> src.transition( dst ) );
+                    }
                 }
+            }
 
-                @Override
-                public void visitChar(char c)
-                {
-                    process( new Predicate<>()
-                    {
-                        @Override
-                        public boolean test(Transition t)
-                        {
-                            return t.isChar() && ((TransitionChar) t).c == c;
-                        }
-
-                        @Override
-                        public String toString()
-                        {
-                            return "'" + c + "'";
-                        }
-                    }, (src, dst) -> src.transition( c , dst ) );
+            // symbols leading to the same state share one transition
+            final Map<State,CharRanges.Builder> targets = new LinkedHashMap<>();
+            for ( int symbol = 0 ; symbol < alphabet.size() ; symbol++ )
+            {
+                final Set<State> moveSet = moveSets.get( symbol );
+                if ( DEBUG ) {
+                    System.out.println("Move set for "+alphabet.symbol( symbol )+" : "+moveSet);
+                }
+                if ( moveSet.isEmpty() ) {
+                    // no state for the empty set, a missing transition already means no match is possible
+                    continue;
                 }
 
-                private void process(Predicate<Transition> transitionCheck, BiConsumer<State,State> transitionCreator)
-                {
-                    moveSet.clear();
-                    for (State state : newGraph.get( current ) )
-                    {
-                        for ( Transition t : state.getOutgoingTransitions() )
-                        {
-                            if ( transitionCheck.test(t) )
-                            {
-                                moveSet.add( t.destination );
-                            }
-                        }
-                    }
-                    System.out.println("Move set for "+transitionCheck+" : "+moveSet);
-
-                    highlightNoReset( moveSet , "green" , debugImage );
+                highlightNoReset( source, highlighted, moveSet , "green" , debugImage );
 
-                    final Set<State> epsilonClosure = epsilonClosure(moveSet);
+                final Set<State> epsilonClosure = epsilonClosure(moveSet);
 
-                    highlightNoReset( epsilonClosure , "blue" , debugImage );
+                highlightNoReset( source, highlighted, epsilonClosure , "blue" , debugImage );
 
+                if ( DEBUG ) {
                     System.out.println("Epsilon closure: "+epsilonClosure);
-                    for (var entry : newGraph.entrySet() )
-                    {
-                        var existing = entry.getValue();
-                        if ( existing.equals( epsilonClosure ) )
-                        {
-                            System.out.println("State "+current+" loops to already existing state "+entry.getKey());
-                            transitionCreator.accept( current, entry.getKey() );
-                            return;
-                        }
+                }
+                State nextState = dfaStates.get( epsilonClosure );
+                if ( nextState == null )
+                {
+                    nextState = new State();
+                    markAccepting( nextState, epsilonClosure, ambiguityResolver );
+
+                    assignName.accept( nextState );
+                    toProcess.push( nextState );
+                    if ( DEBUG ) {
+                        System.out.println("State "+current+" loops to new state "+nextState+" "+epsilonClosure);
                     }
+                    newGraph.put( nextState, epsilonClosure );
+                    dfaStates.put( epsilonClosure, nextState );
+                    checkLimits( limits, newGraph.size(), columns, startNanos );
+                }
+                else if ( DEBUG ) {
+                    System.out.println("State "+current+" loops to already existing state "+nextState);
+                }
+                targets.computeIfAbsent( nextState, x -> new CharRanges.Builder() ).add( alphabet.symbol( symbol ) );
+            }
+            targets.forEach( (nextState, characters) -> current.transition( characters.build(), nextState ) );
+        }
+        return entries;
+    }
 
-                    final Set<LexerBuilder.LexerRule> matchingRules =
-                            epsilonClosure.stream()
-                                    .filter( State::isTerminalState )
-                                    .map( x -> x.lexerRule )
-                                    .collect( Collectors.toSet() );
-                    final State nextState = new State();
-                    final boolean isAcceptingState = ! matchingRules.isEmpty();
-                    if ( isAcceptingState )
+    /**
+     * Returns an NFA without {@link TransitionRepeat}s.
+     *
+     * Each repetition gets replaced by a chain of states, one per count, on a copy of the NFA.
+     *
+     * @param nfa
+     * @return the NFA itself if it contains no repetitions, otherwise the initial state of the expanded copy
+     */
+    static State expandRepeats(State nfa)
+    {
+        final boolean[] hasRepeats = { false };
+        nfa.visitOutgoingTransitions( t -> hasRepeats[0] |= t.isRepeat() );
+        if ( ! hasRepeats[0] ) {
+            return nfa;
+        }
+        final State copy = nfa.copyGraph( false ).entry;
+        for ( State state : copy.gatherAllStates().values() )
+        {
+            for ( Transition<?> t : state.getOutgoingTransitions() )
+            {
+                if ( t.isRepeat() )
+                {
+                    final TransitionRepeat repeat = (TransitionRepeat) t;
+                    final int last = repeat.isUnbounded() ? repeat.min : repeat.max;
+                    final State[] chain = new State[ last + 1 ];
+                    for ( int count = 0 ; count <= last ; count++ ) {
+                        chain[count] = new State();
+                    }
+                    for ( int count = 0 ; count <= last ; count++ )
                     {
-                        if ( matchingRules.size() > 1 )
-                        {
-                            nextState.lexerRule = ambiguityResolver.apply( matchingRules );
-//                            throw new IllegalStateException("Grammar contains ambiguous lexer states: "+tokenTypes);
-                        } else
-                        {
-                            nextState.lexerRule = matchingRules.iterator().next();
+                        if ( count < last ) {
+                            addCharacterSet( chain[count], repeat, chain[count + 1] );
+                        } else if ( repeat.isUnbounded() ) {
+                            addCharacterSet( chain[count], repeat, chain[count] );
+                        }
+                        if ( count >= repeat.min ) {
+                            chain[count].transition( repeat.destination );
                         }
                     }
-                    nextState.isAcceptingState = isAcceptingState;
-
-                    assignName.accept( nextState );
-                    toProcess.push( nextState );
-                    System.out.println("State "+current+" loops to new state "+nextState+" "+epsilonClosure);
-                    transitionCreator.accept( current, nextState );
-                    newGraph.put( nextState, epsilonClosure );
+                    final int idx = state.removeTransition( repeat );
+                    state.insertTransition( idx, new TransitionEpsilon( state, chain[0] ) );
                 }
-            });
+            }
         }
-        initialState = first;
+        return copy;
+    }
 
-        final Map<Integer, State> verify = first.gatherAllStates();
-        if ( ! initialState.isDFA() ) {
-            throw new IllegalStateException("Automaton is not a DFA ?");
+    private static void addCharacterSet(State from, TransitionRepeat repeat, State to)
+    {
+        from.transition( repeat.characters, to );
+    }
+
+    /**
+     * Marks a DFA state as accepting if any of the NFA states it stands for is a terminal state.
+     *
+     * @param dfaState
+     * @param nfaStates
+     * @param ambiguityResolver
+     */
+    private static void markAccepting(State dfaState, Set<State> nfaStates, Function<Set<LexerBuilder.LexerRule>, LexerBuilder.LexerRule> ambiguityResolver)
+    {
+        final Set<LexerBuilder.LexerRule> matchingRules =
+                nfaStates.stream()
+                        .filter( State::isTerminalState )
+                        .map( x -> x.lexerRule )
+                        .collect( Collectors.toSet() );
+        final boolean isAcceptingState = ! matchingRules.isEmpty();
+        if ( isAcceptingState )
+        {
+            if ( matchingRules.size() > 1 )
+            {
+                dfaState.lexerRule = ambiguityResolver.apply( matchingRules );
+            } else
+            {
+                dfaState.lexerRule = matchingRules.iterator().next();
+            }
+        }
+        dfaState.isAcceptingState = isAcceptingState;
+    }
+
+    private static void checkLimits(CompileLimits limits, int dfaStates, int columns, long startNanos)
+    {
+        final CompileLimits.Limit exceeded = limits.check( dfaStates, columns, startNanos );
+        if ( exceeded != null ) {
+            throw new DFALimitExceededException( exceeded, dfaStates, limits );
         }
     }
 
@@ -424,7 +644,33 @@ public class StateMachine
         return initialState.isDFA();
     }
 
-    private Set<State> epsilonClosure(Set<State> set)
+    /**
+     * Runs a DFA against some input.
+     *
+     * @param initialState initial state of the DFA
+     * @param input
+     * @return <code>true</code> if the DFA ends up in an accepting state after consuming all of the input
+     */
+    public static boolean matchesDFA(State initialState, CharSequence input)
+    {
+        State current = initialState;
+        for ( int i = 0, len = input.length() ; i < len && current != null ; i++ )
+        {
+            final char c = input.charAt( i );
+            State next = null;
+            for ( Transition<?> t : current.getOutgoingTransitions() )
+            {
+                if ( t.getCharacters().contains( c ) ) {
+                    next = t.destination;
+                    break;
+                }
+            }
+            current = next;
+        }
+        return current != null && current.isAcceptingState;
+    }
+
+    private static Set<State> epsilonClosure(Set<State> set)
     {
         final Set<State> epsilonMove = new HashSet<>(set);
         for ( State state : set )
@@ -434,25 +680,22 @@ public class StateMachine
         return epsilonMove;
     }
 
-    private Set<State> epsilonClosure(State s)
+    private static Set<State> epsilonClosure(State s)
     {
         final HashSet result = new HashSet<>();
         epsilonClosure(s, result, new HashSet<>() );
         return result;
     }
 
-    private void epsilonClosure(State current,Set<State> result,Set<State> visited)
+    private static void epsilonClosure(State current,Set<State> result,Set<State> visited)
     {
         if ( visited.contains( current ) ) {
             return;
         }
         visited.add( current );
 
-        if ( current.incomingTransitionCount() == 0 || // initial state is implicitly reachable via epsilon
-                current.getIncomingTransitions().stream().anyMatch(  t -> t.isEpsilon() ) )
-        {
-            result.add( current );
-        }
+        // every state is part of its own closure, even if it is only entered by character transitions
+        result.add( current );
 
         for ( Transition t : current.getOutgoingTransitions() )
         {
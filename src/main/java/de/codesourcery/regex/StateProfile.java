@@ -0,0 +1,176 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex;
+
+import java.util.Arrays;
+
+/**
+ * Counts how often lexing a sample text takes each transition of some {@link LexerTables}
+ * and derives a numbering of the states that keeps hot states close together.
+ *
+ * The sample gets tokenized like {@link TableDrivenLexer} does (maximal munch, blanks end tokens,
+ * mode switches are applied) but without skipping runs of accelerated states, so every character
+ * counts as a transition.
+ */
+final class StateProfile
+{
+    private final LexerTables tables;
+    // per state ID
+    private final long[] visits;
+    // per transition map entry
+    private final long[] taken;
+
+    private StateProfile(LexerTables tables)
+    {
+        this.tables = tables;
+        this.visits = new long[ tables.getStateCount() ];
+        this.taken = new long[ tables.getStateCount() * tables.getAlphabetSize() ];
+    }
+
+    /**
+     * Tokenizes a sample text.
+     *
+     * @param tables uncompressed tables
+     * @param sample
+     * @return
+     */
+    static StateProfile run(LexerTables tables, CharSequence sample)
+    {
+        if ( tables.isCompressed() ) {
+            throw new IllegalArgumentException( "Tables must not be compressed" );
+        }
+        final StateProfile result = new StateProfile( tables );
+        final ModeStack modes = new ModeStack();
+        final int len = sample.length();
+        int offset = 0;
+        while ( offset < len )
+        {
+            final char first = sample.charAt( offset );
+            if ( first == ' ' || first == '\t' ) {
+                offset++;
+                continue;
+            }
+            int state = tables.getInitialStateOffset( modes.current() );
+            result.visits[ tables.stateIndex( state ) ]++;
+            int acceptedState = -1;
+            int acceptedEnd = -1;
+            for ( int i = offset ; i < len ; i++ )
+            {
+                final char c = sample.charAt( i );
+                if ( c == ' ' || c == '\t' ) {
+                    break;
+                }
+                final int column = tables.mapChar( c );
+                final int next = tables.nextState( state, column );
+                if ( next < 0 ) {
+                    break;
+                }
+                result.taken[ state + column ]++;
+                result.visits[ tables.stateIndex( next ) ]++;
+                state = next;
+                if ( tables.isAcceptingState( state ) )
+                {
+                    acceptedState = state;
+                    acceptedEnd = i + 1;
+                }
+            }
+            if ( acceptedState == -1 ) {
+                offset++;
+            }
+            else
+            {
+                offset = acceptedEnd;
+                modes.apply( tables.modeAction( acceptedState ) );
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of states the sample visited, {@link #order()} numbers them before all others.
+     *
+     * @return
+     */
+    int visitedStateCount()
+    {
+        return (int) Arrays.stream( visits ).filter( count -> count > 0 ).count();
+    }
+
+    /**
+     * Numbers states so that each hot state is followed by its most frequent successor.
+     *
+     * States are laid out in chains: starting with the most visited state that has no number yet,
+     * each chain continues with the most frequently taken successor that has no number yet.
+     * States never visited keep their relative order and come last.
+     *
+     * @return new ID per current state ID
+     */
+    int[] order()
+    {
+        final int stateCount = visits.length;
+        final int alphabetSize = tables.getAlphabetSize();
+        final Integer[] byVisits = new Integer[ stateCount ];
+        for ( int i = 0 ; i < stateCount ; i++ ) {
+            byVisits[i] = i;
+        }
+        Arrays.sort( byVisits, (a,b) -> Long.compare( visits[b], visits[a] ) );
+
+        final int[] newIds = new int[ stateCount ];
+        Arrays.fill( newIds, -1 );
+        final long[] successorCounts = new long[ stateCount ];
+        int nextId = 0;
+        for ( int start : byVisits )
+        {
+            if ( visits[ start ] == 0 ) {
+                break;
+            }
+            for ( int state = start ; state != -1 && newIds[ state ] == -1 ; )
+            {
+                newIds[ state ] = nextId++;
+                // transitions for different columns may lead to the same successor
+                final int row = state * alphabetSize;
+                int best = -1;
+                for ( int column = 0 ; column < alphabetSize ; column++ )
+                {
+                    final int next = tables.nextState( row, column );
+                    if ( next >= 0 && taken[ row + column ] > 0 && newIds[ next / alphabetSize ] == -1 )
+                    {
+                        final int successor = next / alphabetSize;
+                        successorCounts[ successor ] += taken[ row + column ];
+                        if ( best == -1 || successorCounts[ successor ] > successorCounts[ best ] ) {
+                            best = successor;
+                        }
+                    }
+                }
+                for ( int column = 0 ; column < alphabetSize ; column++ )
+                {
+                    final int next = tables.nextState( row, column );
+                    if ( next >= 0 ) {
+                        successorCounts[ next / alphabetSize ] = 0;
+                    }
+                }
+                state = best;
+            }
+        }
+        for ( int state = 0 ; state < stateCount ; state++ )
+        {
+            if ( newIds[ state ] == -1 ) {
+                newIds[ state ] = nextId++;
+            }
+        }
+        return newIds;
+    }
+}
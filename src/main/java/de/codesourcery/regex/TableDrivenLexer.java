@@ -0,0 +1,280 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generic lexer that is driven by {@link LexerTables} loaded at runtime instead of
+ * tables compiled into the class (see {@link Lexer}).
+ *
+ * Instances are cheap and not thread-safe, they only hold the current input position,
+ * mode and lookahead. The tables themselves are immutable and may be shared by any number of
+ * lexers running concurrently.
+ */
+public class TableDrivenLexer implements ILexer
+{
+    private final List<Token> tokens = new ArrayList<>();
+
+    private final LexerTables tables;
+
+    private final IScanner scanner;
+
+    private final StringBuilder buffer = new StringBuilder();
+
+    private final FailureMemo memo;
+
+    private LexerMetrics metrics = LexerMetrics.GLOBAL;
+
+    private boolean skipWhitespace = true;
+
+    private final ModeStack modes = new ModeStack();
+
+    // mode switch to perform once the lookahead token gets consumed
+    private int pendingModeAction = ModeStack.NONE;
+
+    public TableDrivenLexer(LexerTables tables, IScanner scanner)
+    {
+        if ( tables == null ) {
+            throw new IllegalArgumentException("Tables must not be NULL");
+        }
+        if ( scanner == null ) {
+            throw new IllegalArgumentException("Scanner must not be NULL");
+        }
+        this.tables = tables;
+        this.scanner = scanner;
+        this.memo = new FailureMemo( tables.getStateCount() );
+    }
+
+    public LexerTables getTables()
+    {
+        return tables;
+    }
+
+    /**
+     * Returns the name of the mode the next token gets recognized in.
+     *
+     * @return
+     */
+    public String getMode()
+    {
+        return tables.getModeName( modes.current() );
+    }
+
+    /**
+     * Switches to a mode, forgetting all modes pushed so far and any lookahead.
+     *
+     * @param mode
+     * @throws IllegalArgumentException if the tables have no such mode
+     */
+    public void setMode(String mode)
+    {
+        modes.reset( tables.modeIndex( mode ) );
+        discardLookahead();
+    }
+
+    /**
+     * Sets where to record metrics, only used if {@link LexerMetrics#ENABLED} is set.
+     *
+     * @param metrics
+     */
+    public void setMetrics(LexerMetrics metrics)
+    {
+        if ( metrics == null ) {
+            throw new IllegalArgumentException("Metrics must not be NULL");
+        }
+        this.metrics = metrics;
+    }
+
+    @Override
+    public boolean eof() {
+        if ( tokens.isEmpty() ) {
+            parse();
+        }
+        return tokens.get(0).hasType( TokenType.EOF );
+    }
+
+    @Override
+    public Token peek() {
+        if ( tokens.isEmpty() ) {
+            parse();
+        }
+        return tokens.get(0);
+    }
+
+    @Override
+    public Token next() {
+        if ( tokens.isEmpty() ) {
+            parse();
+        }
+        modes.apply( pendingModeAction );
+        pendingModeAction = ModeStack.NONE;
+        return tokens.remove(0);
+    }
+
+    @Override
+    public void setSkipWhitespace(boolean yesNo)
+    {
+        if ( this.skipWhitespace != yesNo )
+        {
+            discardLookahead();
+            this.skipWhitespace = yesNo;
+        }
+    }
+
+    private void discardLookahead()
+    {
+        if ( ! this.tokens.isEmpty() ) {
+            this.scanner.setOffset( this.tokens.get(0).offset );
+            this.tokens.clear();
+        }
+        pendingModeAction = ModeStack.NONE;
+    }
+
+    private static final char[] WHITESPACE = { ' ', '\t' };
+
+    private static boolean isWhitespace(char c) {
+        return c == '\t' || c == ' ';
+    }
+
+    private void parse()
+    {
+        while ( true )
+        {
+            if ( scanner.eof() )
+            {
+                tokens.add( new Token( "", scanner.offset(), TokenType.EOF ) );
+                return;
+            }
+
+            buffer.setLength( 0 );
+
+            final int startOffset = scanner.offset();
+            final int skipped = scanner.skip( WHITESPACE );
+            if ( skipped == 0 ) {
+                break;
+            }
+            if ( ! skipWhitespace )
+            {
+                scanner.setOffset( startOffset );
+                for ( int i = 0 ; i < skipped ; i++ ) {
+                    buffer.append( scanner.next() );
+                }
+                if ( LexerMetrics.ENABLED ) {
+                    metrics.tokenRecognized( TokenType.WHITESPACE.name(), buffer.length(), buffer.length() );
+                }
+                tokens.add( new Token( buffer.toString(), startOffset, TokenType.WHITESPACE ) );
+                return;
+            }
+            if ( LexerMetrics.ENABLED ) {
+                metrics.charactersScanned( skipped );
+            }
+        }
+
+        final long startTime = LexerMetrics.LATENCY_ENABLED ? System.nanoTime() : 0;
+        int scanned = 0;
+
+        final int startOffset = scanner.offset();
+        memo.startToken( startOffset );
+
+        // maximal munch: keep going until no transition is possible and
+        // then rewind to the end of the longest match
+        int currentState = tables.getInitialStateOffset( modes.current() );
+        // whether the last character looped back to the current state
+        boolean looping = false;
+        int acceptedState = -1;
+        int acceptedLength = -1;
+        while ( true )
+        {
+            final int length = buffer.length();
+            final int stateIdx = tables.stateIndex( currentState );
+            memo.visited( length, stateIdx );
+            if ( scanner.eof() || memo.hasFailed( stateIdx, startOffset + length ) ) {
+                break;
+            }
+            // once a state loops, skip all characters it loops on at once unless configurations
+            // ahead may have failed already: the run would need to stop there
+            final char[] loopRanges = tables.loopRanges( currentState );
+            if ( looping && loopRanges != null && ! memo.hasFailuresAfter( startOffset + length ) )
+            {
+                final int run = scanner.skipWithin( loopRanges, buffer );
+                if ( run > 0 )
+                {
+                    memo.visitedRun( length, run, stateIdx );
+                    if ( LexerMetrics.ENABLED ) {
+                        scanned += run;
+                    }
+                    if ( tables.isAcceptingState( currentState ) )
+                    {
+                        acceptedState = currentState;
+                        acceptedLength = buffer.length();
+                    }
+                    looping = false;
+                    continue;
+                }
+            }
+            final char c = scanner.next();
+            if ( LexerMetrics.ENABLED ) {
+                scanned++;
+            }
+            if ( isWhitespace( c ) ) {
+                scanner.goBack();
+                break;
+            }
+            final int nextState = tables.nextState( currentState, tables.mapChar( c ) );
+            if ( nextState < 0 )
+            {
+                scanner.goBack();
+                break;
+            }
+            buffer.append( c );
+            looping = nextState == currentState;
+            currentState = nextState;
+            if ( tables.isAcceptingState( currentState ) )
+            {
+                acceptedState = currentState;
+                acceptedLength = buffer.length();
+            }
+        }
+        memo.markFailed( startOffset, acceptedLength, buffer.length() );
+
+        final Token token;
+        if ( acceptedState == -1 )
+        {
+            // input not recognized at all, consume one character so we make progress
+            scanner.setOffset( startOffset );
+            token = new Token( Character.toString( scanner.next() ), startOffset, TokenType.TEXT );
+        }
+        else
+        {
+            scanner.setOffset( startOffset + acceptedLength );
+            buffer.setLength( acceptedLength );
+            final String type = tables.tokenType( acceptedState, buffer );
+            token = new Token( buffer.toString(), startOffset, TokenType.forName( type ), type );
+            pendingModeAction = tables.modeAction( acceptedState );
+        }
+        tokens.add( token );
+
+        if ( LexerMetrics.ENABLED )
+        {
+            metrics.tokenRecognized( token.typeName, Math.max( scanned, token.text.length() ), token.text.length() );
+            if ( LexerMetrics.LATENCY_ENABLED ) {
+                metrics.tokenLatency( System.nanoTime() - startTime );
+            }
+        }
+    }
+}
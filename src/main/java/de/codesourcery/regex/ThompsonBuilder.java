@@ -0,0 +1,146 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Turns a {@link RegexNode} tree into an NFA using Thompson's construction.
+ *
+ * Every node becomes a {@link Subgraph} with a single entry and a single exit state
+ * that has no outgoing transitions. Single characters and character sets repeated
+ * a fixed number of times become a {@link TransitionRepeat}, any other repeated node gets
+ * built once per count.
+ */
+public final class ThompsonBuilder
+{
+    private ThompsonBuilder() {
+    }
+
+    /**
+     * Build an NFA.
+     *
+     * @param node
+     * @return
+     */
+    public static Subgraph build(RegexNode node)
+    {
+        if ( node.isCharSet() )
+        {
+            final RegexNode.CharSet set = (RegexNode.CharSet) node;
+            final Subgraph result = new Subgraph( new State(), new State() );
+            result.entry.transition( set.characters, result.exit );
+            return result;
+        }
+        if ( node instanceof RegexNode.Sequence )
+        {
+            final List<RegexNode> children = node.children();
+            if ( children.isEmpty() ) {
+                return empty();
+            }
+            final List<Subgraph> parts = new ArrayList<>();
+            for ( RegexNode child : children ) {
+                parts.add( build( child ) );
+            }
+            return Subgraph.join( parts );
+        }
+        if ( node instanceof RegexNode.Alternation )
+        {
+            final Subgraph result = new Subgraph( new State(), new State() );
+            for ( RegexNode child : node.children() )
+            {
+                final Subgraph alternative = build( child );
+                result.entry.transition( alternative.entry );
+                alternative.exit.transition( result.exit );
+            }
+            return result;
+        }
+        if ( node instanceof RegexNode.Repeat ) {
+            return repeat( (RegexNode.Repeat) node );
+        }
+        throw new IllegalArgumentException( "Unhandled node: "+node );
+    }
+
+    private static Subgraph repeat(RegexNode.Repeat repeat)
+    {
+        final RegexNode child = repeat.child;
+        if ( repeat.min == 0 && repeat.max == 1 ) {
+            return optional( build( child ) );
+        }
+        if ( repeat.isUnbounded() && repeat.min <= 1 )
+        {
+            final Subgraph body = build( child );
+            return repeat.min == 0 ? star( body ) : plus( body );
+        }
+        if ( child.isCharSet() )
+        {
+            final RegexNode.CharSet set = (RegexNode.CharSet) child;
+            final Subgraph result = new Subgraph( new State(), new State() );
+            result.entry.addTransition( new TransitionRepeat( set.characters, repeat.min, repeat.max, result.entry, result.exit ) );
+            return result;
+        }
+
+        final int copies = repeat.isUnbounded() ? repeat.min : repeat.max;
+        final List<Subgraph> parts = new ArrayList<>();
+        for ( int i = 0 ; i < copies ; i++ )
+        {
+            final Subgraph part = build( child );
+            parts.add( i < repeat.min ? part : optional( part ) );
+        }
+        if ( repeat.isUnbounded() ) {
+            parts.add( star( build( child ) ) );
+        }
+        return parts.isEmpty() ? empty() : Subgraph.join( parts );
+    }
+
+    private static Subgraph empty()
+    {
+        final Subgraph result = new Subgraph( new State(), new State() );
+        result.entry.transition( result.exit );
+        return result;
+    }
+
+    private static Subgraph optional(Subgraph subgraph)
+    {
+        final State newStart = new State();
+        newStart.transition( subgraph.entry );
+
+        final State newEnd = new State();
+        subgraph.exit.transition( newEnd );
+
+        newStart.transition( newEnd );
+        return new Subgraph( newStart, newEnd );
+    }
+
+    private static Subgraph star(Subgraph subgraph)
+    {
+        final Subgraph result = optional( subgraph );
+        subgraph.exit.transition( subgraph.entry );
+        return result;
+    }
+
+    private static Subgraph plus(Subgraph subgraph)
+    {
+        final State newStart = new State();
+        newStart.transition( subgraph.entry );
+
+        final State newEnd = new State();
+        subgraph.exit.transition( subgraph.entry );
+        subgraph.exit.transition( newEnd );
+        return new Subgraph( newStart, newEnd );
+    }
+}
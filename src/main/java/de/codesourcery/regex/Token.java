@@ -5,21 +5,36 @@ public class Token
     public final String text;
     public final int offset;
     public final TokenType tokenType;
+    /**
+     * Name of the token type as given by the lexer rule, same as <code>tokenType.name()</code>
+     * for all types except {@link TokenType#CUSTOM}.
+     */
+    public final String typeName;
 
     public Token(String text, int offset, TokenType tokenType)
+    {
+        this( text, offset, tokenType, tokenType == null ? null : tokenType.name() );
+    }
+
+    public Token(String text, int offset, TokenType tokenType, String typeName)
     {
         this.text = text;
         this.offset = offset;
         this.tokenType = tokenType;
+        this.typeName = typeName;
     }
 
     public boolean hasType(TokenType t) {
         return t == tokenType;
     }
 
+    public boolean hasType(String typeName) {
+        return typeName.equals( this.typeName );
+    }
+
     @Override
     public String toString()
     {
-        return "Token{text='" + text + "', offset=" + offset + ", tokenType=" + tokenType + '}';
+        return "Token{text='" + text + "', offset=" + offset + ", tokenType=" + typeName + '}';
     }
 }
@@ -1,10 +1,41 @@
 package de.codesourcery.regex;
 
+import java.util.HashMap;
+import java.util.Map;
+
 public enum TokenType
 {
     NUMBER,
     IDENTIFIER,
+    TRUE,
+    FALSE,
+    NULL,
     WHITESPACE,
     TEXT,
-    EOF
+    EOF,
+    /**
+     * Token recognized by a lexer rule whose token type has no dedicated constant here,
+     * see {@link Token#typeName}.
+     */
+    CUSTOM;
+
+    private static final Map<String,TokenType> BY_NAME = new HashMap<>();
+
+    static
+    {
+        for ( TokenType t : values() ) {
+            BY_NAME.put( t.name(), t );
+        }
+    }
+
+    /**
+     * Returns the constant for a token type name.
+     *
+     * @param typeName
+     * @return matching constant or {@link #CUSTOM}
+     */
+    public static TokenType forName(String typeName)
+    {
+        return BY_NAME.getOrDefault( typeName, CUSTOM );
+    }
 }
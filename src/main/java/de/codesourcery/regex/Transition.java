@@ -44,6 +44,23 @@ public abstract class Transition<T extends Transition>
         return false;
     }
 
+    public boolean isRepeat() {
+        return false;
+    }
+
+    public boolean isRange() {
+        return false;
+    }
+
+    /**
+     * Returns the characters this transition consumes.
+     *
+     * @return characters or <code>null</code> for epsilon transitions
+     */
+    public CharRanges getCharacters() {
+        return null;
+    }
+
     @Override
     public final boolean equals(Object o)
     {
@@ -63,6 +63,12 @@ public class TransitionAnyChar extends Transition<TransitionAnyChar>
         return true;
     }
 
+    @Override
+    public CharRanges getCharacters()
+    {
+        return CharRanges.ANY;
+    }
+
     @Override
     public boolean isAnyChar()
     {
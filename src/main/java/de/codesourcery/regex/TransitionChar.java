@@ -60,6 +60,12 @@ public class TransitionChar extends Transition<TransitionChar>
         return scanner.consume(c) ? true : false;
     }
 
+    @Override
+    public CharRanges getCharacters()
+    {
+        return CharRanges.of( c );
+    }
+
     @Override
     public boolean isChar()
     {
@@ -0,0 +1,86 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex;
+
+/**
+ * Transition that consumes any character out of a set of intervals, used for character classes
+ * like <code>[a-z0-9]</code> and for DFA transitions that several characters share.
+ */
+public class TransitionRange extends Transition<TransitionRange>
+{
+    public final CharRanges characters;
+
+    public TransitionRange(CharRanges characters, State source, State nextState)
+    {
+        super( characters.toString(), source, nextState );
+        if ( characters.isEmpty() ) {
+            throw new IllegalArgumentException( "Empty character set" );
+        }
+        this.characters = characters;
+    }
+
+    @Override
+    public Transition<?> copy(State newSource, State newDestination)
+    {
+        return new TransitionRange( characters, newSource, newDestination );
+    }
+
+    @Override
+    protected boolean equalsHook(TransitionRange object)
+    {
+        return characters.equals( object.characters );
+    }
+
+    @Override
+    protected int hashCodeHook()
+    {
+        return characters.hashCode();
+    }
+
+    @Override
+    public boolean matchesIgnoringDirection(Transition other)
+    {
+        return other instanceof TransitionRange && ((TransitionRange) other).characters.equals( characters );
+    }
+
+    @Override
+    public State next(State current)
+    {
+        return destination;
+    }
+
+    @Override
+    public boolean matches(Scanner scanner)
+    {
+        if ( scanner.eof() || ! characters.contains( scanner.peek() ) ) {
+            return false;
+        }
+        scanner.consume();
+        return true;
+    }
+
+    @Override
+    public CharRanges getCharacters()
+    {
+        return characters;
+    }
+
+    @Override
+    public boolean isRange()
+    {
+        return true;
+    }
+}
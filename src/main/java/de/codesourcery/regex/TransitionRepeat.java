@@ -0,0 +1,141 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex;
+
+/**
+ * Transition that consumes between <code>min</code> and <code>max</code> characters from a set,
+ * used for bounded repetitions like <code>[0-9a-f]{32}</code> or <code>.{1,1000}</code>.
+ *
+ * Keeping the repetition count on the transition (instead of chaining one state per repetition)
+ * keeps the NFA proportional to the size of the pattern. {@link NFAProgram} simulates these
+ * transitions with counters, {@link StateMachine#toDFA(java.util.function.Consumer, java.util.function.Function)}
+ * expands them on a copy of the NFA because a DFA needs to distinguish every count anyway.
+ */
+public class TransitionRepeat extends Transition<TransitionRepeat>
+{
+    /**
+     * Upper bound of an unbounded repetition.
+     */
+    public static final int UNBOUNDED = -1;
+
+    public final CharRanges characters;
+    public final int min;
+    public final int max;
+
+    public TransitionRepeat(CharRanges characters, int min, int max, State source, State nextState)
+    {
+        super( name( characters, min, max ), source, nextState );
+        if ( min < 0 || ( max != UNBOUNDED && max < min ) ) {
+            throw new IllegalArgumentException( "Invalid repetition {"+min+","+max+"}" );
+        }
+        this.characters = characters;
+        this.min = min;
+        this.max = max;
+    }
+
+    private static String name(CharRanges characters, int min, int max)
+    {
+        return characters + "{" + min + ( max == min ? "" : "," + ( max == UNBOUNDED ? "" : Integer.toString( max ) ) ) + "}";
+    }
+
+    public boolean isUnbounded()
+    {
+        return max == UNBOUNDED;
+    }
+
+    /**
+     * Returns whether one repetition consumes a given character.
+     *
+     * @param c
+     * @return
+     */
+    public boolean matches(char c)
+    {
+        return characters.contains( c );
+    }
+
+    @Override
+    public Transition<?> copy(State newSource, State newDestination)
+    {
+        return new TransitionRepeat( characters, min, max, newSource, newDestination );
+    }
+
+    @Override
+    protected boolean equalsHook(TransitionRepeat object)
+    {
+        return matchesIgnoringDirection( object );
+    }
+
+    @Override
+    protected int hashCodeHook()
+    {
+        return 31 * ( 31 * characters.hashCode() + min ) + max;
+    }
+
+    @Override
+    public boolean matchesIgnoringDirection(Transition other)
+    {
+        if ( other instanceof TransitionRepeat )
+        {
+            final TransitionRepeat o = (TransitionRepeat) other;
+            return o.min == min && o.max == max && o.characters.equals( characters );
+        }
+        return false;
+    }
+
+    @Override
+    public State next(State current)
+    {
+        return destination;
+    }
+
+    /**
+     * Greedily consumes as many repetitions as possible.
+     *
+     * {@link State#matches(Scanner)} does not use this but tries every possible count instead.
+     *
+     * @param scanner
+     * @return <code>true</code> if at least <code>min</code> repetitions got consumed
+     */
+    @Override
+    public boolean matches(Scanner scanner)
+    {
+        int count = 0;
+        while ( ( max == UNBOUNDED || count < max ) && ! scanner.eof() && matches( scanner.peek() ) )
+        {
+            scanner.consume();
+            count++;
+        }
+        return count >= min;
+    }
+
+    /**
+     * Returns the characters each repetition consumes.
+     *
+     * @return
+     */
+    @Override
+    public CharRanges getCharacters()
+    {
+        return characters;
+    }
+
+    @Override
+    public boolean isRepeat()
+    {
+        return true;
+    }
+}
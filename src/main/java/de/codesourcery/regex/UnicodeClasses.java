@@ -0,0 +1,171 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntPredicate;
+
+/**
+ * Unicode properties usable with <code>\p{...}</code> and <code>\P{...}</code>, as sets of characters.
+ *
+ * Supported are general categories (<code>L</code>, <code>Lu</code>, <code>Nd</code>, ...,
+ * optionally prefixed with <code>Is</code>) and scripts (<code>IsLatin</code>, <code>script=Greek</code> or <code>sc=Greek</code>).
+ * Like everything else in this package properties only cover the basic multilingual plane, surrogates
+ * are matched as category <code>Cs</code>.
+ *
+ * Sets get computed once per property by classifying every character, so lexers never need
+ * to call {@link Character#getType(char)} at runtime.
+ */
+public final class UnicodeClasses
+{
+    // general category abbreviations, indexed by the values returned by Character#getType()
+    private static final String[] CATEGORIES = new String[ 31 ];
+
+    static
+    {
+        CATEGORIES[ Character.UNASSIGNED ] = "Cn";
+        CATEGORIES[ Character.UPPERCASE_LETTER ] = "Lu";
+        CATEGORIES[ Character.LOWERCASE_LETTER ] = "Ll";
+        CATEGORIES[ Character.TITLECASE_LETTER ] = "Lt";
+        CATEGORIES[ Character.MODIFIER_LETTER ] = "Lm";
+        CATEGORIES[ Character.OTHER_LETTER ] = "Lo";
+        CATEGORIES[ Character.NON_SPACING_MARK ] = "Mn";
+        CATEGORIES[ Character.ENCLOSING_MARK ] = "Me";
+        CATEGORIES[ Character.COMBINING_SPACING_MARK ] = "Mc";
+        CATEGORIES[ Character.DECIMAL_DIGIT_NUMBER ] = "Nd";
+        CATEGORIES[ Character.LETTER_NUMBER ] = "Nl";
+        CATEGORIES[ Character.OTHER_NUMBER ] = "No";
+        CATEGORIES[ Character.SPACE_SEPARATOR ] = "Zs";
+        CATEGORIES[ Character.LINE_SEPARATOR ] = "Zl";
+        CATEGORIES[ Character.PARAGRAPH_SEPARATOR ] = "Zp";
+        CATEGORIES[ Character.CONTROL ] = "Cc";
+        CATEGORIES[ Character.FORMAT ] = "Cf";
+        CATEGORIES[ Character.PRIVATE_USE ] = "Co";
+        CATEGORIES[ Character.SURROGATE ] = "Cs";
+        CATEGORIES[ Character.DASH_PUNCTUATION ] = "Pd";
+        CATEGORIES[ Character.START_PUNCTUATION ] = "Ps";
+        CATEGORIES[ Character.END_PUNCTUATION ] = "Pe";
+        CATEGORIES[ Character.CONNECTOR_PUNCTUATION ] = "Pc";
+        CATEGORIES[ Character.OTHER_PUNCTUATION ] = "Po";
+        CATEGORIES[ Character.MATH_SYMBOL ] = "Sm";
+        CATEGORIES[ Character.CURRENCY_SYMBOL ] = "Sc";
+        CATEGORIES[ Character.MODIFIER_SYMBOL ] = "Sk";
+        CATEGORIES[ Character.OTHER_SYMBOL ] = "So";
+        CATEGORIES[ Character.INITIAL_QUOTE_PUNCTUATION ] = "Pi";
+        CATEGORIES[ Character.FINAL_QUOTE_PUNCTUATION ] = "Pf";
+    }
+
+    private static final Map<String,CharRanges> CACHE = new ConcurrentHashMap<>();
+
+    private UnicodeClasses() {
+    }
+
+    /**
+     * Returns the characters having a property.
+     *
+     * @param name property name as written between the braces of <code>\p{...}</code>
+     * @return
+     * @throws IllegalArgumentException if the property is unknown
+     */
+    public static CharRanges forName(String name)
+    {
+        final CharRanges cached = CACHE.get( name );
+        if ( cached != null ) {
+            return cached;
+        }
+        final CharRanges result = compute( name );
+        CACHE.putIfAbsent( name, result );
+        return result;
+    }
+
+    private static CharRanges compute(String name)
+    {
+        final int equals = name.indexOf( '=' );
+        if ( equals != -1 )
+        {
+            final String key = name.substring( 0, equals );
+            if ( key.equals( "script" ) || key.equals( "sc" ) ) {
+                return script( name.substring( equals + 1 ), name );
+            }
+            if ( key.equals( "general_category" ) || key.equals( "gc" ) ) {
+                return category( name.substring( equals + 1 ), name );
+            }
+            throw new IllegalArgumentException( "Unknown unicode property '"+name+"'" );
+        }
+        if ( name.startsWith( "Is" ) )
+        {
+            final String suffix = name.substring( 2 );
+            return isCategory( suffix ) ? category( suffix, name ) : script( suffix, name );
+        }
+        return category( name, name );
+    }
+
+    private static boolean isCategory(String name)
+    {
+        if ( name.equals( "LC" ) ) {
+            return true;
+        }
+        for ( String category : CATEGORIES )
+        {
+            if ( category != null && ( category.equals( name ) || category.substring( 0, 1 ).equals( name ) ) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static CharRanges category(String category, String property)
+    {
+        if ( ! isCategory( category ) ) {
+            throw new IllegalArgumentException( "Unknown unicode property '"+property+"'" );
+        }
+        // LC is the union of cased letters
+        final IntPredicate matches = category.equals( "LC" ) ?
+                type -> type == Character.UPPERCASE_LETTER || type == Character.LOWERCASE_LETTER || type == Character.TITLECASE_LETTER :
+                type -> CATEGORIES[ type ].startsWith( category );
+        return collect( c -> matches.test( Character.getType( c ) ) );
+    }
+
+    private static CharRanges script(String script, String property)
+    {
+        final Character.UnicodeScript unicodeScript;
+        try {
+            unicodeScript = Character.UnicodeScript.forName( script );
+        }
+        catch(IllegalArgumentException e) {
+            throw new IllegalArgumentException( "Unknown unicode property '"+property+"'" );
+        }
+        return collect( c -> Character.UnicodeScript.of( c ) == unicodeScript );
+    }
+
+    private static CharRanges collect(IntPredicate matches)
+    {
+        final CharRanges.Builder builder = new CharRanges.Builder();
+        int start = -1;
+        for ( int c = Character.MIN_VALUE ; c <= Character.MAX_VALUE + 1 ; c++ )
+        {
+            final boolean member = c <= Character.MAX_VALUE && matches.test( c );
+            if ( member && start == -1 ) {
+                start = c;
+            } else if ( ! member && start != -1 ) {
+                builder.add( (char) start, (char) ( c - 1 ) );
+                start = -1;
+            }
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex;
+
+/**
+ * Searches character arrays for characters that are (or are not) part of a small set or some intervals.
+ *
+ * Java 17 variant that uses {@link VectorCharSearch} if the <code>jdk.incubator.vector</code>
+ * module has been added to the boot layer (<code>--add-modules jdk.incubator.vector</code>) and
+ * falls back to the scalar implementation otherwise.
+ */
+public final class CharSearch
+{
+    private static final boolean VECTORIZED = ModuleLayer.boot().findModule( "jdk.incubator.vector" ).isPresent();
+
+    private CharSearch() {
+    }
+
+    /**
+     * Returns whether searches use the vector API.
+     *
+     * @return
+     */
+    public static boolean isVectorized()
+    {
+        return VECTORIZED;
+    }
+
+    /**
+     * Finds the first character that is contained in a set.
+     *
+     * @param text
+     * @param from index of the first character to look at
+     * @param to index after the last character to look at
+     * @param set characters to look for
+     * @return index of the first matching character or <code>to</code> if there is none
+     */
+    public static int indexOfAny(char[] text, int from, int to, char[] set)
+    {
+        return VECTORIZED ? VectorCharSearch.indexOfAny( text, from, to, set ) : ScalarCharSearch.indexOfAny( text, from, to, set );
+    }
+
+    /**
+     * Finds the first character that is not contained in a set.
+     *
+     * @param text
+     * @param from index of the first character to look at
+     * @param to index after the last character to look at
+     * @param set characters to skip
+     * @return index of the first character not in the set or <code>to</code> if there is none
+     */
+    public static int indexOfNone(char[] text, int from, int to, char[] set)
+    {
+        return VECTORIZED ? VectorCharSearch.indexOfNone( text, from, to, set ) : ScalarCharSearch.indexOfNone( text, from, to, set );
+    }
+
+    /**
+     * Finds the first character that lies outside of all of some intervals.
+     *
+     * @param text
+     * @param from index of the first character to look at
+     * @param to index after the last character to look at
+     * @param ranges intervals of characters to skip, as pairs of first and last (inclusive) character
+     * @return index of the first character not in any interval or <code>to</code> if there is none
+     */
+    public static int indexOfOutside(char[] text, int from, int to, char[] ranges)
+    {
+        return VECTORIZED ? VectorCharSearch.indexOfOutside( text, from, to, ranges ) : ScalarCharSearch.indexOfOutside( text, from, to, ranges );
+    }
+
+    /**
+     * Finds all occurrences of a character.
+     *
+     * @param text
+     * @param from index of the first character to look at
+     * @param to index after the last character to look at
+     * @param c character to look for
+     * @return ascending indices of all occurrences
+     */
+    public static int[] indexesOf(char[] text, int from, int to, char c)
+    {
+        return VECTORIZED ? VectorCharSearch.indexesOf( text, from, to, c ) : ScalarCharSearch.indexesOf( text, from, to, c );
+    }
+}
@@ -0,0 +1,202 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex;
+
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.util.Arrays;
+
+/**
+ * {@link CharSearch} using the vector API, comparing as many characters per step as
+ * the widest supported vector register holds (16 with AVX2).
+ *
+ * Only loaded if the <code>jdk.incubator.vector</code> module is available.
+ */
+final class VectorCharSearch
+{
+    private static final VectorSpecies<Short> SPECIES = ShortVector.SPECIES_PREFERRED;
+
+    /**
+     * Largest set that is compared using vectors, bigger sets are searched one character at a time.
+     */
+    private static final int MAX_SET_SIZE = 4;
+
+    /**
+     * Largest number of intervals that are compared using vectors.
+     */
+    private static final int MAX_RANGES = 8;
+
+    // runs shorter than this are cheaper to scan one character at a time
+    private static final int SCALAR_PREFIX = 8;
+
+    private VectorCharSearch() {
+    }
+
+    static int indexOfAny(char[] text, int from, int to, char[] set)
+    {
+        return search( text, from, to, set, true );
+    }
+
+    static int indexOfNone(char[] text, int from, int to, char[] set)
+    {
+        return search( text, from, to, set, false );
+    }
+
+    private static int search(char[] text, int from, int to, char[] set, boolean member)
+    {
+        if ( set.length == 0 ) {
+            return member ? to : from;
+        }
+        int i = from;
+        final int prefixEnd = Math.min( to, from + SCALAR_PREFIX );
+        for ( ; i < prefixEnd ; i++ )
+        {
+            if ( ScalarCharSearch.contains( set, text[i] ) == member ) {
+                return i;
+            }
+        }
+        if ( set.length <= MAX_SET_SIZE )
+        {
+            // pad by repeating the last character so the loop always does four comparisons,
+            // the masks must not be carried through a loop or C2 cannot keep them in registers
+            final ShortVector c0 = ShortVector.broadcast( SPECIES, (short) set[ 0 ] );
+            final ShortVector c1 = ShortVector.broadcast( SPECIES, (short) set[ Math.min( 1, set.length - 1 ) ] );
+            final ShortVector c2 = ShortVector.broadcast( SPECIES, (short) set[ Math.min( 2, set.length - 1 ) ] );
+            final ShortVector c3 = ShortVector.broadcast( SPECIES, (short) set[ set.length - 1 ] );
+            final int upperBound = to - SPECIES.length();
+            for ( ; i <= upperBound ; i += SPECIES.length() )
+            {
+                final ShortVector chunk = ShortVector.fromCharArray( SPECIES, text, i );
+                VectorMask<Short> found = chunk.eq( c0 ).or( chunk.eq( c1 ) ).or( chunk.eq( c2 ) ).or( chunk.eq( c3 ) );
+                if ( ! member ) {
+                    found = found.not();
+                }
+                if ( found.anyTrue() ) {
+                    return i + found.firstTrue();
+                }
+            }
+        }
+        return member ? ScalarCharSearch.indexOfAny( text, i, to, set ) : ScalarCharSearch.indexOfNone( text, i, to, set );
+    }
+
+    static int indexOfOutside(char[] text, int from, int to, char[] ranges)
+    {
+        int i = from;
+        final int prefixEnd = Math.min( to, from + SCALAR_PREFIX );
+        for ( ; i < prefixEnd ; i++ )
+        {
+            if ( ! ScalarCharSearch.inRanges( ranges, text[i] ) ) {
+                return i;
+            }
+        }
+        final int rangeCount = ranges.length / 2;
+        if ( rangeCount == 0 || rangeCount > MAX_RANGES ) {
+            return ScalarCharSearch.indexOfOutside( text, i, to, ranges );
+        }
+        // c lies within [first,last] if c - first <= last - first as unsigned numbers,
+        // sets are padded to four or eight intervals by repeating the last one
+        final int upperBound = to - SPECIES.length();
+        final ShortVector f0 = first( ranges, 0 ), w0 = width( ranges, 0 );
+        final ShortVector f1 = first( ranges, 1 ), w1 = width( ranges, 1 );
+        final ShortVector f2 = first( ranges, 2 ), w2 = width( ranges, 2 );
+        final ShortVector f3 = first( ranges, 3 ), w3 = width( ranges, 3 );
+        if ( rangeCount <= 4 )
+        {
+            for ( ; i <= upperBound ; i += SPECIES.length() )
+            {
+                final ShortVector chunk = ShortVector.fromCharArray( SPECIES, text, i );
+                final VectorMask<Short> outside = within( chunk, f0, w0 ).or( within( chunk, f1, w1 ) )
+                        .or( within( chunk, f2, w2 ) ).or( within( chunk, f3, w3 ) ).not();
+                if ( outside.anyTrue() ) {
+                    return i + outside.firstTrue();
+                }
+            }
+        }
+        else
+        {
+            final ShortVector f4 = first( ranges, 4 ), w4 = width( ranges, 4 );
+            final ShortVector f5 = first( ranges, 5 ), w5 = width( ranges, 5 );
+            final ShortVector f6 = first( ranges, 6 ), w6 = width( ranges, 6 );
+            final ShortVector f7 = first( ranges, 7 ), w7 = width( ranges, 7 );
+            for ( ; i <= upperBound ; i += SPECIES.length() )
+            {
+                final ShortVector chunk = ShortVector.fromCharArray( SPECIES, text, i );
+                final VectorMask<Short> outside = within( chunk, f0, w0 ).or( within( chunk, f1, w1 ) )
+                        .or( within( chunk, f2, w2 ) ).or( within( chunk, f3, w3 ) )
+                        .or( within( chunk, f4, w4 ) ).or( within( chunk, f5, w5 ) )
+                        .or( within( chunk, f6, w6 ) ).or( within( chunk, f7, w7 ) ).not();
+                if ( outside.anyTrue() ) {
+                    return i + outside.firstTrue();
+                }
+            }
+        }
+        return ScalarCharSearch.indexOfOutside( text, i, to, ranges );
+    }
+
+    static int[] indexesOf(char[] text, int from, int to, char c)
+    {
+        // no early exit, so compare whole vectors and walk the bits of each match
+        int[] result = new int[ 16 ];
+        int count = 0;
+        final ShortVector c0 = ShortVector.broadcast( SPECIES, (short) c );
+        final int upperBound = to - SPECIES.length();
+        int i = from;
+        for ( ; i <= upperBound ; i += SPECIES.length() )
+        {
+            final VectorMask<Short> found = ShortVector.fromCharArray( SPECIES, text, i ).eq( c0 );
+            if ( found.anyTrue() )
+            {
+                for ( long bits = found.toLong() ; bits != 0 ; bits &= bits - 1 )
+                {
+                    if ( count == result.length ) {
+                        result = Arrays.copyOf( result, count * 2 );
+                    }
+                    result[ count++ ] = i + Long.numberOfTrailingZeros( bits );
+                }
+            }
+        }
+        for ( ; i < to ; i++ )
+        {
+            if ( text[i] == c )
+            {
+                if ( count == result.length ) {
+                    result = Arrays.copyOf( result, count * 2 );
+                }
+                result[ count++ ] = i;
+            }
+        }
+        return Arrays.copyOf( result, count );
+    }
+
+    private static ShortVector first(char[] ranges, int range)
+    {
+        return ShortVector.broadcast( SPECIES, (short) ranges[ 2 * Math.min( range, ranges.length / 2 - 1 ) ] );
+    }
+
+    private static ShortVector width(char[] ranges, int range)
+    {
+        final int index = 2 * Math.min( range, ranges.length / 2 - 1 );
+        return ShortVector.broadcast( SPECIES, (short) ( ranges[ index + 1 ] - ranges[ index ] ) );
+    }
+
+    private static VectorMask<Short> within(ShortVector chunk, ShortVector first, ShortVector width)
+    {
+        return chunk.sub( first ).compare( VectorOperators.UNSIGNED_LE, width );
+    }
+}
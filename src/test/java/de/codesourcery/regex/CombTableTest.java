@@ -0,0 +1,119 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class CombTableTest
+{
+    private static final int COLUMNS = 6;
+
+    // mostly rows without transitions, with the highest state ID in the last row
+    private static int[] sparseTable(int stateCount, long seed)
+    {
+        final Random random = new Random( seed );
+        final int[] rows = new int[ stateCount * COLUMNS ];
+        for ( int i = 0 ; i < rows.length ; i++ )
+        {
+            final int r = random.nextInt( 10 );
+            rows[i] = r < 6 ? LexerTables.NO_TRANSITION : r == 6 ? LexerTables.PAST_TOKEN : random.nextInt( stateCount );
+        }
+        rows[ rows.length - 1 ] = stateCount - 1;
+        return rows;
+    }
+
+    private static void assertSameAsDense(int[] rows, int stateCount, CombTable comb)
+    {
+        assertEquals( stateCount, comb.getStateCount() );
+        assertEquals( COLUMNS, comb.getColumnCount() );
+        for ( int state = 0 ; state < stateCount ; state++ )
+        {
+            for ( int column = 0 ; column < COLUMNS ; column++ ) {
+                assertEquals( "state "+state+", column "+column, rows[ state * COLUMNS + column ], comb.get( state, column ) );
+            }
+        }
+    }
+
+    private static void assertWidth(int stateCount, int expectedWidth)
+    {
+        final int[] rows = sparseTable( stateCount, stateCount );
+        final CombTable comb = CombTable.build( rows, stateCount, COLUMNS );
+        assertEquals( expectedWidth, CombTable.width( stateCount ) );
+        assertEquals( expectedWidth, comb.getWidth() );
+        assertSameAsDense( rows, stateCount, comb );
+    }
+
+    @Test
+    public void testByteWidthUpTo128States()
+    {
+        assertWidth( 128, 1 );
+    }
+
+    @Test
+    public void testShortWidthFrom129States()
+    {
+        assertWidth( 129, 2 );
+    }
+
+    @Test
+    public void testShortWidthUpTo32768States()
+    {
+        assertWidth( 32768, 2 );
+    }
+
+    @Test
+    public void testIntWidthFrom32769States()
+    {
+        assertWidth( 32769, 4 );
+    }
+
+    @Test
+    public void testHotRowsMatchDenseTable()
+    {
+        final int stateCount = 129;
+        final int[] rows = sparseTable( stateCount, 42 );
+        final CombTable comb = CombTable.build( rows, stateCount, COLUMNS, 10 );
+        assertSameAsDense( rows, stateCount, comb );
+        assertTrue( comb.getSlotCount() >= 10 * COLUMNS );
+    }
+
+    @Test
+    public void testCompressedLexerTablesMatchDenseTables() throws Exception
+    {
+        final LexerBuilder.Configuration config = new LexerBuilder.Configuration( false );
+        config.addRule( "IDENTIFIER", "[a-z_]+[0-9a-z]*", "IDENTIFIER" );
+        config.addRule( "NUMBER", "[0-9]+(\\.[0-9]+)?", "NUMBER" );
+        config.addRule( "STRING", "\"[^\"\\n]*\"", "STRING" );
+        final LexerTables dense = new LexerBuilder().buildTables( config );
+        final LexerTables compressed = dense.compress();
+        assertTrue( compressed.isCompressed() );
+        for ( int state = 0 ; state < dense.getStateCount() ; state++ )
+        {
+            for ( int column = 0 ; column < dense.getAlphabetSize() ; column++ )
+            {
+                // compressed tables use state IDs as row offsets
+                final int next = dense.nextState( state * dense.getAlphabetSize(), column );
+                final int expected = next < 0 ? next : dense.stateIndex( next );
+                assertEquals( expected, compressed.nextState( state, column ) );
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class FailureMemoTest
+{
+    @Test
+    public void testLookaheadTimesStatesBeyondIntRange()
+    {
+        final int stateCount = 1 << 20;
+        final int length = 4096;
+        final FailureMemo memo = new FailureMemo( stateCount );
+        memo.startToken( 0 );
+        for ( int i = 0 ; i <= length ; i++ ) {
+            memo.visited( i, stateCount - 1 - i );
+        }
+        memo.markFailed( 0, 0, length );
+
+        assertTrue( memo.hasFailed( stateCount - 1 - length, length ) );
+        assertTrue( memo.hasFailed( stateCount - 2, 1 ) );
+        assertFalse( memo.hasFailed( stateCount - 1, 0 ) );
+        assertFalse( memo.hasFailed( stateCount - length, length ) );
+    }
+
+    @Test
+    public void testForgetsFailuresOfPreviousTokens()
+    {
+        final FailureMemo memo = new FailureMemo( 4 );
+        memo.startToken( 0 );
+        memo.visited( 0, 0 );
+        memo.visited( 1, 1 );
+        memo.visited( 2, 2 );
+        memo.markFailed( 0, 0, 2 );
+        assertTrue( memo.hasFailed( 2, 2 ) );
+
+        memo.startToken( 3 );
+        assertFalse( memo.hasFailed( 2, 2 ) );
+    }
+
+    @Test
+    public void testKeepsManyStatesPerPosition()
+    {
+        final FailureMemo memo = new FailureMemo( 16 );
+        for ( int token = 0 ; token < 10 ; token++ )
+        {
+            memo.startToken( token );
+            for ( int i = 0 ; i + token <= 10 ; i++ ) {
+                memo.visited( i, token );
+            }
+            memo.markFailed( token, 0, 10 - token );
+        }
+        for ( int state = 0 ; state < 10 ; state++ )
+        {
+            assertTrue( memo.hasFailed( state, 10 ) );
+            assertFalse( memo.hasFailed( state, state ) );
+        }
+        assertFalse( memo.hasFailed( 10, 10 ) );
+    }
+
+    @Test
+    public void testKeepsFailuresWhileTheWindowGrows()
+    {
+        final FailureMemo memo = new FailureMemo( 2 );
+        final int length = 10_000;
+        memo.startToken( 0 );
+        for ( int i = 0 ; i <= length ; i++ ) {
+            memo.visited( i, 1 );
+        }
+        memo.markFailed( 0, 0, length );
+        for ( int start = 1 ; start < length ; start += 97 )
+        {
+            memo.startToken( start );
+            assertTrue( memo.hasFailed( 1, length ) );
+            assertTrue( memo.hasFailed( 1, start + 1 ) );
+            assertFalse( memo.hasFailed( 0, start + 1 ) );
+        }
+    }
+}
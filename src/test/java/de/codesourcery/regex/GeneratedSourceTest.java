@@ -0,0 +1,143 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class GeneratedSourceTest
+{
+    private static final String[] TYPES = { "TRUE", "FALSE", "NULL" };
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    // enough rules for tables beyond the size written as array literals
+    private static LexerBuilder.Configuration config(int ruleCount)
+    {
+        final LexerBuilder.Configuration config = new LexerBuilder.Configuration( false );
+        for ( int i = 0 ; i < ruleCount ; i++ ) {
+            config.addRule( "R"+i, word( i )+"[x-z]*", TYPES[ i % TYPES.length ] );
+        }
+        config.addRule( "IDENTIFIER", "[a-z_]+[0-9a-z]*", "IDENTIFIER" );
+        config.addRule( "NUMBER", "[0-9]+", "NUMBER" );
+        return config;
+    }
+
+    private static String word(int i)
+    {
+        return "w"+Integer.toString( i * 7919, 36 );
+    }
+
+    private static List<String> inputs(int ruleCount)
+    {
+        final List<String> result = new ArrayList<>();
+        for ( int i = 0 ; i < ruleCount ; i++ )
+        {
+            result.add( word( i ) );
+            result.add( word( i )+"xyz" );
+            result.add( word( i )+"a" );
+            result.add( word( i ).substring( 0, word( i ).length() - 1 ) );
+        }
+        result.add( "12345" );
+        result.add( "w" );
+        result.add( "_x1" );
+        return result;
+    }
+
+    // compiles the generated tables and functions into a class of this package, with accessors for the test
+    private Object compile(String className, String generated) throws Exception
+    {
+        final String source = "package de.codesourcery.regex;\n\n" +
+                "public class "+className+"\n{\n" +
+                generated + "\n" +
+                "    public int initialState() { return initialStateOffsets[0]; }\n" +
+                "    public int next(int state, char c) { return nextState( state, mapChar( c ) ); }\n" +
+                "    public String typeOf(int state, String text) {\n" +
+                "        final TokenType type = tokenType( state, text );\n" +
+                "        return type == null ? null : type.name();\n" +
+                "    }\n" +
+                "}\n";
+        final File dir = new File( folder.getRoot(), "de/codesourcery/regex" );
+        dir.mkdirs();
+        final File file = new File( dir, className+".java" );
+        Files.write( file.toPath(), source.getBytes( StandardCharsets.UTF_8 ) );
+
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        final String classpath = new File( LexerBuilder.class.getProtectionDomain().getCodeSource().getLocation().toURI() ).getPath();
+        assertEquals( 0, compiler.run( null, null, null, "-cp", classpath, "-d", folder.getRoot().getPath(), file.getPath() ) );
+
+        // same class loader as the engine, generated code uses package-private methods
+        final byte[] bytes = Files.readAllBytes( new File( dir, className+".class" ).toPath() );
+        return MethodHandles.lookup().defineClass( bytes ).getConstructor().newInstance();
+    }
+
+    private void assertSameTokenTypes(String className, LexerBuilder.Configuration config, List<String> inputs) throws Exception
+    {
+        final String generated = new LexerBuilder().build( config );
+        assertTrue( "Expected packed tables", generated.contains( "unpackInts(" ) || generated.contains( "unpackChars(" ) );
+
+        final Object lexer = compile( className, generated );
+        final Method initialState = lexer.getClass().getMethod( "initialState" );
+        final Method next = lexer.getClass().getMethod( "next", int.class, char.class );
+        final Method typeOf = lexer.getClass().getMethod( "typeOf", int.class, String.class );
+
+        final LexerTables tables = new LexerBuilder().buildTables( config );
+        for ( String input : inputs )
+        {
+            int state = (Integer) initialState.invoke( lexer );
+            int expectedState = tables.getInitialStateOffset();
+            for ( int i = 0 ; i < input.length() && state >= 0 ; i++ )
+            {
+                state = (Integer) next.invoke( lexer, state, input.charAt( i ) );
+                expectedState = tables.nextState( expectedState, tables.mapChar( input.charAt( i ) ) );
+                assertEquals( input+" after "+( i + 1 )+" characters", expectedState < 0, state < 0 );
+            }
+            if ( state >= 0 ) {
+                assertEquals( input, tables.tokenType( expectedState, input ), typeOf.invoke( lexer, state, input ) );
+            }
+        }
+    }
+
+    @Test
+    public void testPackedTablesRecognizeTheSameTokens() throws Exception
+    {
+        assertSameTokenTypes( "PackedTables", config( 100 ), inputs( 100 ) );
+    }
+
+    @Test
+    public void testPackedCompressedTablesRecognizeTheSameTokens() throws Exception
+    {
+        final LexerBuilder.Configuration config = config( 300 );
+        config.compressTables = true;
+        assertSameTokenTypes( "PackedCompressedTables", config, inputs( 300 ) );
+    }
+}
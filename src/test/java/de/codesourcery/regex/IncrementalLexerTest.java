@@ -0,0 +1,138 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class IncrementalLexerTest
+{
+    private static LexerTables tables(String... rules) throws IOException
+    {
+        final LexerBuilder.Configuration config = new LexerBuilder.Configuration( false );
+        for ( String rule : rules )
+        {
+            final int idx = rule.indexOf( '=' );
+            config.addRule( rule.substring( 0, idx ), rule.substring( idx + 1 ), rule.substring( 0, idx ) );
+        }
+        return new LexerBuilder().buildTables( config );
+    }
+
+    private static List<String> describe(Token[] tokens)
+    {
+        final List<String> result = new ArrayList<>();
+        for ( Token t : tokens ) {
+            result.add( t.typeName+":"+t.text+"@"+t.offset );
+        }
+        return result;
+    }
+
+    private static void assertSameAsFullLex(IncrementalLexer lexer, IncrementalLexer.Snapshot snapshot)
+    {
+        final String text = snapshot.getText();
+        assertEquals( text, describe( lexer.lex( text ).getTokens() ), describe( snapshot.getTokens() ) );
+    }
+
+    @Test
+    public void testRestartsAtEarliestTokenThatLookedPastTheEdit() throws IOException
+    {
+        final IncrementalLexer lexer = new IncrementalLexer( tables( "X=ab*c", "A=a", "Y=b" ) );
+        final IncrementalLexer.Snapshot s = lexer.lex( "abbbd" );
+        final IncrementalLexer.Snapshot edited = lexer.relex( s, 4, 1, "c" );
+        assertEquals( List.of( "X:abbbc@0" ), describe( edited.getTokens() ) );
+        assertSameAsFullLex( lexer, edited );
+    }
+
+    @Test
+    public void testRestartsAtTokensThatReliedOnFailedMatches() throws IOException
+    {
+        final IncrementalLexer lexer = new IncrementalLexer( tables( "A=a", "AB=a*b" ) );
+        final IncrementalLexer.Snapshot s = lexer.lex( "aaaxc" );
+        final IncrementalLexer.Snapshot edited = lexer.relex( s, 3, 1, "b" );
+        assertEquals( List.of( "AB:aaab@0", "TEXT:c@4" ), describe( edited.getTokens() ) );
+        assertSameAsFullLex( lexer, edited );
+    }
+
+    @Test
+    public void testKeepsReachOfTokensThatReliedOnReplacedTokens() throws IOException
+    {
+        // the 'a' tokens behind the first one stop early because the first token's failed
+        // match already scanned to the end
+        final IncrementalLexer lexer = new IncrementalLexer( tables( "A=a", "AB=a*b" ) );
+        IncrementalLexer.Snapshot s = lexer.lex( "aaaaaa" );
+        s = lexer.relex( s, 0, 1, "c" );
+        s = lexer.relex( s, 5, 1, "b" );
+        assertEquals( List.of( "TEXT:c@0", "AB:aaaab@1" ), describe( s.getTokens() ) );
+    }
+
+    @Test
+    public void testTakesOverTokensBehindTheEdit() throws IOException
+    {
+        final IncrementalLexer lexer = new IncrementalLexer( tables( "ID=[a-z]+", "NUM=[0-9]+" ) );
+        final IncrementalLexer.Snapshot s = lexer.lex( "abc 123 def 456 ghi" );
+        final IncrementalLexer.Snapshot edited = lexer.relex( s, 4, 3, "12345" );
+        // the blank before the number looked at its first digit
+        assertEquals( 1, edited.getFirstRelexed() );
+        assertEquals( 2, edited.getRelexedCount() );
+        assertEquals( "ghi", edited.getToken( 8 ).text );
+        assertEquals( 18, edited.getToken( 8 ).offset );
+        assertSameAsFullLex( lexer, edited );
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void testEditedSnapshotIsInvalid() throws IOException
+    {
+        final IncrementalLexer lexer = new IncrementalLexer( tables( "ID=[a-z]+" ) );
+        final IncrementalLexer.Snapshot s = lexer.lex( "abc def" );
+        lexer.relex( s, 0, 1, "x" );
+        s.getTokenCount();
+    }
+
+    @Test
+    public void testRandomEditsMatchFullLex() throws IOException
+    {
+        final IncrementalLexer lexer = new IncrementalLexer( tables( "A=a", "AB=a*b", "X=ab*c", "Y=b", "ID=[c-e]+", "NUM=[0-9]+" ) );
+        final String alphabet = "aabbcde0 1";
+        final Random rnd = new Random( 42 );
+        for ( int run = 0 ; run < 50 ; run++ )
+        {
+            IncrementalLexer.Snapshot s = lexer.lex( randomText( rnd, alphabet, rnd.nextInt( 40 ) ) );
+            for ( int edit = 0 ; edit < 40 ; edit++ )
+            {
+                final int length = s.getText().length();
+                final int offset = rnd.nextInt( length + 1 );
+                final int removed = rnd.nextInt( Math.min( 4, length - offset ) + 1 );
+                s = lexer.relex( s, offset, removed, randomText( rnd, alphabet, rnd.nextInt( 4 ) ) );
+                assertSameAsFullLex( lexer, s );
+            }
+        }
+    }
+
+    private static String randomText(Random rnd, String alphabet, int length)
+    {
+        final StringBuilder result = new StringBuilder();
+        for ( int i = 0 ; i < length ; i++ ) {
+            result.append( alphabet.charAt( rnd.nextInt( alphabet.length() ) ) );
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class KeywordTableTest
+{
+    private static Map<String,String> keywords(String... keywords)
+    {
+        final Map<String,String> result = new LinkedHashMap<>();
+        for ( String keyword : keywords ) {
+            result.put( keyword, keyword.toUpperCase() );
+        }
+        return result;
+    }
+
+    @Test
+    public void testFindsEveryKeywordInItsOwnSlot()
+    {
+        final Map<String,String> map = new LinkedHashMap<>();
+        for ( int i = 0 ; i < 500 ; i++ ) {
+            map.put( "kw"+Integer.toString( i * 7919, 36 ), "TYPE"+( i % 7 ) );
+        }
+        final KeywordTable table = KeywordTable.build( map );
+        assertEquals( map.size(), table.size() );
+
+        final Set<Integer> slots = new HashSet<>();
+        for ( Map.Entry<String,String> entry : map.entrySet() )
+        {
+            assertEquals( entry.getKey(), entry.getValue(), table.lookup( entry.getKey() ) );
+            slots.add( table.indexOf( entry.getKey() ) );
+        }
+        assertEquals( map.size(), slots.size() );
+        assertEquals( map, new LinkedHashMap<>( table.toMap() ) );
+    }
+
+    @Test
+    public void testMisses()
+    {
+        final KeywordTable table = KeywordTable.build( keywords( "if", "else", "while", "return" ) );
+        assertNull( table.lookup( "" ) );
+        assertNull( table.lookup( "i" ) );
+        assertNull( table.lookup( "iff" ) );
+        assertNull( table.lookup( "If" ) );
+        // same length as a keyword, possibly the same slot
+        assertNull( table.lookup( "elsf" ) );
+        assertNull( table.lookup( "whale" ) );
+        assertNull( table.lookup( "returns" ) );
+        assertEquals( -1, table.indexOf( "retur" ) );
+    }
+
+    @Test
+    public void testLooksUpCharSequences()
+    {
+        final KeywordTable table = KeywordTable.build( keywords( "true", "false", "null" ) );
+        assertEquals( "NULL", table.lookup( new StringBuilder( "null" ) ) );
+        assertNull( table.lookup( new StringBuilder( "nul" ) ) );
+    }
+
+    @Test
+    public void testRecreatesTableFromItsArrays()
+    {
+        final KeywordTable table = KeywordTable.build( keywords( "if", "else", "while", "return", "do" ) );
+        final KeywordTable copy = KeywordTable.of( table.seeds(), table.keywords(), table.tokenTypes() );
+        for ( String keyword : table.toMap().keySet() )
+        {
+            assertEquals( table.indexOf( keyword ), copy.indexOf( keyword ) );
+            assertEquals( table.lookup( keyword ), copy.lookup( keyword ) );
+        }
+        assertNull( copy.lookup( "for" ) );
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testRejectsSeedsThatDoNotMatchTheSlots()
+    {
+        final KeywordTable table = KeywordTable.build( keywords( "if", "else", "while", "return", "do" ) );
+        final String[] swapped = table.keywords().clone();
+        final String first = swapped[0];
+        swapped[0] = swapped[1];
+        swapped[1] = first;
+        KeywordTable.of( table.seeds(), swapped, table.tokenTypes() );
+    }
+
+    @Test
+    public void testLexerLooksUpKeywordsAfterRecognizingTokens() throws IOException
+    {
+        final LexerBuilder.Configuration config = new LexerBuilder.Configuration( false );
+        config.addRule( "TRUE", "true", "TRUE" );
+        config.addRule( "NULL", "null", "NULL" );
+        config.addRule( "IDENTIFIER", "[a-z]+", "IDENTIFIER" );
+        config.addRule( "WS", "[ ]+", "WS" );
+        final LexerTables tables = new LexerBuilder().buildTables( config );
+        assertNotNull( tables.getKeywords() );
+
+        final TableDrivenLexer lexer = new TableDrivenLexer( tables, new Scanner( "true truex nul null" ) );
+        final List<String> types = new ArrayList<>();
+        for ( Token t = lexer.next() ; ! t.hasType( TokenType.EOF ) ; t = lexer.next() )
+        {
+            if ( ! "WS".equals( t.typeName ) ) {
+                types.add( t.typeName+":"+t.text );
+            }
+        }
+        assertEquals( List.of( "TRUE:true", "IDENTIFIER:truex", "IDENTIFIER:nul", "NULL:null" ), types );
+    }
+}
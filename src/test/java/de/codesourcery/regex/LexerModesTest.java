@@ -0,0 +1,161 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class LexerModesTest
+{
+    private static final List<String> DEFAULT = List.of( LexerBuilder.DEFAULT_MODE );
+    private static final List<String> STRING = List.of( "STRING" );
+    private static final List<String> EXPR = List.of( "EXPR" );
+
+    // string interpolation, expressions inside strings may contain strings again
+    private static LexerTables interpolation() throws IOException
+    {
+        final LexerBuilder.Configuration config = new LexerBuilder.Configuration( false );
+        config.addRule( DEFAULT, "IDENT", "[a-z]+", "IDENT", null );
+        config.addRule( DEFAULT, "OPEN_STRING", "\"", "QUOTE", LexerBuilder.ModeAction.push( "STRING" ) );
+        config.addRule( DEFAULT, "STRAY_CLOSE", "\\}", "CLOSE", LexerBuilder.ModeAction.pop() );
+        config.addRule( STRING, "CLOSE_STRING", "\"", "QUOTE", LexerBuilder.ModeAction.pop() );
+        config.addRule( STRING, "CHARS", "[^\"$]+", "CHARS", null );
+        config.addRule( STRING, "OPEN_EXPR", "\\$\\{", "OPEN", LexerBuilder.ModeAction.push( "EXPR" ) );
+        config.addRule( EXPR, "EXPR_IDENT", "[a-z]+", "IDENT", null );
+        config.addRule( EXPR, "NESTED_STRING", "\"", "QUOTE", LexerBuilder.ModeAction.push( "STRING" ) );
+        config.addRule( EXPR, "CLOSE_EXPR", "\\}", "CLOSE", LexerBuilder.ModeAction.pop() );
+        return new LexerBuilder().buildTables( config );
+    }
+
+    private static TableDrivenLexer lexer(LexerTables tables, String input)
+    {
+        return new TableDrivenLexer( tables, new Scanner( input ) );
+    }
+
+    // each token followed by the mode the next token gets recognized in
+    private static List<String> lex(TableDrivenLexer lexer)
+    {
+        final List<String> result = new ArrayList<>();
+        for ( Token t = lexer.next() ; ! t.hasType( TokenType.EOF ) ; t = lexer.next() ) {
+            result.add( t.typeName+":"+t.text+" "+lexer.getMode() );
+        }
+        return result;
+    }
+
+    @Test
+    public void testPushAndPopNestedModes() throws IOException
+    {
+        final TableDrivenLexer lexer = lexer( interpolation(), "a \"x${b \"y\" c}z\" d" );
+        assertEquals( List.of(
+                "IDENT:a DEFAULT",
+                "QUOTE:\" STRING",
+                "CHARS:x STRING",
+                "OPEN:${ EXPR",
+                "IDENT:b EXPR",
+                "QUOTE:\" STRING",
+                "CHARS:y STRING",
+                "QUOTE:\" EXPR",
+                "IDENT:c EXPR",
+                "CLOSE:} STRING",
+                "CHARS:z STRING",
+                "QUOTE:\" DEFAULT",
+                "IDENT:d DEFAULT" ), lex( lexer ) );
+    }
+
+    @Test
+    public void testPopWithoutPushReturnsToDefaultMode() throws IOException
+    {
+        final TableDrivenLexer lexer = lexer( interpolation(), "}a" );
+        assertEquals( List.of( "CLOSE:} DEFAULT", "IDENT:a DEFAULT" ), lex( lexer ) );
+    }
+
+    @Test
+    public void testSetModeForgetsPushedModes() throws IOException
+    {
+        final TableDrivenLexer lexer = lexer( interpolation(), "\"${a}\"" );
+        assertEquals( "QUOTE", lexer.next().typeName );
+        assertEquals( "OPEN", lexer.next().typeName );
+        assertEquals( "EXPR", lexer.getMode() );
+
+        lexer.setMode( "EXPR" );
+        assertEquals( "IDENT", lexer.next().typeName );
+        assertEquals( "CLOSE", lexer.next().typeName );
+        // nothing pushed any more, the closing quote is recognized in the default mode
+        assertEquals( "DEFAULT", lexer.getMode() );
+        assertEquals( "QUOTE", lexer.next().typeName );
+        assertEquals( "STRING", lexer.getMode() );
+    }
+
+    @Test
+    public void testModeStack()
+    {
+        final ModeStack stack = new ModeStack();
+        assertEquals( 0, stack.current() );
+        stack.apply( ModeStack.encode( ModeStack.PUSH, 1 ) );
+        stack.apply( ModeStack.encode( ModeStack.PUSH, 2 ) );
+        assertEquals( 2, stack.current() );
+        stack.apply( ModeStack.encode( ModeStack.SWITCH, 3 ) );
+        assertEquals( 3, stack.current() );
+        stack.apply( ModeStack.NONE );
+        assertEquals( 3, stack.current() );
+        stack.apply( ModeStack.encode( ModeStack.POP, 0 ) );
+        assertEquals( 1, stack.current() );
+        stack.apply( ModeStack.encode( ModeStack.POP, 0 ) );
+        assertEquals( 0, stack.current() );
+        stack.apply( ModeStack.encode( ModeStack.POP, 0 ) );
+        assertEquals( 0, stack.current() );
+
+        // deeper than the initial capacity
+        for ( int i = 1 ; i <= 10 ; i++ ) {
+            stack.apply( ModeStack.encode( ModeStack.PUSH, i ) );
+        }
+        for ( int i = 9 ; i >= 0 ; i-- )
+        {
+            stack.apply( ModeStack.encode( ModeStack.POP, 0 ) );
+            assertEquals( i, stack.current() );
+        }
+    }
+
+    @Test
+    public void testParsesModesFromConfigurationFile() throws IOException
+    {
+        final String rules = "WORD=[a-z]+\n" +
+                "COMMENT_START push(COMMENT)=/\\*\n" +
+                "<COMMENT>COMMENT_END pop=\\*/\n" +
+                "<COMMENT>COMMENT_TEXT=[a-z]+\n" +
+                "<DEFAULT,COMMENT>NUMBER=[0-9]+\n";
+        final LexerBuilder builder = new LexerBuilder();
+        final LexerBuilder.Configuration config = builder.parseConfiguration( new ByteArrayInputStream( rules.getBytes( StandardCharsets.UTF_8 ) ), false );
+        assertEquals( List.of( "DEFAULT", "COMMENT" ), config.getModes() );
+
+        final TableDrivenLexer lexer = lexer( builder.buildTables( config ), "a1/*b2*/d" );
+        assertEquals( List.of(
+                "WORD:a DEFAULT",
+                "NUMBER:1 DEFAULT",
+                "COMMENT_START:/* COMMENT",
+                "COMMENT_TEXT:b COMMENT",
+                "NUMBER:2 COMMENT",
+                "COMMENT_END:*/ DEFAULT",
+                "WORD:d DEFAULT" ), lex( lexer ) );
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LineIndexTest
+{
+    private static void assertPosition(LineIndex index, int offset, int line, int column)
+    {
+        assertEquals( "line of offset "+offset, line, index.line( offset ) );
+        assertEquals( "column of offset "+offset, column, index.column( offset ) );
+    }
+
+    @Test
+    public void testEmptyText()
+    {
+        final LineIndex index = new LineIndex( "" );
+        assertEquals( 1, index.getLineCount() );
+        assertPosition( index, 0, 1, 1 );
+    }
+
+    @Test
+    public void testLinesAndColumns()
+    {
+        final LineIndex index = new LineIndex( "ab\ncd\n\nx" );
+        assertEquals( 4, index.getLineCount() );
+        assertPosition( index, 0, 1, 1 );
+        assertPosition( index, 2, 1, 3 ); // the newline belongs to the line it ends
+        assertPosition( index, 3, 2, 1 );
+        assertPosition( index, 5, 2, 3 );
+        assertPosition( index, 6, 3, 1 );
+        assertPosition( index, 7, 4, 1 );
+        assertEquals( 6, index.lineStart( 3 ) );
+    }
+
+    @Test
+    public void testCarriageReturnLineFeed()
+    {
+        final LineIndex index = new LineIndex( "a\r\nb\r\n" );
+        assertEquals( 3, index.getLineCount() );
+        assertPosition( index, 1, 1, 2 );
+        assertPosition( index, 2, 1, 3 );
+        assertPosition( index, 3, 2, 1 );
+        assertPosition( index, 4, 2, 2 );
+        assertEquals( 6, index.lineStart( 3 ) );
+    }
+
+    @Test
+    public void testEndOfText()
+    {
+        // the offset of the EOF token is valid, one past the last character
+        final LineIndex withNewline = new LineIndex( "ab\n" );
+        assertPosition( withNewline, 3, 2, 1 );
+        final LineIndex withoutNewline = new LineIndex( "ab\ncd" );
+        assertPosition( withoutNewline, 5, 2, 3 );
+        assertPosition( withoutNewline, 4, 2, 2 );
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testRejectsOffsetPastEndOfText()
+    {
+        new LineIndex( "ab\n" ).line( 4 );
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testRejectsNegativeOffset()
+    {
+        new LineIndex( "ab\n" ).column( -1 );
+    }
+
+    @Test
+    public void testIgnoresCharactersPastLength()
+    {
+        final LineIndex index = new LineIndex( "ab\ncd\nef".toCharArray(), 4 );
+        assertEquals( 2, index.getLineCount() );
+        assertPosition( index, 4, 2, 2 );
+    }
+
+    @Test
+    public void testMatchesLineCounting()
+    {
+        final Random random = new Random( 0xdeadbeef );
+        final StringBuilder text = new StringBuilder();
+        for ( int i = 0 ; i < 10000 ; i++ )
+        {
+            final int r = random.nextInt( 20 );
+            text.append( r == 0 ? '\n' : r == 1 ? '\r' : (char) ( 'a' + r ) );
+        }
+        final LineIndex index = new LineIndex( text );
+        int line = 1;
+        int column = 1;
+        for ( int offset = 0 ; offset <= text.length() ; offset++ )
+        {
+            assertPosition( index, offset, line, column );
+            if ( offset < text.length() && text.charAt( offset ) == '\n' )
+            {
+                line++;
+                column = 1;
+            }
+            else
+            {
+                column++;
+            }
+        }
+        assertEquals( line, index.getLineCount() );
+    }
+
+    @Test
+    public void testResolvesTokens() throws Exception
+    {
+        final LexerBuilder.Configuration config = new LexerBuilder.Configuration( false );
+        config.addRule( "WORD", "[a-z]+", "WORD" );
+        config.addRule( "WS", "[ \\r\\n]+", "WS" );
+        final String text = "one two\r\nthree\n four";
+        final TableDrivenLexer lexer = new TableDrivenLexer( new LexerBuilder().buildTables( config ), new Scanner( text ) );
+        final LineIndex index = new LineIndex( text );
+        final StringBuilder positions = new StringBuilder();
+        for ( Token t = lexer.next() ; ! t.hasType( TokenType.EOF ) ; t = lexer.next() )
+        {
+            if ( t.typeName.equals( "WORD" ) ) {
+                positions.append( t.text ).append( '@' ).append( index.line( t ) ).append( ':' ).append( index.column( t ) ).append( ' ' );
+            }
+        }
+        assertEquals( "one@1:1 two@1:5 three@2:1 four@3:2 ", positions.toString() );
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class RegexParserTest
+{
+    private static StateMachine nfa(String regex)
+    {
+        final StateMachine result = new StateMachine();
+        result.setup( regex, false );
+        return result;
+    }
+
+    @Test
+    public void testNegatedClass()
+    {
+        final StateMachine sm = nfa( "x[^x]*x" );
+        assertTrue( sm.matches( "xzzx" ) );
+        assertTrue( sm.matches( "x^x" ) );
+        assertFalse( sm.matches( "xxx" ) );
+    }
+
+    @Test
+    public void testCaretIsLiteralUnlessFirst()
+    {
+        final StateMachine sm = nfa( "[a^]+" );
+        assertTrue( sm.matches( "a^a" ) );
+        assertFalse( sm.matches( "b" ) );
+        assertTrue( nfa( "[\\^]" ).matches( "^" ) );
+    }
+
+    @Test
+    public void testControlCharacterEscapes()
+    {
+        final StateMachine sm = nfa( "#[^\\n]*\\n" );
+        assertTrue( sm.matches( "#abc\n" ) );
+        assertFalse( sm.matches( "#a\nb\n" ) );
+        assertTrue( nfa( "[\\t\\r\\f]+" ).matches( "\t\r\f" ) );
+        assertTrue( nfa( "\\.n" ).matches( ".n" ) );
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testNegatedClassMatchingNothing()
+    {
+        nfa( "[^\\p{L}\\P{L}]" );
+    }
+
+    @Test
+    public void testLexerAcceleratesNegatedClass() throws IOException
+    {
+        final LexerBuilder.Configuration config = new LexerBuilder.Configuration( false );
+        config.addRule( "STRING", "\"[^\"\\n]*\"", "STRING" );
+        config.addRule( "COMMENT", "#[^\\n]*", "COMMENT" );
+        config.addRule( "NEWLINE", "\\n", "NEWLINE" );
+        final LexerTables tables = new LexerBuilder().buildTables( config );
+        assertTrue( tables.getAcceleratedStateCount() > 0 );
+
+        final TableDrivenLexer lexer = new TableDrivenLexer( tables, new Scanner( "\"a#b\"#x\"y\n\"z\"" ) );
+        assertEquals( "\"a#b\"", lexer.next().text );
+        assertEquals( "#x\"y", lexer.next().text );
+        assertEquals( "NEWLINE", lexer.next().typeName );
+        assertEquals( "\"z\"", lexer.next().text );
+        assertTrue( lexer.eof() );
+    }
+
+    @Test
+    public void testLongRepetitionConvertsToDFA()
+    {
+        // one NFA state per count, too deep for recursive graph traversal
+        final StateMachine sm = nfa( "a{99999}" );
+        sm.toDFA( state -> {}, rules -> rules.iterator().next() );
+        assertTrue( sm.initialState.isDFA() );
+        assertTrue( StateMachine.matchesDFA( sm.initialState, "a".repeat( 99999 ) ) );
+        assertFalse( StateMachine.matchesDFA( sm.initialState, "a".repeat( 99998 ) ) );
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.regex;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class StateProfileTest
+{
+    private static final String SAMPLE = "while x1 whilst 42 wh 7 while";
+
+    private static LexerBuilder.Configuration config()
+    {
+        final LexerBuilder.Configuration config = new LexerBuilder.Configuration( false );
+        config.addRule( "WHILE", "while[0-9]*", "WHILE" );
+        config.addRule( "WHILST", "whilst", "WHILST" );
+        config.addRule( "IDENTIFIER", "[a-z]+[0-9]*", "IDENTIFIER" );
+        config.addRule( "NUMBER", "[0-9]+", "NUMBER" );
+        config.extractKeywords = false;
+        return config;
+    }
+
+    private static List<String> lex(LexerTables tables, String input)
+    {
+        final TableDrivenLexer lexer = new TableDrivenLexer( tables, new Scanner( input ) );
+        final List<String> result = new ArrayList<>();
+        for ( Token t = lexer.next() ; ! t.hasType( TokenType.EOF ) ; t = lexer.next() ) {
+            result.add( t.typeName+":"+t.text+"@"+t.offset );
+        }
+        return result;
+    }
+
+    @Test
+    public void testNumbersVisitedStatesFirst() throws IOException
+    {
+        final LexerTables tables = new LexerBuilder().buildTables( config() );
+        final StateProfile profile = StateProfile.run( tables, "while while" );
+        final int[] newIds = profile.order();
+        final int visited = profile.visitedStateCount();
+        assertTrue( visited > 0 && visited < tables.getStateCount() );
+
+        // initial state and the states along "while"
+        int state = tables.getInitialStateOffset();
+        assertTrue( newIds[ tables.stateIndex( state ) ] < visited );
+        for ( char c : "while".toCharArray() )
+        {
+            state = tables.nextState( state, tables.mapChar( c ) );
+            assertTrue( newIds[ tables.stateIndex( state ) ] < visited );
+        }
+    }
+
+    @Test
+    public void testRenumberedTablesRecognizeTheSameTokens() throws IOException
+    {
+        final String input = SAMPLE+" whi1e whilst2 while99 x";
+        final List<String> expected = lex( new LexerBuilder().buildTables( config() ), input );
+
+        final LexerBuilder.Configuration profiled = config();
+        profiled.profileSample = SAMPLE;
+        assertEquals( expected, lex( new LexerBuilder().buildTables( profiled ), input ) );
+
+        profiled.compressTables = true;
+        final LexerTables compressed = new LexerBuilder().buildTables( profiled );
+        assertTrue( compressed.isCompressed() );
+        assertEquals( expected, lex( compressed, input ) );
+    }
+
+    @Test
+    public void testHotRowsStayWithinBudget() throws IOException
+    {
+        final LexerBuilder.Configuration config = config();
+        config.profileSample = SAMPLE;
+        config.compressTables = true;
+        final LexerTables dense = new LexerBuilder().buildTables( config() );
+        final int rowBytes = 2 * dense.getAlphabetSize() * CombTable.width( dense.getStateCount() );
+
+        config.hotRowBytes = 3 * rowBytes;
+        final CombTable comb = new LexerBuilder().buildTables( config ).comb();
+        // three full rows at the start, owned by states 0 to 2
+        for ( int state = 0 ; state < 3 ; state++ )
+        {
+            assertEquals( state * dense.getAlphabetSize(), comb.base( state ) );
+            for ( int column = 0 ; column < dense.getAlphabetSize() ; column++ ) {
+                assertEquals( state, comb.check( comb.base( state ) + column ) );
+            }
+        }
+        assertTrue( comb.getSlotCount() >= 3 * dense.getAlphabetSize() );
+    }
+}